@@ -350,6 +350,7 @@ class BeamModulePlugin implements Plugin<Project> {
     def apex_malhar_version = "3.4.0"
     def postgres_version = "42.2.2"
     def jaxb_api_version = "2.2.12"
+    def jmh_version = "1.21"
     def kafka_version = "1.0.0"
     def quickcheck_version = "0.8"
     def google_cloud_core_version = "1.36.0"
@@ -435,6 +436,8 @@ class BeamModulePlugin implements Plugin<Project> {
         jackson_datatype_joda                       : "com.fasterxml.jackson.datatype:jackson-datatype-joda:$jackson_version",
         jackson_module_scala                        : "com.fasterxml.jackson.module:jackson-module-scala_2.11:$jackson_version",
         jaxb_api                                    : "javax.xml.bind:jaxb-api:$jaxb_api_version",
+        jmh_core                                    : "org.openjdk.jmh:jmh-core:$jmh_version",
+        jmh_generator_annprocess                    : "org.openjdk.jmh:jmh-generator-annprocess:$jmh_version",
         joda_time                                   : "joda-time:joda-time:2.4",
         junit                                       : "junit:junit:4.12",
         kafka_2_11                                  : "org.apache.kafka:kafka_2.11:$kafka_version",
@@ -462,6 +465,7 @@ class BeamModulePlugin implements Plugin<Project> {
         stax2_api                                   : "org.codehaus.woodstox:stax2-api:3.1.4",
         woodstox_core_asl                           : "org.codehaus.woodstox:woodstox-core-asl:4.4.1",
         quickcheck_core                             : "com.pholser:junit-quickcheck-core:$quickcheck_version",
+        zstd_jni                                    : "com.github.luben:zstd-jni:1.3.3-1",
       ],
       groovy: [
         groovy_all: "org.codehaus.groovy:groovy-all:2.4.13",
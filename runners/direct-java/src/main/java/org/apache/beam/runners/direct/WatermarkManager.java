@@ -35,7 +35,6 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -232,8 +231,8 @@ public class WatermarkManager<ExecutableT, CollectionT> {
     // a per-key-and-StateNamespace timer is set.
     private final Map<StructuralKey<?>, Table<StateNamespace, String, TimerData>> existingTimers;
 
-    // This per-key sorted set allows quick retrieval of timers that should fire for a key
-    private final Map<StructuralKey<?>, NavigableSet<TimerData>> objectTimers;
+    // This allows quick retrieval of timers that should fire for a key
+    private final PerKeyTimers objectTimers;
 
     private AtomicReference<Instant> currentWatermark;
 
@@ -251,7 +250,7 @@ public class WatermarkManager<ExecutableT, CollectionT> {
           new BundleByElementTimestampComparator().compound(Ordering.arbitrary());
       this.pendingElements = TreeMultiset.create(pendingBundleComparator);
       this.pendingTimers = TreeMultiset.create();
-      this.objectTimers = new HashMap<>();
+      this.objectTimers = new PerKeyTimers();
       this.existingTimers = new HashMap<>();
       currentWatermark = new AtomicReference<>(BoundedWindow.TIMESTAMP_MIN_VALUE);
     }
@@ -317,8 +316,6 @@ public class WatermarkManager<ExecutableT, CollectionT> {
 
     @VisibleForTesting
     synchronized void updateTimers(TimerUpdate update) {
-      NavigableSet<TimerData> keyTimers =
-          objectTimers.computeIfAbsent(update.key, k -> new TreeSet<>());
       Table<StateNamespace, String, TimerData> existingTimersForKey =
           existingTimers.computeIfAbsent(update.key, k -> HashBasedTable.create());
 
@@ -330,12 +327,12 @@ public class WatermarkManager<ExecutableT, CollectionT> {
 
           if (existingTimer == null) {
             pendingTimers.add(timer);
-            keyTimers.add(timer);
+            objectTimers.add(update.key, timer);
           } else if (!existingTimer.equals(timer)) {
             pendingTimers.remove(existingTimer);
-            keyTimers.remove(existingTimer);
+            objectTimers.remove(update.key, existingTimer);
             pendingTimers.add(timer);
-            keyTimers.add(timer);
+            objectTimers.add(update.key, timer);
           } // else the timer is already set identically, so noop
 
           existingTimersForKey.put(timer.getNamespace(), timer.getTimerId(), timer);
@@ -350,7 +347,7 @@ public class WatermarkManager<ExecutableT, CollectionT> {
 
           if (existingTimer != null) {
             pendingTimers.remove(existingTimer);
-            keyTimers.remove(existingTimer);
+            objectTimers.remove(update.key, existingTimer);
             existingTimersForKey.remove(existingTimer.getNamespace(), existingTimer.getTimerId());
           }
         }
@@ -358,7 +355,7 @@ public class WatermarkManager<ExecutableT, CollectionT> {
 
       for (TimerData timer : update.getCompletedTimers()) {
         if (TimeDomain.EVENT_TIME.equals(timer.getDomain())) {
-          keyTimers.remove(timer);
+          objectTimers.remove(update.key, timer);
           pendingTimers.remove(timer);
         }
       }
@@ -366,7 +363,7 @@ public class WatermarkManager<ExecutableT, CollectionT> {
 
     @VisibleForTesting
     synchronized Map<StructuralKey<?>, List<TimerData>> extractFiredEventTimeTimers() {
-      return extractFiredTimers(currentWatermark.get(), objectTimers);
+      return objectTimers.extractFiredTimers(currentWatermark.get());
     }
 
     @Override
@@ -476,9 +473,9 @@ public class WatermarkManager<ExecutableT, CollectionT> {
     private final String name;
 
     private final Collection<? extends Watermark> inputWms;
-    private final Collection<Bundle<?, ?>> pendingBundles;
-    private final Map<StructuralKey<?>, NavigableSet<TimerData>> processingTimers;
-    private final Map<StructuralKey<?>, NavigableSet<TimerData>> synchronizedProcessingTimers;
+    private final SortedMultiset<Bundle<?, ?>> pendingBundles;
+    private final PerKeyTimers processingTimers;
+    private final PerKeyTimers synchronizedProcessingTimers;
     private final Map<StructuralKey<?>, Table<StateNamespace, String, TimerData>> existingTimers;
 
     private final NavigableSet<TimerData> pendingTimers;
@@ -489,9 +486,15 @@ public class WatermarkManager<ExecutableT, CollectionT> {
         String name, Collection<? extends Watermark> inputWms) {
       this.name = name;
       this.inputWms = inputWms;
-      this.pendingBundles = new HashSet<>();
-      this.processingTimers = new HashMap<>();
-      this.synchronizedProcessingTimers = new HashMap<>();
+      // As for the input watermark, distinct bundles must not compare as equal.
+      Ordering<Bundle<?, ?>> pendingBundleComparator =
+          Ordering.<Instant>natural()
+              .onResultOf(
+                  (Bundle<?, ?> bundle) -> bundle.getSynchronizedProcessingOutputWatermark())
+              .compound(Ordering.arbitrary());
+      this.pendingBundles = TreeMultiset.create(pendingBundleComparator);
+      this.processingTimers = new PerKeyTimers();
+      this.synchronizedProcessingTimers = new PerKeyTimers();
       this.existingTimers = new HashMap<>();
       this.pendingTimers = new TreeSet<>();
       Instant initialHold = BoundedWindow.TIMESTAMP_MAX_VALUE;
@@ -532,11 +535,17 @@ public class WatermarkManager<ExecutableT, CollectionT> {
       for (Watermark input : inputWms) {
         minTime = INSTANT_ORDERING.min(minTime, input.get());
       }
-      for (Bundle<?, ?> bundle : pendingBundles) {
+      if (!pendingBundles.isEmpty()) {
         // TODO: Track elements in the bundle by the processing time they were output instead of
         // entire bundles. Requried to support arbitrarily splitting and merging bundles between
         // steps
-        minTime = INSTANT_ORDERING.min(minTime, bundle.getSynchronizedProcessingOutputWatermark());
+        minTime =
+            INSTANT_ORDERING.min(
+                minTime,
+                pendingBundles
+                    .firstEntry()
+                    .getElement()
+                    .getSynchronizedProcessingOutputWatermark());
       }
       earliestHold.set(minTime);
       return updateAndTrace(getName(), oldHold, minTime);
@@ -556,17 +565,10 @@ public class WatermarkManager<ExecutableT, CollectionT> {
      * timestamp across timers that have been delivered but have not been completed.
      */
     public synchronized Instant getEarliestTimerTimestamp() {
-      Instant earliest = THE_END_OF_TIME.get();
-      for (NavigableSet<TimerData> timers : processingTimers.values()) {
-        if (!timers.isEmpty()) {
-          earliest = INSTANT_ORDERING.min(timers.first().getTimestamp(), earliest);
-        }
-      }
-      for (NavigableSet<TimerData> timers : synchronizedProcessingTimers.values()) {
-        if (!timers.isEmpty()) {
-          earliest = INSTANT_ORDERING.min(timers.first().getTimestamp(), earliest);
-        }
-      }
+      Instant earliest =
+          INSTANT_ORDERING.min(
+              processingTimers.getEarliestTimestamp(),
+              synchronizedProcessingTimers.getEarliestTimestamp());
       if (!pendingTimers.isEmpty()) {
         earliest = INSTANT_ORDERING.min(pendingTimers.first().getTimestamp(), earliest);
       }
@@ -574,12 +576,11 @@ public class WatermarkManager<ExecutableT, CollectionT> {
     }
 
     private synchronized void updateTimers(TimerUpdate update) {
-      Map<TimeDomain, NavigableSet<TimerData>> timerMap = timerMap(update.key);
       Table<StateNamespace, String, TimerData> existingTimersForKey =
           existingTimers.computeIfAbsent(update.key, k -> HashBasedTable.create());
 
       for (TimerData addedTimer : update.setTimers) {
-        NavigableSet<TimerData> timerQueue = timerMap.get(addedTimer.getDomain());
+        @Nullable PerKeyTimers timerQueue = timerQueue(addedTimer.getDomain());
         if (timerQueue == null) {
           continue;
         }
@@ -588,17 +589,17 @@ public class WatermarkManager<ExecutableT, CollectionT> {
         TimerData existingTimer =
             existingTimersForKey.get(addedTimer.getNamespace(), addedTimer.getTimerId());
         if (existingTimer == null) {
-          timerQueue.add(addedTimer);
+          timerQueue.add(update.key, addedTimer);
         } else if (!existingTimer.equals(addedTimer)) {
-          timerQueue.remove(existingTimer);
-          timerQueue.add(addedTimer);
+          timerQueue.remove(update.key, existingTimer);
+          timerQueue.add(update.key, addedTimer);
         } // else the timer is already set identically, so noop.
 
         existingTimersForKey.put(addedTimer.getNamespace(), addedTimer.getTimerId(), addedTimer);
       }
 
       for (TimerData deletedTimer : update.deletedTimers) {
-        NavigableSet<TimerData> timerQueue = timerMap.get(deletedTimer.getDomain());
+        @Nullable PerKeyTimers timerQueue = timerQueue(deletedTimer.getDomain());
         if (timerQueue == null) {
           continue;
         }
@@ -609,7 +610,7 @@ public class WatermarkManager<ExecutableT, CollectionT> {
 
         if (existingTimer != null) {
           pendingTimers.remove(deletedTimer);
-          timerQueue.remove(deletedTimer);
+          timerQueue.remove(update.key, deletedTimer);
           existingTimersForKey.remove(existingTimer.getNamespace(), existingTimer.getTimerId());
         }
       }
@@ -624,13 +625,12 @@ public class WatermarkManager<ExecutableT, CollectionT> {
       Map<StructuralKey<?>, List<TimerData>> firedTimers;
       switch (domain) {
         case PROCESSING_TIME:
-          firedTimers = extractFiredTimers(firingTime, processingTimers);
+          firedTimers = processingTimers.extractFiredTimers(firingTime);
           break;
         case SYNCHRONIZED_PROCESSING_TIME:
           firedTimers =
-              extractFiredTimers(
-                  INSTANT_ORDERING.min(firingTime, earliestHold.get()),
-                  synchronizedProcessingTimers);
+              synchronizedProcessingTimers.extractFiredTimers(
+                  INSTANT_ORDERING.min(firingTime, earliestHold.get()));
           break;
         default:
           throw new IllegalArgumentException(
@@ -645,15 +645,16 @@ public class WatermarkManager<ExecutableT, CollectionT> {
       return firedTimers;
     }
 
-    private Map<TimeDomain, NavigableSet<TimerData>> timerMap(StructuralKey<?> key) {
-      NavigableSet<TimerData> processingQueue =
-          processingTimers.computeIfAbsent(key, k -> new TreeSet<>());
-      NavigableSet<TimerData> synchronizedProcessingQueue =
-          synchronizedProcessingTimers.computeIfAbsent(key, k -> new TreeSet<>());
-      EnumMap<TimeDomain, NavigableSet<TimerData>> result = new EnumMap<>(TimeDomain.class);
-      result.put(TimeDomain.PROCESSING_TIME, processingQueue);
-      result.put(TimeDomain.SYNCHRONIZED_PROCESSING_TIME, synchronizedProcessingQueue);
-      return result;
+    @Nullable
+    private PerKeyTimers timerQueue(TimeDomain domain) {
+      switch (domain) {
+        case PROCESSING_TIME:
+          return processingTimers;
+        case SYNCHRONIZED_PROCESSING_TIME:
+          return synchronizedProcessingTimers;
+        default:
+          return null;
+      }
     }
 
     @Override
@@ -767,33 +768,123 @@ public class WatermarkManager<ExecutableT, CollectionT> {
   private static final Ordering<Instant> INSTANT_ORDERING = Ordering.natural();
 
   /**
-   * For each (Object, NavigableSet) pair in the provided map, remove each Timer that is before the
-   * latestTime argument and put in in the result with the same key, then remove all of the keys
-   * which have no more pending timers.
-   *
-   * <p>The result collection retains ordering of timers (from earliest to latest).
+   * The timers which have not fired yet, per key. The timers of all keys are also kept ordered by
+   * timestamp, so that the earliest timer can be found, and that extracting the fired timers only
+   * visits those timers.
    */
-  private static Map<StructuralKey<?>, List<TimerData>> extractFiredTimers(
-      Instant latestTime, Map<StructuralKey<?>, NavigableSet<TimerData>> objectTimers) {
-    Map<StructuralKey<?>, List<TimerData>> result = new HashMap<>();
-    Set<StructuralKey<?>> emptyKeys = new HashSet<>();
-    for (Map.Entry<StructuralKey<?>, NavigableSet<TimerData>> pendingTimers :
-        objectTimers.entrySet()) {
-      NavigableSet<TimerData> timers = pendingTimers.getValue();
-      if (!timers.isEmpty() && timers.first().getTimestamp().isBefore(latestTime)) {
-        ArrayList<TimerData> keyFiredTimers = new ArrayList<>();
-        result.put(pendingTimers.getKey(), keyFiredTimers);
-        while (!timers.isEmpty() && timers.first().getTimestamp().isBefore(latestTime)) {
-          keyFiredTimers.add(timers.first());
-          timers.remove(timers.first());
+  private static class PerKeyTimers {
+    /** The pending timers of each key, with their entry in {@link #allTimers}. */
+    private final Map<StructuralKey<?>, Map<TimerData, KeyedTimer>> keyTimers = new HashMap<>();
+    /** The pending timers of all the keys, from earliest to latest. */
+    private final NavigableSet<KeyedTimer> allTimers = new TreeSet<>();
+
+    void add(StructuralKey<?> key, TimerData timer) {
+      Map<TimerData, KeyedTimer> timers = keyTimers.computeIfAbsent(key, k -> new HashMap<>());
+      if (!timers.containsKey(timer)) {
+        KeyedTimer keyedTimer = new KeyedTimer(key, timer);
+        timers.put(timer, keyedTimer);
+        allTimers.add(keyedTimer);
+      }
+    }
+
+    void remove(StructuralKey<?> key, TimerData timer) {
+      Map<TimerData, KeyedTimer> timers = keyTimers.get(key);
+      if (timers == null) {
+        return;
+      }
+      KeyedTimer keyedTimer = timers.remove(timer);
+      if (keyedTimer != null) {
+        allTimers.remove(keyedTimer);
+        if (timers.isEmpty()) {
+          keyTimers.remove(key);
+        }
+      }
+    }
+
+    /** Returns the earliest timestamp of all the timers, or THE_END_OF_TIME if there are none. */
+    Instant getEarliestTimestamp() {
+      return allTimers.isEmpty()
+          ? THE_END_OF_TIME.get()
+          : allTimers.first().getTimer().getTimestamp();
+    }
+
+    /**
+     * Removes each timer that is before the latestTime argument and puts it in the result with the
+     * same key. Only the fired timers are visited.
+     *
+     * <p>The result collection retains ordering of timers (from earliest to latest).
+     */
+    Map<StructuralKey<?>, List<TimerData>> extractFiredTimers(Instant latestTime) {
+      Map<StructuralKey<?>, List<TimerData>> result = new HashMap<>();
+      while (!allTimers.isEmpty()
+          && allTimers.first().getTimer().getTimestamp().isBefore(latestTime)) {
+        KeyedTimer fired = allTimers.pollFirst();
+        result.computeIfAbsent(fired.getKey(), k -> new ArrayList<>()).add(fired.getTimer());
+        Map<TimerData, KeyedTimer> timers = keyTimers.get(fired.getKey());
+        timers.remove(fired.getTimer());
+        if (timers.isEmpty()) {
+          keyTimers.remove(fired.getKey());
         }
       }
-      if (timers.isEmpty()) {
-        emptyKeys.add(pendingTimers.getKey());
+      return result;
+    }
+  }
+
+  /**
+   * A pending timer of a key, ordered by timer and then by key, since the same timer may be set for
+   * several keys.
+   *
+   * <p>The {@link #compareTo(KeyedTimer)} method of {@link KeyedTimer} is not consistent with
+   * equals, as the key is arbitrarily ordered via identity, rather than object equality.
+   */
+  private static final class KeyedTimer implements Comparable<KeyedTimer> {
+    private static final Ordering<Object> KEY_ORDERING = Ordering.arbitrary();
+
+    private final StructuralKey<?> key;
+    private final TimerData timer;
+
+    private KeyedTimer(StructuralKey<?> key, TimerData timer) {
+      this.key = key;
+      this.timer = timer;
+    }
+
+    StructuralKey<?> getKey() {
+      return key;
+    }
+
+    TimerData getTimer() {
+      return timer;
+    }
+
+    @Override
+    public int compareTo(KeyedTimer that) {
+      return ComparisonChain.start()
+          .compare(this.timer, that.timer)
+          .compare(this.key, that.key, KEY_ORDERING)
+          .result();
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(timer, key);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof KeyedTimer)) {
+        return false;
       }
+      KeyedTimer that = (KeyedTimer) other;
+      return Objects.equals(this.timer, that.timer) && Objects.equals(this.key, that.key);
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(KeyedTimer.class)
+          .add("key", key)
+          .add("timer", timer)
+          .toString();
     }
-    objectTimers.keySet().removeAll(emptyKeys);
-    return result;
   }
 
   ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -1099,7 +1190,7 @@ public class WatermarkManager<ExecutableT, CollectionT> {
    * Refresh the watermarks contained within this {@link WatermarkManager}, causing all watermarks
    * to be advanced as far as possible.
    */
-  public synchronized void refreshAll() {
+  public void refreshAll() {
     refreshLock.lock();
     try {
       applyAllPendingUpdates();
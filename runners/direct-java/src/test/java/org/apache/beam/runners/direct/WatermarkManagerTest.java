@@ -34,6 +34,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -1537,6 +1538,99 @@ public class WatermarkManagerTest implements Serializable {
     assertThat(fired.entrySet(), empty());
   }
 
+  @Test
+  public void inputWatermarkExtractsOnlyFiredTimersOfEachKey() {
+    Watermark mockWatermark = Mockito.mock(Watermark.class);
+
+    AppliedPTransformInputWatermark underTest =
+        new AppliedPTransformInputWatermark("underTest", ImmutableList.of(mockWatermark));
+    when(mockWatermark.get()).thenReturn(new Instant(0));
+    underTest.refresh();
+
+    StructuralKey<String> firstKey = StructuralKey.of("first", StringUtf8Coder.of());
+    StructuralKey<String> secondKey = StructuralKey.of("second", StringUtf8Coder.of());
+    StructuralKey<String> thirdKey = StructuralKey.of("third", StringUtf8Coder.of());
+    TimerData early =
+        TimerData.of("a", StateNamespaces.global(), new Instant(100), TimeDomain.EVENT_TIME);
+    TimerData middle =
+        TimerData.of("b", StateNamespaces.global(), new Instant(500), TimeDomain.EVENT_TIME);
+    TimerData late =
+        TimerData.of("a", StateNamespaces.global(), new Instant(2000), TimeDomain.EVENT_TIME);
+    TimerData deleted =
+        TimerData.of("c", StateNamespaces.global(), new Instant(200), TimeDomain.EVENT_TIME);
+    underTest.updateTimers(TimerUpdate.builder(firstKey).setTimer(early).setTimer(middle).build());
+    underTest.updateTimers(TimerUpdate.builder(secondKey).setTimer(deleted).build());
+    underTest.updateTimers(TimerUpdate.builder(secondKey).deletedTimer(deleted).build());
+    underTest.updateTimers(TimerUpdate.builder(thirdKey).setTimer(late).build());
+    assertEquals(early.getTimestamp(), underTest.getEarliestTimerTimestamp());
+
+    // Nothing can fire before the watermark advances
+    assertThat(underTest.extractFiredEventTimeTimers().entrySet(), empty());
+
+    when(mockWatermark.get()).thenReturn(new Instant(1000));
+    underTest.refresh();
+    Map<StructuralKey<?>, List<TimerData>> fired = underTest.extractFiredEventTimeTimers();
+    assertThat(fired.keySet(), contains(firstKey));
+    assertThat(fired.get(firstKey), contains(early, middle));
+    // Fired timers hold the output watermark until they are completed
+    assertEquals(early.getTimestamp(), underTest.getEarliestTimerTimestamp());
+    assertThat(underTest.extractFiredEventTimeTimers().entrySet(), empty());
+
+    underTest.updateTimers(
+        TimerUpdate.builder(firstKey).withCompletedTimers(fired.get(firstKey)).build());
+    assertEquals(late.getTimestamp(), underTest.getEarliestTimerTimestamp());
+
+    when(mockWatermark.get()).thenReturn(new Instant(3000));
+    underTest.refresh();
+    fired = underTest.extractFiredEventTimeTimers();
+    assertThat(fired.keySet(), contains(thirdKey));
+    assertThat(fired.get(thirdKey), contains(late));
+  }
+
+  @Test
+  public void inputWatermarkExtractsOneFiredTimerAmongManyKeys() {
+    Watermark mockWatermark = Mockito.mock(Watermark.class);
+
+    AppliedPTransformInputWatermark underTest =
+        new AppliedPTransformInputWatermark("underTest", ImmutableList.of(mockWatermark));
+    when(mockWatermark.get()).thenReturn(new Instant(0));
+    underTest.refresh();
+
+    // The same timer is set for many keys, which must not be mistaken for one another.
+    TimerData late =
+        TimerData.of("a", StateNamespaces.global(), new Instant(2000), TimeDomain.EVENT_TIME);
+    List<StructuralKey<?>> keys = new ArrayList<>();
+    for (int i = 0; i < 1000; ++i) {
+      StructuralKey<String> key = StructuralKey.of("key-" + i, StringUtf8Coder.of());
+      keys.add(key);
+      underTest.updateTimers(TimerUpdate.builder(key).setTimer(late).build());
+    }
+    StructuralKey<String> earlyKey = StructuralKey.of("early", StringUtf8Coder.of());
+    TimerData early =
+        TimerData.of("a", StateNamespaces.global(), new Instant(100), TimeDomain.EVENT_TIME);
+    underTest.updateTimers(TimerUpdate.builder(earlyKey).setTimer(early).build());
+
+    when(mockWatermark.get()).thenReturn(new Instant(1000));
+    underTest.refresh();
+    Map<StructuralKey<?>, List<TimerData>> fired = underTest.extractFiredEventTimeTimers();
+    assertThat(fired.keySet(), contains(earlyKey));
+    assertThat(fired.get(earlyKey), contains(early));
+    underTest.updateTimers(
+        TimerUpdate.builder(earlyKey).withCompletedTimers(fired.get(earlyKey)).build());
+    assertEquals(late.getTimestamp(), underTest.getEarliestTimerTimestamp());
+
+    // Deleting the timer of one key leaves the same timer of the other keys.
+    underTest.updateTimers(TimerUpdate.builder(keys.get(0)).deletedTimer(late).build());
+    when(mockWatermark.get()).thenReturn(new Instant(3000));
+    underTest.refresh();
+    fired = underTest.extractFiredEventTimeTimers();
+    assertThat(fired.keySet(), containsInAnyOrder(keys.subList(1, keys.size()).toArray()));
+    for (List<TimerData> keyFiredTimers : fired.values()) {
+      assertThat(keyFiredTimers, contains(late));
+    }
+    assertThat(underTest.extractFiredEventTimeTimers().entrySet(), empty());
+  }
+
   @Test
   public void timerUpdateBuilderBuildAddsAllAddedTimers() {
     TimerData set = TimerData.of(StateNamespaces.global(), new Instant(10L), TimeDomain.EVENT_TIME);
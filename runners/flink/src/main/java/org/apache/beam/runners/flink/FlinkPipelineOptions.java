@@ -117,12 +117,28 @@ public interface FlinkPipelineOptions
 
   void setExecutionRetryDelay(Long delay);
 
-  @Description("Sets the behavior of reusing objects.")
+  /**
+   * Whether Flink may reuse objects. With object reuse, chained operators pass elements to each
+   * other by reference instead of copying them with their coder, which relies on user code never
+   * mutating its input elements or elements it has output, as required by the {@link
+   * org.apache.beam.sdk.transforms.DoFn} contract.
+   */
+  @Description(
+      "Sets the behavior of reusing objects. If set, chained operators pass elements by reference "
+          + "instead of copying them, which requires that elements are never mutated.")
   @Default.Boolean(false)
   Boolean getObjectReuse();
 
   void setObjectReuse(Boolean reuse);
 
+  @Description(
+      "If set together with objectReuse, verifies at the end of every bundle that the elements "
+          + "output by each operator have not been mutated. This is expensive and meant for tests.")
+  @Default.Boolean(false)
+  Boolean getCheckObjectReuseMutations();
+
+  void setCheckObjectReuseMutations(Boolean check);
+
   /**
    * State backend to store Beam's state during computation. Note: Only applicable when executing in
    * streaming mode.
@@ -168,6 +184,16 @@ public interface FlinkPipelineOptions
 
   void setMaxBundleTimeMills(Long time);
 
+  @Description(
+      "The approximate maximum size in bytes of combining accumulators and bag appends that a "
+          + "stateful operator holds on the heap before writing them to the state backend. "
+          + "Cached state is also written on every checkpoint and watermark. "
+          + "A value <= 0 writes every state update to the state backend directly.")
+  @Default.Long(16 * 1024 * 1024)
+  Long getStateCacheSizeBytes();
+
+  void setStateCacheSizeBytes(Long bytes);
+
   /**
    * Whether to shutdown sources when their watermark reaches {@code +Inf}. For production use cases
    * you want this to be disabled because Flink will currently (versions {@literal <=} 1.5) stop
@@ -33,6 +33,8 @@ public class TestFlinkRunner extends PipelineRunner<PipelineResult> {
 
   private TestFlinkRunner(FlinkPipelineOptions options) {
     options.setShutdownSourcesOnFinalWatermark(true);
+    // pipelines that run with object reuse must not mutate elements
+    options.setCheckObjectReuseMutations(true);
     this.delegate = FlinkRunner.fromOptions(options);
   }
 
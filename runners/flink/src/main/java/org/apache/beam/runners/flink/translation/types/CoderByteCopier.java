@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.flink.translation.types;
+
+import java.io.IOException;
+import javax.annotation.Nullable;
+import org.apache.beam.sdk.coders.BigEndianIntegerCoder;
+import org.apache.beam.sdk.coders.BigEndianLongCoder;
+import org.apache.beam.sdk.coders.BigEndianShortCoder;
+import org.apache.beam.sdk.coders.BooleanCoder;
+import org.apache.beam.sdk.coders.ByteArrayCoder;
+import org.apache.beam.sdk.coders.ByteCoder;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CollectionCoder;
+import org.apache.beam.sdk.coders.DoubleCoder;
+import org.apache.beam.sdk.coders.FloatCoder;
+import org.apache.beam.sdk.coders.InstantCoder;
+import org.apache.beam.sdk.coders.IterableCoder;
+import org.apache.beam.sdk.coders.IterableLikeCoder;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.LengthPrefixCoder;
+import org.apache.beam.sdk.coders.ListCoder;
+import org.apache.beam.sdk.coders.NullableCoder;
+import org.apache.beam.sdk.coders.SetCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.coders.VoidCoder;
+import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.util.WindowedValue;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+
+/**
+ * Copies values encoded by well-known {@link Coder Coders} from a {@link DataInputView} to a {@link
+ * DataOutputView} by walking the structure of their encoding, without decoding them.
+ *
+ * <p>Coders are matched by their exact class, because subclasses may change the encoding.
+ */
+abstract class CoderByteCopier {
+
+  /** Copies one value encoded in the nested context. */
+  abstract void copy(DataInputView source, DataOutputView target) throws IOException;
+
+  /**
+   * Returns a copier for values encoded by the given {@link Coder}, or {@code null} if the
+   * structure of its encoding is not known.
+   */
+  @Nullable
+  static CoderByteCopier of(Coder<?> coder) {
+    Class<?> coderClass = coder.getClass();
+    if (coderClass == VoidCoder.class || coderClass == GlobalWindow.Coder.class) {
+      return new FixedLength(0);
+    } else if (coderClass == ByteCoder.class || coderClass == BooleanCoder.class) {
+      return new FixedLength(1);
+    } else if (coderClass == BigEndianShortCoder.class) {
+      return new FixedLength(2);
+    } else if (coderClass == BigEndianIntegerCoder.class || coderClass == FloatCoder.class) {
+      return new FixedLength(4);
+    } else if (coderClass == BigEndianLongCoder.class
+        || coderClass == DoubleCoder.class
+        || coderClass == InstantCoder.class) {
+      return new FixedLength(8);
+    } else if (coderClass == VarIntCoder.class || coderClass == VarLongCoder.class) {
+      return new VarLong();
+    } else if (coderClass == StringUtf8Coder.class
+        || coderClass == ByteArrayCoder.class
+        || coderClass == LengthPrefixCoder.class) {
+      return new LengthPrefixed();
+    } else if (coderClass == IntervalWindow.IntervalWindowCoder.class) {
+      // the end of the window, followed by its duration as a VarLongCoder
+      return sequence(new FixedLength(8), new VarLong());
+    } else if (coderClass == KvCoder.class) {
+      KvCoder<?, ?> kvCoder = (KvCoder<?, ?>) coder;
+      return sequence(of(kvCoder.getKeyCoder()), of(kvCoder.getValueCoder()));
+    } else if (coderClass == NullableCoder.class) {
+      CoderByteCopier valueCopier = of(((NullableCoder<?>) coder).getValueCoder());
+      return valueCopier == null ? null : new NullableValue(valueCopier);
+    } else if (coderClass == IterableCoder.class
+        || coderClass == ListCoder.class
+        || coderClass == CollectionCoder.class
+        || coderClass == SetCoder.class) {
+      CoderByteCopier elementCopier = of(((IterableLikeCoder<?, ?>) coder).getElemCoder());
+      return elementCopier == null ? null : new IterableLike(elementCopier);
+    } else if (coderClass == WindowedValue.FullWindowedValueCoder.class) {
+      WindowedValue.FullWindowedValueCoder<?> windowedValueCoder =
+          (WindowedValue.FullWindowedValueCoder<?>) coder;
+      return sequence(
+          new FixedLength(8),
+          of(windowedValueCoder.getWindowsCoder()),
+          new Pane(),
+          of(windowedValueCoder.getValueCoder()));
+    } else if (coderClass == WindowedValue.ValueOnlyWindowedValueCoder.class) {
+      return of(((WindowedValue.ValueOnlyWindowedValueCoder<?>) coder).getValueCoder());
+    }
+    return null;
+  }
+
+  @Nullable
+  private static CoderByteCopier sequence(CoderByteCopier... copiers) {
+    for (CoderByteCopier copier : copiers) {
+      if (copier == null) {
+        return null;
+      }
+    }
+    return new Sequence(copiers);
+  }
+
+  /** Copies a variable-length integer, as written by {@code VarInt}, and returns its value. */
+  private static long copyVarLong(DataInputView source, DataOutputView target) throws IOException {
+    long result = 0;
+    int shift = 0;
+    byte b;
+    do {
+      if (shift >= 64) {
+        throw new IOException("Encoded VarInt is too long.");
+      }
+      b = source.readByte();
+      target.writeByte(b);
+      result |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return result;
+  }
+
+  private static class FixedLength extends CoderByteCopier {
+    private final int length;
+
+    private FixedLength(int length) {
+      this.length = length;
+    }
+
+    @Override
+    void copy(DataInputView source, DataOutputView target) throws IOException {
+      if (length > 0) {
+        target.write(source, length);
+      }
+    }
+  }
+
+  private static class VarLong extends CoderByteCopier {
+    @Override
+    void copy(DataInputView source, DataOutputView target) throws IOException {
+      copyVarLong(source, target);
+    }
+  }
+
+  /** Bytes prefixed by their length as a VarInt. */
+  private static class LengthPrefixed extends CoderByteCopier {
+    @Override
+    void copy(DataInputView source, DataOutputView target) throws IOException {
+      long length = copyVarLong(source, target);
+      if (length < 0 || length > Integer.MAX_VALUE) {
+        throw new IOException("Invalid length of encoded value: " + length);
+      }
+      if (length > 0) {
+        target.write(source, (int) length);
+      }
+    }
+  }
+
+  private static class Sequence extends CoderByteCopier {
+    private final CoderByteCopier[] copiers;
+
+    private Sequence(CoderByteCopier[] copiers) {
+      this.copiers = copiers;
+    }
+
+    @Override
+    void copy(DataInputView source, DataOutputView target) throws IOException {
+      for (CoderByteCopier copier : copiers) {
+        copier.copy(source, target);
+      }
+    }
+  }
+
+  /** A marker byte, followed by the value unless it is null. */
+  private static class NullableValue extends CoderByteCopier {
+    private final CoderByteCopier valueCopier;
+
+    private NullableValue(CoderByteCopier valueCopier) {
+      this.valueCopier = valueCopier;
+    }
+
+    @Override
+    void copy(DataInputView source, DataOutputView target) throws IOException {
+      byte marker = source.readByte();
+      target.writeByte(marker);
+      if (marker != 0) {
+        valueCopier.copy(source, target);
+      }
+    }
+  }
+
+  /**
+   * The encoding of {@link IterableLikeCoder}: the number of elements followed by the elements, or
+   * {@code -1} followed by blocks of elements each prefixed by their count as a VarInt, terminated
+   * by a count of {@code 0}.
+   */
+  private static class IterableLike extends CoderByteCopier {
+    private final CoderByteCopier elementCopier;
+
+    private IterableLike(CoderByteCopier elementCopier) {
+      this.elementCopier = elementCopier;
+    }
+
+    @Override
+    void copy(DataInputView source, DataOutputView target) throws IOException {
+      int size = source.readInt();
+      target.writeInt(size);
+      if (size >= 0) {
+        for (int i = 0; i < size; i++) {
+          elementCopier.copy(source, target);
+        }
+        return;
+      }
+      long count;
+      while ((count = copyVarLong(source, target)) > 0) {
+        for (long i = 0; i < count; i++) {
+          elementCopier.copy(source, target);
+        }
+      }
+    }
+  }
+
+  /**
+   * The encoding of {@link org.apache.beam.sdk.transforms.windowing.PaneInfo.PaneInfoCoder}: a byte
+   * whose high bits tag whether it is followed by no, one or two VarInt indices.
+   */
+  private static class Pane extends CoderByteCopier {
+    @Override
+    void copy(DataInputView source, DataOutputView target) throws IOException {
+      byte keyAndTag = source.readByte();
+      target.writeByte(keyAndTag);
+      int indices = (keyAndTag & 0xFF) >> 4;
+      if (indices > 2) {
+        throw new IOException("Unknown pane encoding " + indices);
+      }
+      for (int i = 0; i < indices; i++) {
+        copyVarLong(source, target);
+      }
+    }
+  }
+}
@@ -17,13 +17,28 @@
  */
 package org.apache.beam.runners.flink.translation.types;
 
+import com.google.common.collect.ImmutableSet;
 import java.io.EOFException;
 import java.io.IOException;
 import java.util.Objects;
+import java.util.Set;
+import javax.annotation.Nullable;
 import org.apache.beam.runners.flink.translation.wrappers.DataInputViewWrapper;
 import org.apache.beam.runners.flink.translation.wrappers.DataOutputViewWrapper;
+import org.apache.beam.sdk.coders.BigEndianIntegerCoder;
+import org.apache.beam.sdk.coders.BigEndianLongCoder;
+import org.apache.beam.sdk.coders.BigEndianShortCoder;
+import org.apache.beam.sdk.coders.BooleanCoder;
+import org.apache.beam.sdk.coders.ByteCoder;
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.CoderException;
+import org.apache.beam.sdk.coders.DoubleCoder;
+import org.apache.beam.sdk.coders.FloatCoder;
+import org.apache.beam.sdk.coders.InstantCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.coders.VoidCoder;
 import org.apache.beam.sdk.util.CoderUtils;
 import org.apache.flink.api.common.typeutils.CompatibilityResult;
 import org.apache.flink.api.common.typeutils.TypeSerializer;
@@ -34,18 +49,26 @@ import org.apache.flink.core.memory.DataOutputView;
 /**
  * Flink {@link org.apache.flink.api.common.typeutils.TypeSerializer} for Dataflow {@link
  * org.apache.beam.sdk.coders.Coder Coders}.
+ *
+ * <p>Serialized values of well-known coders are copied as bytes, without decoding them.
  */
 public class CoderTypeSerializer<T> extends TypeSerializer<T> {
 
   private Coder<T> coder;
 
+  // Serializers are Java-serialized into savepoints and do not declare a serialVersionUID, so new
+  // fields must be private and transient, and static state lives in a nested class, to keep the
+  // computed serialVersionUID of existing serializers.
+  @Nullable private transient CoderByteCopier byteCopier;
+  private transient boolean byteCopierInitialized;
+
   public CoderTypeSerializer(Coder<T> coder) {
     this.coder = coder;
   }
 
   @Override
   public boolean isImmutableType() {
-    return false;
+    return ImmutableValueCoders.CODER_CLASSES.contains(coder.getClass());
   }
 
   @Override
@@ -60,6 +83,9 @@ public class CoderTypeSerializer<T> extends TypeSerializer<T> {
 
   @Override
   public T copy(T t) {
+    if (isImmutableType()) {
+      return t;
+    }
     try {
       return CoderUtils.clone(coder, t);
     } catch (CoderException e) {
@@ -105,7 +131,15 @@ public class CoderTypeSerializer<T> extends TypeSerializer<T> {
 
   @Override
   public void copy(DataInputView dataInputView, DataOutputView dataOutputView) throws IOException {
-    serialize(deserialize(dataInputView), dataOutputView);
+    if (!byteCopierInitialized) {
+      byteCopier = CoderByteCopier.of(coder);
+      byteCopierInitialized = true;
+    }
+    if (byteCopier != null) {
+      byteCopier.copy(dataInputView, dataOutputView);
+    } else {
+      serialize(deserialize(dataInputView), dataOutputView);
+    }
   }
 
   @Override
@@ -199,6 +233,24 @@ public class CoderTypeSerializer<T> extends TypeSerializer<T> {
     }
   }
 
+  /** Coders of immutable values, which do not need to be cloned. */
+  private static class ImmutableValueCoders {
+    private static final Set<Class<?>> CODER_CLASSES =
+        ImmutableSet.of(
+            BigEndianIntegerCoder.class,
+            BigEndianLongCoder.class,
+            BigEndianShortCoder.class,
+            BooleanCoder.class,
+            ByteCoder.class,
+            DoubleCoder.class,
+            FloatCoder.class,
+            InstantCoder.class,
+            StringUtf8Coder.class,
+            VarIntCoder.class,
+            VarLongCoder.class,
+            VoidCoder.class);
+  }
+
   @Override
   public String toString() {
     return "CoderTypeSerializer{" + "coder=" + coder + '}';
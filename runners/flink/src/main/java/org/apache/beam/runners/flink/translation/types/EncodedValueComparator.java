@@ -28,6 +28,10 @@ import org.apache.flink.core.memory.MemorySegment;
 /**
  * Flink {@link org.apache.flink.api.common.typeutils.TypeComparator} for Beam values that have been
  * encoded to byte data by a {@link Coder}.
+ *
+ * <p>Values are ordered by comparing their bytes as unsigned values, which is also how Flink
+ * compares normalized keys, so that encoded values can be sorted in managed memory by their
+ * normalized key prefix.
  */
 public class EncodedValueComparator extends TypeComparator<byte[]> {
 
@@ -76,9 +80,9 @@ public class EncodedValueComparator extends TypeComparator<byte[]> {
             encodedReferenceKey.length, otherEncodedValueComparator.encodedReferenceKey.length);
 
     for (int i = 0; i < len; i++) {
-      byte b1 = encodedReferenceKey[i];
-      byte b2 = otherEncodedValueComparator.encodedReferenceKey[i];
-      int result = (b1 < b2 ? -1 : (b1 == b2 ? 0 : 1));
+      int result =
+          compareUnsigned(
+              encodedReferenceKey[i], otherEncodedValueComparator.encodedReferenceKey[i]);
       if (result != 0) {
         return ascending ? -result : result;
       }
@@ -92,9 +96,7 @@ public class EncodedValueComparator extends TypeComparator<byte[]> {
   public int compare(byte[] first, byte[] second) {
     int len = Math.min(first.length, second.length);
     for (int i = 0; i < len; i++) {
-      byte b1 = first[i];
-      byte b2 = second[i];
-      int result = (b1 < b2 ? -1 : (b1 == b2 ? 0 : 1));
+      int result = compareUnsigned(first[i], second[i]);
       if (result != 0) {
         return ascending ? result : -result;
       }
@@ -111,9 +113,7 @@ public class EncodedValueComparator extends TypeComparator<byte[]> {
 
     int len = Math.min(lengthFirst, lengthSecond);
     for (int i = 0; i < len; i++) {
-      byte b1 = firstSource.readByte();
-      byte b2 = secondSource.readByte();
-      int result = (b1 < b2 ? -1 : (b1 == b2 ? 0 : 1));
+      int result = compareUnsigned(firstSource.readByte(), secondSource.readByte());
       if (result != 0) {
         return ascending ? result : -result;
       }
@@ -123,11 +123,13 @@ public class EncodedValueComparator extends TypeComparator<byte[]> {
     return ascending ? result : -result;
   }
 
+  private static int compareUnsigned(byte b1, byte b2) {
+    return (b1 & 0xFF) - (b2 & 0xFF);
+  }
+
   @Override
   public boolean supportsNormalizedKey() {
-    // disabled because this seems to not work with some coders,
-    // such as the AvroCoder
-    return false;
+    return true;
   }
 
   @Override
@@ -149,9 +151,10 @@ public class EncodedValueComparator extends TypeComparator<byte[]> {
   public void putNormalizedKey(byte[] record, MemorySegment target, int offset, int numBytes) {
     final int limit = offset + numBytes;
 
-    target.put(offset, record, 0, Math.min(numBytes, record.length));
+    final int length = Math.min(numBytes, record.length);
+    target.put(offset, record, 0, length);
 
-    offset += record.length;
+    offset += length;
 
     while (offset < limit) {
       target.put(offset++, (byte) 0);
@@ -64,6 +64,7 @@ import org.apache.beam.runners.flink.translation.wrappers.streaming.state.FlinkK
 import org.apache.beam.runners.flink.translation.wrappers.streaming.state.FlinkSplitStateInternals;
 import org.apache.beam.runners.flink.translation.wrappers.streaming.state.FlinkStateInternals;
 import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderException;
 import org.apache.beam.sdk.coders.StructuredCoder;
 import org.apache.beam.sdk.coders.VarIntCoder;
 import org.apache.beam.sdk.io.FileSystems;
@@ -75,6 +76,9 @@ import org.apache.beam.sdk.transforms.join.RawUnionValue;
 import org.apache.beam.sdk.transforms.reflect.DoFnInvoker;
 import org.apache.beam.sdk.transforms.reflect.DoFnInvokers;
 import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.util.IllegalMutationException;
+import org.apache.beam.sdk.util.MutationDetector;
+import org.apache.beam.sdk.util.MutationDetectors;
 import org.apache.beam.sdk.util.WindowedValue;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollectionView;
@@ -254,6 +258,12 @@ public class DoFnOperator<InputT, OutputT> extends AbstractStreamOperator<Window
     }
   }
 
+  // allow overriding this in ExecutableStageDoFnOperator, where state is accessed by the
+  // threads serving the state requests of the SDK harness
+  protected long getStateCacheSizeBytes(FlinkPipelineOptions options) {
+    return options.getStateCacheSizeBytes();
+  }
+
   @Override
   public void setup(
       StreamTask<?, ?> containingTask,
@@ -320,11 +330,17 @@ public class DoFnOperator<InputT, OutputT> extends AbstractStreamOperator<Window
     }
 
     outputManager = outputManagerFactory.create(output, nonKeyedStateInternals);
+    if (options.getObjectReuse() && options.getCheckObjectReuseMutations()) {
+      outputManager.enableMutationDetection();
+    }
 
     // StatefulPardo or WindowDoFn
     if (keyCoder != null) {
       keyedStateInternals =
-          new FlinkStateInternals<>((KeyedStateBackend) getKeyedStateBackend(), keyCoder);
+          new FlinkStateInternals<>(
+              (KeyedStateBackend) getKeyedStateBackend(),
+              keyCoder,
+              getStateCacheSizeBytes(options));
 
       if (timerService == null) {
         timerService =
@@ -567,6 +583,10 @@ public class DoFnOperator<InputT, OutputT> extends AbstractStreamOperator<Window
       timeServiceManager.advanceWatermark(
           new Watermark(toFlinkRuntimeWatermark(pushedBackInputWatermark)));
 
+      // write back the state that the fired timers did not clear, so that the state cache
+      // only holds state updated since the last watermark
+      keyedStateInternals.flushStateCache();
+
       Instant watermarkHold = keyedStateInternals.watermarkHold();
 
       long combinedWatermarkHold = Math.min(watermarkHold.getMillis(), getPushbackWatermarkHold());
@@ -672,6 +692,7 @@ public class DoFnOperator<InputT, OutputT> extends AbstractStreamOperator<Window
   private void invokeFinishBundle() {
     if (bundleStarted) {
       pushbackDoFnRunner.finishBundle();
+      outputManager.verifyUnmodified(stepName);
       bundleStarted = false;
       elementCount = 0L;
       lastFinishBundleTime = getProcessingTimeService().getCurrentProcessingTime();
@@ -688,6 +709,11 @@ public class DoFnOperator<InputT, OutputT> extends AbstractStreamOperator<Window
     invokeFinishBundle();
     outputManager.closeBuffer();
 
+    // Cached state must be in the keyed state backend before it is snapshotted.
+    if (keyedStateInternals != null) {
+      keyedStateInternals.flushStateCache();
+    }
+
     super.snapshotState(context);
   }
 
@@ -745,9 +771,14 @@ public class DoFnOperator<InputT, OutputT> extends AbstractStreamOperator<Window
     private Map<Integer, TupleTag<?>> idsToTags;
     protected Output<StreamRecord<WindowedValue<OutputT>>> output;
 
+    private final Map<TupleTag<?>, Coder<WindowedValue<?>>> tagsToCoders;
+
     private boolean openBuffer = false;
     private BagState<KV<Integer, WindowedValue<?>>> bufferState;
 
+    /** Detectors for the elements emitted in the current bundle, if mutations are detected. */
+    @Nullable private List<MutationDetector> mutationDetectors;
+
     BufferedOutputManager(
         Output<StreamRecord<WindowedValue<OutputT>>> output,
         TupleTag<OutputT> mainTag,
@@ -758,6 +789,7 @@ public class DoFnOperator<InputT, OutputT> extends AbstractStreamOperator<Window
       this.output = output;
       this.mainTag = mainTag;
       this.tagsToOutputTags = tagsToOutputTags;
+      this.tagsToCoders = tagsToCoders;
       this.tagsToIds = tagsToIds;
       this.idsToTags = new HashMap<>();
       for (Map.Entry<TupleTag<?>, Integer> entry : tagsToIds.entrySet()) {
@@ -783,6 +815,40 @@ public class DoFnOperator<InputT, OutputT> extends AbstractStreamOperator<Window
       this.openBuffer = false;
     }
 
+    /**
+     * Remembers the encoding of every emitted element, so that {@link #verifyUnmodified(String)}
+     * can detect elements that were mutated after they were passed on by reference.
+     */
+    void enableMutationDetection() {
+      this.mutationDetectors = new ArrayList<>();
+    }
+
+    /**
+     * Verifies that none of the elements emitted since the last call have been mutated, if mutation
+     * detection is enabled.
+     */
+    void verifyUnmodified(String stepName) {
+      if (mutationDetectors == null) {
+        return;
+      }
+      try {
+        for (MutationDetector detector : mutationDetectors) {
+          detector.verifyUnmodified();
+        }
+      } catch (IllegalMutationException e) {
+        throw new IllegalMutationException(
+            String.format(
+                "Value %s output by %s was mutated after it was output (new value was %s)."
+                    + " Values must not be mutated in any way after being output.",
+                e.getSavedValue(), stepName, e.getNewValue()),
+            e.getSavedValue(),
+            e.getNewValue(),
+            e);
+      } finally {
+        mutationDetectors.clear();
+      }
+    }
+
     @Override
     public <T> void output(TupleTag<T> tag, WindowedValue<T> value) {
       if (!openBuffer) {
@@ -804,6 +870,17 @@ public class DoFnOperator<InputT, OutputT> extends AbstractStreamOperator<Window
     }
 
     private <T> void emit(TupleTag<T> tag, WindowedValue<T> value) {
+      if (mutationDetectors != null) {
+        Coder<WindowedValue<?>> coder = tagsToCoders.get(tag);
+        if (coder != null) {
+          try {
+            mutationDetectors.add(MutationDetectors.forValueWithCoder(value, coder));
+          } catch (CoderException e) {
+            throw new RuntimeException(
+                "Could not encode output element for mutation detection.", e);
+          }
+        }
+      }
       if (tag.equals(mainTag)) {
         // with tagged outputs we can't get around this because we don't
         // know our own output type...
@@ -39,6 +39,7 @@ import org.apache.beam.runners.core.StateNamespace;
 import org.apache.beam.runners.core.StateNamespaces;
 import org.apache.beam.runners.core.StateTags;
 import org.apache.beam.runners.core.construction.graph.ExecutableStage;
+import org.apache.beam.runners.flink.FlinkPipelineOptions;
 import org.apache.beam.runners.flink.translation.functions.FlinkExecutableStageContext;
 import org.apache.beam.runners.flink.translation.functions.FlinkStreamingSideInputHandlerFactory;
 import org.apache.beam.runners.fnexecution.control.BundleProgressHandler;
@@ -259,6 +260,13 @@ public class ExecutableStageDoFnOperator<InputT, OutputT> extends DoFnOperator<I
     }
   }
 
+  @Override
+  protected long getStateCacheSizeBytes(FlinkPipelineOptions options) {
+    // The cache is not thread-safe and user state is accessed by the threads serving the state
+    // requests of the SDK harness, so state is always written to the backend directly.
+    return 0L;
+  }
+
   @Override
   public void setKeyContextElement1(StreamRecord record) throws Exception {
     // Note: This is only relevant when we have a stateful DoFn.
@@ -21,9 +21,13 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import javax.annotation.Nullable;
 import org.apache.beam.runners.core.StateInternals;
 import org.apache.beam.runners.core.StateNamespace;
 import org.apache.beam.runners.core.StateTag;
@@ -49,6 +53,7 @@ import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
 import org.apache.beam.sdk.transforms.windowing.TimestampCombiner;
 import org.apache.beam.sdk.util.CoderUtils;
 import org.apache.beam.sdk.util.CombineContextFactory;
+import org.apache.beam.sdk.util.common.ElementByteSizeObserver;
 import org.apache.flink.api.common.state.ListStateDescriptor;
 import org.apache.flink.api.common.state.MapStateDescriptor;
 import org.apache.flink.api.common.state.ValueStateDescriptor;
@@ -62,19 +67,42 @@ import org.joda.time.Instant;
  *
  * <p>Note: In the Flink streaming runner the key is always encoded using an {@link Coder} and
  * stored in a {@link ByteBuffer}.
+ *
+ * <p>Combining accumulators and bag appends can be held on the heap in a write-back cache, so that
+ * adding an element does not deserialize and serialize the accumulator through the backend. Cached
+ * state must be written to the backend with {@link #flushStateCache()} before the backend is
+ * snapshotted, and is also written once the estimated size of the cache exceeds its budget.
  */
 public class FlinkStateInternals<K> implements StateInternals {
 
   private final KeyedStateBackend<ByteBuffer> flinkStateBackend;
   private Coder<K> keyCoder;
+  private final WriteBackCache cache;
 
   // on recovery, these will no be properly set because we don't
   // know which watermark hold states there are in the Flink State Backend
   private final Map<String, Instant> watermarkHolds = new HashMap<>();
 
   public FlinkStateInternals(KeyedStateBackend<ByteBuffer> flinkStateBackend, Coder<K> keyCoder) {
+    this(flinkStateBackend, keyCoder, 0L);
+  }
+
+  /**
+   * Creates {@link StateInternals} that cache up to approximately {@code stateCacheSizeBytes} bytes
+   * of combining accumulators and bag appends on the heap. A size of {@code 0} disables the cache.
+   */
+  public FlinkStateInternals(
+      KeyedStateBackend<ByteBuffer> flinkStateBackend,
+      Coder<K> keyCoder,
+      long stateCacheSizeBytes) {
     this.flinkStateBackend = flinkStateBackend;
     this.keyCoder = keyCoder;
+    this.cache = new WriteBackCache(flinkStateBackend, stateCacheSizeBytes);
+  }
+
+  /** Writes all cached accumulators and bag appends to the Flink state backend. */
+  public void flushStateCache() {
+    cache.flush();
   }
 
   /** Returns the minimum over all watermark holds. */
@@ -106,7 +134,271 @@ public class FlinkStateInternals<K> implements StateInternals {
         .getSpec()
         .bind(
             address.getId(),
-            new FlinkStateBinder(namespace, context, flinkStateBackend, watermarkHolds));
+            new FlinkStateBinder(namespace, context, flinkStateBackend, cache, watermarkHolds));
+  }
+
+  /**
+   * Holds combining accumulators and bag appends on the heap, keyed by the current key of the
+   * backend, the namespace and the state id, until they are written to the backend.
+   */
+  private static class WriteBackCache {
+
+    /** The size assumed for a cached value whose size is expensive to compute. */
+    private static final long DEFAULT_VALUE_BYTES = 64;
+
+    /** The approximate heap overhead of a cache entry, excluding its value. */
+    private static final long ENTRY_OVERHEAD_BYTES = 96;
+
+    private final KeyedStateBackend<ByteBuffer> flinkStateBackend;
+    private final long maxBytes;
+    private final Map<CacheKey, CachedState> entries = new HashMap<>();
+    private long estimatedBytes;
+
+    private WriteBackCache(KeyedStateBackend<ByteBuffer> flinkStateBackend, long maxBytes) {
+      this.flinkStateBackend = flinkStateBackend;
+      this.maxBytes = maxBytes;
+    }
+
+    /** Reads the value of the given state, from the cache if it is enabled. */
+    @Nullable
+    <T> T readValue(
+        String namespace, String stateId, ValueStateDescriptor<T> descriptor, Coder<T> coder)
+        throws Exception {
+      if (maxBytes <= 0) {
+        return backendState(namespace, descriptor).value();
+      }
+      CachedValue<T> cached = cachedValue(namespace, stateId, descriptor, coder);
+      evictIfFull();
+      return cached.value;
+    }
+
+    /** Writes the value of the given state, to the cache if it is enabled. */
+    <T> void writeValue(
+        String namespace,
+        String stateId,
+        ValueStateDescriptor<T> descriptor,
+        Coder<T> coder,
+        T value)
+        throws Exception {
+      if (maxBytes <= 0) {
+        backendState(namespace, descriptor).update(value);
+        return;
+      }
+      CachedValue<T> cached = cachedValue(namespace, stateId, descriptor, coder);
+      cached.value = value;
+      cached.dirty = true;
+      // Accumulators usually grow, so the size of the new value is estimated again.
+      long valueBytes = ENTRY_OVERHEAD_BYTES + estimateSize(coder, value);
+      estimatedBytes += valueBytes - cached.estimatedBytes;
+      cached.estimatedBytes = valueBytes;
+      evictIfFull();
+    }
+
+    /** Appends to the given bag state, in the cache if it is enabled. */
+    <T> void append(
+        String namespace,
+        String stateId,
+        ListStateDescriptor<T> descriptor,
+        Coder<T> coder,
+        T value)
+        throws Exception {
+      if (maxBytes <= 0) {
+        flinkStateBackend
+            .getPartitionedState(namespace, StringSerializer.INSTANCE, descriptor)
+            .add(value);
+        return;
+      }
+      CacheKey key = new CacheKey(flinkStateBackend.getCurrentKey(), namespace, stateId);
+      @SuppressWarnings("unchecked")
+      CachedAppends<T> cached = (CachedAppends<T>) entries.get(key);
+      if (cached == null) {
+        cached = new CachedAppends<>(descriptor);
+        entries.put(key.copy(), cached);
+        cached.estimatedBytes = ENTRY_OVERHEAD_BYTES;
+        estimatedBytes += ENTRY_OVERHEAD_BYTES;
+      }
+      cached.appended.add(value);
+      long valueBytes = estimateSize(coder, value);
+      cached.estimatedBytes += valueBytes;
+      estimatedBytes += valueBytes;
+      evictIfFull();
+    }
+
+    /** Returns the values appended to the given bag state that are not yet in the backend. */
+    <T> List<T> getAppended(String namespace, String stateId) {
+      if (maxBytes <= 0) {
+        return Collections.emptyList();
+      }
+      @SuppressWarnings("unchecked")
+      CachedAppends<T> cached =
+          (CachedAppends<T>)
+              entries.get(new CacheKey(flinkStateBackend.getCurrentKey(), namespace, stateId));
+      return cached == null ? Collections.emptyList() : cached.appended;
+    }
+
+    /** Drops the cached state, which must be cleared in the backend by the caller. */
+    void remove(String namespace, String stateId) {
+      if (maxBytes > 0) {
+        CachedState removed =
+            entries.remove(new CacheKey(flinkStateBackend.getCurrentKey(), namespace, stateId));
+        if (removed != null) {
+          estimatedBytes -= removed.estimatedBytes;
+        }
+      }
+    }
+
+    void flush() {
+      if (entries.isEmpty()) {
+        return;
+      }
+      ByteBuffer currentKey = flinkStateBackend.getCurrentKey();
+      try {
+        for (Map.Entry<CacheKey, CachedState> entry : entries.entrySet()) {
+          flinkStateBackend.setCurrentKey(entry.getKey().key);
+          entry.getValue().flush(flinkStateBackend, entry.getKey().namespace);
+        }
+        entries.clear();
+        estimatedBytes = 0;
+      } catch (Exception e) {
+        throw new RuntimeException("Error flushing cached state.", e);
+      } finally {
+        if (currentKey != null) {
+          flinkStateBackend.setCurrentKey(currentKey);
+        }
+      }
+    }
+
+    private void evictIfFull() {
+      if (estimatedBytes > maxBytes) {
+        flush();
+      }
+    }
+
+    private <T> CachedValue<T> cachedValue(
+        String namespace, String stateId, ValueStateDescriptor<T> descriptor, Coder<T> coder)
+        throws Exception {
+      CacheKey key = new CacheKey(flinkStateBackend.getCurrentKey(), namespace, stateId);
+      @SuppressWarnings("unchecked")
+      CachedValue<T> cached = (CachedValue<T>) entries.get(key);
+      if (cached == null) {
+        cached = new CachedValue<>(descriptor, backendState(namespace, descriptor).value());
+        entries.put(key.copy(), cached);
+        cached.estimatedBytes = ENTRY_OVERHEAD_BYTES + estimateSize(coder, cached.value);
+        estimatedBytes += cached.estimatedBytes;
+      }
+      return cached;
+    }
+
+    private <T> org.apache.flink.api.common.state.ValueState<T> backendState(
+        String namespace, ValueStateDescriptor<T> descriptor) throws Exception {
+      return flinkStateBackend.getPartitionedState(
+          namespace, StringSerializer.INSTANCE, descriptor);
+    }
+
+    private static <T> long estimateSize(Coder<T> coder, @Nullable T value) {
+      if (value == null || !coder.isRegisterByteSizeObserverCheap(value)) {
+        return DEFAULT_VALUE_BYTES;
+      }
+      SizeObserver observer = new SizeObserver();
+      try {
+        coder.registerByteSizeObserver(value, observer);
+      } catch (Exception e) {
+        return DEFAULT_VALUE_BYTES;
+      }
+      observer.advance();
+      return observer.size;
+    }
+  }
+
+  private static class SizeObserver extends ElementByteSizeObserver {
+    private long size;
+
+    @Override
+    protected void reportElementSize(long elementByteSize) {
+      size += elementByteSize;
+    }
+  }
+
+  private static class CacheKey {
+    private final ByteBuffer key;
+    private final String namespace;
+    private final String stateId;
+
+    private CacheKey(ByteBuffer key, String namespace, String stateId) {
+      this.key = key;
+      this.namespace = namespace;
+      this.stateId = stateId;
+    }
+
+    /** Returns a key whose position is not shared with the current key of the backend. */
+    private CacheKey copy() {
+      return new CacheKey(key.duplicate(), namespace, stateId);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof CacheKey)) {
+        return false;
+      }
+      CacheKey that = (CacheKey) o;
+      return key.equals(that.key)
+          && namespace.equals(that.namespace)
+          && stateId.equals(that.stateId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(key, namespace, stateId);
+    }
+  }
+
+  /** State held in a {@link WriteBackCache}. */
+  private abstract static class CachedState {
+    /** The estimated heap size of this entry, which is part of the size of the cache. */
+    long estimatedBytes;
+
+    /** Writes this state to the backend, whose current key has been set by the caller. */
+    abstract void flush(KeyedStateBackend<ByteBuffer> flinkStateBackend, String namespace)
+        throws Exception;
+  }
+
+  private static class CachedValue<T> extends CachedState {
+    private final ValueStateDescriptor<T> descriptor;
+    @Nullable private T value;
+    private boolean dirty;
+
+    private CachedValue(ValueStateDescriptor<T> descriptor, @Nullable T value) {
+      this.descriptor = descriptor;
+      this.value = value;
+    }
+
+    @Override
+    void flush(KeyedStateBackend<ByteBuffer> flinkStateBackend, String namespace) throws Exception {
+      if (dirty) {
+        flinkStateBackend
+            .getPartitionedState(namespace, StringSerializer.INSTANCE, descriptor)
+            .update(value);
+      }
+    }
+  }
+
+  private static class CachedAppends<T> extends CachedState {
+    private final ListStateDescriptor<T> descriptor;
+    private final List<T> appended = new ArrayList<>();
+
+    private CachedAppends(ListStateDescriptor<T> descriptor) {
+      this.descriptor = descriptor;
+    }
+
+    @Override
+    void flush(KeyedStateBackend<ByteBuffer> flinkStateBackend, String namespace) throws Exception {
+      flinkStateBackend
+          .getPartitionedState(namespace, StringSerializer.INSTANCE, descriptor)
+          .addAll(appended);
+    }
   }
 
   private static class FlinkStateBinder implements StateBinder {
@@ -114,16 +406,19 @@ public class FlinkStateInternals<K> implements StateInternals {
     private final StateNamespace namespace;
     private final StateContext<?> stateContext;
     private final KeyedStateBackend<ByteBuffer> flinkStateBackend;
+    private final WriteBackCache cache;
     private final Map<String, Instant> watermarkHolds;
 
     private FlinkStateBinder(
         StateNamespace namespace,
         StateContext<?> stateContext,
         KeyedStateBackend<ByteBuffer> flinkStateBackend,
+        WriteBackCache cache,
         Map<String, Instant> watermarkHolds) {
       this.namespace = namespace;
       this.stateContext = stateContext;
       this.flinkStateBackend = flinkStateBackend;
+      this.cache = cache;
       this.watermarkHolds = watermarkHolds;
     }
 
@@ -135,7 +430,7 @@ public class FlinkStateInternals<K> implements StateInternals {
 
     @Override
     public <T2> BagState<T2> bindBag(String id, StateSpec<BagState<T2>> spec, Coder<T2> elemCoder) {
-      return new FlinkBagState<>(flinkStateBackend, id, namespace, elemCoder);
+      return new FlinkBagState<>(flinkStateBackend, cache, id, namespace, elemCoder);
     }
 
     @Override
@@ -158,7 +453,8 @@ public class FlinkStateInternals<K> implements StateInternals {
         StateSpec<CombiningState<InputT, AccumT, OutputT>> spec,
         Coder<AccumT> accumCoder,
         Combine.CombineFn<InputT, AccumT, OutputT> combineFn) {
-      return new FlinkCombiningState<>(flinkStateBackend, id, combineFn, namespace, accumCoder);
+      return new FlinkCombiningState<>(
+          flinkStateBackend, cache, id, combineFn, namespace, accumCoder);
     }
 
     @Override
@@ -170,6 +466,7 @@ public class FlinkStateInternals<K> implements StateInternals {
             CombineWithContext.CombineFnWithContext<InputT, AccumT, OutputT> combineFn) {
       return new FlinkCombiningStateWithContext<>(
           flinkStateBackend,
+          cache,
           id,
           combineFn,
           namespace,
@@ -272,18 +569,23 @@ public class FlinkStateInternals<K> implements StateInternals {
 
     private final StateNamespace namespace;
     private final String stateId;
+    private final Coder<T> coder;
     private final ListStateDescriptor<T> flinkStateDescriptor;
     private final KeyedStateBackend<ByteBuffer> flinkStateBackend;
+    private final WriteBackCache cache;
 
     FlinkBagState(
         KeyedStateBackend<ByteBuffer> flinkStateBackend,
+        WriteBackCache cache,
         String stateId,
         StateNamespace namespace,
         Coder<T> coder) {
 
       this.namespace = namespace;
       this.stateId = stateId;
+      this.coder = coder;
       this.flinkStateBackend = flinkStateBackend;
+      this.cache = cache;
 
       flinkStateDescriptor = new ListStateDescriptor<>(stateId, new CoderTypeSerializer<>(coder));
     }
@@ -291,10 +593,7 @@ public class FlinkStateInternals<K> implements StateInternals {
     @Override
     public void add(T input) {
       try {
-        flinkStateBackend
-            .getPartitionedState(
-                namespace.stringKey(), StringSerializer.INSTANCE, flinkStateDescriptor)
-            .add(input);
+        cache.append(namespace.stringKey(), stateId, flinkStateDescriptor, coder, input);
       } catch (Exception e) {
         throw new RuntimeException("Error adding to bag state.", e);
       }
@@ -313,8 +612,12 @@ public class FlinkStateInternals<K> implements StateInternals {
                 .getPartitionedState(
                     namespace.stringKey(), StringSerializer.INSTANCE, flinkStateDescriptor)
                 .get();
+        List<T> appended = cache.getAppended(namespace.stringKey(), stateId);
 
-        return result != null ? ImmutableList.copyOf(result) : Collections.emptyList();
+        if (result == null) {
+          return appended.isEmpty() ? Collections.emptyList() : ImmutableList.copyOf(appended);
+        }
+        return ImmutableList.<T>builder().addAll(result).addAll(appended).build();
       } catch (Exception e) {
         throw new RuntimeException("Error reading state.", e);
       }
@@ -331,7 +634,7 @@ public class FlinkStateInternals<K> implements StateInternals {
                     .getPartitionedState(
                         namespace.stringKey(), StringSerializer.INSTANCE, flinkStateDescriptor)
                     .get();
-            return result == null;
+            return result == null && cache.getAppended(namespace.stringKey(), stateId).isEmpty();
           } catch (Exception e) {
             throw new RuntimeException("Error reading state.", e);
           }
@@ -347,6 +650,7 @@ public class FlinkStateInternals<K> implements StateInternals {
     @Override
     public void clear() {
       try {
+        cache.remove(namespace.stringKey(), stateId);
         flinkStateBackend
             .getPartitionedState(
                 namespace.stringKey(), StringSerializer.INSTANCE, flinkStateDescriptor)
@@ -384,11 +688,14 @@ public class FlinkStateInternals<K> implements StateInternals {
     private final StateNamespace namespace;
     private final String stateId;
     private final Combine.CombineFn<InputT, AccumT, OutputT> combineFn;
+    private final Coder<AccumT> accumCoder;
     private final ValueStateDescriptor<AccumT> flinkStateDescriptor;
     private final KeyedStateBackend<ByteBuffer> flinkStateBackend;
+    private final WriteBackCache cache;
 
     FlinkCombiningState(
         KeyedStateBackend<ByteBuffer> flinkStateBackend,
+        WriteBackCache cache,
         String stateId,
         Combine.CombineFn<InputT, AccumT, OutputT> combineFn,
         StateNamespace namespace,
@@ -397,7 +704,9 @@ public class FlinkStateInternals<K> implements StateInternals {
       this.namespace = namespace;
       this.stateId = stateId;
       this.combineFn = combineFn;
+      this.accumCoder = accumCoder;
       this.flinkStateBackend = flinkStateBackend;
+      this.cache = cache;
 
       flinkStateDescriptor =
           new ValueStateDescriptor<>(stateId, new CoderTypeSerializer<>(accumCoder));
@@ -411,16 +720,12 @@ public class FlinkStateInternals<K> implements StateInternals {
     @Override
     public void add(InputT value) {
       try {
-        org.apache.flink.api.common.state.ValueState<AccumT> state =
-            flinkStateBackend.getPartitionedState(
-                namespace.stringKey(), StringSerializer.INSTANCE, flinkStateDescriptor);
-
-        AccumT current = state.value();
+        AccumT current = readAccum();
         if (current == null) {
           current = combineFn.createAccumulator();
         }
         current = combineFn.addInput(current, value);
-        state.update(current);
+        writeAccum(current);
       } catch (Exception e) {
         throw new RuntimeException("Error adding to state.", e);
       }
@@ -429,16 +734,12 @@ public class FlinkStateInternals<K> implements StateInternals {
     @Override
     public void addAccum(AccumT accum) {
       try {
-        org.apache.flink.api.common.state.ValueState<AccumT> state =
-            flinkStateBackend.getPartitionedState(
-                namespace.stringKey(), StringSerializer.INSTANCE, flinkStateDescriptor);
-
-        AccumT current = state.value();
+        AccumT current = readAccum();
         if (current == null) {
-          state.update(accum);
+          writeAccum(accum);
         } else {
           current = combineFn.mergeAccumulators(Lists.newArrayList(current, accum));
-          state.update(current);
+          writeAccum(current);
         }
       } catch (Exception e) {
         throw new RuntimeException("Error adding to state.", e);
@@ -448,10 +749,7 @@ public class FlinkStateInternals<K> implements StateInternals {
     @Override
     public AccumT getAccum() {
       try {
-        return flinkStateBackend
-            .getPartitionedState(
-                namespace.stringKey(), StringSerializer.INSTANCE, flinkStateDescriptor)
-            .value();
+        return readAccum();
       } catch (Exception e) {
         throw new RuntimeException("Error reading state.", e);
       }
@@ -465,11 +763,7 @@ public class FlinkStateInternals<K> implements StateInternals {
     @Override
     public OutputT read() {
       try {
-        org.apache.flink.api.common.state.ValueState<AccumT> state =
-            flinkStateBackend.getPartitionedState(
-                namespace.stringKey(), StringSerializer.INSTANCE, flinkStateDescriptor);
-
-        AccumT accum = state.value();
+        AccumT accum = readAccum();
         if (accum != null) {
           return combineFn.extractOutput(accum);
         } else {
@@ -486,11 +780,7 @@ public class FlinkStateInternals<K> implements StateInternals {
         @Override
         public Boolean read() {
           try {
-            return flinkStateBackend
-                    .getPartitionedState(
-                        namespace.stringKey(), StringSerializer.INSTANCE, flinkStateDescriptor)
-                    .value()
-                == null;
+            return readAccum() == null;
           } catch (Exception e) {
             throw new RuntimeException("Error reading state.", e);
           }
@@ -506,6 +796,7 @@ public class FlinkStateInternals<K> implements StateInternals {
     @Override
     public void clear() {
       try {
+        cache.remove(namespace.stringKey(), stateId);
         flinkStateBackend
             .getPartitionedState(
                 namespace.stringKey(), StringSerializer.INSTANCE, flinkStateDescriptor)
@@ -515,6 +806,15 @@ public class FlinkStateInternals<K> implements StateInternals {
       }
     }
 
+    @Nullable
+    private AccumT readAccum() throws Exception {
+      return cache.readValue(namespace.stringKey(), stateId, flinkStateDescriptor, accumCoder);
+    }
+
+    private void writeAccum(AccumT accum) throws Exception {
+      cache.writeValue(namespace.stringKey(), stateId, flinkStateDescriptor, accumCoder, accum);
+    }
+
     @Override
     public boolean equals(Object o) {
       if (this == o) {
@@ -543,12 +843,15 @@ public class FlinkStateInternals<K> implements StateInternals {
     private final StateNamespace namespace;
     private final String stateId;
     private final CombineWithContext.CombineFnWithContext<InputT, AccumT, OutputT> combineFn;
+    private final Coder<AccumT> accumCoder;
     private final ValueStateDescriptor<AccumT> flinkStateDescriptor;
     private final KeyedStateBackend<ByteBuffer> flinkStateBackend;
+    private final WriteBackCache cache;
     private final CombineWithContext.Context context;
 
     FlinkCombiningStateWithContext(
         KeyedStateBackend<ByteBuffer> flinkStateBackend,
+        WriteBackCache cache,
         String stateId,
         CombineWithContext.CombineFnWithContext<InputT, AccumT, OutputT> combineFn,
         StateNamespace namespace,
@@ -558,7 +861,9 @@ public class FlinkStateInternals<K> implements StateInternals {
       this.namespace = namespace;
       this.stateId = stateId;
       this.combineFn = combineFn;
+      this.accumCoder = accumCoder;
       this.flinkStateBackend = flinkStateBackend;
+      this.cache = cache;
       this.context = context;
 
       flinkStateDescriptor =
@@ -573,16 +878,12 @@ public class FlinkStateInternals<K> implements StateInternals {
     @Override
     public void add(InputT value) {
       try {
-        org.apache.flink.api.common.state.ValueState<AccumT> state =
-            flinkStateBackend.getPartitionedState(
-                namespace.stringKey(), StringSerializer.INSTANCE, flinkStateDescriptor);
-
-        AccumT current = state.value();
+        AccumT current = readAccum();
         if (current == null) {
           current = combineFn.createAccumulator(context);
         }
         current = combineFn.addInput(current, value, context);
-        state.update(current);
+        writeAccum(current);
       } catch (Exception e) {
         throw new RuntimeException("Error adding to state.", e);
       }
@@ -591,16 +892,12 @@ public class FlinkStateInternals<K> implements StateInternals {
     @Override
     public void addAccum(AccumT accum) {
       try {
-        org.apache.flink.api.common.state.ValueState<AccumT> state =
-            flinkStateBackend.getPartitionedState(
-                namespace.stringKey(), StringSerializer.INSTANCE, flinkStateDescriptor);
-
-        AccumT current = state.value();
+        AccumT current = readAccum();
         if (current == null) {
-          state.update(accum);
+          writeAccum(accum);
         } else {
           current = combineFn.mergeAccumulators(Lists.newArrayList(current, accum), context);
-          state.update(current);
+          writeAccum(current);
         }
       } catch (Exception e) {
         throw new RuntimeException("Error adding to state.", e);
@@ -610,10 +907,7 @@ public class FlinkStateInternals<K> implements StateInternals {
     @Override
     public AccumT getAccum() {
       try {
-        return flinkStateBackend
-            .getPartitionedState(
-                namespace.stringKey(), StringSerializer.INSTANCE, flinkStateDescriptor)
-            .value();
+        return readAccum();
       } catch (Exception e) {
         throw new RuntimeException("Error reading state.", e);
       }
@@ -627,11 +921,7 @@ public class FlinkStateInternals<K> implements StateInternals {
     @Override
     public OutputT read() {
       try {
-        org.apache.flink.api.common.state.ValueState<AccumT> state =
-            flinkStateBackend.getPartitionedState(
-                namespace.stringKey(), StringSerializer.INSTANCE, flinkStateDescriptor);
-
-        AccumT accum = state.value();
+        AccumT accum = readAccum();
         if (accum != null) {
           return combineFn.extractOutput(accum, context);
         } else {
@@ -648,11 +938,7 @@ public class FlinkStateInternals<K> implements StateInternals {
         @Override
         public Boolean read() {
           try {
-            return flinkStateBackend
-                    .getPartitionedState(
-                        namespace.stringKey(), StringSerializer.INSTANCE, flinkStateDescriptor)
-                    .value()
-                == null;
+            return readAccum() == null;
           } catch (Exception e) {
             throw new RuntimeException("Error reading state.", e);
           }
@@ -668,6 +954,7 @@ public class FlinkStateInternals<K> implements StateInternals {
     @Override
     public void clear() {
       try {
+        cache.remove(namespace.stringKey(), stateId);
         flinkStateBackend
             .getPartitionedState(
                 namespace.stringKey(), StringSerializer.INSTANCE, flinkStateDescriptor)
@@ -677,6 +964,15 @@ public class FlinkStateInternals<K> implements StateInternals {
       }
     }
 
+    @Nullable
+    private AccumT readAccum() throws Exception {
+      return cache.readValue(namespace.stringKey(), stateId, flinkStateDescriptor, accumCoder);
+    }
+
+    private void writeAccum(AccumT accum) throws Exception {
+      cache.writeValue(namespace.stringKey(), stateId, flinkStateDescriptor, accumCoder, accum);
+    }
+
     @Override
     public boolean equals(Object o) {
       if (this == o) {
@@ -59,7 +59,10 @@ public class EncodedValueComparatorTest extends ComparatorTestBase<byte[]> {
         CoderUtils.encodeToByteArray(coder, "abce"),
         CoderUtils.encodeToByteArray(coder, "abdd"),
         CoderUtils.encodeToByteArray(coder, "accd"),
-        CoderUtils.encodeToByteArray(coder, "bbcd")
+        CoderUtils.encodeToByteArray(coder, "bbcd"),
+        // bytes above 0x7F are ordered after all ASCII bytes
+        CoderUtils.encodeToByteArray(coder, "\u00e9t\u00e9"),
+        CoderUtils.encodeToByteArray(coder, "\u00e9t\u00e9s")
       };
     } catch (CoderException e) {
       throw new RuntimeException("Could not encode values.", e);
@@ -27,8 +27,10 @@ import com.google.common.base.Function;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Optional;
 import javax.annotation.Nullable;
 import org.apache.beam.runners.core.StatefulDoFnRunner;
@@ -39,6 +41,7 @@ import org.apache.beam.runners.flink.translation.wrappers.streaming.DoFnOperator
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.ListCoder;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
 import org.apache.beam.sdk.coders.VarIntCoder;
 import org.apache.beam.sdk.coders.VarLongCoder;
@@ -60,6 +63,7 @@ import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
 import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
 import org.apache.beam.sdk.transforms.windowing.PaneInfo;
 import org.apache.beam.sdk.transforms.windowing.Window;
+import org.apache.beam.sdk.util.IllegalMutationException;
 import org.apache.beam.sdk.util.WindowedValue;
 import org.apache.beam.sdk.util.WindowedValue.FullWindowedValueCoder;
 import org.apache.beam.sdk.values.KV;
@@ -80,7 +84,9 @@ import org.apache.flink.util.OutputTag;
 import org.joda.time.Duration;
 import org.joda.time.Instant;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
@@ -94,6 +100,8 @@ public class DoFnOperatorTest {
   private PCollectionView<Iterable<String>> view1;
   private PCollectionView<Iterable<String>> view2;
 
+  @Rule public final ExpectedException thrown = ExpectedException.none();
+
   @Before
   public void setUp() {
     PCollection<String> pc = Pipeline.create().apply(Create.of("1"));
@@ -1200,6 +1208,56 @@ public class DoFnOperatorTest {
     newHarness.close();
   }
 
+  @Test
+  public void testMutationAfterOutputIsDetectedWithObjectReuse() throws Exception {
+
+    Coder<WindowedValue<List<Integer>>> coder =
+        WindowedValue.getFullCoder(ListCoder.of(VarIntCoder.of()), GlobalWindow.Coder.INSTANCE);
+
+    TupleTag<List<Integer>> outputTag = new TupleTag<>("main-output");
+    FlinkPipelineOptions options = PipelineOptionsFactory.as(FlinkPipelineOptions.class);
+    options.setObjectReuse(true);
+    options.setCheckObjectReuseMutations(true);
+    options.setMaxBundleSize(1L);
+
+    DoFn<List<Integer>, List<Integer>> doFn =
+        new DoFn<List<Integer>, List<Integer>>() {
+          @ProcessElement
+          public void processElement(ProcessContext context) {
+            List<Integer> output = new ArrayList<>(context.element());
+            context.output(output);
+            output.add(42);
+          }
+        };
+
+    DoFnOperator<List<Integer>, List<Integer>> doFnOperator =
+        new DoFnOperator<>(
+            doFn,
+            "stepName",
+            coder,
+            null,
+            Collections.emptyMap(),
+            outputTag,
+            Collections.emptyList(),
+            new DoFnOperator.MultiOutputOutputManagerFactory<>(outputTag, coder),
+            WindowingStrategy.globalDefault(),
+            new HashMap<>(), /* side-input mapping */
+            Collections.emptyList(), /* side inputs */
+            options,
+            null,
+            null);
+
+    OneInputStreamOperatorTestHarness<WindowedValue<List<Integer>>, WindowedValue<List<Integer>>>
+        testHarness = new OneInputStreamOperatorTestHarness<>(doFnOperator);
+
+    testHarness.open();
+
+    thrown.expect(IllegalMutationException.class);
+    thrown.expectMessage("stepName");
+    testHarness.processElement(
+        new StreamRecord<>(WindowedValue.valueInGlobalWindow(ImmutableList.of(1, 2))));
+  }
+
   private Iterable<WindowedValue<String>> stripStreamRecord(Iterable<?> input) {
     return FluentIterable.from(input)
         .filter(o -> o instanceof StreamRecord)
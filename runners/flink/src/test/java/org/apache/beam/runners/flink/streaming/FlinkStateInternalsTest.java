@@ -17,11 +17,28 @@
  */
 package org.apache.beam.runners.flink.streaming;
 
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.collect.Iterables;
+import com.google.common.primitives.Bytes;
 import java.nio.ByteBuffer;
 import org.apache.beam.runners.core.StateInternals;
 import org.apache.beam.runners.core.StateInternalsTest;
+import org.apache.beam.runners.core.StateNamespace;
+import org.apache.beam.runners.core.StateNamespaces;
+import org.apache.beam.runners.core.StateTag;
+import org.apache.beam.runners.core.StateTags;
 import org.apache.beam.runners.flink.translation.wrappers.streaming.state.FlinkStateInternals;
+import org.apache.beam.sdk.coders.ByteArrayCoder;
+import org.apache.beam.sdk.coders.CoderException;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.state.BagState;
+import org.apache.beam.sdk.state.CombiningState;
+import org.apache.beam.sdk.transforms.Combine;
+import org.apache.beam.sdk.transforms.Sum;
 import org.apache.beam.sdk.util.CoderUtils;
 import org.apache.flink.api.common.ExecutionConfig;
 import org.apache.flink.api.common.JobID;
@@ -32,6 +49,7 @@ import org.apache.flink.runtime.query.KvStateRegistry;
 import org.apache.flink.runtime.state.AbstractKeyedStateBackend;
 import org.apache.flink.runtime.state.KeyGroupRange;
 import org.apache.flink.runtime.state.memory.MemoryStateBackend;
+import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
@@ -39,8 +57,92 @@ import org.junit.runners.JUnit4;
 @RunWith(JUnit4.class)
 public class FlinkStateInternalsTest extends StateInternalsTest {
 
+  private static final StateNamespace NAMESPACE = StateNamespaces.global();
+  private static final StateTag<CombiningState<Integer, int[], Integer>> SUM_INTEGER_ADDR =
+      StateTags.combiningValueFromInputInternal("sumInteger", VarIntCoder.of(), Sum.ofIntegers());
+  private static final StateTag<BagState<String>> STRING_BAG_ADDR =
+      StateTags.bag("stringBag", StringUtf8Coder.of());
+  private static final StateTag<CombiningState<byte[], byte[], byte[]>> CONCAT_ADDR =
+      StateTags.combiningValue("concat", ByteArrayCoder.of(), new ConcatFn());
+
   @Override
   protected StateInternals createStateInternals() {
+    // a small cache, so that the tests cover both cached state and state written to the backend
+    return new FlinkStateInternals<>(createStateBackend("Hello"), StringUtf8Coder.of(), 256L);
+  }
+
+  @Test
+  public void testCachedStateIsWrittenToBackendOnFlush() throws Exception {
+    AbstractKeyedStateBackend<ByteBuffer> keyedStateBackend = createStateBackend("first");
+    FlinkStateInternals<String> cachedInternals =
+        new FlinkStateInternals<>(keyedStateBackend, StringUtf8Coder.of(), 1024 * 1024L);
+    FlinkStateInternals<String> uncachedInternals =
+        new FlinkStateInternals<>(keyedStateBackend, StringUtf8Coder.of());
+
+    cachedInternals.state(NAMESPACE, SUM_INTEGER_ADDR).add(1);
+    cachedInternals.state(NAMESPACE, SUM_INTEGER_ADDR).add(2);
+    cachedInternals.state(NAMESPACE, STRING_BAG_ADDR).add("a");
+    setCurrentKey(keyedStateBackend, "second");
+    cachedInternals.state(NAMESPACE, SUM_INTEGER_ADDR).add(10);
+
+    assertThat(cachedInternals.state(NAMESPACE, SUM_INTEGER_ADDR).read(), equalTo(10));
+    assertThat(uncachedInternals.state(NAMESPACE, SUM_INTEGER_ADDR).read(), equalTo(0));
+
+    cachedInternals.flushStateCache();
+
+    assertThat(keyedStateBackend.getCurrentKey(), equalTo(encodeKey("second")));
+    assertThat(uncachedInternals.state(NAMESPACE, SUM_INTEGER_ADDR).read(), equalTo(10));
+    setCurrentKey(keyedStateBackend, "first");
+    assertThat(uncachedInternals.state(NAMESPACE, SUM_INTEGER_ADDR).read(), equalTo(3));
+    assertThat(uncachedInternals.state(NAMESPACE, STRING_BAG_ADDR).read(), contains("a"));
+  }
+
+  @Test
+  public void testCacheSizeTracksGrowingAndClearedAccumulators() throws Exception {
+    AbstractKeyedStateBackend<ByteBuffer> keyedStateBackend = createStateBackend("key");
+    FlinkStateInternals<String> cachedInternals =
+        new FlinkStateInternals<>(keyedStateBackend, StringUtf8Coder.of(), 1024L);
+    FlinkStateInternals<String> uncachedInternals =
+        new FlinkStateInternals<>(keyedStateBackend, StringUtf8Coder.of());
+    CombiningState<byte[], byte[], byte[]> cached = cachedInternals.state(NAMESPACE, CONCAT_ADDR);
+    CombiningState<byte[], byte[], byte[]> uncached =
+        uncachedInternals.state(NAMESPACE, CONCAT_ADDR);
+
+    // A cleared accumulator no longer counts towards the size of the cache.
+    cached.add(new byte[600]);
+    cached.clear();
+    cached.add(new byte[600]);
+    assertThat(uncached.read().length, equalTo(0));
+
+    // The accumulator is flushed once it grew past the size of the cache.
+    cached.add(new byte[600]);
+    assertThat(uncached.read().length, equalTo(1200));
+  }
+
+  /** Concatenates its inputs, so that its accumulator grows with every input. */
+  private static class ConcatFn extends Combine.CombineFn<byte[], byte[], byte[]> {
+    @Override
+    public byte[] createAccumulator() {
+      return new byte[0];
+    }
+
+    @Override
+    public byte[] addInput(byte[] accumulator, byte[] input) {
+      return Bytes.concat(accumulator, input);
+    }
+
+    @Override
+    public byte[] mergeAccumulators(Iterable<byte[]> accumulators) {
+      return Bytes.concat(Iterables.toArray(accumulators, byte[].class));
+    }
+
+    @Override
+    public byte[] extractOutput(byte[] accumulator) {
+      return accumulator;
+    }
+  }
+
+  private static AbstractKeyedStateBackend<ByteBuffer> createStateBackend(String key) {
     MemoryStateBackend backend = new MemoryStateBackend();
     try {
       AbstractKeyedStateBackend<ByteBuffer> keyedStateBackend =
@@ -53,12 +155,23 @@ public class FlinkStateInternalsTest extends StateInternalsTest {
               new KeyGroupRange(0, 0),
               new KvStateRegistry().createTaskRegistry(new JobID(), new JobVertexID()));
 
-      keyedStateBackend.setCurrentKey(
-          ByteBuffer.wrap(CoderUtils.encodeToByteArray(StringUtf8Coder.of(), "Hello")));
-
-      return new FlinkStateInternals<>(keyedStateBackend, StringUtf8Coder.of());
+      setCurrentKey(keyedStateBackend, key);
+      return keyedStateBackend;
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
   }
+
+  private static void setCurrentKey(
+      AbstractKeyedStateBackend<ByteBuffer> keyedStateBackend, String key) {
+    keyedStateBackend.setCurrentKey(encodeKey(key));
+  }
+
+  private static ByteBuffer encodeKey(String key) {
+    try {
+      return ByteBuffer.wrap(CoderUtils.encodeToByteArray(StringUtf8Coder.of(), key));
+    } catch (CoderException e) {
+      throw new RuntimeException(e);
+    }
+  }
 }
@@ -17,19 +17,36 @@
  */
 package org.apache.beam.runners.flink.translation.types;
 
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 
+import com.google.common.collect.Iterables;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
 import org.apache.beam.runners.flink.translation.types.CoderTypeSerializer.CoderTypeSerializerConfigSnapshot;
 import org.apache.beam.sdk.coders.AtomicCoder;
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.CoderException;
+import org.apache.beam.sdk.coders.IterableCoder;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.ListCoder;
+import org.apache.beam.sdk.coders.NullableCoder;
+import org.apache.beam.sdk.coders.SerializableCoder;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
+import org.apache.beam.sdk.util.WindowedValue;
+import org.apache.beam.sdk.values.KV;
 import org.apache.flink.api.common.typeutils.ComparatorTestBase;
 import org.apache.flink.api.common.typeutils.TypeSerializerConfigSnapshot;
+import org.joda.time.Instant;
 import org.junit.Test;
 
 /** Tests {@link CoderTypeSerializer}. */
@@ -59,6 +76,73 @@ public class CoderTypeSerializerTest {
     testWriteAndReadConfigSnapshot(concreteClassCoder);
   }
 
+  @Test
+  public void shouldCopySerializedWindowedValuesAsBytes() throws Exception {
+    Coder<WindowedValue<KV<String, Iterable<Long>>>> coder =
+        WindowedValue.getFullCoder(
+            KvCoder.of(NullableCoder.of(StringUtf8Coder.of()), IterableCoder.of(VarLongCoder.of())),
+            IntervalWindow.getCoder());
+    IntervalWindow window = new IntervalWindow(new Instant(-10), new Instant(1000));
+    // an Iterable that is not a Collection is encoded in blocks of unknown size
+    Iterable<Long> values = Iterables.unmodifiableIterable(Arrays.asList(1L, -2L, 300L));
+
+    testCopySerialized(
+        coder,
+        WindowedValue.of(KV.of("key", values), new Instant(5), window, PaneInfo.NO_FIRING),
+        WindowedValue.of(
+            KV.of(null, Collections.emptyList()),
+            new Instant(7),
+            Arrays.asList(window, window),
+            PaneInfo.createPane(false, false, PaneInfo.Timing.LATE, 3, 1)),
+        WindowedValue.of(
+            KV.of("\u00e9", Collections.singletonList(Long.MAX_VALUE)),
+            BoundedWindow.TIMESTAMP_MIN_VALUE,
+            window,
+            PaneInfo.createPane(false, false, PaneInfo.Timing.EARLY, 4, -1)));
+  }
+
+  @Test
+  public void shouldCopySerializedValuesOfUnknownCoders() throws Exception {
+    Coder<KV<String, Integer>> coder =
+        KvCoder.of(StringUtf8Coder.of(), SerializableCoder.of(Integer.class));
+
+    testCopySerialized(coder, KV.of("a", 1), KV.of("b", 2));
+  }
+
+  @Test
+  public void shouldNotCopyImmutableValues() {
+    String value = "value";
+    assertThat(new CoderTypeSerializer<>(StringUtf8Coder.of()).isImmutableType(), is(true));
+    assertThat(new CoderTypeSerializer<>(StringUtf8Coder.of()).copy(value), sameInstance(value));
+    assertThat(
+        new CoderTypeSerializer<>(ListCoder.of(StringUtf8Coder.of())).isImmutableType(), is(false));
+  }
+
+  @SafeVarargs
+  private static <T> void testCopySerialized(Coder<T> coder, T... values) throws IOException {
+    CoderTypeSerializer<T> serializer = new CoderTypeSerializer<>(coder);
+    ComparatorTestBase.TestOutputView serialized = new ComparatorTestBase.TestOutputView();
+    for (T value : values) {
+      serializer.serialize(value, serialized);
+    }
+
+    ComparatorTestBase.TestInputView source = serialized.getInputView();
+    ComparatorTestBase.TestOutputView copied = new ComparatorTestBase.TestOutputView();
+    for (int i = 0; i < values.length; i++) {
+      serializer.copy(source, copied);
+    }
+    assertThat(source.available(), is(0));
+
+    assertThat(toByteArray(copied), equalTo(toByteArray(serialized)));
+  }
+
+  private static byte[] toByteArray(ComparatorTestBase.TestOutputView outputView)
+      throws IOException {
+    byte[] bytes = new byte[outputView.size()];
+    outputView.getInputView().readFully(bytes);
+    return bytes;
+  }
+
   private void testWriteAndReadConfigSnapshot(Coder<String> coder) throws IOException {
     CoderTypeSerializer<String> serializer = new CoderTypeSerializer<>(coder);
 
@@ -52,4 +52,15 @@ public interface DataflowWorkerHarnessOptions extends DataflowPipelineOptions {
   Integer getWorkerCacheMb();
 
   void setWorkerCacheMb(Integer value);
+
+  /**
+   * The size of the worker's off-heap cache of encoded side input blocks, in megabytes.
+   *
+   * <p>This cache is only used with the {@code use_ism_block_cache} experiment.
+   */
+  @Description("The size of the worker's off-heap cache of side input blocks, in megabytes.")
+  @Default.Integer(256)
+  Integer getWorkerBlockCacheMb();
+
+  void setWorkerBlockCacheMb(Integer value);
 }
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.dataflow.worker;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.primitives.Ints;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import org.apache.beam.runners.dataflow.worker.IsmReaderImpl.IsmShardKey;
+
+/**
+ * A process-wide cache of encoded Ism data blocks, shared by all {@link IsmReaderImpl}s.
+ *
+ * <p>Blocks are stored off-heap in direct {@link ByteBuffer}s and weighted by their encoded size.
+ * Unlike the data cache of decoded blocks, records are only decoded when they are read, so large
+ * side inputs can be served without retaining their decoded form on the heap.
+ */
+class IsmBlockCache {
+  /** Estimated overhead of each cached block, in bytes. */
+  private static final int OVERHEAD_WEIGHT = 128;
+
+  private static IsmBlockCache sharedInstance;
+
+  private final Cache<IsmShardKey, ByteBuffer> cache;
+
+  IsmBlockCache(long maximumBytes) {
+    this.cache =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maximumBytes)
+            .weigher(
+                (IsmShardKey key, ByteBuffer block) ->
+                    Ints.saturatedCast((long) block.capacity() + OVERHEAD_WEIGHT))
+            .recordStats()
+            .build();
+  }
+
+  /**
+   * Returns the process-wide block cache, creating it with the given capacity if it does not exist
+   * yet.
+   */
+  static synchronized IsmBlockCache shared(long maximumBytes) {
+    if (sharedInstance == null) {
+      sharedInstance = new IsmBlockCache(maximumBytes);
+    }
+    return sharedInstance;
+  }
+
+  /**
+   * Returns a read-only view of the encoded block for {@code key}, using {@code loader} to read it
+   * into a direct {@link ByteBuffer} if it is not cached.
+   */
+  ByteBuffer get(IsmShardKey key, Callable<ByteBuffer> loader) throws IOException {
+    try {
+      return cache.get(key, loader).asReadOnlyBuffer();
+    } catch (ExecutionException e) {
+      // Try and re-throw the root cause if its an IOException
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /** Copies {@code length} bytes of {@code data} starting at {@code offset} into the cache. */
+  void put(IsmShardKey key, byte[] data, int offset, int length) {
+    ByteBuffer block = ByteBuffer.allocateDirect(length);
+    block.put(data, offset, length);
+    block.flip();
+    cache.put(key, block);
+  }
+
+  CacheStats stats() {
+    return cache.stats();
+  }
+}
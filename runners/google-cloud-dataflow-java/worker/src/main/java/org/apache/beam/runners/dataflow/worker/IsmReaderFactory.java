@@ -27,8 +27,11 @@ import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Objects;
 import javax.annotation.Nullable;
+import org.apache.beam.runners.dataflow.DataflowRunner;
 import org.apache.beam.runners.dataflow.internal.IsmFormat.IsmRecord;
 import org.apache.beam.runners.dataflow.internal.IsmFormat.IsmRecordCoder;
+import org.apache.beam.runners.dataflow.options.DataflowPipelineDebugOptions;
+import org.apache.beam.runners.dataflow.options.DataflowWorkerHarnessOptions;
 import org.apache.beam.runners.dataflow.util.CloudObject;
 import org.apache.beam.runners.dataflow.util.RandomAccessData;
 import org.apache.beam.runners.dataflow.worker.util.WorkerPropertyNames;
@@ -46,6 +49,13 @@ import org.apache.beam.sdk.util.WindowedValue.WindowedValueCoder;
  * non {@link IsmRecordCoder} with this reader factory.
  */
 public class IsmReaderFactory implements ReaderFactory {
+  /**
+   * Experiment which makes readers memory-map local files and share an off-heap cache of encoded
+   * blocks instead of caching decoded blocks on the heap.
+   */
+  static final String USE_ISM_BLOCK_CACHE_EXPERIMENT = "use_ism_block_cache";
+
+  private static final long MEGABYTES = 1024 * 1024;
 
   /** A {@link ReaderFactory.Registrar} for ISM sources. */
   @AutoService(ReaderFactory.Registrar.class)
@@ -111,6 +121,19 @@ public class IsmReaderFactory implements ReaderFactory {
     // is one created within this JVM for this file instead of creating a new one each time.
     // This allows us to save on initialization costs across multiple work items that access
     // the same file.
+    if (options != null
+        && DataflowRunner.hasExperiment(
+            options.as(DataflowPipelineDebugOptions.class), USE_ISM_BLOCK_CACHE_EXPERIMENT)) {
+      long blockCacheBytes =
+          options.as(DataflowWorkerHarnessOptions.class).getWorkerBlockCacheMb() * MEGABYTES;
+      return execContext
+          .<IsmReaderKey, NativeReader<?>>getLogicalReferenceCache()
+          .get(
+              new IsmReaderKey(resourceId.toString()),
+              () ->
+                  new IsmReaderImpl<V>(
+                      resourceId, ismCoder, IsmBlockCache.shared(blockCacheBytes)));
+    }
     return execContext
         .<IsmReaderKey, NativeReader<?>>getLogicalReferenceCache()
         .get(
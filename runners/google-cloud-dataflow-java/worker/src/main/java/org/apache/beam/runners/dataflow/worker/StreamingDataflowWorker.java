@@ -66,6 +66,7 @@ import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import javax.annotation.Nullable;
@@ -168,6 +169,9 @@ public class StreamingDataflowWorker {
   // retrieving extra work from Windmill without working on it, leading to better
   // prioritization / utilization.
   static final int MAX_WORK_UNITS_QUEUED = 100;
+  // Fraction of the heap that queued work units may occupy, though at least one GetWork response
+  // worth of work can always be queued.
+  static final double MAX_WORK_UNIT_BYTES_QUEUED_HEAP_FRACTION = 0.1;
   static final long MAX_COMMIT_BYTES = 32 << 20;
   static final int MAX_COMMIT_QUEUE_BYTES = 500 << 20; // 500MB
   static final int NUM_COMMIT_STREAMS = 1;
@@ -302,6 +306,7 @@ public class StreamingDataflowWorker {
     private Windmill.WorkItemCommitRequest request;
     private ComputationState computationState;
     private Work work;
+    private final long queuedNanos = System.nanoTime();
 
     public Commit(
         Windmill.WorkItemCommitRequest request, ComputationState computationState, Work work) {
@@ -310,6 +315,11 @@ public class StreamingDataflowWorker {
       this.work = work;
     }
 
+    /** Returns the {@link System#nanoTime()} at which this commit was queued. */
+    public long getQueuedNanos() {
+      return queuedNanos;
+    }
+
     public Windmill.WorkItemCommitRequest getRequest() {
       return request;
     }
@@ -354,7 +364,7 @@ public class StreamingDataflowWorker {
   private final ConcurrentMap<String, String> systemNameToComputationIdMap =
       new ConcurrentHashMap<>();
 
-  private final WindmillStateCache stateCache = new WindmillStateCache();
+  private final WindmillStateCache stateCache;
 
   private final ThreadFactory threadFactory;
   private DataflowMapTaskExecutorFactory mapTaskExecutorFactory;
@@ -363,6 +373,8 @@ public class StreamingDataflowWorker {
   private final Thread dispatchThread;
   private final Thread commitThread;
   private final AtomicLong activeCommitBytes = new AtomicLong();
+  // Number of work items being processed that have not yet queued their commit.
+  private final AtomicInteger processingWorkCount = new AtomicInteger();
   private final AtomicBoolean running = new AtomicBoolean();
   private final StateFetcher stateFetcher;
   private final StreamingDataflowWorkerOptions options;
@@ -531,6 +543,7 @@ public class StreamingDataflowWorker {
     this.sdkHarnessRegistry = sdkHarnessRegistry;
     this.windmillServiceEnabled = StreamingDataflowWorkerOptions.streamingEngineEnabled(options);
     this.memoryMonitor = MemoryMonitor.fromOptions(options);
+    this.stateCache = WindmillStateCache.forHeap(memoryMonitor);
     this.statusPages = WorkerStatusPages.create(DEFAULT_STATUS_PORT, memoryMonitor);
     if (windmillServiceEnabled) {
       this.debugCaptureManager =
@@ -565,6 +578,10 @@ public class StreamingDataflowWorker {
             THREAD_EXPIRATION_TIME_SEC,
             TimeUnit.SECONDS,
             MAX_WORK_UNITS_QUEUED,
+            Math.max(
+                MAX_GET_WORK_FETCH_BYTES,
+                (long)
+                    (Runtime.getRuntime().maxMemory() * MAX_WORK_UNIT_BYTES_QUEUED_HEAP_FRACTION)),
             threadFactory);
 
     maxSinkBytes =
@@ -1069,6 +1086,7 @@ public class StreamingDataflowWorker {
     final String computationId = computationState.getComputationId();
     final ByteString key = workItem.getKey();
     work.setState(State.PROCESSING);
+    processingWorkCount.incrementAndGet();
     DataflowWorkerLoggingMDC.setWorkId(
         key.toStringUtf8() + "-" + Long.toString(workItem.getWorkToken()));
     DataflowWorkerLoggingMDC.setStageName(computationId);
@@ -1087,6 +1105,7 @@ public class StreamingDataflowWorker {
     if (workItem.getSourceState().getOnlyFinalize()) {
       outputBuilder.setSourceStateUpdates(Windmill.SourceState.newBuilder().setOnlyFinalize(true));
       work.setState(State.COMMIT_QUEUED);
+      processingWorkCount.decrementAndGet();
       commitQueue.put(new Commit(outputBuilder.build(), computationState, work));
       return;
     }
@@ -1100,6 +1119,7 @@ public class StreamingDataflowWorker {
             mapTask.getStageName(), s -> new StageInfo(s, mapTask.getSystemName()));
 
     ExecutionState executionState = null;
+    boolean commitQueued = false;
 
     try {
       executionState = computationState.getExecutionStateQueue(worker).poll();
@@ -1235,6 +1255,8 @@ public class StreamingDataflowWorker {
 
       // Add the output to the commit queue.
       work.setState(State.COMMIT_QUEUED);
+      commitQueued = true;
+      processingWorkCount.decrementAndGet();
       commitQueue.put(new Commit(outputBuilder.build(), computationState, work));
 
       // Compute shuffle and state byte statistics these will be flushed asynchronously.
@@ -1305,13 +1327,17 @@ public class StreamingDataflowWorker {
         if (retryLocally) {
           // Try again after some delay and at the end of the queue to avoid a tight loop.
           sleep(retryLocallyDelayMs);
-          workUnitExecutor.forceExecute(work);
+          workUnitExecutor.forceExecute(work, computationId, workItem.getSerializedSize());
         } else {
           // Consider the item invalid. It will eventually be retried by Windmill.
           computationState.completeWork(key, workItem.getWorkToken());
         }
       }
     } finally {
+      if (!commitQueued) {
+        processingWorkCount.decrementAndGet();
+      }
+
       // Update total processing time counters. Updating in finally clause ensures that
       // work items causing exceptions are also accounted in time spent.
       long processingTimeMsecs =
@@ -1386,24 +1412,37 @@ public class StreamingDataflowWorker {
     StreamPool<CommitWorkStream> streamPool =
         new StreamPool<>(
             NUM_COMMIT_STREAMS, COMMIT_STREAM_TIMEOUT, windmillServer::commitWorkStream);
+    long batchingDelayNanos =
+        TimeUnit.MILLISECONDS.toNanos(
+            options.getWindmillServiceStreamingCommitBatchingDelayMillis());
     Commit commit = null;
     while (running.get()) {
       // Batch commits as long as there are more and we can fit them in the current request.
       CommitWorkStream commitStream = streamPool.getStream();
       int commits = 0;
+      long batchDeadlineNanos = 0;
       while (true) {
         // There may be a commit left over from the previous iteration but if not, pull one.
         if (commit == null) {
           try {
             if (commits == 0) {
               commit = commitQueue.take();
-            } else if (commits < 10) {
-              commit = commitQueue.poll(20 - 2 * commits, TimeUnit.MILLISECONDS);
             } else {
-              commit = commitQueue.poll();
+              // Only wait on an empty queue while other work items are still being processed, as
+              // their commits will follow shortly, and only until the first commit of the batch
+              // has waited for the batching delay. Otherwise the batch is flushed without delay.
+              long remainingNanos = batchDeadlineNanos - System.nanoTime();
+              if (processingWorkCount.get() > 0 && remainingNanos > 0) {
+                commit = commitQueue.poll(remainingNanos, TimeUnit.NANOSECONDS);
+              } else {
+                commit = commitQueue.poll();
+              }
             }
           } catch (InterruptedException e) {
-            // Continue processing until !running.get()
+            // Continue processing until !running.get(), flushing anything batched so far.
+            if (!running.get()) {
+              break;
+            }
             continue;
           }
           if (commit == null) {
@@ -1412,6 +1451,9 @@ public class StreamingDataflowWorker {
           }
         }
 
+        if (commits == 0) {
+          batchDeadlineNanos = commit.getQueuedNanos() + batchingDelayNanos;
+        }
         commits++;
         final ComputationState state = commit.getComputationState();
         final Windmill.WorkItemCommitRequest request = commit.getRequest();
@@ -1420,6 +1462,7 @@ public class StreamingDataflowWorker {
         if (commitStream.commitWorkItem(
             state.computationId,
             request,
+            commit.getQueuedNanos(),
             (Windmill.CommitStatus status) -> {
               if (status != Windmill.CommitStatus.OK) {
                 stateCache.forComputation(state.computationId).invalidate(request.getKey());
@@ -1879,7 +1922,7 @@ public class StreamingDataflowWorker {
           return;
         }
       }
-      executor.execute(work);
+      executor.execute(work, computationId, work.getWorkItem().getSerializedSize());
     }
 
     /** Marks the work for a the given key as complete. Schedules queued work for the key if any. */
@@ -1906,7 +1949,7 @@ public class StreamingDataflowWorker {
         }
         work = queue.peek();
       }
-      executor.forceExecute(work);
+      executor.forceExecute(work, computationId, work.getWorkItem().getSerializedSize());
     }
 
     /** Adds any work started before the refreshDeadline to the GetDataRequest builder. */
@@ -2066,12 +2109,20 @@ public class StreamingDataflowWorker {
               + workUnitExecutor.getMaximumPoolSize()
               + "<br>");
       writer.println("Active Threads: " + workUnitExecutor.getActiveCount() + "<br>");
+      writer.println(
+          "Worker Thread Utilization: "
+              + Math.round(100 * workUnitExecutor.getUtilization())
+              + "%<br>");
       writer.println(
           "Work Queue Size: "
               + workUnitExecutor.getQueue().size()
               + "/"
               + MAX_WORK_UNITS_QUEUED
-              + "<br>");
+              + ", "
+              + (workUnitExecutor.getQueuedBytes() >> 20)
+              + "MB<br>");
+      writer.println(
+          "Average Work Queue Wait: " + workUnitExecutor.getAverageQueueWaitMillis() + "ms<br>");
       writer.print("Commit Queue: ");
       writer.print(commitQueue.weight() >> 20);
       writer.print("MB, ");
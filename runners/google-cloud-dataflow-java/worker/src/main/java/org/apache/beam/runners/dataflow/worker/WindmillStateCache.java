@@ -17,16 +17,22 @@
  */
 package org.apache.beam.runners.dataflow.worker;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.RemovalCause;
-import com.google.common.cache.Weigher;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.HashMultimap;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -34,6 +40,7 @@ import org.apache.beam.runners.core.StateNamespace;
 import org.apache.beam.runners.core.StateTag;
 import org.apache.beam.runners.dataflow.worker.status.BaseStatusServlet;
 import org.apache.beam.runners.dataflow.worker.status.StatusDataProvider;
+import org.apache.beam.runners.dataflow.worker.util.MemoryMonitor;
 import org.apache.beam.sdk.state.State;
 import org.apache.beam.sdk.util.Weighted;
 import org.apache.beam.vendor.protobuf.v3.com.google.protobuf.ByteString;
@@ -41,11 +48,17 @@ import org.apache.beam.vendor.protobuf.v3.com.google.protobuf.ByteString;
 /**
  * Process-wide cache of per-key state.
  *
- * <p>This is backed by Guava {@link Cache} which is thread-safe. The entries are accessed often
- * from multiple threads. Logical consistency of each entry requires accessing each key (computation
- * * processing key * state_family * namespace) by a single thread at a time. {@link
- * StreamingDataflowWorker} ensures that a single computation * processing key is executing on one
- * thread at a time, so this is safe.
+ * <p>The cache is sharded per computation, and each computation's shard is split into stripes by
+ * processing key, each of which is an LRU map guarded by its own lock. Logical consistency of each
+ * entry requires accessing each key (computation * processing key * state_family * namespace) by a
+ * single thread at a time. {@link StreamingDataflowWorker} ensures that a single computation *
+ * processing key is executing on one thread at a time, so this is safe.
+ *
+ * <p>The total weight of the cache is bounded by a maximum that is derived from the heap size and
+ * shrinks while the worker is under memory pressure. When the cache is full, entries are evicted
+ * from the computation that exceeds its fair share of the cache the most, and entries heavier than
+ * a fraction of the cache are not admitted, so that a single large key cannot flush the state of
+ * all other keys.
  */
 public class WindmillStateCache implements StatusDataProvider {
   // Estimate of overhead per StateId.
@@ -58,181 +71,294 @@ public class WindmillStateCache implements StatusDataProvider {
   private static final int PER_CACHE_ENTRY_OVERHEAD =
       16 + HASH_MAP_ENTRY_OVERHEAD * INITIAL_HASH_MAP_CAPACITY;
 
-  private Cache<StateId, StateCacheEntry> stateCache;
-  private HashMultimap<ComputationKey, StateId> keyIndex =
-      HashMultimap.<ComputationKey, StateId>create();
-  private int displayedWeight = 0; // Only used for status pages and unit tests.
+  // Default and minimum maximum weight of the cache.
+  private static final long DEFAULT_MAX_WEIGHT = 100000000; // 100 MB
+  // Fraction of the heap used for the cache.
+  private static final double HEAP_FRACTION = 0.2;
+  // Fraction of the maximum weight below which memory pressure does not shrink the cache.
+  private static final double MIN_WEIGHT_FRACTION = 0.1;
+  // Fraction of the maximum weight that a single entry may use.
+  private static final double MAX_ENTRY_WEIGHT_FRACTION = 0.1;
+  // How often the maximum weight is adjusted to memory pressure.
+  private static final long RESIZE_INTERVAL_NANOS =
+      TimeUnit.MILLISECONDS.toNanos(MemoryMonitor.DEFAULT_SLEEP_TIME_MILLIS);
+  // Number of independently locked stripes per computation.
+  private static final int STRIPES_PER_COMPUTATION = 16;
+
+  private final ConcurrentMap<String, ComputationShard> shards = new ConcurrentHashMap<>();
+  private final AtomicLong weight = new AtomicLong();
+  private final long targetMaxWeight;
+  private final BooleanSupplier isUnderMemoryPressure;
+  private final AtomicLong lastResizeNanos = new AtomicLong(System.nanoTime());
+  private volatile long maxWeight;
 
   public WindmillStateCache() {
-    final Weigher<Weighted, Weighted> weigher = Weighers.weightedKeysAndValues();
-
-    stateCache =
-        CacheBuilder.newBuilder()
-            .maximumWeight(100000000 /* 100 MB */)
-            .recordStats()
-            .weigher(weigher)
-            .removalListener(
-                removal -> {
-                  if (removal.getCause() != RemovalCause.REPLACED) {
-                    synchronized (this) {
-                      StateId id = (StateId) removal.getKey();
-                      if (removal.getCause() != RemovalCause.EXPLICIT) {
-                        // When we invalidate a key explicitly, we'll also update the keyIndex, so
-                        // no need to do it here.
-                        keyIndex.remove(id.getComputationKey(), id);
-                      }
-                      displayedWeight -= weigher.weigh(id, removal.getValue());
-                    }
-                  }
-                })
-            .build();
+    this(DEFAULT_MAX_WEIGHT, () -> false);
+  }
+
+  /**
+   * Creates a cache of at most {@code maxWeight} bytes, which is halved whenever {@code
+   * isUnderMemoryPressure} holds and grows back gradually once it does not.
+   */
+  public WindmillStateCache(long maxWeight, BooleanSupplier isUnderMemoryPressure) {
+    this.targetMaxWeight = maxWeight;
+    this.maxWeight = maxWeight;
+    this.isUnderMemoryPressure = isUnderMemoryPressure;
+  }
+
+  /** Creates a cache sized to the worker's heap, which shrinks while GC is thrashing. */
+  public static WindmillStateCache forHeap(MemoryMonitor memoryMonitor) {
+    return new WindmillStateCache(
+        maxWeightForHeap(Runtime.getRuntime().maxMemory()), memoryMonitor::isThrashing);
+  }
+
+  @VisibleForTesting
+  static long maxWeightForHeap(long maxHeapBytes) {
+    return Math.max(DEFAULT_MAX_WEIGHT, (long) (maxHeapBytes * HEAP_FRACTION));
   }
 
   public long getWeight() {
-    return displayedWeight;
+    return weight.get();
+  }
+
+  public long getMaxWeight() {
+    return maxWeight;
   }
 
   /** Per-computation view of the state cache. */
   public class ForComputation {
-    private final String computation;
+    private final ComputationShard shard;
 
-    private ForComputation(String computation) {
-      this.computation = computation;
+    private ForComputation(ComputationShard shard) {
+      this.shard = shard;
     }
 
     /** Invalidate all cache entries for this computation and {@code processingKey}. */
     public void invalidate(ByteString processingKey) {
-      synchronized (this) {
-        ComputationKey key = new ComputationKey(computation, processingKey);
-        for (StateId id : keyIndex.get(key)) {
-          stateCache.invalidate(id);
-        }
-        keyIndex.removeAll(key);
-      }
+      shard.invalidate(processingKey);
     }
 
     /** Returns a per-computation, per-key view of the state cache. */
     public ForKey forKey(ByteString key, String stateFamily, long cacheToken) {
-      return new ForKey(computation, key, stateFamily, cacheToken);
+      return new ForKey(shard, key, stateFamily, cacheToken);
     }
   }
 
   /** Per-computation, per-key view of the state cache. */
   public class ForKey {
-    private final String computation;
+    private final ComputationShard shard;
     private final ByteString key;
     private final String stateFamily;
     private final long cacheToken;
 
-    private ForKey(String computation, ByteString key, String stateFamily, long cacheToken) {
-      this.computation = computation;
+    private ForKey(ComputationShard shard, ByteString key, String stateFamily, long cacheToken) {
+      this.shard = shard;
       this.key = key;
       this.stateFamily = stateFamily;
       this.cacheToken = cacheToken;
     }
 
     public <T extends State> T get(StateNamespace namespace, StateTag<T> address) {
-      return WindmillStateCache.this.get(
-          computation, key, stateFamily, cacheToken, namespace, address);
+      return shard.get(new StateId(key, stateFamily, namespace), cacheToken, namespace, address);
     }
 
     public <T extends State> void put(
         StateNamespace namespace, StateTag<T> address, T value, long weight) {
-      WindmillStateCache.this.put(
-          computation, key, stateFamily, cacheToken, namespace, address, value, weight);
+      shard.put(
+          new StateId(key, stateFamily, namespace), cacheToken, namespace, address, value, weight);
+      evictIfFull();
     }
   }
 
   /** Returns a per-computation view of the state cache. */
   public ForComputation forComputation(String computation) {
-    return new ForComputation(computation);
+    return new ForComputation(shards.computeIfAbsent(computation, ComputationShard::new));
   }
 
-  private <T extends State> T get(
-      String computation,
-      ByteString processingKey,
-      String stateFamily,
-      long token,
-      StateNamespace namespace,
-      StateTag<T> address) {
-    StateId id = new StateId(computation, processingKey, stateFamily, namespace);
-    StateCacheEntry entry = stateCache.getIfPresent(id);
-    if (entry == null) {
-      return null;
-    }
-    if (entry.getToken() != token) {
-      stateCache.invalidate(id);
-      return null;
-    }
-    return entry.get(namespace, address);
+  /**
+   * Evicts entries until the cache fits its maximum weight, always from the computation that
+   * exceeds its fair share of the cache the most.
+   */
+  private void evictIfFull() {
+    maybeResize();
+    while (weight.get() > maxWeight) {
+      long activeShards = shards.values().stream().filter(s -> s.weight.get() > 0).count();
+      long fairShare = maxWeight / Math.max(1, activeShards);
+      ComputationShard victim = null;
+      long victimExcess = Long.MIN_VALUE;
+      for (ComputationShard shard : shards.values()) {
+        long excess = shard.weight.get() - fairShare;
+        if (shard.weight.get() > 0 && excess > victimExcess) {
+          victim = shard;
+          victimExcess = excess;
+        }
+      }
+      if (victim == null || !victim.evictOne()) {
+        return;
+      }
+    }
   }
 
-  private <T extends State> void put(
-      String computation,
-      ByteString processingKey,
-      String stateFamily,
-      long token,
-      StateNamespace namespace,
-      StateTag<T> address,
-      T value,
-      long weight) {
-    StateId id = new StateId(computation, processingKey, stateFamily, namespace);
-    StateCacheEntry entry = stateCache.getIfPresent(id);
-    if (entry == null) {
-      synchronized (this) {
-        keyIndex.put(id.getComputationKey(), id);
-      }
+  /** Adjusts the maximum weight to memory pressure, at most once per resize interval. */
+  private void maybeResize() {
+    long now = System.nanoTime();
+    long last = lastResizeNanos.get();
+    if (now - last < RESIZE_INTERVAL_NANOS || !lastResizeNanos.compareAndSet(last, now)) {
+      return;
     }
-    if (entry == null || entry.getToken() != token) {
-      entry = new StateCacheEntry(token);
-      this.displayedWeight += (int) id.getWeight();
-      this.displayedWeight += (int) entry.getWeight();
+    if (isUnderMemoryPressure.getAsBoolean()) {
+      maxWeight = Math.max((long) (targetMaxWeight * MIN_WEIGHT_FRACTION), maxWeight / 2);
+    } else {
+      maxWeight = Math.min(targetMaxWeight, maxWeight + targetMaxWeight / 10);
     }
-    this.displayedWeight += (int) entry.put(namespace, address, value, weight);
-    // Always add back to the cache to update the weight.
-    stateCache.put(id, entry);
   }
 
-  private static class ComputationKey {
+  /** The entries of a single computation, striped by processing key. */
+  private class ComputationShard {
     private final String computation;
-    private final ByteString key;
-
-    public ComputationKey(String computation, ByteString key) {
+    private final Stripe[] stripes = new Stripe[STRIPES_PER_COMPUTATION];
+    private final AtomicLong weight = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private int nextVictimStripe = 0;
+
+    private ComputationShard(String computation) {
       this.computation = computation;
-      this.key = key;
+      for (int i = 0; i < stripes.length; i++) {
+        stripes[i] = new Stripe();
+      }
     }
 
-    public ByteString getKey() {
-      return key;
+    private Stripe stripe(ByteString processingKey) {
+      return stripes[Math.floorMod(processingKey.hashCode(), stripes.length)];
     }
 
-    @Override
-    public boolean equals(Object that) {
-      if (that instanceof ComputationKey) {
-        ComputationKey other = (ComputationKey) that;
-        return computation.equals(other.computation) && key.equals(other.key);
+    <T extends State> T get(StateId id, long token, StateNamespace namespace, StateTag<T> address) {
+      Stripe stripe = stripe(id.processingKey);
+      T value = null;
+      synchronized (stripe) {
+        StateCacheEntry entry = stripe.entries.get(id);
+        if (entry != null) {
+          if (entry.getToken() != token) {
+            remove(stripe, id);
+          } else {
+            value = entry.get(namespace, address);
+          }
+        }
+      }
+      (value == null ? misses : hits).increment();
+      return value;
+    }
+
+    <T extends State> void put(
+        StateId id,
+        long token,
+        StateNamespace namespace,
+        StateTag<T> address,
+        T value,
+        long valueWeight) {
+      Stripe stripe = stripe(id.processingKey);
+      synchronized (stripe) {
+        StateCacheEntry entry = stripe.entries.get(id);
+        if (entry != null && entry.getToken() != token) {
+          remove(stripe, id);
+          entry = null;
+        }
+        if (entry == null) {
+          entry = new StateCacheEntry(token);
+          stripe.entries.put(id, entry);
+          stripe.keyIndex.put(id.processingKey, id);
+          addWeight(id.getWeight() + entry.getWeight());
+        }
+        addWeight(entry.put(namespace, address, value, valueWeight));
+        if (id.getWeight() + entry.getWeight() > maxWeight * MAX_ENTRY_WEIGHT_FRACTION) {
+          // Don't let a single entry take over the cache.
+          remove(stripe, id);
+          rejections.increment();
+        }
+      }
+    }
+
+    void invalidate(ByteString processingKey) {
+      Stripe stripe = stripe(processingKey);
+      synchronized (stripe) {
+        for (StateId id : stripe.keyIndex.removeAll(processingKey)) {
+          removeEntry(stripe, id);
+        }
+      }
+    }
+
+    /** Evicts the least recently used entry of the next non-empty stripe. */
+    boolean evictOne() {
+      for (int i = 0; i < stripes.length; i++) {
+        Stripe stripe;
+        synchronized (this) {
+          stripe = stripes[nextVictimStripe];
+          nextVictimStripe = (nextVictimStripe + 1) % stripes.length;
+        }
+        synchronized (stripe) {
+          Iterator<StateId> it = stripe.entries.keySet().iterator();
+          if (it.hasNext()) {
+            remove(stripe, it.next());
+            evictions.increment();
+            return true;
+          }
+        }
       }
       return false;
     }
 
-    @Override
-    public int hashCode() {
-      return Objects.hash(computation, key);
+    private void remove(Stripe stripe, StateId id) {
+      stripe.keyIndex.remove(id.processingKey, id);
+      removeEntry(stripe, id);
     }
+
+    private void removeEntry(Stripe stripe, StateId id) {
+      StateCacheEntry entry = stripe.entries.remove(id);
+      if (entry != null) {
+        addWeight(-id.getWeight() - entry.getWeight());
+      }
+    }
+
+    private void addWeight(long delta) {
+      weight.addAndGet(delta);
+      WindmillStateCache.this.weight.addAndGet(delta);
+    }
+
+    long size() {
+      long size = 0;
+      for (Stripe stripe : stripes) {
+        synchronized (stripe) {
+          size += stripe.entries.size();
+        }
+      }
+      return size;
+    }
+
+    double hitRate() {
+      long hitCount = hits.sum();
+      long requestCount = hitCount + misses.sum();
+      return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+  }
+
+  /** An LRU map of entries and an index of their processing keys, guarded by the stripe. */
+  private static class Stripe {
+    private final LinkedHashMap<StateId, StateCacheEntry> entries =
+        new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMultimap<ByteString, StateId> keyIndex = HashMultimap.create();
   }
 
-  /** Struct identifying a cache entry that contains all data for a key and namespace. */
+  /** Struct identifying a cache entry of a computation that contains all data for a namespace. */
   private static class StateId implements Weighted {
-    private final ComputationKey computationKey;
+    private final ByteString processingKey;
     private final String stateFamily;
     private final Object namespaceKey;
 
-    public StateId(
-        String computation,
-        ByteString processingKey,
-        String stateFamily,
-        StateNamespace namespace) {
-      this.computationKey = new ComputationKey(computation, processingKey);
+    public StateId(ByteString processingKey, String stateFamily, StateNamespace namespace) {
+      this.processingKey = processingKey;
       this.stateFamily = stateFamily;
       this.namespaceKey = namespace.getCacheKey();
     }
@@ -241,25 +367,21 @@ public class WindmillStateCache implements StatusDataProvider {
     public boolean equals(Object other) {
       if (other instanceof StateId) {
         StateId otherId = (StateId) other;
-        return computationKey.equals(otherId.computationKey)
+        return processingKey.equals(otherId.processingKey)
             && stateFamily.equals(otherId.stateFamily)
             && namespaceKey.equals(otherId.namespaceKey);
       }
       return false;
     }
 
-    public ComputationKey getComputationKey() {
-      return computationKey;
-    }
-
     @Override
     public int hashCode() {
-      return Objects.hash(computationKey, namespaceKey);
+      return Objects.hash(processingKey, namespaceKey);
     }
 
     @Override
     public long getWeight() {
-      return (long) computationKey.getKey().size() + PER_STATE_ID_OVERHEAD;
+      return (long) processingKey.size() + PER_STATE_ID_OVERHEAD;
     }
   }
 
@@ -347,14 +469,46 @@ public class WindmillStateCache implements StatusDataProvider {
   /** Print summary statistics of the cache to the given {@link PrintWriter}. */
   @Override
   public void appendSummaryHtml(PrintWriter response) {
+    long hits = 0;
+    long misses = 0;
+    long evictions = 0;
+    long size = 0;
+    for (ComputationShard shard : shards.values()) {
+      hits += shard.hits.sum();
+      misses += shard.misses.sum();
+      evictions += shard.evictions.sum();
+      size += shard.size();
+    }
     response.println("Cache Stats: <br><table border=0>");
     response.println(
-        "<tr><th>Hit Ratio</th><th>Evictions</th><th>Size</th><th>Weight</th></tr><tr>");
-    response.println("<th>" + stateCache.stats().hitRate() + "</th>");
-    response.println("<th>" + stateCache.stats().evictionCount() + "</th>");
-    response.println("<th>" + stateCache.size() + "</th>");
+        "<tr><th>Hit Ratio</th><th>Evictions</th><th>Size</th><th>Weight</th>"
+            + "<th>Max Weight</th></tr><tr>");
+    response.println(
+        "<th>" + (hits + misses == 0 ? 1.0 : (double) hits / (hits + misses)) + "</th>");
+    response.println("<th>" + evictions + "</th>");
+    response.println("<th>" + size + "</th>");
     response.println("<th>" + getWeight() + "</th>");
+    response.println("<th>" + getMaxWeight() + "</th>");
     response.println("</tr></table><br>");
+
+    response.println("Per Computation: <br><table border=0>");
+    response.println(
+        "<tr><th>Computation</th><th>Hit Ratio</th><th>Hits</th><th>Misses</th>"
+            + "<th>Evictions</th><th>Rejected</th><th>Size</th><th>Weight</th></tr>");
+    Map<String, ComputationShard> sortedShards = new TreeMap<>(shards);
+    for (ComputationShard shard : sortedShards.values()) {
+      response.println("<tr>");
+      response.println("<td>" + shard.computation + "</td>");
+      response.println("<td>" + shard.hitRate() + "</td>");
+      response.println("<td>" + shard.hits.sum() + "</td>");
+      response.println("<td>" + shard.misses.sum() + "</td>");
+      response.println("<td>" + shard.evictions.sum() + "</td>");
+      response.println("<td>" + shard.rejections.sum() + "</td>");
+      response.println("<td>" + shard.size() + "</td>");
+      response.println("<td>" + shard.weight.get() + "</td>");
+      response.println("</tr>");
+    }
+    response.println("</table><br>");
   }
 
   public BaseStatusServlet statusServlet() {
@@ -100,6 +100,24 @@ public interface StreamingDataflowWorkerOptions extends DataflowWorkerHarnessOpt
 
   void setWindmillServiceStreamingRpcBatchLimit(int value);
 
+  @Description(
+      "Maximum time in microseconds a streaming GetData request is held back so that it can be "
+          + "batched with concurrent requests. Requests are sent without waiting when nothing else "
+          + "is outstanding on the stream.")
+  @Default.Integer(1000)
+  int getWindmillServiceStreamingGetDataBatchingDelayMicros();
+
+  void setWindmillServiceStreamingGetDataBatchingDelayMicros(int value);
+
+  @Description(
+      "Maximum time in milliseconds a queued commit is held back so that it can be batched with "
+          + "further commits. Commits are flushed without waiting when no other work is being "
+          + "processed.")
+  @Default.Integer(20)
+  int getWindmillServiceStreamingCommitBatchingDelayMillis();
+
+  void setWindmillServiceStreamingCommitBatchingDelayMillis(int value);
+
   /** Experiment to turn on the Streaming Engine experiment. */
   public static final String STREAMING_ENGINE_EXPERIMENT = "enable_streaming_engine";
 
@@ -17,13 +17,32 @@
  */
 package org.apache.beam.runners.dataflow.worker.util;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import com.google.common.annotations.VisibleForTesting;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
 
-/** Executor that blocks on execute() if its queue is full. */
+/**
+ * Executor that blocks on execute() if its queue is full.
+ *
+ * <p>The queue is bounded both by the number of queued tasks and by their total weight in bytes.
+ * Tasks may be given a key, typically the computation they belong to, and queued tasks are handed
+ * to threads round-robin across keys so that a key with a deep backlog does not starve the others.
+ * Tasks with the same key run in the order they were queued.
+ */
 public class BoundedQueueExecutor extends ThreadPoolExecutor {
   private static class ReducableSemaphore extends Semaphore {
     ReducableSemaphore(int permits) {
@@ -38,39 +57,415 @@ public class BoundedQueueExecutor extends ThreadPoolExecutor {
 
   private ReducableSemaphore semaphore;
 
+  private final long maximumBytesQueued;
+  private final Object bytesLock = new Object();
+  // Protected by bytesLock.
+  private long bytesQueued = 0;
+
+  // The time constant with which the statistics of past Runnables decay.
+  private static final long DEFAULT_STATS_DECAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private final long statsDecayNanos;
+  private final Object statsLock = new Object();
+  // Protected by statsLock.
+  private long statsUpdateNanos = System.nanoTime();
+  private int runningTasks = 0;
+  private double decayedUtilization = 0;
+  private double decayedQueueWaitNanos = 0;
+  private double decayedStartedTasks = 0;
+
   public BoundedQueueExecutor(
       int maximumPoolSize,
       long keepAliveTime,
       TimeUnit unit,
       int maximumQueueSize,
       ThreadFactory threadFactory) {
-    super(
-        maximumPoolSize,
+    this(maximumPoolSize, keepAliveTime, unit, maximumQueueSize, Long.MAX_VALUE, threadFactory);
+  }
+
+  public BoundedQueueExecutor(
+      int maximumPoolSize,
+      long keepAliveTime,
+      TimeUnit unit,
+      int maximumQueueSize,
+      long maximumBytesQueued,
+      ThreadFactory threadFactory) {
+    this(
         maximumPoolSize,
         keepAliveTime,
         unit,
-        new LinkedBlockingQueue<Runnable>(),
-        threadFactory);
+        maximumQueueSize,
+        maximumBytesQueued,
+        threadFactory,
+        DEFAULT_STATS_DECAY_MILLIS);
+  }
+
+  @VisibleForTesting
+  BoundedQueueExecutor(
+      int maximumPoolSize,
+      long keepAliveTime,
+      TimeUnit unit,
+      int maximumQueueSize,
+      long maximumBytesQueued,
+      ThreadFactory threadFactory,
+      long statsDecayMillis) {
+    super(maximumPoolSize, maximumPoolSize, keepAliveTime, unit, new FairQueue(), threadFactory);
     this.semaphore = new ReducableSemaphore(maximumQueueSize);
+    this.maximumBytesQueued = maximumBytesQueued;
+    this.statsDecayNanos = TimeUnit.MILLISECONDS.toNanos(statsDecayMillis);
     allowCoreThreadTimeOut(true);
   }
 
   // Before adding a Runnable to the queue, acquire the semaphore.
   @Override
   public void execute(Runnable r) {
+    execute(r, null, 0);
+  }
+
+  /**
+   * Queues a Runnable of the given weight, blocking while either the queue is full or the queued
+   * bytes would exceed the limit. Runnables with equal keys run in order, and keys are served
+   * round-robin.
+   */
+  public void execute(Runnable r, @Nullable Object key, long bytes) {
     semaphore.acquireUninterruptibly();
-    super.execute(r);
+    acquireBytes(bytes);
+    super.execute(new QueuedTask(r, key, bytes));
   }
 
   // Forcibly add something to the queue, ignoring the length limit.
   public void forceExecute(Runnable r) {
+    forceExecute(r, null, 0);
+  }
+
+  /** Forcibly queues a Runnable of the given weight, ignoring the length and byte limits. */
+  public void forceExecute(Runnable r, @Nullable Object key, long bytes) {
     semaphore.reducePermits(1);
-    super.execute(r);
+    synchronized (bytesLock) {
+      bytesQueued += bytes;
+    }
+    super.execute(new QueuedTask(r, key, bytes));
   }
 
   // Release the semaphore after taking a Runnable off the queue.
   @Override
   public void beforeExecute(Thread t, Runnable r) {
     semaphore.release();
+    if (r instanceof QueuedTask) {
+      QueuedTask task = (QueuedTask) r;
+      releaseBytes(task.bytes);
+      synchronized (statsLock) {
+        long nowNanos = System.nanoTime();
+        decayStats(nowNanos);
+        runningTasks++;
+        decayedQueueWaitNanos += nowNanos - task.queuedNanos;
+        decayedStartedTasks += 1;
+      }
+    }
+  }
+
+  @Override
+  public void afterExecute(Runnable r, Throwable t) {
+    if (r instanceof QueuedTask) {
+      synchronized (statsLock) {
+        decayStats(System.nanoTime());
+        runningTasks--;
+      }
+    }
+  }
+
+  /** Returns the total weight in bytes of the queued Runnables. */
+  public long getQueuedBytes() {
+    synchronized (bytesLock) {
+      return bytesQueued;
+    }
+  }
+
+  /**
+   * Returns the average time recently started Runnables have waited in the queue. Each Runnable is
+   * weighted exponentially less the longer ago it started, with a time constant of a minute.
+   */
+  public long getAverageQueueWaitMillis() {
+    synchronized (statsLock) {
+      decayStats(System.nanoTime());
+      return decayedStartedTasks == 0
+          ? 0
+          : TimeUnit.NANOSECONDS.toMillis((long) (decayedQueueWaitNanos / decayedStartedTasks));
+    }
+  }
+
+  /**
+   * Returns the fraction of the available thread time that was recently spent running Runnables, as
+   * an exponential moving average with a time constant of a minute.
+   */
+  public double getUtilization() {
+    synchronized (statsLock) {
+      decayStats(System.nanoTime());
+      return Math.min(1.0, decayedUtilization);
+    }
+  }
+
+  // Must be called with statsLock held. Decays the statistics from the last update until now.
+  private void decayStats(long nowNanos) {
+    double weight = Math.exp(-(double) (nowNanos - statsUpdateNanos) / statsDecayNanos);
+    decayedUtilization =
+        decayedUtilization * weight + (1 - weight) * runningTasks / getMaximumPoolSize();
+    decayedQueueWaitNanos *= weight;
+    decayedStartedTasks *= weight;
+    statsUpdateNanos = nowNanos;
+  }
+
+  private void acquireBytes(long bytes) {
+    boolean interrupted = false;
+    synchronized (bytesLock) {
+      // Always admit a Runnable into an empty queue, so oversized ones cannot block forever.
+      while (bytesQueued > 0 && bytesQueued + bytes > maximumBytesQueued) {
+        try {
+          bytesLock.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      bytesQueued += bytes;
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void releaseBytes(long bytes) {
+    if (bytes == 0) {
+      return;
+    }
+    synchronized (bytesLock) {
+      bytesQueued -= bytes;
+      bytesLock.notifyAll();
+    }
+  }
+
+  private static class QueuedTask implements Runnable {
+    private final Runnable task;
+    @Nullable private final Object key;
+    private final long bytes;
+    private final long queuedNanos = System.nanoTime();
+
+    QueuedTask(Runnable task, @Nullable Object key, long bytes) {
+      this.task = task;
+      this.key = key;
+      this.bytes = bytes;
+    }
+
+    @Override
+    public void run() {
+      task.run();
+    }
+  }
+
+  /**
+   * An unbounded queue which serves the keys of its tasks round-robin, and the tasks of each key in
+   * FIFO order. Bounding is done by the executor before tasks are offered.
+   */
+  private static class FairQueue extends AbstractQueue<Runnable>
+      implements BlockingQueue<Runnable> {
+    private static final Object NO_KEY = new Object();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    // Keys with queued tasks, in the order in which they will next be served. Protected by lock.
+    private final LinkedHashMap<Object, ArrayDeque<Runnable>> queues = new LinkedHashMap<>();
+    private int size = 0;
+
+    private static Object keyOf(Object r) {
+      Object key = r instanceof QueuedTask ? ((QueuedTask) r).key : null;
+      return key == null ? NO_KEY : key;
+    }
+
+    // Must be called with lock held.
+    @Nullable
+    private Runnable dequeue() {
+      Iterator<Map.Entry<Object, ArrayDeque<Runnable>>> it = queues.entrySet().iterator();
+      if (!it.hasNext()) {
+        return null;
+      }
+      Map.Entry<Object, ArrayDeque<Runnable>> entry = it.next();
+      Object key = entry.getKey();
+      ArrayDeque<Runnable> queue = entry.getValue();
+      Runnable r = queue.pollFirst();
+      it.remove();
+      if (!queue.isEmpty()) {
+        // Move the key behind every other waiting key.
+        queues.put(key, queue);
+      }
+      size--;
+      return r;
+    }
+
+    @Override
+    public boolean offer(Runnable r) {
+      lock.lock();
+      try {
+        queues.computeIfAbsent(keyOf(r), k -> new ArrayDeque<>()).addLast(r);
+        size++;
+        notEmpty.signal();
+        return true;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public void put(Runnable r) {
+      offer(r);
+    }
+
+    @Override
+    public boolean offer(Runnable r, long timeout, TimeUnit unit) {
+      return offer(r);
+    }
+
+    @Override
+    @Nullable
+    public Runnable poll() {
+      lock.lock();
+      try {
+        return dequeue();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+      lock.lockInterruptibly();
+      try {
+        while (size == 0) {
+          notEmpty.await();
+        }
+        return dequeue();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    @Nullable
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+      long remainingNanos = unit.toNanos(timeout);
+      lock.lockInterruptibly();
+      try {
+        while (size == 0) {
+          if (remainingNanos <= 0) {
+            return null;
+          }
+          remainingNanos = notEmpty.awaitNanos(remainingNanos);
+        }
+        return dequeue();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    @Nullable
+    public Runnable peek() {
+      lock.lock();
+      try {
+        return queues.isEmpty() ? null : queues.values().iterator().next().peekFirst();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+      lock.lock();
+      try {
+        Object key = keyOf(o);
+        ArrayDeque<Runnable> queue = queues.get(key);
+        if (queue == null || !queue.remove(o)) {
+          return false;
+        }
+        if (queue.isEmpty()) {
+          queues.remove(key);
+        }
+        size--;
+        return true;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public int size() {
+      lock.lock();
+      try {
+        return size;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public int remainingCapacity() {
+      return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+      return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+      lock.lock();
+      try {
+        int n = 0;
+        while (n < maxElements && size > 0) {
+          c.add(dequeue());
+          n++;
+        }
+        return n;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /** Returns an iterator over a snapshot of the queue, in no particular order. */
+    @Override
+    public Iterator<Runnable> iterator() {
+      List<Runnable> snapshot = new ArrayList<>();
+      lock.lock();
+      try {
+        for (ArrayDeque<Runnable> queue : queues.values()) {
+          snapshot.addAll(queue);
+        }
+      } finally {
+        lock.unlock();
+      }
+      Iterator<Runnable> it = snapshot.iterator();
+      return new Iterator<Runnable>() {
+        @Nullable private Runnable last;
+
+        @Override
+        public boolean hasNext() {
+          return it.hasNext();
+        }
+
+        @Override
+        public Runnable next() {
+          last = it.next();
+          return last;
+        }
+
+        @Override
+        public void remove() {
+          if (last == null) {
+            throw new IllegalStateException();
+          }
+          FairQueue.this.remove(last);
+          last = null;
+        }
+      };
+    }
   }
 }
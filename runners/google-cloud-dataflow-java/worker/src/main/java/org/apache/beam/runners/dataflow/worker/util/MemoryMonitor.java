@@ -506,6 +506,11 @@ public class MemoryMonitor implements Runnable, StatusDataProvider {
     }
   }
 
+  /** Returns whether the server is currently in the GC thrashing state. */
+  public boolean isThrashing() {
+    return isThrashing.get();
+  }
+
   /** Return only when the server is not in the GC thrashing state. */
   public void waitForResources(String context) {
     if (!isThrashing.get()) {
@@ -121,6 +121,7 @@ public class GrpcWindmillServer extends WindmillServerStub {
 
   private final StreamingDataflowWorkerOptions options;
   private final int streamingRpcBatchLimit;
+  private final long getDataBatchingDelayMicros;
   private final List<CloudWindmillServiceV1Alpha1Grpc.CloudWindmillServiceV1Alpha1Stub> stubList =
       new ArrayList<>();
   private final List<CloudWindmillServiceV1Alpha1Grpc.CloudWindmillServiceV1Alpha1BlockingStub>
@@ -138,6 +139,8 @@ public class GrpcWindmillServer extends WindmillServerStub {
   public GrpcWindmillServer(StreamingDataflowWorkerOptions options) throws IOException {
     this.options = options;
     this.streamingRpcBatchLimit = options.getWindmillServiceStreamingRpcBatchLimit();
+    this.getDataBatchingDelayMicros =
+        options.getWindmillServiceStreamingGetDataBatchingDelayMicros();
     this.endpoints = ImmutableSet.of();
     if (options.getWindmillServiceEndpoint() != null) {
       Set<HostAndPort> endpoints = new HashSet<HostAndPort>();
@@ -156,9 +159,11 @@ public class GrpcWindmillServer extends WindmillServerStub {
     }
   }
 
-  private GrpcWindmillServer(String name, boolean enableStreamingEngine) {
+  private GrpcWindmillServer(
+      String name, boolean enableStreamingEngine, long getDataBatchingDelayMicros) {
     this.options = PipelineOptionsFactory.create().as(StreamingDataflowWorkerOptions.class);
     this.streamingRpcBatchLimit = Integer.MAX_VALUE;
+    this.getDataBatchingDelayMicros = getDataBatchingDelayMicros;
     options.setProject("project");
     options.setJobId("job");
     options.setWorkerId("worker");
@@ -325,7 +330,17 @@ public class GrpcWindmillServer extends WindmillServerStub {
 
   @VisibleForTesting
   static GrpcWindmillServer newTestInstance(String name, boolean enableStreamingEngine) {
-    return new GrpcWindmillServer(name, enableStreamingEngine);
+    return newTestInstance(
+        name,
+        enableStreamingEngine,
+        PipelineOptionsFactory.as(StreamingDataflowWorkerOptions.class)
+            .getWindmillServiceStreamingGetDataBatchingDelayMicros());
+  }
+
+  @VisibleForTesting
+  static GrpcWindmillServer newTestInstance(
+      String name, boolean enableStreamingEngine, long getDataBatchingDelayMicros) {
+    return new GrpcWindmillServer(name, enableStreamingEngine, getDataBatchingDelayMicros);
   }
 
   private Channel inProcessChannel(String name) {
@@ -878,6 +893,7 @@ public class GrpcWindmillServer extends WindmillServerStub {
       final GlobalDataRequest globalDataRequest;
       final ComputationGetDataRequest dataRequest;
       AppendableInputStream responseStream = null;
+      long queuedNanos = 0;
     }
 
     private class QueuedBatch {
@@ -886,16 +902,22 @@ public class GrpcWindmillServer extends WindmillServerStub {
       final List<QueuedRequest> requests = new ArrayList<>();
       long byteSize = 0;
       boolean finalized = false;
+      // Released once no further requests fit in the batch, so its sender can stop waiting.
+      final CountDownLatch full = new CountDownLatch(1);
       final CountDownLatch sent = new CountDownLatch(1);
     };
 
     private final Deque<QueuedBatch> batches = new ConcurrentLinkedDeque<>();
     private final Map<Long, AppendableInputStream> pending = new ConcurrentHashMap<>();
+    // Number of requests issued on this stream that have not yet returned to their callers.
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private final LatencyHistogram queueLatency = new LatencyHistogram();
 
     @Override
     public void appendSpecificHtml(PrintWriter writer) {
       writer.format(
-          "GetDataStream: %d pending on-wire, %d queued batches", pending.size(), batches.size());
+          "GetDataStream: %d pending on-wire, %d queued batches, queueing latency %s",
+          pending.size(), batches.size(), queueLatency);
     }
 
     GrpcGetDataStream() {
@@ -982,23 +1004,28 @@ public class GrpcWindmillServer extends WindmillServerStub {
     }
 
     private <ResponseT> ResponseT issueRequest(QueuedRequest request, ParseFn<ResponseT> parseFn) {
-      while (true) {
-        request.responseStream = new AppendableInputStream();
-        try {
-          queueRequestAndWait(request);
-          return parseFn.parse(request.responseStream);
-        } catch (CancellationException e) {
-          // Retry issuing the request since the response stream was cancelled.
-          continue;
-        } catch (IOException e) {
-          LOG.error("Parsing GetData response failed: ", e);
-          continue;
-        } catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
-          throw new RuntimeException(e);
-        } finally {
-          pending.remove(request.id);
+      activeRequests.incrementAndGet();
+      try {
+        while (true) {
+          request.responseStream = new AppendableInputStream();
+          try {
+            queueRequestAndWait(request);
+            return parseFn.parse(request.responseStream);
+          } catch (CancellationException e) {
+            // Retry issuing the request since the response stream was cancelled.
+            continue;
+          } catch (IOException e) {
+            LOG.error("Parsing GetData response failed: ", e);
+            continue;
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+          } finally {
+            pending.remove(request.id);
+          }
         }
+      } finally {
+        activeRequests.decrementAndGet();
       }
     }
 
@@ -1006,6 +1033,7 @@ public class GrpcWindmillServer extends WindmillServerStub {
       QueuedBatch batch;
       boolean responsibleForSend = false;
       CountDownLatch waitForSendLatch = null;
+      request.queuedNanos = System.nanoTime();
       synchronized (batches) {
         batch = batches.isEmpty() ? null : batches.getLast();
         if (batch == null
@@ -1014,6 +1042,7 @@ public class GrpcWindmillServer extends WindmillServerStub {
             || batch.byteSize + request.byteSize > GET_DATA_STREAM_CHUNK_SIZE) {
           if (batch != null) {
             waitForSendLatch = batch.sent;
+            batch.full.countDown();
           }
           batch = new QueuedBatch();
           batches.addLast(batch);
@@ -1021,13 +1050,27 @@ public class GrpcWindmillServer extends WindmillServerStub {
         }
         batch.requests.add(request);
         batch.byteSize += request.byteSize;
+        if (batch.requests.size() >= streamingRpcBatchLimit) {
+          batch.full.countDown();
+        }
       }
       if (responsibleForSend) {
         // Wait for the previous batch to be sent if one existed.
         if (waitForSendLatch == null) {
-          // If there was not a previous batch wait a little while to improve
-          // batching.
-          Thread.sleep(1);
+          // If there was not a previous batch, other requests may still arrive to share this
+          // one. That is only likely while other requests are in flight on the stream, as their
+          // callers tend to follow up with further fetches, in which case wait until the batch
+          // fills up or its first request has waited for the batching delay. Otherwise send
+          // right away rather than adding latency to an isolated fetch.
+          if (activeRequests.get() > 1) {
+            long remainingNanos =
+                request.queuedNanos
+                    + TimeUnit.MICROSECONDS.toNanos(getDataBatchingDelayMicros)
+                    - System.nanoTime();
+            if (remainingNanos > 0) {
+              batch.full.await(remainingNanos, TimeUnit.NANOSECONDS);
+            }
+          }
           synchronized (batches) {
             Verify.verify(batch == batches.peekFirst());
             batch.finalized = true;
@@ -1053,6 +1096,10 @@ public class GrpcWindmillServer extends WindmillServerStub {
 
     private void sendBatch(List<QueuedRequest> requests) {
       StreamingGetDataRequest batchedRequest = flushToBatch(requests);
+      long nowNanos = System.nanoTime();
+      for (QueuedRequest request : requests) {
+        queueLatency.record(nowNanos - request.queuedNanos, TimeUnit.NANOSECONDS);
+      }
       synchronized (this) {
         // Synchronization of pending inserts is necessary with send to ensure duplicates are not
         // sent on stream reconnect.
@@ -1096,11 +1143,16 @@ public class GrpcWindmillServer extends WindmillServerStub {
       private final String computation;
       private final WorkItemCommitRequest request;
       private final Consumer<CommitStatus> onDone;
+      private final long queuedNanos;
 
       PendingRequest(
-          String computation, WorkItemCommitRequest request, Consumer<CommitStatus> onDone) {
+          String computation,
+          WorkItemCommitRequest request,
+          long queuedNanos,
+          Consumer<CommitStatus> onDone) {
         this.computation = computation;
         this.request = request;
+        this.queuedNanos = queuedNanos;
         this.onDone = onDone;
       }
 
@@ -1134,6 +1186,7 @@ public class GrpcWindmillServer extends WindmillServerStub {
     }
 
     private final Batcher batcher = new Batcher();
+    private final LatencyHistogram queueLatency = new LatencyHistogram();
 
     GrpcCommitWorkStream() {
       super(
@@ -1146,7 +1199,8 @@ public class GrpcWindmillServer extends WindmillServerStub {
 
     @Override
     public void appendSpecificHtml(PrintWriter writer) {
-      writer.format("CommitWorkStream: %d pending", pending.size());
+      writer.format(
+          "CommitWorkStream: %d pending, queueing latency %s", pending.size(), queueLatency);
     }
 
     @Override
@@ -1183,8 +1237,11 @@ public class GrpcWindmillServer extends WindmillServerStub {
 
     @Override
     public boolean commitWorkItem(
-        String computation, WorkItemCommitRequest commitRequest, Consumer<CommitStatus> onDone) {
-      PendingRequest request = new PendingRequest(computation, commitRequest, onDone);
+        String computation,
+        WorkItemCommitRequest commitRequest,
+        long queuedNanos,
+        Consumer<CommitStatus> onDone) {
+      PendingRequest request = new PendingRequest(computation, commitRequest, queuedNanos, onDone);
       if (!batcher.canAccept(request)) {
         return false;
       }
@@ -1194,6 +1251,10 @@ public class GrpcWindmillServer extends WindmillServerStub {
 
     @Override
     public void flush() {
+      long nowNanos = System.nanoTime();
+      for (PendingRequest request : batcher.queue.values()) {
+        queueLatency.record(nowNanos - request.queuedNanos, TimeUnit.NANOSECONDS);
+      }
       batcher.flush();
     }
 
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.dataflow.worker.windmill;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies with power-of-two microsecond buckets, used to report how long
+ * streaming requests wait to be batched before going out on the wire.
+ *
+ * <p>Bucket {@code i} counts latencies in {@code [2^(i-1), 2^i)} microseconds, with bucket 0
+ * counting latencies under one microsecond. Percentiles are reported as the upper bound of the
+ * bucket they fall in, which is accurate to within a factor of two.
+ */
+class LatencyHistogram {
+  private static final int NUM_BUCKETS = 32;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+
+  /** Records a single latency. */
+  public void record(long duration, TimeUnit unit) {
+    long micros = unit.toMicros(duration);
+    int bucket =
+        micros <= 0 ? 0 : Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    buckets.incrementAndGet(bucket);
+  }
+
+  /** Returns the number of recorded latencies. */
+  public long count() {
+    long count = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      count += buckets.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * Returns an upper bound in microseconds on the given percentile of the recorded latencies, or 0
+   * if nothing has been recorded.
+   */
+  public long percentileMicros(double percentile) {
+    long[] snapshot = new long[NUM_BUCKETS];
+    long count = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      snapshot[i] = buckets.get(i);
+      count += snapshot[i];
+    }
+    if (count == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(count * percentile / 100.0);
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return 1L << i;
+      }
+    }
+    return 1L << (NUM_BUCKETS - 1);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "p50 %dus, p90 %dus, p99 %dus over %d requests",
+        percentileMicros(50), percentileMicros(90), percentileMicros(99), count());
+  }
+}
@@ -141,8 +141,20 @@ public abstract class WindmillServerStub implements StatusDataProvider {
      *
      * <p>onDone will be called with the status of the commit.
      */
+    default boolean commitWorkItem(
+        String computation, Windmill.WorkItemCommitRequest request, Consumer<CommitStatus> onDone) {
+      return commitWorkItem(computation, request, System.nanoTime(), onDone);
+    }
+
+    /**
+     * Like {@link #commitWorkItem(String, Windmill.WorkItemCommitRequest, Consumer)}, for a work
+     * item whose commit was queued by the caller at the given {@link System#nanoTime()}.
+     */
     boolean commitWorkItem(
-        String computation, Windmill.WorkItemCommitRequest request, Consumer<CommitStatus> onDone);
+        String computation,
+        Windmill.WorkItemCommitRequest request,
+        long queuedNanos,
+        Consumer<CommitStatus> onDone);
 
     /** Flushes any pending work items to the wire. */
     void flush();
@@ -30,6 +30,7 @@ import com.google.common.net.HostAndPort;
 import com.google.common.util.concurrent.Uninterruptibles;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
@@ -38,16 +39,23 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import org.apache.beam.runners.dataflow.worker.windmill.Windmill;
+import org.apache.beam.runners.dataflow.worker.windmill.Windmill.CommitStatus;
 import org.apache.beam.runners.dataflow.worker.windmill.Windmill.CommitWorkResponse;
 import org.apache.beam.runners.dataflow.worker.windmill.Windmill.ComputationCommitWorkRequest;
 import org.apache.beam.runners.dataflow.worker.windmill.Windmill.ComputationGetDataRequest;
+import org.apache.beam.runners.dataflow.worker.windmill.Windmill.ComputationGetDataResponse;
 import org.apache.beam.runners.dataflow.worker.windmill.Windmill.GetDataRequest;
 import org.apache.beam.runners.dataflow.worker.windmill.Windmill.GetDataResponse;
+import org.apache.beam.runners.dataflow.worker.windmill.Windmill.GlobalData;
+import org.apache.beam.runners.dataflow.worker.windmill.Windmill.GlobalDataRequest;
 import org.apache.beam.runners.dataflow.worker.windmill.Windmill.KeyedGetDataRequest;
+import org.apache.beam.runners.dataflow.worker.windmill.Windmill.KeyedGetDataResponse;
 import org.apache.beam.runners.dataflow.worker.windmill.Windmill.WorkItemCommitRequest;
 import org.apache.beam.runners.dataflow.worker.windmill.WindmillServerStub;
+import org.joda.time.Instant;
 import org.junit.rules.ErrorCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -59,6 +67,7 @@ class FakeWindmillServer extends WindmillServerStub {
   private final Queue<Windmill.GetWorkResponse> workToOffer;
   private final Queue<Function<GetDataRequest, GetDataResponse>> dataToOffer;
   private final Map<Long, WorkItemCommitRequest> commitsReceived;
+  private final Queue<List<WorkItemCommitRequest>> commitBatchesReceived;
   private final ArrayList<Windmill.ReportStatsRequest> statsReceived;
   private final LinkedBlockingQueue<Windmill.Exception> exceptions;
   private int commitsRequested = 0;
@@ -71,6 +80,7 @@ class FakeWindmillServer extends WindmillServerStub {
     workToOffer = new ConcurrentLinkedQueue<>();
     dataToOffer = new ConcurrentLinkedQueue<>();
     commitsReceived = new ConcurrentHashMap<>();
+    commitBatchesReceived = new ConcurrentLinkedQueue<>();
     exceptions = new LinkedBlockingQueue<>();
     expectedExceptionCount = new AtomicInteger();
     this.errorCollector = errorCollector;
@@ -180,17 +190,164 @@ class FakeWindmillServer extends WindmillServerStub {
 
   @Override
   public GetWorkStream getWorkStream(Windmill.GetWorkRequest request, WorkItemReceiver receiver) {
-    throw new UnsupportedOperationException();
+    LOG.debug("getWorkStream: {}", request.toString());
+    Instant startTime = Instant.now();
+    return new GetWorkStream() {
+      @Override
+      public void close() {}
+
+      @Override
+      public void awaitTermination() throws InterruptedException {
+        awaitTermination(Integer.MAX_VALUE, TimeUnit.SECONDS);
+      }
+
+      @Override
+      public boolean awaitTermination(int time, TimeUnit unit) throws InterruptedException {
+        // Deliver all offered work, then terminate the stream so that the caller reopens it.
+        Windmill.GetWorkResponse response;
+        while ((response = workToOffer.poll()) != null) {
+          for (Windmill.ComputationWorkItems computationWork : response.getWorkList()) {
+            Instant inputDataWatermark =
+                WindmillTimeUtils.windmillToHarnessWatermark(
+                    computationWork.getInputDataWatermark());
+            Instant synchronizedProcessingTime =
+                WindmillTimeUtils.windmillToHarnessWatermark(
+                    computationWork.getDependentRealtimeInputWatermark());
+            for (Windmill.WorkItem workItem : computationWork.getWorkList()) {
+              receiver.receiveWork(
+                  computationWork.getComputationId(),
+                  inputDataWatermark,
+                  synchronizedProcessingTime,
+                  workItem);
+            }
+          }
+        }
+        sleepMillis(100);
+        return true;
+      }
+
+      @Override
+      public Instant startTime() {
+        return startTime;
+      }
+    };
   }
 
   @Override
   public GetDataStream getDataStream() {
-    throw new UnsupportedOperationException();
+    Instant startTime = Instant.now();
+    return new GetDataStream() {
+      @Override
+      public KeyedGetDataResponse requestKeyedData(
+          String computation, KeyedGetDataRequest request) {
+        GetDataResponse response =
+            getData(
+                GetDataRequest.newBuilder()
+                    .addRequests(
+                        ComputationGetDataRequest.newBuilder()
+                            .setComputationId(computation)
+                            .addRequests(request))
+                    .build());
+        for (ComputationGetDataResponse computationResponse : response.getDataList()) {
+          for (KeyedGetDataResponse keyedResponse : computationResponse.getDataList()) {
+            return keyedResponse;
+          }
+        }
+        return KeyedGetDataResponse.newBuilder().setKey(request.getKey()).build();
+      }
+
+      @Override
+      public GlobalData requestGlobalData(GlobalDataRequest request) {
+        GetDataResponse response =
+            getData(GetDataRequest.newBuilder().addGlobalDataFetchRequests(request).build());
+        return response.getGlobalDataCount() > 0
+            ? response.getGlobalData(0)
+            : GlobalData.newBuilder().setDataId(request.getDataId()).build();
+      }
+
+      @Override
+      public void refreshActiveWork(Map<String, List<KeyedGetDataRequest>> active) {
+        GetDataRequest.Builder builder = GetDataRequest.newBuilder();
+        for (Map.Entry<String, List<KeyedGetDataRequest>> entry : active.entrySet()) {
+          builder.addRequests(
+              ComputationGetDataRequest.newBuilder()
+                  .setComputationId(entry.getKey())
+                  .addAllRequests(entry.getValue()));
+        }
+        getData(builder.build());
+      }
+
+      @Override
+      public void close() {}
+
+      @Override
+      public void awaitTermination() {}
+
+      @Override
+      public boolean awaitTermination(int time, TimeUnit unit) {
+        return true;
+      }
+
+      @Override
+      public Instant startTime() {
+        return startTime;
+      }
+    };
   }
 
   @Override
   public CommitWorkStream commitWorkStream() {
-    throw new UnsupportedOperationException();
+    Instant startTime = Instant.now();
+    return new CommitWorkStream() {
+      private final List<WorkItemCommitRequest> batch = new ArrayList<>();
+      private final List<Consumer<CommitStatus>> callbacks = new ArrayList<>();
+
+      @Override
+      public synchronized boolean commitWorkItem(
+          String computation,
+          WorkItemCommitRequest request,
+          long queuedNanos,
+          Consumer<CommitStatus> onDone) {
+        errorCollector.checkThat(request.hasWorkToken(), equalTo(true));
+        errorCollector.checkThat(queuedNanos, lessThan(System.nanoTime()));
+        batch.add(request);
+        callbacks.add(onDone);
+        return true;
+      }
+
+      @Override
+      public synchronized void flush() {
+        if (batch.isEmpty()) {
+          return;
+        }
+        LOG.debug("commitWorkStream flush: {}", batch);
+        commitBatchesReceived.add(new ArrayList<>(batch));
+        for (WorkItemCommitRequest commit : batch) {
+          commitsReceived.put(commit.getWorkToken(), commit);
+        }
+        for (Consumer<CommitStatus> onDone : callbacks) {
+          onDone.accept(CommitStatus.OK);
+        }
+        batch.clear();
+        callbacks.clear();
+      }
+
+      @Override
+      public void close() {}
+
+      @Override
+      public void awaitTermination() {}
+
+      @Override
+      public boolean awaitTermination(int time, TimeUnit unit) {
+        return true;
+      }
+
+      @Override
+      public Instant startTime() {
+        return startTime;
+      }
+    };
   }
 
   public void waitForEmptyWorkQueue() {
@@ -230,6 +387,15 @@ class FakeWindmillServer extends WindmillServerStub {
     return exceptions.take();
   }
 
+  /** Returns the commits received over commit streams, grouped by the flush that sent them. */
+  public Queue<List<WorkItemCommitRequest>> getCommitBatchesReceived() {
+    return commitBatchesReceived;
+  }
+
+  public Map<Long, WorkItemCommitRequest> getCommitsReceived() {
+    return commitsReceived;
+  }
+
   public int numGetDataRequests() {
     return numGetDataRequests;
   }
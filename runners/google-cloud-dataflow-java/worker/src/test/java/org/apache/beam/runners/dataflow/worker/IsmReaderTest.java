@@ -57,6 +57,7 @@ import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.function.Function;
 import org.apache.beam.runners.dataflow.internal.IsmFormat;
 import org.apache.beam.runners.dataflow.internal.IsmFormat.IsmRecord;
 import org.apache.beam.runners.dataflow.internal.IsmFormat.IsmRecordCoder;
@@ -75,6 +76,7 @@ import org.apache.beam.sdk.coders.ByteArrayCoder;
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.VoidCoder;
 import org.apache.beam.sdk.io.FileSystems;
+import org.apache.beam.sdk.io.fs.ResourceId;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.testing.CoderPropertiesTest.NonDeterministicCoder;
 import org.apache.beam.sdk.util.CoderUtils;
@@ -239,6 +241,48 @@ public class IsmReaderTest {
     }
   }
 
+  @Test
+  public void testReadRandomOrderWithMemoryMappedFile() throws Exception {
+    IsmBlockCache blockCache = new IsmBlockCache(1_000_000);
+    Random random = new Random(2348238943L);
+    for (int i : Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8)) {
+      int minElements = (int) Math.pow(2, i);
+      writeElementsToFileAndReadInRandomOrder(
+          dataGenerator(
+              7 /* number of primary keys */,
+              minElements + random.nextInt(minElements) /* number of secondary keys */,
+              8 /* max key size */,
+              128 /* max value size */),
+          resourceId -> new IsmReaderImpl<>(resourceId, CODER, blockCache));
+    }
+    // Blocks are read from the mapping rather than the block cache.
+    assertEquals(0, blockCache.stats().requestCount());
+  }
+
+  @Test
+  public void testReadRandomOrderWithBlockCache() throws Exception {
+    IsmBlockCache blockCache = new IsmBlockCache(1_000_000);
+    Random random = new Random(2348238943L);
+    for (int i : Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8)) {
+      int minElements = (int) Math.pow(2, i);
+      writeElementsToFileAndReadInRandomOrder(
+          dataGenerator(
+              7 /* number of primary keys */,
+              minElements + random.nextInt(minElements) /* number of secondary keys */,
+              8 /* max key size */,
+              128 /* max value size */),
+          resourceId ->
+              new IsmReaderImpl<byte[]>(resourceId, CODER, blockCache) {
+                // We use this override to read through the block cache instead of a mapping.
+                @Override
+                boolean isMemoryMappable() {
+                  return false;
+                }
+              });
+    }
+    assertTrue(blockCache.stats().hitCount() > 0);
+  }
+
   @Test
   public void testGetLastWithPrefix() throws Exception {
     Random random = new Random(2348238943L);
@@ -495,6 +539,13 @@ public class IsmReaderTest {
    */
   private void writeElementsToFileAndReadInRandomOrder(Iterable<IsmRecord<byte[]>> elements)
       throws Exception {
+    writeElementsToFileAndReadInRandomOrder(
+        elements, resourceId -> new IsmReaderImpl<>(resourceId, CODER, cache));
+  }
+
+  private void writeElementsToFileAndReadInRandomOrder(
+      Iterable<IsmRecord<byte[]>> elements, Function<ResourceId, IsmReader<byte[]>> readerFactory)
+      throws Exception {
     File tmpFile = tmpFolder.newFile();
     List<IsmRecord<byte[]>> oddSecondaryKeys =
         new ArrayList<>(
@@ -504,8 +555,8 @@ public class IsmReaderTest {
 
     writeElementsToFile(oddSecondaryKeys, tmpFile);
     IsmReader<byte[]> reader =
-        new IsmReaderImpl<>(
-            FileSystems.matchSingleFileSpec(tmpFile.getAbsolutePath()).resourceId(), CODER, cache);
+        readerFactory.apply(
+            FileSystems.matchSingleFileSpec(tmpFile.getAbsolutePath()).resourceId());
 
     // Test using next() for a within shard Ism prefix reader iterator
     Collections.shuffle(oddSecondaryKeys);
@@ -25,6 +25,7 @@ import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
@@ -1965,14 +1966,14 @@ public class StreamingDataflowWorkerTest {
 
     MockWork m1 = new MockWork(1);
     computationState.activateWork(key1, m1);
-    Mockito.verify(mockExecutor).execute(m1);
+    Mockito.verify(mockExecutor).execute(m1, "computation", m1.getWorkItem().getSerializedSize());
     computationState.completeWork(key1, 1);
     Mockito.verifyNoMoreInteractions(mockExecutor);
 
     // Verify work queues.
     MockWork m2 = new MockWork(2);
     computationState.activateWork(key1, m2);
-    Mockito.verify(mockExecutor).execute(m2);
+    Mockito.verify(mockExecutor).execute(m2, "computation", m2.getWorkItem().getSerializedSize());
     MockWork m3 = new MockWork(3);
     computationState.activateWork(key1, m3);
     Mockito.verifyNoMoreInteractions(mockExecutor);
@@ -1980,18 +1981,19 @@ public class StreamingDataflowWorkerTest {
     // Verify another key is a separate queue.
     MockWork m4 = new MockWork(4);
     computationState.activateWork(key2, m4);
-    Mockito.verify(mockExecutor).execute(m4);
+    Mockito.verify(mockExecutor).execute(m4, "computation", m4.getWorkItem().getSerializedSize());
     computationState.completeWork(key2, 4);
     Mockito.verifyNoMoreInteractions(mockExecutor);
 
     computationState.completeWork(key1, 2);
-    Mockito.verify(mockExecutor).forceExecute(m3);
+    Mockito.verify(mockExecutor)
+        .forceExecute(m3, "computation", m3.getWorkItem().getSerializedSize());
     computationState.completeWork(key1, 3);
     Mockito.verifyNoMoreInteractions(mockExecutor);
 
     MockWork m5 = new MockWork(5);
     computationState.activateWork(key1, m5);
-    Mockito.verify(mockExecutor).execute(m5);
+    Mockito.verify(mockExecutor).execute(m5, "computation", m5.getWorkItem().getSerializedSize());
     computationState.completeWork(key1, 5);
     Mockito.verifyNoMoreInteractions(mockExecutor);
   }
@@ -2301,6 +2303,98 @@ public class StreamingDataflowWorkerTest {
     assertThat(server.numGetDataRequests(), greaterThan(0));
   }
 
+  @Test
+  public void testStreamingCommitsAreBatchedWhileWorkIsProcessing() throws Exception {
+    final int numIters = 10;
+    List<ParallelInstruction> instructions =
+        Arrays.asList(
+            makeSourceInstruction(StringUtf8Coder.of()),
+            makeDoFnInstruction(blockingFn, 0, StringUtf8Coder.of()),
+            makeSinkInstruction(StringUtf8Coder.of(), 0));
+
+    FakeWindmillServer server = new FakeWindmillServer(errorCollector);
+    StreamingDataflowWorkerOptions options = createTestingPipelineOptions(server);
+    options.setWindmillServiceUseStreamingRpcs(true);
+    // Longer than the test, so that commits are only flushed once no work is being processed.
+    options.setWindmillServiceStreamingCommitBatchingDelayMillis(60000);
+    StreamingDataflowWorker worker = makeWorker(instructions, options, true /* publishCounters */);
+    worker.start();
+
+    for (int i = 0; i < numIters; ++i) {
+      server.addWorkToOffer(makeInput(i, TimeUnit.MILLISECONDS.toMicros(i)));
+    }
+
+    // Wait for all the work to be blocked, then let it finish and commit at the same time.
+    BlockingFn.counter.acquire(numIters);
+    BlockingFn.blocker.countDown();
+
+    Map<Long, Windmill.WorkItemCommitRequest> result = server.waitForAndGetCommits(numIters);
+    worker.stop();
+
+    for (int i = 0; i < numIters; ++i) {
+      assertTrue(result.containsKey((long) i));
+      assertEquals(
+          makeExpectedOutput(i, TimeUnit.MILLISECONDS.toMicros(i)).build(), result.get((long) i));
+    }
+    // The commits were coalesced. The last one may race the check for work still being processed
+    // and be flushed on its own.
+    assertThat(server.getCommitBatchesReceived().size(), lessThanOrEqualTo(2));
+  }
+
+  /** Holds back the first input element until released, passing the others through. */
+  static class HoldFirstFn extends DoFn<String, String> {
+    static Semaphore holding;
+    static CountDownLatch release;
+
+    @ProcessElement
+    public void processElement(ProcessContext c) throws InterruptedException {
+      if (c.element().equals("data0")) {
+        holding.release();
+        release.await();
+      }
+      c.output(c.element());
+    }
+  }
+
+  @Test
+  public void testStreamingCommitsAreFlushedAfterBatchingDelay() throws Exception {
+    HoldFirstFn.holding = new Semaphore(0);
+    HoldFirstFn.release = new CountDownLatch(1);
+    List<ParallelInstruction> instructions =
+        Arrays.asList(
+            makeSourceInstruction(StringUtf8Coder.of()),
+            makeDoFnInstruction(new HoldFirstFn(), 0, StringUtf8Coder.of()),
+            makeSinkInstruction(StringUtf8Coder.of(), 0));
+
+    FakeWindmillServer server = new FakeWindmillServer(errorCollector);
+    StreamingDataflowWorkerOptions options = createTestingPipelineOptions(server);
+    options.setWindmillServiceUseStreamingRpcs(true);
+    options.setWindmillServiceStreamingCommitBatchingDelayMillis(1000);
+    StreamingDataflowWorker worker = makeWorker(instructions, options, true /* publishCounters */);
+    worker.start();
+
+    server.addWorkToOffer(makeInput(0, TimeUnit.MILLISECONDS.toMicros(0)));
+    HoldFirstFn.holding.acquire();
+
+    // The first work item is still being processed, so the commit of the second one is held back
+    // for the batching delay before it is flushed on its own.
+    server.addWorkToOffer(makeInput(1, TimeUnit.MILLISECONDS.toMicros(1)));
+    Thread.sleep(500);
+    assertTrue(server.getCommitsReceived().isEmpty());
+
+    Map<Long, Windmill.WorkItemCommitRequest> result = server.waitForAndGetCommits(1);
+    assertEquals(makeExpectedOutput(1, TimeUnit.MILLISECONDS.toMicros(1)).build(), result.get(1L));
+    assertFalse(result.containsKey(0L));
+    assertEquals(1, server.getCommitBatchesReceived().size());
+    assertEquals(Arrays.asList(result.get(1L)), server.getCommitBatchesReceived().peek());
+
+    HoldFirstFn.release.countDown();
+    result = server.waitForAndGetCommits(1);
+    worker.stop();
+
+    assertEquals(makeExpectedOutput(0, TimeUnit.MILLISECONDS.toMicros(0)).build(), result.get(0L));
+  }
+
   /** For each input element, emits a large string. */
   private static class InflateDoFn extends DoFn<ValueWithRecordId<KV<Integer, Integer>>, String> {
     final int inflatedSize;
@@ -19,6 +19,7 @@ package org.apache.beam.runners.dataflow.worker;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.util.Objects;
@@ -232,4 +233,54 @@ public class WindmillStateCacheTest {
     assertEquals(
         new TestState("g3"), keyCache3.get(StateNamespaces.global(), new TestStateTag("tag3")));
   }
+
+  /** Verifies that a full cache evicts from the computation using more than its fair share. */
+  @Test
+  public void testFairShareEviction() throws Exception {
+    cache = new WindmillStateCache(10000, () -> false);
+    for (int i = 0; i < 100; i++) {
+      cache
+          .forComputation("comp1")
+          .forKey(ByteString.copyFromUtf8("key" + i), STATE_FAMILY, 0L)
+          .put(StateNamespaces.global(), new TestStateTag("tag"), new TestState("v" + i), 10);
+    }
+    WindmillStateCache.ForKey keyCache2 =
+        cache.forComputation("comp2").forKey(KEY, STATE_FAMILY, 0L);
+    keyCache2.put(StateNamespaces.global(), new TestStateTag("tag"), new TestState("v"), 10);
+
+    assertTrue(cache.getWeight() <= cache.getMaxWeight());
+    assertEquals(
+        new TestState("v"), keyCache2.get(StateNamespaces.global(), new TestStateTag("tag")));
+    // The oldest entries of the larger computation were evicted.
+    assertNull(
+        cache
+            .forComputation("comp1")
+            .forKey(ByteString.copyFromUtf8("key0"), STATE_FAMILY, 0L)
+            .get(StateNamespaces.global(), new TestStateTag("tag")));
+  }
+
+  /** Verifies that an entry too large for the cache is not admitted and evicts nothing else. */
+  @Test
+  public void testLargeEntryIsNotAdmitted() throws Exception {
+    cache = new WindmillStateCache(10000, () -> false);
+    WindmillStateCache.ForKey keyCache1 =
+        cache.forComputation(COMPUTATION).forKey(ByteString.copyFromUtf8("key1"), STATE_FAMILY, 0L);
+    WindmillStateCache.ForKey keyCache2 =
+        cache.forComputation(COMPUTATION).forKey(ByteString.copyFromUtf8("key2"), STATE_FAMILY, 0L);
+
+    keyCache1.put(StateNamespaces.global(), new TestStateTag("tag1"), new TestState("g1"), 2);
+    long weight = cache.getWeight();
+    keyCache2.put(StateNamespaces.global(), new TestStateTag("tag2"), new TestState("g2"), 5000);
+
+    assertEquals(weight, cache.getWeight());
+    assertNull(keyCache2.get(StateNamespaces.global(), new TestStateTag("tag2")));
+    assertEquals(
+        new TestState("g1"), keyCache1.get(StateNamespaces.global(), new TestStateTag("tag1")));
+  }
+
+  @Test
+  public void testMaxWeightForHeap() throws Exception {
+    assertEquals(100000000, WindmillStateCache.maxWeightForHeap(100000000));
+    assertEquals(400000000, WindmillStateCache.maxWeightForHeap(2000000000));
+  }
 }
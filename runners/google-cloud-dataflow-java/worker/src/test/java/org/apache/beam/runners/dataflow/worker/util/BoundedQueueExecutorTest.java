@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.dataflow.worker.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link BoundedQueueExecutor}. */
+@RunWith(JUnit4.class)
+public class BoundedQueueExecutorTest {
+  private BoundedQueueExecutor executor;
+  private final CountDownLatch unblock = new CountDownLatch(1);
+  private final List<String> executed = Collections.synchronizedList(new ArrayList<>());
+
+  @Before
+  public void setUp() throws Exception {
+    executor = new BoundedQueueExecutor(1, 60, TimeUnit.SECONDS, 10, 100, Thread::new);
+    // Occupy the only thread so that further work is queued.
+    CountDownLatch started = new CountDownLatch(1);
+    executor.execute(
+        () -> {
+          started.countDown();
+          try {
+            unblock.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+    started.await();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    unblock.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+  }
+
+  private Runnable record(String name) {
+    return () -> executed.add(name);
+  }
+
+  @Test
+  public void testKeysAreServedRoundRobin() throws Exception {
+    executor.execute(record("a1"), "a", 0);
+    executor.execute(record("a2"), "a", 0);
+    executor.execute(record("a3"), "a", 0);
+    executor.execute(record("b1"), "b", 0);
+    executor.forceExecute(record("c1"), "c", 0);
+    executor.execute(record("b2"), "b", 0);
+    assertEquals(6, executor.getQueue().size());
+
+    unblock.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+    assertThat(executed, Matchers.contains("a1", "b1", "c1", "a2", "b2", "a3"));
+  }
+
+  @Test
+  public void testExecuteBlocksOnQueuedBytes() throws Exception {
+    executor.execute(record("first"), "a", 60);
+    assertEquals(60, executor.getQueuedBytes());
+
+    CountDownLatch queued = new CountDownLatch(1);
+    Thread submitter =
+        new Thread(
+            () -> {
+              executor.execute(record("second"), "b", 60);
+              queued.countDown();
+            });
+    submitter.start();
+    assertFalse(queued.await(100, TimeUnit.MILLISECONDS));
+
+    unblock.countDown();
+    assertTrue(queued.await(1, TimeUnit.MINUTES));
+    submitter.join();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+    assertThat(executed, Matchers.contains("first", "second"));
+    assertEquals(0, executor.getQueuedBytes());
+  }
+
+  @Test
+  public void testOversizedWorkIsAdmittedToEmptyQueue() throws Exception {
+    executor.execute(record("huge"), "a", 1000);
+    assertEquals(1000, executor.getQueuedBytes());
+  }
+
+  @Test
+  public void testMetrics() throws Exception {
+    executor.execute(record("a1"), "a", 0);
+    Thread.sleep(20);
+    unblock.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+    assertThat(executor.getAverageQueueWaitMillis(), Matchers.greaterThanOrEqualTo(5L));
+    assertThat(executor.getUtilization(), Matchers.greaterThan(0.0));
+  }
+
+  @Test
+  public void testMetricsReflectRecentWork() throws Exception {
+    // Statistics decay with a time constant of 50ms.
+    BoundedQueueExecutor recent =
+        new BoundedQueueExecutor(1, 60, TimeUnit.SECONDS, 10, 100, Thread::new, 50);
+    CountDownLatch busy = new CountDownLatch(2);
+    recent.execute(
+        () -> {
+          try {
+            Thread.sleep(100);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          busy.countDown();
+        });
+    recent.execute(busy::countDown);
+    assertTrue(busy.await(1, TimeUnit.MINUTES));
+    assertThat(recent.getUtilization(), Matchers.greaterThan(0.5));
+    assertThat(recent.getAverageQueueWaitMillis(), Matchers.greaterThanOrEqualTo(25L));
+
+    // After ten time constants of idling, the busy period and the long wait are forgotten.
+    Thread.sleep(500);
+    CountDownLatch prompt = new CountDownLatch(1);
+    recent.execute(prompt::countDown);
+    assertTrue(prompt.await(1, TimeUnit.MINUTES));
+    recent.shutdown();
+    assertTrue(recent.awaitTermination(1, TimeUnit.MINUTES));
+    assertThat(recent.getUtilization(), Matchers.lessThan(0.1));
+    assertThat(recent.getAverageQueueWaitMillis(), Matchers.lessThan(10L));
+  }
+}
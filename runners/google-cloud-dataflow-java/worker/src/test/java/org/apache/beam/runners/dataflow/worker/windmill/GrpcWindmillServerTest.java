@@ -18,11 +18,13 @@
 package org.apache.beam.runners.dataflow.worker.windmill;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 import java.io.InputStream;
 import java.io.SequenceInputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -81,6 +83,7 @@ import org.slf4j.LoggerFactory;
 public class GrpcWindmillServerTest {
   private static final Logger LOG = LoggerFactory.getLogger(GrpcWindmillServer.class);
 
+  private final String name = "Fake server for " + getClass();
   private final MutableHandlerRegistry serviceRegistry = new MutableHandlerRegistry();
   @Rule public ErrorCollector errorCollector = new ErrorCollector();
   private Server server;
@@ -90,8 +93,6 @@ public class GrpcWindmillServerTest {
 
   @Before
   public void setUp() throws Exception {
-    String name = "Fake server for " + getClass();
-
     this.server =
         InProcessServerBuilder.forName(name)
             .fallbackHandlerRegistry(serviceRegistry)
@@ -434,6 +435,128 @@ public class GrpcWindmillServerTest {
     executor.shutdown();
   }
 
+  /**
+   * Serves GetData requests, recording the number of requests in each batch received. The response
+   * to a request for the key "held" is held back until releaseHeld is released.
+   */
+  private void addBatchRecordingGetDataService(
+      List<Integer> batchSizes, CountDownLatch releaseHeld) {
+    serviceRegistry.addService(
+        new CloudWindmillServiceV1Alpha1ImplBase() {
+          @Override
+          public StreamObserver<StreamingGetDataRequest> getDataStream(
+              StreamObserver<StreamingGetDataResponse> responseObserver) {
+            return new StreamObserver<StreamingGetDataRequest>() {
+              boolean sawHeader = false;
+
+              @Override
+              public void onNext(StreamingGetDataRequest chunk) {
+                if (!sawHeader) {
+                  sawHeader = true;
+                  return;
+                }
+                batchSizes.add(chunk.getStateRequestCount());
+                for (int i = 0; i < chunk.getStateRequestCount(); ++i) {
+                  long requestId = chunk.getRequestId(i);
+                  String key = chunk.getStateRequest(i).getRequests(0).getKey().toStringUtf8();
+                  ByteString response = makeGetDataResponse(key, "tag").toByteString();
+                  if (key.equals("held")) {
+                    new Thread(
+                            () -> {
+                              try {
+                                releaseHeld.await();
+                              } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                              }
+                              sendResponse(requestId, response);
+                            })
+                        .start();
+                  } else {
+                    sendResponse(requestId, response);
+                  }
+                }
+              }
+
+              private void sendResponse(long id, ByteString serializedResponse) {
+                synchronized (responseObserver) {
+                  try {
+                    responseObserver.onNext(
+                        StreamingGetDataResponse.newBuilder()
+                            .addRequestId(id)
+                            .addSerializedResponse(serializedResponse)
+                            .build());
+                  } catch (IllegalStateException e) {
+                    // Stream is already closed.
+                  }
+                }
+              }
+
+              @Override
+              public void onError(Throwable throwable) {}
+
+              @Override
+              public void onCompleted() {
+                synchronized (responseObserver) {
+                  responseObserver.onCompleted();
+                }
+              }
+            };
+          }
+        });
+  }
+
+  @Test
+  public void testStreamingGetDataBatching() throws Exception {
+    List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch releaseHeld = new CountDownLatch(1);
+    addBatchRecordingGetDataService(batchSizes, releaseHeld);
+    long batchingDelayNanos = TimeUnit.SECONDS.toNanos(2);
+    GetDataStream stream =
+        GrpcWindmillServer.newTestInstance(
+                name, true, TimeUnit.NANOSECONDS.toMicros(batchingDelayNanos))
+            .getDataStream();
+    ExecutorService executor = Executors.newFixedThreadPool(6);
+
+    // With nothing else in flight on the stream, a request is sent right away.
+    long startNanos = System.nanoTime();
+    CountDownLatch heldDone = new CountDownLatch(1);
+    executor.execute(
+        () -> {
+          errorCollector.checkThat(
+              stream.requestKeyedData("computation", makeGetDataRequest("held", "tag")),
+              Matchers.equalTo(makeGetDataResponse("held", "tag")));
+          heldDone.countDown();
+        });
+    while (batchSizes.isEmpty()) {
+      Thread.sleep(10);
+    }
+    assertThat(System.nanoTime() - startNanos, Matchers.lessThan(batchingDelayNanos));
+
+    // While that request is outstanding, concurrent requests are held back and coalesced into a
+    // single batch, which is sent once the first of them has waited for the batching delay.
+    startNanos = System.nanoTime();
+    CountDownLatch done = new CountDownLatch(5);
+    for (int i = 0; i < 5; ++i) {
+      final String key = "key" + i;
+      executor.execute(
+          () -> {
+            errorCollector.checkThat(
+                stream.requestKeyedData("computation", makeGetDataRequest(key, "tag")),
+                Matchers.equalTo(makeGetDataResponse(key, "tag")));
+            done.countDown();
+          });
+    }
+    assertTrue(done.await(1, TimeUnit.MINUTES));
+    assertThat(System.nanoTime() - startNanos, Matchers.greaterThanOrEqualTo(batchingDelayNanos));
+    assertEquals(Arrays.asList(1, 5), batchSizes);
+
+    releaseHeld.countDown();
+    assertTrue(heldDone.await(1, TimeUnit.MINUTES));
+    stream.close();
+    assertTrue(stream.awaitTermination(30, TimeUnit.SECONDS));
+    executor.shutdown();
+  }
+
   private String largeString(int length) {
     return String.join("", Collections.nCopies(length, "."));
   }
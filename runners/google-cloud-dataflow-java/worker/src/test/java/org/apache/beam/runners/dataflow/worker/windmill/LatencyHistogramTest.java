@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.dataflow.worker.windmill;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link LatencyHistogram}. */
+@RunWith(JUnit4.class)
+public class LatencyHistogramTest {
+  @Test
+  public void testEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.count());
+    assertEquals(0, histogram.percentileMicros(50));
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 90; i++) {
+      histogram.record(100, TimeUnit.MICROSECONDS);
+    }
+    for (int i = 0; i < 9; i++) {
+      histogram.record(5, TimeUnit.MILLISECONDS);
+    }
+    histogram.record(1, TimeUnit.SECONDS);
+
+    assertEquals(100, histogram.count());
+    assertEquals(128, histogram.percentileMicros(50));
+    assertEquals(128, histogram.percentileMicros(90));
+    assertEquals(8192, histogram.percentileMicros(99));
+    assertEquals(1 << 20, histogram.percentileMicros(100));
+  }
+
+  @Test
+  public void testSubMicrosecondAndHugeLatencies() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(10, TimeUnit.NANOSECONDS);
+    histogram.record(-5, TimeUnit.NANOSECONDS);
+    histogram.record(1000, TimeUnit.DAYS);
+
+    assertEquals(3, histogram.count());
+    assertEquals(1, histogram.percentileMicros(50));
+    assertEquals(1L << 31, histogram.percentileMicros(100));
+  }
+}
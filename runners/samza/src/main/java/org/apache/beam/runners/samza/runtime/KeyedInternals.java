@@ -51,10 +51,16 @@ class KeyedInternals<K> {
   private static final ThreadLocal<KeyedStates> threadLocalKeyedStates = new ThreadLocal<>();
   private final StateInternalsFactory<K> stateFactory;
   private final TimerInternalsFactory<K> timerFactory;
+  // Non-null if states accessed for a key can be written back once the key has been processed.
+  @Nullable private final SamzaStoreStateInternals.Factory<K> writeBackFactory;
 
   KeyedInternals(StateInternalsFactory<K> stateFactory, TimerInternalsFactory<K> timerFactory) {
     this.stateFactory = stateFactory;
     this.timerFactory = timerFactory;
+    this.writeBackFactory =
+        stateFactory instanceof SamzaStoreStateInternals.Factory
+            ? (SamzaStoreStateInternals.Factory<K>) stateFactory
+            : null;
   }
 
   StateInternals stateInternals() {
@@ -72,6 +78,9 @@ class KeyedInternals<K> {
         key);
 
     threadLocalKeyedStates.set(new KeyedStates<K>(key));
+    if (writeBackFactory != null) {
+      writeBackFactory.beginWriteBack();
+    }
   }
 
   K getKey() {
@@ -90,6 +99,9 @@ class KeyedInternals<K> {
     states.clear();
 
     threadLocalKeyedStates.remove();
+    if (writeBackFactory != null) {
+      writeBackFactory.flushWriteBack();
+    }
   }
 
   private class KeyedStateInternals implements StateInternals {
@@ -19,21 +19,26 @@ package org.apache.beam.runners.samza.runtime;
 
 import static com.google.common.base.Preconditions.checkState;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
-import com.google.common.primitives.Ints;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import org.apache.beam.runners.core.StateInternals;
@@ -60,34 +65,62 @@ import org.apache.beam.sdk.transforms.Combine;
 import org.apache.beam.sdk.transforms.CombineWithContext;
 import org.apache.beam.sdk.transforms.SerializableFunction;
 import org.apache.beam.sdk.transforms.windowing.TimestampCombiner;
+import org.apache.beam.sdk.util.VarInt;
 import org.apache.samza.storage.kv.Entry;
 import org.apache.samza.storage.kv.KeyValueIterator;
 import org.apache.samza.storage.kv.KeyValueStore;
 import org.apache.samza.task.TaskContext;
 import org.joda.time.Instant;
 
-/** {@link StateInternals} that uses Samza local {@link KeyValueStore} to manage state. */
+/**
+ * {@link StateInternals} that uses Samza local {@link KeyValueStore} to manage state.
+ *
+ * <p>Each state is stored under a prefix made of the length-prefixed stage id, key, namespace and,
+ * for states in the shared beamStore, state id. Bag elements and map entries are stored under
+ * sub-keys of that prefix, so that they can be appended or updated without reading the rest of the
+ * state and read back with a single range scan. Combining and watermark hold states accessed while
+ * a key is being processed are cached and written back once processing of the key finishes, see
+ * {@link Factory#beginWriteBack()}.
+ *
+ * <p>Every store is marked with the version of this key layout, and stores written with an earlier
+ * layout are rejected, since their states can't be read back.
+ */
 public class SamzaStoreStateInternals<K> implements StateInternals {
   private static final String BEAM_STORE = "beamStore";
 
+  // The key under which the layout version of a store is kept. State keys start with the varint
+  // length of a non-empty stage id and are longer, so they neither equal it nor fall into the
+  // range scanned for any state.
+  @VisibleForTesting static final byte[] LAYOUT_VERSION_KEY = {0};
+  @VisibleForTesting static final byte LAYOUT_VERSION = 2;
+
   private static ThreadLocal<SoftReference<ByteArrayOutputStream>> threadLocalBaos =
       new ThreadLocal<>();
 
+  // Bag elements are stored under sub-keys ordered by this sequence. It is seeded from the clock so
+  // that it keeps increasing across restarts, and the sub-keys are suffixed with an id that is
+  // random per process so that they cannot collide even if the clock moves backwards.
+  private static final AtomicLong bagSequence = new AtomicLong(System.currentTimeMillis() << 20);
+  private static final long PROCESS_ID = new Random().nextLong();
+
   // the stores include both beamStore for system states as well as stores for user state
   private final Map<String, KeyValueStore<byte[], byte[]>> stores;
   private final K key;
   private final byte[] keyBytes;
   private final int batchGetSize;
+  private final ThreadLocal<Map<ByteBuffer, WriteBackValue<?>>> writeBackCache;
 
   private SamzaStoreStateInternals(
       Map<String, KeyValueStore<byte[], byte[]>> stores,
       @Nullable K key,
       @Nullable byte[] keyBytes,
-      int batchGetSize) {
+      int batchGetSize,
+      ThreadLocal<Map<ByteBuffer, WriteBackValue<?>>> writeBackCache) {
     this.stores = stores;
     this.key = key;
     this.keyBytes = keyBytes;
     this.batchGetSize = batchGetSize;
+    this.writeBackCache = writeBackCache;
   }
 
   public static Map<String, KeyValueStore<byte[], byte[]>> getBeamStore(TaskContext context) {
@@ -175,44 +208,150 @@ public class SamzaStoreStateInternals<K> implements StateInternals {
     return baos;
   }
 
+  /** Writes the length of the given bytes as a varint, followed by the bytes. */
+  private static void writeLengthPrefixed(byte[] bytes, ByteArrayOutputStream baos)
+      throws IOException {
+    VarInt.encode(bytes.length, baos);
+    baos.write(bytes);
+  }
+
+  /** Returns the smallest key that is greater than every key starting with the given prefix. */
+  @VisibleForTesting
+  static byte[] prefixUpperBound(byte[] prefix) {
+    for (int i = prefix.length - 1; i >= 0; i--) {
+      if (prefix[i] != (byte) 0xff) {
+        final byte[] upperBound = Arrays.copyOf(prefix, i + 1);
+        upperBound[i]++;
+        return upperBound;
+      }
+    }
+    // The varint lengths in a state prefix never end in 0xff, so this cannot happen.
+    throw new IllegalStateException("State prefix has no upper bound");
+  }
+
+  /**
+   * Marks an empty store with the current {@link #LAYOUT_VERSION}, and fails if the store was
+   * written with a different key layout, including the unversioned one of earlier runners.
+   */
+  private static void checkLayoutVersion(String storeName, KeyValueStore<byte[], byte[]> store) {
+    final byte[] version = store.get(LAYOUT_VERSION_KEY);
+    if (version == null) {
+      final KeyValueIterator<byte[], byte[]> kvIter = store.all();
+      try {
+        checkState(
+            !kvIter.hasNext(),
+            "Store %s contains state written by an earlier version of the Samza runner, which "
+                + "used an incompatible key layout. Restart the job with empty stores.",
+            storeName);
+      } finally {
+        kvIter.close();
+      }
+      store.put(LAYOUT_VERSION_KEY, new byte[] {LAYOUT_VERSION});
+    } else {
+      checkState(
+          version.length == 1 && version[0] == LAYOUT_VERSION,
+          "Store %s uses state key layout version %s, but this runner only supports version %s. "
+              + "Restart the job with empty stores.",
+          storeName,
+          Arrays.toString(version),
+          LAYOUT_VERSION);
+    }
+  }
+
   /** Factory class to create {@link SamzaStoreStateInternals}. */
   public static class Factory<K> implements StateInternalsFactory<K> {
-    private final String stageId;
+    private final byte[] stageIdBytes;
     private final Map<String, KeyValueStore<byte[], byte[]>> stores;
     private final Coder<K> keyCoder;
     private final int batchGetSize;
+    // Values cached by the thread's current key while write-back is enabled, or null otherwise.
+    private final ThreadLocal<Map<ByteBuffer, WriteBackValue<?>>> writeBackCache =
+        new ThreadLocal<>();
 
     public Factory(
         String stageId,
         Map<String, KeyValueStore<byte[], byte[]>> stores,
         Coder<K> keyCoder,
         int batchGetSize) {
-      this.stageId = stageId;
+      this.stageIdBytes = stageId.getBytes(StandardCharsets.UTF_8);
       this.stores = stores;
       this.keyCoder = keyCoder;
       this.batchGetSize = batchGetSize;
+      stores.forEach(SamzaStoreStateInternals::checkLayoutVersion);
     }
 
     @Override
     public StateInternals stateInternalsForKey(@Nullable K key) {
       final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-      final DataOutputStream dos = new DataOutputStream(baos);
+      final byte[] keyBytes;
 
       try {
-        dos.writeUTF(stageId);
         if (key != null) {
           keyCoder.encode(key, baos);
         }
-        final byte[] keyBytes = baos.toByteArray();
+        final byte[] encodedKey = baos.toByteArray();
         baos.reset();
 
-        dos.write(keyBytes.length);
-        dos.write(keyBytes);
+        writeLengthPrefixed(stageIdBytes, baos);
+        writeLengthPrefixed(encodedKey, baos);
+        keyBytes = baos.toByteArray();
       } catch (IOException e) {
         throw new RuntimeException("Cannot encode key for state store", e);
       }
 
-      return new SamzaStoreStateInternals<>(stores, key, baos.toByteArray(), batchGetSize);
+      return new SamzaStoreStateInternals<>(stores, key, keyBytes, batchGetSize, writeBackCache);
+    }
+
+    /**
+     * Starts caching combining and watermark hold states accessed by the current thread, so that
+     * repeated updates while processing a key only touch the store once. Must be followed by {@link
+     * #flushWriteBack()} once the key has been processed.
+     */
+    void beginWriteBack() {
+      writeBackCache.set(new HashMap<>());
+    }
+
+    /** Writes the states cached since {@link #beginWriteBack()} to the store and stops caching. */
+    void flushWriteBack() {
+      final Map<ByteBuffer, WriteBackValue<?>> cache = writeBackCache.get();
+      writeBackCache.remove();
+      if (cache != null) {
+        cache.values().forEach(WriteBackValue::flush);
+      }
+    }
+  }
+
+  /** The cached value of a state, see {@link Factory#beginWriteBack()}. */
+  private static class WriteBackValue<T> {
+    private final KeyValueStore<byte[], byte[]> store;
+    private final byte[] storeKey;
+    private final Coder<T> coder;
+    @Nullable private T value;
+    private boolean dirty = false;
+
+    private WriteBackValue(
+        KeyValueStore<byte[], byte[]> store, byte[] storeKey, Coder<T> coder, @Nullable T value) {
+      this.store = store;
+      this.storeKey = storeKey;
+      this.coder = coder;
+      this.value = value;
+    }
+
+    private void flush() {
+      if (!dirty) {
+        return;
+      }
+      if (value == null) {
+        store.delete(storeKey);
+      } else {
+        final ByteArrayOutputStream baos = getThreadLocalBaos();
+        try {
+          coder.encode(value, baos);
+        } catch (IOException e) {
+          throw new RuntimeException("Could not encode state value: " + value, e);
+        }
+        store.put(storeKey, baos.toByteArray());
+      }
     }
   }
 
@@ -225,24 +364,38 @@ public class SamzaStoreStateInternals<K> implements StateInternals {
     private final Coder<T> coder;
     private final byte[] encodedStoreKey;
     private final String namespace;
+    private final boolean writeBack;
     protected final KeyValueStore<byte[], byte[]> store;
 
     protected AbstractSamzaState(
         StateNamespace namespace, StateTag<? extends State> address, Coder<T> coder) {
+      this(namespace, address, coder, false);
+    }
+
+    /**
+     * Creates a state whose value may be cached and written back while a key is being processed,
+     * see {@link Factory#beginWriteBack()}.
+     */
+    protected AbstractSamzaState(
+        StateNamespace namespace,
+        StateTag<? extends State> address,
+        Coder<T> coder,
+        boolean writeBack) {
       this.coder = coder;
       this.namespace = namespace.stringKey();
+      this.writeBack = writeBack;
 
       final KeyValueStore<byte[], byte[]> userStore = stores.get(address.getId());
       this.store = userStore != null ? userStore : stores.get(BEAM_STORE);
 
       final ByteArrayOutputStream baos = getThreadLocalBaos();
-      try (DataOutputStream dos = new DataOutputStream(baos)) {
-        dos.write(keyBytes);
-        dos.writeUTF(namespace.stringKey());
+      try {
+        baos.write(keyBytes);
+        writeLengthPrefixed(namespace.stringKey().getBytes(StandardCharsets.UTF_8), baos);
 
         if (userStore == null) {
           // for system state, we need to differentiate based on the address
-          dos.writeUTF(address.getId());
+          writeLengthPrefixed(address.getId().getBytes(StandardCharsets.UTF_8), baos);
         }
       } catch (IOException e) {
         throw new RuntimeException(
@@ -251,15 +404,47 @@ public class SamzaStoreStateInternals<K> implements StateInternals {
       this.encodedStoreKey = baos.toByteArray();
     }
 
+    /** Returns the cached value of this state, or null if it is not being cached. */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private WriteBackValue<T> cachedValue() {
+      final Map<ByteBuffer, WriteBackValue<?>> cache = writeBack ? writeBackCache.get() : null;
+      if (cache == null) {
+        return null;
+      }
+      return (WriteBackValue<T>)
+          cache.computeIfAbsent(
+              ByteBuffer.wrap(encodedStoreKey),
+              k ->
+                  new WriteBackValue<>(
+                      store, encodedStoreKey, coder, decodeValue(store.get(encodedStoreKey))));
+    }
+
     protected void clearInternal() {
-      store.delete(getEncodedStoreKey());
+      final WriteBackValue<T> cached = cachedValue();
+      if (cached != null) {
+        cached.value = null;
+        cached.dirty = true;
+      } else {
+        store.delete(getEncodedStoreKey());
+      }
     }
 
     protected void writeInternal(T value) {
-      store.put(getEncodedStoreKey(), encodeValue(value));
+      final WriteBackValue<T> cached = cachedValue();
+      if (cached != null) {
+        cached.value = value;
+        cached.dirty = true;
+      } else {
+        store.put(getEncodedStoreKey(), encodeValue(value));
+      }
     }
 
     protected T readInternal() {
+      final WriteBackValue<T> cached = cachedValue();
+      if (cached != null) {
+        return cached.value;
+      }
       final byte[] valueBytes = store.get(getEncodedStoreKey());
       return decodeValue(valueBytes);
     }
@@ -268,6 +453,10 @@ public class SamzaStoreStateInternals<K> implements StateInternals {
       return new ReadableState<Boolean>() {
         @Override
         public Boolean read() {
+          final WriteBackValue<T> cached = cachedValue();
+          if (cached != null) {
+            return cached.value == null;
+          }
           return store.get(getEncodedStoreKey()) == null;
         }
 
@@ -353,53 +542,52 @@ public class SamzaStoreStateInternals<K> implements StateInternals {
   }
 
   private class SamzaBagState<T> extends AbstractSamzaState<T> implements BagState<T> {
+    private final byte[] maxKey;
 
     private SamzaBagState(
         StateNamespace namespace, StateTag<? extends State> address, Coder<T> coder) {
       super(namespace, address, coder);
+      this.maxKey = prefixUpperBound(getEncodedStoreKey());
     }
 
     @Override
     public void add(T value) {
-      synchronized (store) {
-        final int size = getSize();
-        final byte[] encodedKey = encodeKey(size);
-        store.put(encodedKey, encodeValue(value));
-        store.put(getEncodedStoreKey(), Ints.toByteArray(size + 1));
-      }
+      store.put(encodeElementKey(), encodeValue(value));
     }
 
     @Override
     public ReadableState<Boolean> isEmpty() {
-      synchronized (store) {
-        return isEmptyInternal();
-      }
+      return new ReadableState<Boolean>() {
+        @Override
+        public Boolean read() {
+          final KeyValueIterator<byte[], byte[]> kvIter = store.range(getEncodedStoreKey(), maxKey);
+          try {
+            return !kvIter.hasNext();
+          } finally {
+            kvIter.close();
+          }
+        }
+
+        @Override
+        public ReadableState<Boolean> readLater() {
+          return this;
+        }
+      };
     }
 
     @Override
     @Nonnull
     public List<T> read() {
-      synchronized (store) {
-        final int size = getSize();
-        if (size == 0) {
-          return Collections.emptyList();
-        }
-
-        final List<T> values = new ArrayList<>(size);
-        final List<byte[]> keys = new ArrayList<>(size);
-        int start = 0;
-        while (start < size) {
-          final int end = Math.min(size, start + batchGetSize);
-          for (int i = start; i < end; i++) {
-            keys.add(encodeKey(i));
-          }
-          store.getAll(keys).values().forEach(value -> values.add(decodeValue(value)));
-
-          start += batchGetSize;
-          keys.clear();
+      final List<T> values = new ArrayList<>();
+      final KeyValueIterator<byte[], byte[]> kvIter = store.range(getEncodedStoreKey(), maxKey);
+      try {
+        while (kvIter.hasNext()) {
+          values.add(decodeValue(kvIter.next().getValue()));
         }
-        return values;
+      } finally {
+        kvIter.close();
       }
+      return values;
     }
 
     @Override
@@ -409,29 +597,27 @@ public class SamzaStoreStateInternals<K> implements StateInternals {
 
     @Override
     public void clear() {
-      synchronized (store) {
-        final int size = getSize();
-        if (size != 0) {
-          final List<byte[]> keys = new ArrayList<>(size);
-          for (int i = 0; i < size; i++) {
-            keys.add(encodeKey(i));
-          }
-          store.deleteAll(keys);
-          store.delete(getEncodedStoreKey());
+      final List<byte[]> keys = new ArrayList<>();
+      final KeyValueIterator<byte[], byte[]> kvIter = store.range(getEncodedStoreKey(), maxKey);
+      try {
+        while (kvIter.hasNext()) {
+          keys.add(kvIter.next().getKey());
         }
+      } finally {
+        kvIter.close();
+      }
+      for (int start = 0; start < keys.size(); start += batchGetSize) {
+        store.deleteAll(keys.subList(start, Math.min(keys.size(), start + batchGetSize)));
       }
     }
 
-    private int getSize() {
-      final byte[] sizeBytes = store.get(getEncodedStoreKey());
-      return sizeBytes == null ? 0 : Ints.fromByteArray(sizeBytes);
-    }
-
-    private byte[] encodeKey(int size) {
+    /** Encodes a new sub-key that sorts after those of the elements added so far. */
+    private byte[] encodeElementKey() {
       final ByteArrayOutputStream baos = getThreadLocalBaos();
       try (DataOutputStream dos = new DataOutputStream(baos)) {
         dos.write(getEncodedStoreKey());
-        dos.writeInt(size);
+        dos.writeLong(bagSequence.getAndIncrement());
+        dos.writeLong(PROCESS_ID);
         return baos.toByteArray();
       } catch (Exception e) {
         throw new RuntimeException(e);
@@ -535,8 +721,9 @@ public class SamzaStoreStateInternals<K> implements StateInternals {
   private class SamzaMapStateImpl<KeyT, ValueT> extends AbstractSamzaState<ValueT>
       implements SamzaMapState<KeyT, ValueT>, KeyValueIteratorState {
 
-    private static final int MAX_KEY_SIZE = 100000; //100K bytes
+    private static final int MAX_KEY_SIZE = 100000; // 100K bytes
     private final Coder<KeyT> keyCoder;
+    // Exclusive upper bound of the keys of the entries of this map.
     private final byte[] maxKey;
     private final int storeKeySize;
     private final List<KeyValueIterator<byte[], byte[]>> openIterators =
@@ -550,7 +737,6 @@ public class SamzaStoreStateInternals<K> implements StateInternals {
       super(namespace, address, valueCoder);
 
       this.keyCoder = keyCoder;
-      this.maxKey = new byte[MAX_KEY_SIZE];
       this.storeKeySize = getEncodedStoreKey().length;
 
       final byte[] encodedKey = getEncodedStoreKey();
@@ -559,8 +745,7 @@ public class SamzaStoreStateInternals<K> implements StateInternals {
           "Encoded key size %s is longer than the max key size (100 KB) supported",
           encodedKey.length);
 
-      Arrays.fill(maxKey, (byte) 0xff);
-      System.arraycopy(encodedKey, 0, maxKey, 0, encodedKey.length);
+      this.maxKey = prefixUpperBound(encodedKey);
     }
 
     @Override
@@ -757,7 +942,7 @@ public class SamzaStoreStateInternals<K> implements StateInternals {
         StateTag<? extends State> address,
         Coder<AccumT> coder,
         Combine.CombineFn<InT, AccumT, OutT> combineFn) {
-      super(namespace, address, coder);
+      super(namespace, address, coder, true);
 
       this.combineFn = combineFn;
     }
@@ -816,7 +1001,7 @@ public class SamzaStoreStateInternals<K> implements StateInternals {
 
     public <V extends State> SamzaWatermarkHoldState(
         StateNamespace namespace, StateTag<V> address, TimestampCombiner timestampCombiner) {
-      super(namespace, address, InstantCoder.of());
+      super(namespace, address, InstantCoder.of(), true);
       this.timestampCombiner = timestampCombiner;
     }
 
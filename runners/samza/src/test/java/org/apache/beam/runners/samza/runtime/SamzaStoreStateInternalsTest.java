@@ -17,6 +17,7 @@
  */
 package org.apache.beam.runners.samza.runtime;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -26,6 +27,7 @@ import com.google.common.collect.Iterators;
 import com.google.common.collect.Sets;
 import java.io.File;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -34,6 +36,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import org.apache.beam.runners.core.StateNamespace;
+import org.apache.beam.runners.core.StateNamespaces;
+import org.apache.beam.runners.core.StateTag;
+import org.apache.beam.runners.core.StateTags;
 import org.apache.beam.runners.samza.SamzaPipelineOptions;
 import org.apache.beam.runners.samza.TestSamzaRunner;
 import org.apache.beam.runners.samza.state.SamzaMapState;
@@ -42,6 +48,7 @@ import org.apache.beam.runners.samza.translation.ConfigBuilder;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
 import org.apache.beam.sdk.coders.VarIntCoder;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.state.BagState;
 import org.apache.beam.sdk.state.CombiningState;
 import org.apache.beam.sdk.state.MapState;
 import org.apache.beam.sdk.state.ReadableState;
@@ -58,6 +65,7 @@ import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
 import org.apache.samza.container.SamzaContainerContext;
 import org.apache.samza.metrics.MetricsRegistry;
+import org.apache.samza.metrics.MetricsRegistryMap;
 import org.apache.samza.storage.kv.Entry;
 import org.apache.samza.storage.kv.KeyValueIterator;
 import org.apache.samza.storage.kv.KeyValueStore;
@@ -65,12 +73,19 @@ import org.apache.samza.storage.kv.KeyValueStoreMetrics;
 import org.apache.samza.storage.kv.inmemory.InMemoryKeyValueStorageEngineFactory;
 import org.apache.samza.storage.kv.inmemory.InMemoryKeyValueStore;
 import org.apache.samza.system.SystemStreamPartition;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
 
 /** Tests for SamzaStoreStateInternals. */
 public class SamzaStoreStateInternalsTest implements Serializable {
   public final transient TestPipeline pipeline = TestPipeline.create();
 
+  @Rule public final transient ExpectedException thrown = ExpectedException.none();
+
+  private static final StateNamespace NAMESPACE = StateNamespaces.global();
+  private static final StateTag<BagState<Integer>> BAG_TAG = StateTags.bag("bag", VarIntCoder.of());
+
   @Test
   public void testMapStateIterator() {
     final String stateId = "foo";
@@ -295,4 +310,179 @@ public class SamzaStoreStateInternalsTest implements Serializable {
     assertEquals(8, TestStore.iterators.size());
     TestStore.iterators.forEach(iter -> assertTrue(iter.closed));
   }
+
+  /** An in-memory store that counts the reads, writes and batched deletes issued to it. */
+  private static class CountingStore extends InMemoryKeyValueStore {
+    private int gets = 0;
+    private int puts = 0;
+    private final List<Integer> deleteBatches = new ArrayList<>();
+
+    CountingStore() {
+      super(new KeyValueStoreMetrics("beamStore", new MetricsRegistryMap()));
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+      gets++;
+      return super.get(key);
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) {
+      puts++;
+      super.put(key, value);
+    }
+
+    @Override
+    public void deleteAll(List<byte[]> keys) {
+      deleteBatches.add(keys.size());
+      super.deleteAll(keys);
+    }
+  }
+
+  private static SamzaStoreStateInternals.Factory<String> createFactory(
+      KeyValueStore<byte[], byte[]> store, int batchGetSize) {
+    return new SamzaStoreStateInternals.Factory<>(
+        "stage", Collections.singletonMap("beamStore", store), StringUtf8Coder.of(), batchGetSize);
+  }
+
+  @Test
+  public void testBagAppendsAreBlindAndOrdered() {
+    final CountingStore store = new CountingStore();
+    final BagState<Integer> bag =
+        createFactory(store, 100).stateInternalsForKey("a").state(NAMESPACE, BAG_TAG);
+
+    final int gets = store.gets;
+    final List<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      bag.add(i);
+      expected.add(i);
+    }
+
+    assertEquals(gets, store.gets);
+    assertEquals(expected, bag.read());
+  }
+
+  @Test
+  public void testBagClearDeletesInBatches() {
+    final CountingStore store = new CountingStore();
+    final SamzaStoreStateInternals.Factory<String> factory = createFactory(store, 2);
+    final BagState<Integer> bag = factory.stateInternalsForKey("a").state(NAMESPACE, BAG_TAG);
+    final BagState<Integer> otherBag = factory.stateInternalsForKey("b").state(NAMESPACE, BAG_TAG);
+    for (int i = 0; i < 5; i++) {
+      bag.add(i);
+    }
+    otherBag.add(42);
+
+    bag.clear();
+
+    assertEquals(ImmutableList.of(2, 2, 1), store.deleteBatches);
+    assertTrue(bag.isEmpty().read());
+    assertEquals(Collections.emptyList(), bag.read());
+    assertEquals(ImmutableList.of(42), otherBag.read());
+
+    bag.add(5);
+    assertEquals(ImmutableList.of(5), bag.read());
+  }
+
+  @Test
+  public void testStatesWithAdjacentPrefixesAreIsolated() {
+    final SamzaStoreStateInternals.Factory<String> factory = createFactory(new CountingStore(), 2);
+    // "a" is a prefix of "ab", and the prefix of the state "bah" is the exclusive upper bound of
+    // the elements of the state "bag".
+    final StateTag<BagState<Integer>> bahTag = StateTags.bag("bah", VarIntCoder.of());
+    final StateTag<BagState<Integer>> bag2Tag = StateTags.bag("bag2", VarIntCoder.of());
+    final BagState<Integer> bag = factory.stateInternalsForKey("a").state(NAMESPACE, BAG_TAG);
+    bag.add(1);
+    factory.stateInternalsForKey("a").state(NAMESPACE, bahTag).add(2);
+    factory.stateInternalsForKey("a").state(NAMESPACE, bag2Tag).add(3);
+    factory.stateInternalsForKey("ab").state(NAMESPACE, BAG_TAG).add(4);
+
+    assertEquals(ImmutableList.of(1), bag.read());
+    bag.clear();
+    assertTrue(bag.isEmpty().read());
+    assertEquals(
+        ImmutableList.of(2), factory.stateInternalsForKey("a").state(NAMESPACE, bahTag).read());
+    assertEquals(
+        ImmutableList.of(3), factory.stateInternalsForKey("a").state(NAMESPACE, bag2Tag).read());
+    assertEquals(
+        ImmutableList.of(4), factory.stateInternalsForKey("ab").state(NAMESPACE, BAG_TAG).read());
+  }
+
+  @Test
+  public void testPrefixUpperBound() {
+    assertArrayEquals(
+        new byte[] {1, 2, 4}, SamzaStoreStateInternals.prefixUpperBound(new byte[] {1, 2, 3}));
+    assertArrayEquals(
+        new byte[] {1, (byte) 0x80},
+        SamzaStoreStateInternals.prefixUpperBound(new byte[] {1, 0x7f}));
+    assertArrayEquals(
+        new byte[] {2},
+        SamzaStoreStateInternals.prefixUpperBound(new byte[] {1, (byte) 0xff, (byte) 0xff}));
+
+    thrown.expect(IllegalStateException.class);
+    SamzaStoreStateInternals.prefixUpperBound(new byte[] {(byte) 0xff, (byte) 0xff});
+  }
+
+  @Test
+  public void testWriteBackIsFlushedWhenKeyIsCleared() {
+    final CountingStore store = new CountingStore();
+    final SamzaStoreStateInternals.Factory<String> factory = createFactory(store, 100);
+    final KeyedInternals<String> keyedInternals = new KeyedInternals<>(factory, key -> null);
+    final StateTag<CombiningState<Integer, int[], Integer>> sumTag =
+        StateTags.combiningValueFromInputInternal("sum", VarIntCoder.of(), Sum.ofIntegers());
+
+    keyedInternals.setKey("a");
+    final int puts = store.puts;
+    for (int i = 0; i < 10; i++) {
+      keyedInternals.stateInternals().state(NAMESPACE, sumTag).add(i);
+    }
+    assertEquals(puts, store.puts);
+    assertEquals(45, (int) keyedInternals.stateInternals().state(NAMESPACE, sumTag).read());
+
+    keyedInternals.clearKey();
+    assertEquals(puts + 1, store.puts);
+    assertEquals(45, (int) factory.stateInternalsForKey("a").state(NAMESPACE, sumTag).read());
+  }
+
+  @Test
+  public void testNewStoreIsMarkedWithLayoutVersion() {
+    final CountingStore store = new CountingStore();
+    createFactory(store, 100).stateInternalsForKey("a").state(NAMESPACE, BAG_TAG).add(1);
+
+    assertArrayEquals(
+        new byte[] {SamzaStoreStateInternals.LAYOUT_VERSION},
+        store.get(SamzaStoreStateInternals.LAYOUT_VERSION_KEY));
+    // the store is accepted again, e.g. when the job restarts.
+    assertEquals(
+        ImmutableList.of(1),
+        createFactory(store, 100).stateInternalsForKey("a").state(NAMESPACE, BAG_TAG).read());
+  }
+
+  @Test
+  public void testStoreWithUnversionedLayoutIsRejected() {
+    final CountingStore store = new CountingStore();
+    // earlier runners prefixed the stage id of every key with its writeUTF length.
+    final byte[] stageId = "stage".getBytes(StandardCharsets.UTF_8);
+    final byte[] oldKey = new byte[stageId.length + 2];
+    oldKey[1] = (byte) stageId.length;
+    System.arraycopy(stageId, 0, oldKey, 2, stageId.length);
+    store.put(oldKey, new byte[] {1});
+
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("earlier version of the Samza runner");
+    createFactory(store, 100);
+  }
+
+  @Test
+  public void testStoreWithOtherLayoutVersionIsRejected() {
+    final CountingStore store = new CountingStore();
+    store.put(
+        SamzaStoreStateInternals.LAYOUT_VERSION_KEY,
+        new byte[] {(byte) (SamzaStoreStateInternals.LAYOUT_VERSION + 1)});
+
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("layout version");
+    createFactory(store, 100);
+  }
 }
@@ -18,6 +18,9 @@
 package org.apache.beam.runners.spark;
 
 import java.util.List;
+import java.util.Map;
+import org.apache.beam.runners.spark.translation.CachingPlanner;
+import org.apache.beam.runners.spark.translation.DefaultCachingPlanner;
 import org.apache.beam.sdk.annotations.Experimental;
 import org.apache.beam.sdk.options.ApplicationNameOptions;
 import org.apache.beam.sdk.options.Default;
@@ -51,6 +54,30 @@ public interface SparkPipelineOptions
 
   void setStorageLevel(String storageLevel);
 
+  @Description(
+      "Enable/disable adapting the MEMORY_ONLY storage level to the estimated size of each "
+          + "cached PCollection. Other storage levels are never adapted.")
+  @Default.Boolean(true)
+  Boolean getAdaptStorageLevel();
+
+  void setAdaptStorageLevel(Boolean adaptStorageLevel);
+
+  @Description(
+      "The CachingPlanner that decides whether and with which storage level a PCollection that "
+          + "is consumed more than once is cached, based on its estimated size and lineage.")
+  @Default.Class(DefaultCachingPlanner.class)
+  Class<? extends CachingPlanner> getCachingPlanner();
+
+  void setCachingPlanner(Class<? extends CachingPlanner> cachingPlanner);
+
+  @Description(
+      "Storage levels of specific PCollections by name, taking precedence over the caching "
+          + "planner, e.g. {\"MyTransform/ParDo(MyDoFn).out0\":\"MEMORY_AND_DISK\"}. "
+          + "Use NONE to never cache a PCollection.")
+  Map<String, String> getStorageLevelOverrides();
+
+  void setStorageLevelOverrides(Map<String, String> storageLevelOverrides);
+
   @Description("Minimum time to spend on read, for each micro-batch.")
   @Default.Long(200)
   Long getMinReadTimeMillis();
@@ -26,6 +26,7 @@ import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import javax.annotation.Nullable;
 import org.apache.beam.runners.core.construction.PipelineResources;
 import org.apache.beam.runners.core.construction.TransformInputs;
 import org.apache.beam.runners.core.metrics.MetricsPusher;
@@ -34,6 +35,7 @@ import org.apache.beam.runners.spark.metrics.AggregatorMetricSource;
 import org.apache.beam.runners.spark.metrics.CompositeSource;
 import org.apache.beam.runners.spark.metrics.MetricsAccumulator;
 import org.apache.beam.runners.spark.metrics.SparkBeamMetricSource;
+import org.apache.beam.runners.spark.metrics.SparkCacheMetric;
 import org.apache.beam.runners.spark.translation.EvaluationContext;
 import org.apache.beam.runners.spark.translation.SparkContextFactory;
 import org.apache.beam.runners.spark.translation.SparkPipelineTranslator;
@@ -152,6 +154,8 @@ public final class SparkRunner extends PipelineRunner<SparkPipelineResult> {
 
     final SparkPipelineResult result;
     final Future<?> startPipeline;
+    // the datasets cached by a batch pipeline are reported to the metrics sinks.
+    SparkCacheMetric cacheMetric = null;
 
     final SparkPipelineTranslator translator;
 
@@ -211,6 +215,7 @@ public final class SparkRunner extends PipelineRunner<SparkPipelineResult> {
       // create the evaluation context
       final JavaSparkContext jsc = SparkContextFactory.getSparkContext(mOptions);
       final EvaluationContext evaluationContext = new EvaluationContext(jsc, pipeline, mOptions);
+      cacheMetric = evaluationContext.getCacheMetric();
       translator = new TransformTranslator.Translator();
 
       // update the cache candidates
@@ -230,7 +235,7 @@ public final class SparkRunner extends PipelineRunner<SparkPipelineResult> {
     }
 
     if (mOptions.getEnableSparkMetricSinks()) {
-      registerMetricsSource(mOptions.getAppName());
+      registerMetricsSource(mOptions.getAppName(), cacheMetric);
     }
 
     // it would have been better to create MetricsPusher from runner-core but we need
@@ -242,11 +247,14 @@ public final class SparkRunner extends PipelineRunner<SparkPipelineResult> {
     return result;
   }
 
-  private void registerMetricsSource(String appName) {
+  private void registerMetricsSource(String appName, @Nullable SparkCacheMetric cacheMetric) {
     final MetricsSystem metricsSystem = SparkEnv$.MODULE$.get().metricsSystem();
     final AggregatorMetricSource aggregatorMetricSource =
         new AggregatorMetricSource(null, AggregatorsAccumulator.getInstance().value());
-    final SparkBeamMetricSource metricsSource = new SparkBeamMetricSource(null);
+    final SparkBeamMetricSource metricsSource =
+        (cacheMetric != null)
+            ? new SparkBeamMetricSource(null, cacheMetric)
+            : new SparkBeamMetricSource(null);
     final CompositeSource compositeSource =
         new CompositeSource(
             appName + ".Beam",
@@ -96,6 +96,16 @@ public class SourceRDD {
 
     private static final long DEFAULT_BUNDLE_SIZE = 64L * 1024L * 1024L;
 
+    /** Returns the estimated size of the source in bytes, or -1 if it cannot be estimated. */
+    public long getEstimatedSizeBytes() {
+      try {
+        return source.getEstimatedSizeBytes(options.get());
+      } catch (Exception e) {
+        LOG.debug("Failed to get estimated size for source {}.", source, e);
+        return -1;
+      }
+    }
+
     @Override
     public Partition[] getPartitions() {
       try {
@@ -22,10 +22,12 @@ import org.apache.spark.metrics.source.Source;
 
 /**
  * A Spark {@link Source} that is tailored to expose a {@link SparkBeamMetric}, wrapping an
- * underlying {@link org.apache.beam.sdk.metrics.MetricResults} instance.
+ * underlying {@link org.apache.beam.sdk.metrics.MetricResults} instance, and a {@link
+ * SparkCacheMetric} reporting the usage of cached datasets.
  */
 public class SparkBeamMetricSource implements Source {
   private static final String METRIC_NAME = "Metrics";
+  private static final String CACHE_METRIC_NAME = "Cache";
 
   private final String name;
 
@@ -36,6 +38,11 @@ public class SparkBeamMetricSource implements Source {
     metricRegistry.register(METRIC_NAME, new SparkBeamMetric());
   }
 
+  public SparkBeamMetricSource(final String name, final SparkCacheMetric cacheMetric) {
+    this(name);
+    metricRegistry.register(CACHE_METRIC_NAME, cacheMetric);
+  }
+
   @Override
   public String sourceName() {
     return name;
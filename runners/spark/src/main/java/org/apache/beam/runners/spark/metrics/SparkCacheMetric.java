@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.spark.metrics;
+
+import com.codahale.metrics.Metric;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.spark.SparkContext;
+import org.apache.spark.api.java.function.FlatMapFunction;
+import org.apache.spark.rdd.RDD;
+import org.apache.spark.storage.RDDInfo;
+import org.apache.spark.util.LongAccumulator;
+
+/**
+ * A {@link Metric} that reports how the datasets cached by the Spark runner are used: the
+ * partitions read from the cache ({@code hits}), the partitions computed because they were not
+ * cached yet or were evicted ({@code misses}), and the bytes currently cached in memory and spilled
+ * to disk.
+ *
+ * <p>Hits and misses are counted with accumulators updated in transformations, so retried tasks may
+ * be counted more than once.
+ *
+ * <p>Each {@link org.apache.beam.runners.spark.translation.EvaluationContext} reports the datasets
+ * it cached to its own instance, so the persisted {@link RDD RDDs} are not referenced beyond the
+ * pipeline run.
+ */
+public class SparkCacheMetric implements Metric {
+  private static final String ILLEGAL_CHARACTERS = "[^A-Za-z0-9_-]";
+
+  private final Map<String, CachedDataset> cachedDatasets = new ConcurrentHashMap<>();
+
+  /** Counts the computed and read partitions of a cached dataset. */
+  public static class CacheUsage implements Serializable {
+    private final LongAccumulator computed;
+    private final LongAccumulator read;
+
+    public CacheUsage(SparkContext sc) {
+      this.computed = sc.longAccumulator();
+      this.read = sc.longAccumulator();
+    }
+
+    /** Returns a function to apply before persisting, which runs only on cache misses. */
+    public <T> FlatMapFunction<Iterator<T>, T> countComputed() {
+      return partition -> {
+        computed.add(1L);
+        return partition;
+      };
+    }
+
+    /** Returns a function to apply after persisting, which runs on every read. */
+    public <T> FlatMapFunction<Iterator<T>, T> countRead() {
+      return partition -> {
+        read.add(1L);
+        return partition;
+      };
+    }
+  }
+
+  /** Reports the usage of the given persisted {@link RDD} under the given name. */
+  public void register(String name, RDD<?> persisted, CacheUsage usage) {
+    cachedDatasets.put(name, new CachedDataset(persisted, usage));
+  }
+
+  Map<String, ?> renderAll() {
+    Map<String, Object> metrics = new HashMap<>();
+    Map<Integer, String> names = new HashMap<>();
+    SparkContext sc = null;
+    for (Iterator<Map.Entry<String, CachedDataset>> it = cachedDatasets.entrySet().iterator();
+        it.hasNext(); ) {
+      Map.Entry<String, CachedDataset> entry = it.next();
+      CachedDataset dataset = entry.getValue();
+      if (dataset.rdd.context().isStopped()) {
+        it.remove();
+        continue;
+      }
+      String name = entry.getKey().replaceAll(ILLEGAL_CHARACTERS, "_");
+      long computed = dataset.usage.computed.value();
+      metrics.put(name + ".hits", Math.max(0L, dataset.usage.read.value() - computed));
+      metrics.put(name + ".misses", computed);
+      names.put(dataset.rdd.id(), name);
+      sc = dataset.rdd.context();
+    }
+    if (sc != null) {
+      for (RDDInfo info : sc.getRDDStorageInfo()) {
+        String name = names.get(info.id());
+        if (name != null) {
+          metrics.put(name + ".memoryBytes", info.memSize());
+          metrics.put(name + ".diskBytes", info.diskSize());
+        }
+      }
+    }
+    return metrics;
+  }
+
+  private static class CachedDataset {
+    private final RDD<?> rdd;
+    private final CacheUsage usage;
+
+    private CachedDataset(RDD<?> rdd, CacheUsage usage) {
+      this.rdd = rdd;
+      this.usage = usage;
+    }
+  }
+}
@@ -41,8 +41,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * A {@link MetricRegistry} decorator-like that supports {@link AggregatorMetric} and {@link
- * SparkBeamMetric} as {@link Gauge Gauges}.
+ * A {@link MetricRegistry} decorator-like that supports {@link AggregatorMetric}, {@link
+ * SparkBeamMetric} and {@link SparkCacheMetric} as {@link Gauge Gauges}.
  *
  * <p>{@link MetricRegistry} is not an interface, so this is not a by-the-book decorator. That said,
  * it delegates all metric related getters to the "decorated" instance.
@@ -106,6 +106,12 @@ public class WithMetricsSupport extends MetricRegistry {
             .firstMatch(isSparkBeamMetric())
             .transform(beamMetricToGauges());
 
+    // find the SparkCacheMetric metrics from within all currently registered metrics
+    final Optional<Map<String, Gauge>> cacheMetrics =
+        FluentIterable.from(metricRegistry.getMetrics().entrySet())
+            .firstMatch(isSparkCacheMetric())
+            .transform(cacheMetricToGauges());
+
     if (aggregatorMetrics.isPresent()) {
       gauges.putAll(Maps.filterEntries(aggregatorMetrics.get(), matches(filter)));
     }
@@ -114,6 +120,10 @@ public class WithMetricsSupport extends MetricRegistry {
       gauges.putAll(Maps.filterEntries(beamMetrics.get(), matches(filter)));
     }
 
+    if (cacheMetrics.isPresent()) {
+      gauges.putAll(Maps.filterEntries(cacheMetrics.get(), matches(filter)));
+    }
+
     return gauges;
   }
 
@@ -143,6 +153,19 @@ public class WithMetricsSupport extends MetricRegistry {
     };
   }
 
+  private Function<Map.Entry<String, Metric>, Map<String, Gauge>> cacheMetricToGauges() {
+    return entry -> {
+      final Map<String, ?> metrics = ((SparkCacheMetric) entry.getValue()).renderAll();
+      final String parentName = entry.getKey();
+      final Map<String, Gauge> gaugeMap = Maps.transformEntries(metrics, toGauge());
+      final Map<String, Gauge> fullNameGaugeMap = Maps.newLinkedHashMap();
+      for (Map.Entry<String, Gauge> gaugeEntry : gaugeMap.entrySet()) {
+        fullNameGaugeMap.put(parentName + "." + gaugeEntry.getKey(), gaugeEntry.getValue());
+      }
+      return Maps.filterValues(fullNameGaugeMap, Predicates.notNull());
+    };
+  }
+
   private Maps.EntryTransformer<String, Object, Gauge> toGauge() {
     return (name, rawValue) ->
         () -> {
@@ -174,4 +197,8 @@ public class WithMetricsSupport extends MetricRegistry {
   private Predicate<Map.Entry<String, Metric>> isSparkBeamMetric() {
     return metricEntry -> (metricEntry.getValue() instanceof SparkBeamMetric);
   }
+
+  private Predicate<Map.Entry<String, Metric>> isSparkCacheMetric() {
+    return metricEntry -> (metricEntry.getValue() instanceof SparkCacheMetric);
+  }
 }
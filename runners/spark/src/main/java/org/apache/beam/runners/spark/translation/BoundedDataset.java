@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import org.apache.beam.runners.spark.coders.CoderHelpers;
+import org.apache.beam.runners.spark.metrics.SparkCacheMetric;
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
 import org.apache.beam.sdk.transforms.windowing.GlobalWindows;
@@ -110,6 +111,37 @@ public class BoundedDataset<T> implements Dataset {
     }
   }
 
+  /**
+   * Caches this dataset like {@link #cache(String, Coder)}, and reports the partitions that are
+   * computed and read from the cache to the given {@link SparkCacheMetric}.
+   */
+  @SuppressWarnings("unchecked")
+  void cache(String storageLevel, Coder<?> coder, SparkCacheMetric cacheMetric) {
+    StorageLevel level = StorageLevel.fromString(storageLevel);
+    String name = (getRDD().name() != null) ? getRDD().name() : "rdd_" + getRDD().id();
+    // count the partitions that are computed and read to report cache hits and misses.
+    SparkCacheMetric.CacheUsage usage = new SparkCacheMetric.CacheUsage(getRDD().context());
+    JavaRDD<WindowedValue<T>> computed = getRDD().mapPartitions(usage.countComputed(), true);
+    if (TranslationUtils.avoidRddSerialization(level)) {
+      // if it is memory only reduce the overhead of moving to bytes
+      JavaRDD<WindowedValue<T>> persisted = computed.persist(level);
+      cacheMetric.register(name, persisted.setName(name).rdd(), usage);
+      this.rdd = persisted.mapPartitions(usage.countRead(), true);
+    } else {
+      // Caching can cause Serialization, we need to code to bytes
+      // more details in https://issues.apache.org/jira/browse/BEAM-2669
+      Coder<WindowedValue<T>> windowedValueCoder = (Coder<WindowedValue<T>>) coder;
+      JavaRDD<byte[]> persisted =
+          computed.map(CoderHelpers.toByteFunction(windowedValueCoder)).persist(level);
+      cacheMetric.register(name, persisted.setName(name).rdd(), usage);
+      this.rdd =
+          persisted
+              .mapPartitions(usage.countRead(), true)
+              .map(CoderHelpers.fromByteFunction(windowedValueCoder));
+    }
+    this.rdd.setName(name);
+  }
+
   @Override
   public void action() {
     // Empty function to force computation of RDD.
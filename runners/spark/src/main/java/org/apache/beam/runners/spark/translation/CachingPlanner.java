@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.spark.translation;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.beam.runners.spark.SparkPipelineOptions;
+import org.apache.beam.runners.spark.io.SourceRDD;
+import org.apache.spark.Dependency;
+import org.apache.spark.ShuffleDependency;
+import org.apache.spark.SparkConf;
+import org.apache.spark.rdd.ParallelCollectionRDD;
+import org.apache.spark.rdd.RDD;
+import org.apache.spark.storage.StorageLevel;
+import scala.collection.JavaConversions;
+
+/**
+ * Decides whether and with which storage level the {@link Dataset} of a {@link
+ * org.apache.beam.sdk.values.PCollection} that is consumed more than once is cached.
+ *
+ * <p>Implementations are configured with {@link SparkPipelineOptions#getCachingPlanner()} and need
+ * a public no-argument constructor.
+ */
+public interface CachingPlanner {
+
+  /**
+   * Returns the name of the {@link StorageLevel} to cache the given candidate with, or {@code
+   * "NONE"} to recompute it for every consumer.
+   */
+  String storageLevel(Candidate candidate, SparkPipelineOptions options, SparkConf conf);
+
+  /** A dataset that may be cached, described by its reuse and its lineage. */
+  final class Candidate {
+    /** The cost of recomputing a shuffle or reading a source, relative to a narrow dependency. */
+    private static final long SHUFFLE_OR_SOURCE_COST = 10L;
+
+    private final String name;
+    private final long consumers;
+    private final long estimatedSizeBytes;
+    private final long recomputationCost;
+
+    public Candidate(String name, long consumers, long estimatedSizeBytes, long recomputationCost) {
+      this.name = name;
+      this.consumers = consumers;
+      this.estimatedSizeBytes = estimatedSizeBytes;
+      this.recomputationCost = recomputationCost;
+    }
+
+    /** Estimates the size and recomputation cost of the given {@link RDD} from its lineage. */
+    static Candidate fromLineage(String name, long consumers, RDD<?> rdd) {
+      checkArgument(consumers >= 0, "Consumers must be non-negative, was %s", consumers);
+      return new Candidate(
+          name, consumers, estimateSizeBytes(rdd), estimateCost(rdd, new HashSet<>()));
+    }
+
+    /** The name of the {@link org.apache.beam.sdk.values.PCollection}. */
+    public String getName() {
+      return name;
+    }
+
+    /** The number of transforms consuming the dataset. */
+    public long getConsumers() {
+      return consumers;
+    }
+
+    /** The estimated size of the dataset in bytes, or -1 if it is unknown. */
+    public long getEstimatedSizeBytes() {
+      return estimatedSizeBytes;
+    }
+
+    /**
+     * The relative cost of recomputing the dataset from its closest cached or materialized
+     * ancestors: one per narrow transformation, more for shuffles and source reads. It is 0 only if
+     * the dataset itself is cached or parallelized, so recomputing it is a pure re-read.
+     */
+    public long getRecomputationCost() {
+      return recomputationCost;
+    }
+
+    private static long estimateSizeBytes(RDD<?> rdd) {
+      if (rdd instanceof SourceRDD.Bounded) {
+        return ((SourceRDD.Bounded<?>) rdd).getEstimatedSizeBytes();
+      }
+      long sizeBytes = 0;
+      boolean hasParents = false;
+      for (Dependency<?> dependency : JavaConversions.seqAsJavaList(rdd.dependencies())) {
+        long parentSizeBytes = estimateSizeBytes(dependency.rdd());
+        if (parentSizeBytes < 0) {
+          return -1;
+        }
+        // transformations are assumed to preserve the size of their inputs.
+        sizeBytes += parentSizeBytes;
+        hasParents = true;
+      }
+      return hasParents ? sizeBytes : -1;
+    }
+
+    private static long estimateCost(RDD<?> rdd, Set<Integer> visited) {
+      if (!visited.add(rdd.id())
+          || !rdd.getStorageLevel().equals(StorageLevel.NONE())
+          || rdd instanceof ParallelCollectionRDD) {
+        return 0;
+      }
+      if (rdd instanceof SourceRDD.Bounded) {
+        return SHUFFLE_OR_SOURCE_COST;
+      }
+      long cost = 1;
+      for (Dependency<?> dependency : JavaConversions.seqAsJavaList(rdd.dependencies())) {
+        if (dependency instanceof ShuffleDependency) {
+          cost += SHUFFLE_OR_SOURCE_COST;
+        }
+        cost += estimateCost(dependency.rdd(), visited);
+      }
+      return cost;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "Candidate{name=%s, consumers=%d, estimatedSizeBytes=%d, recomputationCost=%d}",
+          name, consumers, estimatedSizeBytes, recomputationCost);
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.spark.translation;
+
+import org.apache.beam.runners.spark.SparkPipelineOptions;
+import org.apache.spark.SparkConf;
+import org.apache.spark.storage.StorageLevel;
+
+/**
+ * The default {@link CachingPlanner}.
+ *
+ * <p>Datasets that are consumed only once, or whose recomputation is a pure re-read of a cached or
+ * parallelized dataset, are not cached. Other datasets are cached with {@link
+ * SparkPipelineOptions#getStorageLevel()}. If it is {@code MEMORY_ONLY} and {@link
+ * SparkPipelineOptions#getAdaptStorageLevel()} is enabled, the storage level is adapted to their
+ * estimated size: datasets that exceed a quarter of the storage memory of the cluster are cached
+ * serialized with {@code MEMORY_ONLY_SER}, and datasets that exceed all of it spill with {@code
+ * MEMORY_AND_DISK}.
+ */
+public class DefaultCachingPlanner implements CachingPlanner {
+
+  @Override
+  public String storageLevel(Candidate candidate, SparkPipelineOptions options, SparkConf conf) {
+    if (candidate.getConsumers() < 2 || candidate.getRecomputationCost() == 0) {
+      return "NONE";
+    }
+    String storageLevel = options.getStorageLevel();
+    long sizeBytes = candidate.getEstimatedSizeBytes();
+    if (!options.getAdaptStorageLevel()
+        || !StorageLevel.fromString(storageLevel).equals(StorageLevel.MEMORY_ONLY())
+        || sizeBytes < 0) {
+      return storageLevel;
+    }
+    long storageMemoryBytes = storageMemoryBytes(conf);
+    if (sizeBytes > storageMemoryBytes) {
+      return "MEMORY_AND_DISK";
+    } else if (sizeBytes > storageMemoryBytes / 4) {
+      return "MEMORY_ONLY_SER";
+    }
+    return storageLevel;
+  }
+
+  /** Approximates the memory available for caching in the cluster, as Spark's unified memory. */
+  static long storageMemoryBytes(SparkConf conf) {
+    long executorMemoryBytes = conf.getSizeAsBytes("spark.executor.memory", "1g");
+    double memoryFraction = conf.getDouble("spark.memory.fraction", 0.6);
+    int executors = Math.max(1, conf.getInt("spark.executor.instances", 1));
+    return (long) (executorMemoryBytes * memoryFraction) * executors;
+  }
+}
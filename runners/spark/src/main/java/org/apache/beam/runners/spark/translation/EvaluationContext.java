@@ -29,12 +29,14 @@ import java.util.stream.Collectors;
 import org.apache.beam.runners.core.construction.SerializablePipelineOptions;
 import org.apache.beam.runners.core.construction.TransformInputs;
 import org.apache.beam.runners.spark.SparkPipelineOptions;
+import org.apache.beam.runners.spark.metrics.SparkCacheMetric;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.runners.AppliedPTransform;
 import org.apache.beam.sdk.transforms.PTransform;
 import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.util.InstanceBuilder;
 import org.apache.beam.sdk.util.WindowedValue;
 import org.apache.beam.sdk.values.PCollection;
 import org.apache.beam.sdk.values.PCollectionView;
@@ -42,13 +44,18 @@ import org.apache.beam.sdk.values.PValue;
 import org.apache.beam.sdk.values.TupleTag;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.storage.StorageLevel;
 import org.apache.spark.streaming.api.java.JavaStreamingContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * The EvaluationContext allows us to define pipeline instructions and translate between {@code
  * PObject<T>}s or {@code PCollection<T>}s and Ts or DStreams/RDDs of Ts.
  */
 public class EvaluationContext {
+  private static final Logger LOG = LoggerFactory.getLogger(EvaluationContext.class);
+
   private final JavaSparkContext jsc;
   private JavaStreamingContext jssc;
   private final Pipeline pipeline;
@@ -59,6 +66,8 @@ public class EvaluationContext {
   private AppliedPTransform<?, ?, ?> currentTransform;
   private final SparkPCollectionView pviews = new SparkPCollectionView();
   private final Map<PCollection, Long> cacheCandidates = new HashMap<>();
+  private CachingPlanner cachingPlanner;
+  private final SparkCacheMetric cacheMetric = new SparkCacheMetric();
   private final PipelineOptions options;
   private final SerializablePipelineOptions serializableOptions;
 
@@ -165,15 +174,59 @@ public class EvaluationContext {
     }
     if ((forceCache || shouldCache(pvalue)) && pvalue instanceof PCollection) {
       // we cache only PCollection
-      Coder<?> coder = ((PCollection<?>) pvalue).getCoder();
-      Coder<? extends BoundedWindow> wCoder =
-          ((PCollection<?>) pvalue).getWindowingStrategy().getWindowFn().windowCoder();
-      dataset.cache(storageLevel(), WindowedValue.getFullCoder(coder, wCoder));
+      String storageLevel = planStorageLevel((PCollection<?>) pvalue, dataset, forceCache);
+      if (!StorageLevel.fromString(storageLevel).equals(StorageLevel.NONE())) {
+        Coder<?> coder = ((PCollection<?>) pvalue).getCoder();
+        Coder<? extends BoundedWindow> wCoder =
+            ((PCollection<?>) pvalue).getWindowingStrategy().getWindowFn().windowCoder();
+        if (dataset instanceof BoundedDataset) {
+          ((BoundedDataset<?>) dataset)
+              .cache(storageLevel, WindowedValue.getFullCoder(coder, wCoder), cacheMetric);
+        } else {
+          dataset.cache(storageLevel, WindowedValue.getFullCoder(coder, wCoder));
+        }
+      }
     }
     datasets.put(pvalue, dataset);
     leaves.add(dataset);
   }
 
+  /**
+   * Returns the storage level to cache the dataset of the given {@link PCollection} with, as
+   * overridden by {@link SparkPipelineOptions#getStorageLevelOverrides()} or decided by the {@link
+   * CachingPlanner}. Datasets whose caching is forced are treated as consumed more than once.
+   */
+  private String planStorageLevel(PCollection<?> pcollection, Dataset dataset, boolean forceCache) {
+    SparkPipelineOptions sparkOptions = serializableOptions.get().as(SparkPipelineOptions.class);
+    Map<String, String> overrides = sparkOptions.getStorageLevelOverrides();
+    if (overrides != null && overrides.containsKey(pcollection.getName())) {
+      return overrides.get(pcollection.getName());
+    }
+    if (!(dataset instanceof BoundedDataset)) {
+      return storageLevel();
+    }
+    long consumers = cacheCandidates.getOrDefault(pcollection, 0L);
+    CachingPlanner.Candidate candidate =
+        CachingPlanner.Candidate.fromLineage(
+            pcollection.getName(),
+            forceCache ? Math.max(2L, consumers) : consumers,
+            ((BoundedDataset<?>) dataset).getRDD().rdd());
+    String storageLevel = getCachingPlanner().storageLevel(candidate, sparkOptions, jsc.getConf());
+    LOG.info("Caching {} with storage level {}.", candidate, storageLevel);
+    return storageLevel;
+  }
+
+  private CachingPlanner getCachingPlanner() {
+    if (cachingPlanner == null) {
+      cachingPlanner =
+          InstanceBuilder.ofType(CachingPlanner.class)
+              .fromClass(
+                  serializableOptions.get().as(SparkPipelineOptions.class).getCachingPlanner())
+              .build();
+    }
+    return cachingPlanner;
+  }
+
   public Dataset borrowDataset(PTransform<? extends PValue, ?> transform) {
     return borrowDataset(getInput(transform));
   }
@@ -248,6 +301,13 @@ public class EvaluationContext {
     return this.cacheCandidates;
   }
 
+  /**
+   * Returns the {@link SparkCacheMetric} reporting the usage of the datasets cached by this run.
+   */
+  public SparkCacheMetric getCacheMetric() {
+    return cacheMetric;
+  }
+
   <T> Iterable<WindowedValue<T>> getWindowedValues(PCollection<T> pcollection) {
     @SuppressWarnings("unchecked")
     BoundedDataset<T> boundedDataset = (BoundedDataset<T>) datasets.get(pcollection);
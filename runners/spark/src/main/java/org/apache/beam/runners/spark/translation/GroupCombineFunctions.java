@@ -17,8 +17,16 @@
  */
 package org.apache.beam.runners.spark.translation;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import javax.annotation.Nullable;
 import org.apache.beam.runners.spark.coders.CoderHelpers;
 import org.apache.beam.runners.spark.util.ByteArray;
@@ -30,15 +38,18 @@ import org.apache.beam.sdk.util.WindowedValue;
 import org.apache.beam.sdk.util.WindowedValue.WindowedValueCoder;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.WindowingStrategy;
+import org.apache.spark.HashPartitioner;
 import org.apache.spark.Partitioner;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
-import org.apache.spark.api.java.function.Function;
-import org.apache.spark.api.java.function.Function2;
+import scala.Tuple2;
 
 /** A set of group/combine functions to apply to Spark {@link org.apache.spark.rdd.RDD}s. */
 public class GroupCombineFunctions {
 
+  /** The maximum number of keys a partition pre-combines before emitting their accumulators. */
+  @VisibleForTesting static final int MAX_KEYS_PER_PARTIAL_COMBINE = 10_000;
+
   /**
    * An implementation of {@link
    * org.apache.beam.runners.core.GroupByKeyViaGroupByKeyOnly.GroupByKeyOnly} for the Spark runner.
@@ -132,91 +143,136 @@ public class GroupCombineFunctions {
     return Iterables.isEmpty(result) ? Optional.absent() : Optional.of(result);
   }
 
+  /**
+   * An implementation of {@link
+   * org.apache.beam.runners.core.GroupByKeyViaGroupByKeyOnly.GroupByKeyOnly} for the Spark runner
+   * that shuffles the encoded elements with {@link
+   * JavaPairRDD#repartitionAndSortWithinPartitions(Partitioner)} instead of grouping them.
+   *
+   * <p>All values of a key are adjacent in the resulting partitions, so they can be streamed into
+   * {@link SparkGroupAlsoByWindowViaOutputBufferFn#forSortedInput} without materializing an {@link
+   * Iterable} of encoded values per key, and the sort spills to disk for large partitions. Note
+   * that the decoded values of each key are still buffered in memory by the {@link
+   * org.apache.beam.runners.core.ReduceFnRunner} until the key's windows fire.
+   */
+  public static <K, V> JavaPairRDD<ByteArray, byte[]> groupByKeyOnlySorted(
+      JavaRDD<WindowedValue<KV<K, V>>> rdd,
+      Coder<K> keyCoder,
+      WindowedValueCoder<V> wvCoder,
+      @Nullable Partitioner partitioner) {
+    // we use coders to convert objects in the PCollection to byte arrays, so they
+    // can be transferred over the network for the shuffle.
+    JavaPairRDD<ByteArray, byte[]> pairRDD =
+        rdd.map(new ReifyTimestampsAndWindowsFunction<>())
+            .map(WindowingHelpers.unwindowFunction())
+            .mapToPair(TranslationUtils.toPairFunction())
+            .mapToPair(CoderHelpers.toByteFunction(keyCoder, wvCoder));
+
+    return pairRDD.repartitionAndSortWithinPartitions(
+        (partitioner != null) ? partitioner : new HashPartitioner(rdd.getNumPartitions()));
+  }
+
   /**
    * Apply a composite {@link org.apache.beam.sdk.transforms.Combine.PerKey} transformation.
    *
-   * <p>This aggregation will apply Beam's {@link org.apache.beam.sdk.transforms.Combine.CombineFn}
-   * via Spark's {@link JavaPairRDD#combineByKey(Function, Function2, Function2)} aggregation. For
-   * streaming, this will be called from within a serialized context (DStream's transform callback),
-   * so passed arguments need to be Serializable.
+   * <p>Accumulators stay in object form while combining: each partition is pre-combined in a
+   * bounded map keyed by the encoded key, the encoded accumulators are shuffled with {@link
+   * JavaPairRDD#repartitionAndSortWithinPartitions(Partitioner)}, and the sorted runs of each key
+   * are merged as they are streamed, so every accumulator is encoded and decoded only once per
+   * shuffle. For streaming, this will be called from within a serialized context (DStream's
+   * transform callback), so passed arguments need to be Serializable.
    */
   public static <K, InputT, AccumT>
       JavaPairRDD<K, Iterable<WindowedValue<KV<K, AccumT>>>> combinePerKey(
           JavaRDD<WindowedValue<KV<K, InputT>>> rdd,
           final SparkKeyedCombineFn<K, InputT, AccumT, ?> sparkCombineFn,
           final Coder<K> keyCoder,
-          final Coder<InputT> iCoder,
           final Coder<AccumT> aCoder,
           final WindowingStrategy<?, ?> windowingStrategy) {
     // coders.
-    final WindowedValue.FullWindowedValueCoder<KV<K, InputT>> wkviCoder =
-        WindowedValue.FullWindowedValueCoder.of(
-            KvCoder.of(keyCoder, iCoder), windowingStrategy.getWindowFn().windowCoder());
     final WindowedValue.FullWindowedValueCoder<KV<K, AccumT>> wkvaCoder =
         WindowedValue.FullWindowedValueCoder.of(
             KvCoder.of(keyCoder, aCoder), windowingStrategy.getWindowFn().windowCoder());
     final IterableCoder<WindowedValue<KV<K, AccumT>>> iterAccumCoder = IterableCoder.of(wkvaCoder);
 
-    // We need to duplicate K as both the key of the JavaPairRDD as well as inside the value,
-    // since the functions passed to combineByKey don't receive the associated key of each
-    // value, and we need to map back into methods in Combine.KeyedCombineFn, which each
-    // require the key in addition to the InputT's and AccumT's being merged/accumulated.
-    // Once Spark provides a way to include keys in the arguments of combine/merge functions,
-    // we won't need to duplicate the keys anymore.
-    // Key has to bw windowed in order to group by window as well.
-    JavaPairRDD<K, WindowedValue<KV<K, InputT>>> inRddDuplicatedKeyPair =
-        rdd.mapToPair(TranslationUtils.toPairByKeyInWindowedValue());
+    JavaPairRDD</*K*/ ByteArray, /*Itr<WV<KV<K, A>>>*/ byte[]> partiallyCombined =
+        rdd.mapPartitionsToPair(
+            input -> combineWithinPartition(input, sparkCombineFn, keyCoder, iterAccumCoder));
 
-    // Use coders to convert objects in the PCollection to byte arrays, so they
-    // can be transferred over the network for the shuffle.
-    // for readability, we add comments with actual type next to byte[].
-    // to shorten line length, we use:
-    // ---- WV: WindowedValue
-    // ---- Iterable: Itr
-    // ---- AccumT: A
-    // ---- InputT: I
-    JavaPairRDD<ByteArray, byte[]> inRddDuplicatedKeyPairBytes =
-        inRddDuplicatedKeyPair.mapToPair(CoderHelpers.toByteFunction(keyCoder, wkviCoder));
-
-    /*Itr<WV<KV<K, A>>>*/
-    /*Itr<WV<KV<K, A>>>*/
-    /*Itr<WV<KV<K, A>>>*/
-    /*Itr<WV<KV<K, A>>>*/
-    /*Itr<WV<KV<K, A>>>*/
-    /*Itr<WV<KV<K, A>>>*/
-    /*Itr<WV<KV<K, A>>>*/
-    /*WV<KV<K, I>>*/
-    /*Itr<WV<KV<K, A>>>*/
-    /*Itr<WV<KV<K, A>>>*/
-    /*Itr<WV<KV<K, A>>>*/
-    /*WV<KV<K, I>>*/
-    /*WV<KV<K, I>>*/
-    /*Itr<WV<KV<K, A>>>*/
-    /*Itr<WV<KV<K, A>>>*/
-    /*WV<KV<K, I>>*/
-    JavaPairRDD</*K*/ ByteArray, /*Itr<WV<KV<K, A>>>*/ byte[]> accumulatedBytes =
-        inRddDuplicatedKeyPairBytes.combineByKey(
-            input -> {
-              WindowedValue<KV<K, InputT>> wkvi = CoderHelpers.fromByteArray(input, wkviCoder);
-              return CoderHelpers.toByteArray(sparkCombineFn.createCombiner(wkvi), iterAccumCoder);
-            },
-            (acc, input) -> {
-              Iterable<WindowedValue<KV<K, AccumT>>> wkvas =
-                  CoderHelpers.fromByteArray(acc, iterAccumCoder);
-              WindowedValue<KV<K, InputT>> wkvi = CoderHelpers.fromByteArray(input, wkviCoder);
-              return CoderHelpers.toByteArray(
-                  sparkCombineFn.mergeValue(wkvi, wkvas), iterAccumCoder);
-            },
-            (acc1, acc2) -> {
-              Iterable<WindowedValue<KV<K, AccumT>>> wkvas1 =
-                  CoderHelpers.fromByteArray(acc1, iterAccumCoder);
-              Iterable<WindowedValue<KV<K, AccumT>>> wkvas2 =
-                  CoderHelpers.fromByteArray(acc2, iterAccumCoder);
-              return CoderHelpers.toByteArray(
-                  sparkCombineFn.mergeCombiners(wkvas1, wkvas2), iterAccumCoder);
-            });
+    return partiallyCombined
+        .repartitionAndSortWithinPartitions(new HashPartitioner(rdd.getNumPartitions()))
+        .mapPartitionsToPair(
+            sorted -> mergeSortedAccumulators(sorted, sparkCombineFn, keyCoder, iterAccumCoder));
+  }
+
+  /**
+   * Combines the values of each key of a partition into accumulators, which are only encoded when
+   * they are emitted. At most {@link #MAX_KEYS_PER_PARTIAL_COMBINE} keys are accumulated at once.
+   */
+  @VisibleForTesting
+  static <K, InputT, AccumT> Iterator<Tuple2<ByteArray, byte[]>> combineWithinPartition(
+      Iterator<WindowedValue<KV<K, InputT>>> input,
+      SparkKeyedCombineFn<K, InputT, AccumT, ?> sparkCombineFn,
+      Coder<K> keyCoder,
+      Coder<Iterable<WindowedValue<KV<K, AccumT>>>> iterAccumCoder) {
+    final Map<ByteArray, Iterable<WindowedValue<KV<K, AccumT>>>> accumulators = new HashMap<>();
+    return new AbstractIterator<Tuple2<ByteArray, byte[]>>() {
+      private Iterator<Map.Entry<ByteArray, Iterable<WindowedValue<KV<K, AccumT>>>>> flushing =
+          Collections.emptyIterator();
+
+      @Override
+      protected Tuple2<ByteArray, byte[]> computeNext() {
+        if (!flushing.hasNext()) {
+          while (input.hasNext() && accumulators.size() < MAX_KEYS_PER_PARTIAL_COMBINE) {
+            WindowedValue<KV<K, InputT>> wkvi = input.next();
+            ByteArray key =
+                new ByteArray(CoderHelpers.toByteArray(wkvi.getValue().getKey(), keyCoder));
+            Iterable<WindowedValue<KV<K, AccumT>>> wkvas = accumulators.get(key);
+            accumulators.put(
+                key,
+                (wkvas == null)
+                    ? sparkCombineFn.createCombiner(wkvi)
+                    : sparkCombineFn.mergeValue(wkvi, wkvas));
+          }
+          if (accumulators.isEmpty()) {
+            return endOfData();
+          }
+          flushing = accumulators.entrySet().iterator();
+        }
+        Map.Entry<ByteArray, Iterable<WindowedValue<KV<K, AccumT>>>> entry = flushing.next();
+        flushing.remove();
+        return new Tuple2<>(
+            entry.getKey(), CoderHelpers.toByteArray(entry.getValue(), iterAccumCoder));
+      }
+    };
+  }
 
-    return accumulatedBytes.mapToPair(CoderHelpers.fromByteFunction(keyCoder, iterAccumCoder));
+  /** Merges the adjacent accumulators of each key of a sorted partition. */
+  @VisibleForTesting
+  static <K, InputT, AccumT>
+      Iterator<Tuple2<K, Iterable<WindowedValue<KV<K, AccumT>>>>> mergeSortedAccumulators(
+          Iterator<Tuple2<ByteArray, byte[]>> input,
+          SparkKeyedCombineFn<K, InputT, AccumT, ?> sparkCombineFn,
+          Coder<K> keyCoder,
+          Coder<Iterable<WindowedValue<KV<K, AccumT>>>> iterAccumCoder) {
+    final PeekingIterator<Tuple2<ByteArray, byte[]>> sorted = Iterators.peekingIterator(input);
+    return new AbstractIterator<Tuple2<K, Iterable<WindowedValue<KV<K, AccumT>>>>>() {
+      @Override
+      protected Tuple2<K, Iterable<WindowedValue<KV<K, AccumT>>>> computeNext() {
+        if (!sorted.hasNext()) {
+          return endOfData();
+        }
+        Tuple2<ByteArray, byte[]> first = sorted.next();
+        Iterable<WindowedValue<KV<K, AccumT>>> wkvas =
+            CoderHelpers.fromByteArray(first._2(), iterAccumCoder);
+        while (sorted.hasNext() && sorted.peek()._1().equals(first._1())) {
+          wkvas =
+              sparkCombineFn.mergeCombiners(
+                  wkvas, CoderHelpers.fromByteArray(sorted.next()._2(), iterAccumCoder));
+        }
+        return new Tuple2<>(CoderHelpers.fromByteArray(first._1().getValue(), keyCoder), wkvas);
+      }
+    };
   }
 
   /** An implementation of {@link Reshuffle} for the Spark runner. */
@@ -17,6 +17,9 @@
  */
 package org.apache.beam.runners.spark.translation;
 
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
@@ -35,6 +38,9 @@ import org.apache.beam.runners.core.construction.TriggerTranslation;
 import org.apache.beam.runners.core.triggers.ExecutableTriggerStateMachine;
 import org.apache.beam.runners.core.triggers.TriggerStateMachines;
 import org.apache.beam.runners.spark.aggregators.NamedAggregators;
+import org.apache.beam.runners.spark.coders.CoderHelpers;
+import org.apache.beam.runners.spark.util.ByteArray;
+import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
 import org.apache.beam.sdk.transforms.windowing.PaneInfo;
 import org.apache.beam.sdk.util.WindowedValue;
@@ -44,6 +50,7 @@ import org.apache.beam.sdk.values.WindowingStrategy;
 import org.apache.spark.Accumulator;
 import org.apache.spark.api.java.function.FlatMapFunction;
 import org.joda.time.Instant;
+import scala.Tuple2;
 
 /** An implementation of {@link GroupAlsoByWindow} for the Spark runner. */
 public class SparkGroupAlsoByWindowViaOutputBufferFn<K, InputT, W extends BoundedWindow>
@@ -51,6 +58,9 @@ public class SparkGroupAlsoByWindowViaOutputBufferFn<K, InputT, W extends Bounde
         WindowedValue<KV<K, Iterable<WindowedValue<InputT>>>>,
         WindowedValue<KV<K, Iterable<InputT>>>> {
 
+  /** The maximum number of values of a key passed to the {@link ReduceFnRunner} at once. */
+  private static final int MAX_ELEMENTS_PER_CHUNK = 1000;
+
   private final WindowingStrategy<?, W> windowingStrategy;
   private final StateInternalsFactory<K> stateInternalsFactory;
   private final SystemReduceFn<K, InputT, Iterable<InputT>, Iterable<InputT>, W> reduceFn;
@@ -71,10 +81,57 @@ public class SparkGroupAlsoByWindowViaOutputBufferFn<K, InputT, W extends Bounde
   @Override
   public Iterator<WindowedValue<KV<K, Iterable<InputT>>>> call(
       WindowedValue<KV<K, Iterable<WindowedValue<InputT>>>> windowedValue) throws Exception {
-    K key = windowedValue.getValue().getKey();
-    Iterable<WindowedValue<InputT>> values = windowedValue.getValue().getValue();
+    return groupAlsoByWindow(
+        windowedValue.getValue().getKey(), windowedValue.getValue().getValue().iterator());
+  }
+
+  /**
+   * Returns a function that groups also by window the partitions produced by {@link
+   * GroupCombineFunctions#groupByKeyOnlySorted}, streaming the values of each key into the {@link
+   * ReduceFnRunner} as they are decoded.
+   *
+   * <p>This bounds the memory used to shuffle and decode the values, but not the memory used to
+   * group them: the {@link ReduceFnRunner} buffers every value of a key in the {@link
+   * StateInternals} of the key until its windows fire, which for batch is once all of them were
+   * processed. A key with more values than fit in memory therefore still fails.
+   */
+  public FlatMapFunction<
+          Iterator<Tuple2<ByteArray, byte[]>>, WindowedValue<KV<K, Iterable<InputT>>>>
+      forSortedInput(Coder<K> keyCoder, Coder<WindowedValue<InputT>> wvCoder) {
+    return input -> {
+      final PeekingIterator<Tuple2<ByteArray, byte[]>> sorted = Iterators.peekingIterator(input);
+      return Iterators.concat(
+          new AbstractIterator<Iterator<WindowedValue<KV<K, Iterable<InputT>>>>>() {
+            @Override
+            protected Iterator<WindowedValue<KV<K, Iterable<InputT>>>> computeNext() {
+              if (!sorted.hasNext()) {
+                return endOfData();
+              }
+              final ByteArray key = sorted.peek()._1();
+              Iterator<WindowedValue<InputT>> values =
+                  new AbstractIterator<WindowedValue<InputT>>() {
+                    @Override
+                    protected WindowedValue<InputT> computeNext() {
+                      if (sorted.hasNext() && sorted.peek()._1().equals(key)) {
+                        return CoderHelpers.fromByteArray(sorted.next()._2(), wvCoder);
+                      }
+                      return endOfData();
+                    }
+                  };
+              try {
+                return groupAlsoByWindow(
+                    CoderHelpers.fromByteArray(key.getValue(), keyCoder), values);
+              } catch (Exception e) {
+                throw new RuntimeException(e);
+              }
+            }
+          });
+    };
+  }
 
-    //------ based on GroupAlsoByWindowsViaOutputBufferDoFn ------//
+  private Iterator<WindowedValue<KV<K, Iterable<InputT>>>> groupAlsoByWindow(
+      K key, Iterator<WindowedValue<InputT>> values) throws Exception {
+    // ------ based on GroupAlsoByWindowsViaOutputBufferDoFn ------//
 
     // Used with Batch, we know that all the data is available for this key. We can't use the
     // timer manager from the context because it doesn't exist. So we create one and emulate the
@@ -99,8 +156,15 @@ public class SparkGroupAlsoByWindowViaOutputBufferFn<K, InputT, W extends Bounde
             reduceFn,
             options.get());
 
-    // Process the grouped values.
-    reduceFnRunner.processElements(values);
+    // Process the grouped values in chunks, so that they don't need to be decoded all at once.
+    List<WindowedValue<InputT>> chunk = new ArrayList<>(MAX_ELEMENTS_PER_CHUNK);
+    while (values.hasNext()) {
+      chunk.add(values.next());
+      if (chunk.size() == MAX_ELEMENTS_PER_CHUNK || !values.hasNext()) {
+        reduceFnRunner.processElements(chunk);
+        chunk.clear();
+      }
+    }
 
     // Finish any pending windows by advancing the input watermark to infinity.
     timerInternals.advanceInputWatermark(BoundedWindow.TIMESTAMP_MAX_VALUE);
@@ -35,6 +35,7 @@ import org.apache.beam.runners.spark.aggregators.NamedAggregators;
 import org.apache.beam.runners.spark.coders.CoderHelpers;
 import org.apache.beam.runners.spark.io.SourceRDD;
 import org.apache.beam.runners.spark.metrics.MetricsAccumulator;
+import org.apache.beam.runners.spark.util.ByteArray;
 import org.apache.beam.runners.spark.util.SideInputBroadcast;
 import org.apache.beam.sdk.coders.CannotProvideCoderException;
 import org.apache.beam.sdk.coders.Coder;
@@ -137,26 +138,27 @@ public final class TransformTranslator {
             (bundleSize > 0)
                 ? new HashPartitioner(context.getSparkContext().defaultParallelism())
                 : null;
-        JavaRDD<WindowedValue<KV<K, Iterable<WindowedValue<V>>>>> groupedByKey =
-            GroupCombineFunctions.groupByKeyOnly(inRDD, keyCoder, wvCoder, partitioner);
+        JavaPairRDD<ByteArray, byte[]> sortedByKey =
+            GroupCombineFunctions.groupByKeyOnlySorted(inRDD, keyCoder, wvCoder, partitioner);
 
-        // --- now group also by window.
+        // --- now group also by window, streaming the sorted values of each key.
         // for batch, GroupAlsoByWindow uses an in-memory StateInternals.
         JavaRDD<WindowedValue<KV<K, Iterable<V>>>> groupedAlsoByWindow =
-            groupedByKey.flatMap(
-                new SparkGroupAlsoByWindowViaOutputBufferFn<>(
-                    windowingStrategy,
-                    new TranslationUtils.InMemoryStateInternalsFactory<>(),
-                    SystemReduceFn.buffering(coder.getValueCoder()),
-                    context.getSerializableOptions(),
-                    accum));
+            sortedByKey.mapPartitions(
+                new SparkGroupAlsoByWindowViaOutputBufferFn<K, V, W>(
+                        windowingStrategy,
+                        new TranslationUtils.InMemoryStateInternalsFactory<>(),
+                        SystemReduceFn.buffering(coder.getValueCoder()),
+                        context.getSerializableOptions(),
+                        accum)
+                    .forSortedInput(keyCoder, wvCoder));
 
         context.putDataset(transform, new BoundedDataset<>(groupedAlsoByWindow));
       }
 
       @Override
       public String toNativeString() {
-        return "groupByKey()";
+        return "repartitionAndSortWithinPartitions(...)";
       }
     };
   }
@@ -311,12 +313,7 @@ public final class TransformTranslator {
 
         JavaPairRDD<K, Iterable<WindowedValue<KV<K, AccumT>>>> accumulatePerKey =
             GroupCombineFunctions.combinePerKey(
-                inRdd,
-                sparkCombineFn,
-                inputCoder.getKeyCoder(),
-                inputCoder.getValueCoder(),
-                vaCoder,
-                windowingStrategy);
+                inRdd, sparkCombineFn, inputCoder.getKeyCoder(), vaCoder, windowingStrategy);
 
         JavaRDD<WindowedValue<KV<K, OutputT>>> outRdd =
             accumulatePerKey
@@ -329,7 +326,7 @@ public final class TransformTranslator {
 
       @Override
       public String toNativeString() {
-        return "combineByKey(..., new <fn>(), ...)";
+        return "repartitionAndSortWithinPartitions(..., new <fn>(), ...)";
       }
     };
   }
@@ -17,8 +17,15 @@
  */
 package org.apache.beam.runners.spark;
 
+import static org.hamcrest.Matchers.hasItem;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
 
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.beam.runners.spark.translation.CachingPlanner;
+import org.apache.beam.runners.spark.translation.CachingPlanner.Candidate;
+import org.apache.beam.runners.spark.translation.DefaultCachingPlanner;
 import org.apache.beam.runners.spark.translation.EvaluationContext;
 import org.apache.beam.runners.spark.translation.SparkContextFactory;
 import org.apache.beam.runners.spark.translation.TransformTranslator;
@@ -26,13 +33,17 @@ import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.transforms.Count;
 import org.apache.beam.sdk.transforms.Create;
+import org.apache.beam.sdk.transforms.MapElements;
 import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.TypeDescriptors;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
 import org.junit.Test;
 
 /**
  * This test checks how the cache candidates map is populated by the runner when evaluating the
- * pipeline.
+ * pipeline, which datasets are cached, and how the caching planner chooses storage levels.
  */
 public class CacheTest {
 
@@ -57,4 +68,75 @@ public class CacheTest {
     pipeline.traverseTopologically(cacheVisitor);
     assertEquals(2L, (long) ctxt.getCacheCandidates().get(pCollection));
   }
+
+  @Test
+  public void multiConsumerPipelineTest() {
+    SparkPipelineOptions options =
+        PipelineOptionsFactory.create().as(TestSparkPipelineOptions.class);
+    options.setRunner(TestSparkRunner.class);
+    Pipeline pipeline = Pipeline.create(options);
+    // a single map away from the parallelized input, but consumed twice.
+    PCollection<String> pCollection =
+        pipeline
+            .apply(Create.of("foo", "bar"))
+            .apply(MapElements.into(TypeDescriptors.strings()).via(s -> s + "!"));
+    pCollection.apply("first", Count.globally());
+    pCollection.apply("second", Count.globally());
+
+    JavaSparkContext jsc = SparkContextFactory.getSparkContext(options);
+    SparkRunner.initAccumulators(options, jsc);
+    pipeline.replaceAll(SparkTransformOverrides.getDefaultOverrides(false));
+    EvaluationContext ctxt = new EvaluationContext(jsc, pipeline, options);
+    TransformTranslator.Translator translator = new TransformTranslator.Translator();
+    pipeline.traverseTopologically(new SparkRunner.CacheVisitor(translator, ctxt));
+    pipeline.traverseTopologically(new SparkRunner.Evaluator(translator, ctxt));
+    ctxt.computeOutputs();
+
+    List<String> persisted = new ArrayList<>();
+    for (JavaRDD<?> rdd : jsc.getPersistentRDDs().values()) {
+      persisted.add(rdd.name());
+    }
+    assertThat(persisted, hasItem(pCollection.getName()));
+  }
+
+  @Test
+  public void defaultCachingPlannerTest() {
+    SparkPipelineOptions options = PipelineOptionsFactory.create().as(SparkPipelineOptions.class);
+    assertEquals("MEMORY_ONLY", options.getStorageLevel());
+    SparkConf conf =
+        new SparkConf(false).set("spark.executor.memory", "1g").set("spark.memory.fraction", "0.5");
+    CachingPlanner planner = new DefaultCachingPlanner();
+    long mb = 1024L * 1024L;
+
+    // consumed once, or a pure re-read of a cached or parallelized dataset.
+    assertEquals("NONE", planner.storageLevel(new Candidate("once", 1, -1, 20), options, conf));
+    assertEquals("NONE", planner.storageLevel(new Candidate("reread", 2, -1, 0), options, conf));
+    // unknown or small sizes use the default storage level, even if cheap to recompute.
+    assertEquals(
+        "MEMORY_ONLY", planner.storageLevel(new Candidate("cheap", 2, -1, 1), options, conf));
+    assertEquals(
+        "MEMORY_ONLY", planner.storageLevel(new Candidate("unknown", 2, -1, 20), options, conf));
+    assertEquals(
+        "MEMORY_ONLY", planner.storageLevel(new Candidate("small", 2, 10 * mb, 20), options, conf));
+    // large datasets are serialized, and datasets exceeding the storage memory may spill.
+    assertEquals(
+        "MEMORY_ONLY_SER",
+        planner.storageLevel(new Candidate("large", 2, 200 * mb, 20), options, conf));
+    assertEquals(
+        "MEMORY_AND_DISK",
+        planner.storageLevel(new Candidate("huge", 3, 600 * mb, 20), options, conf));
+
+    // other storage levels are never adapted.
+    options.setStorageLevel("DISK_ONLY");
+    assertEquals(
+        "DISK_ONLY", planner.storageLevel(new Candidate("large", 2, 200 * mb, 20), options, conf));
+    assertEquals(
+        "DISK_ONLY", planner.storageLevel(new Candidate("huge", 3, 600 * mb, 20), options, conf));
+
+    // neither is MEMORY_ONLY once adapting is disabled.
+    options.setStorageLevel("MEMORY_ONLY");
+    options.setAdaptStorageLevel(false);
+    assertEquals(
+        "MEMORY_ONLY", planner.storageLevel(new Candidate("huge", 3, 600 * mb, 20), options, conf));
+  }
 }
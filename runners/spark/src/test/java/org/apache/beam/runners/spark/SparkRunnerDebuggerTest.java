@@ -82,8 +82,9 @@ public class SparkRunnerDebuggerTest {
             + "_.mapPartitions("
             + "new org.apache.beam.runners.spark.examples.WordCount$ExtractWordsFn())\n"
             + "_.mapPartitions(new org.apache.beam.sdk.transforms.Contextful())\n"
-            + "_.combineByKey(..., new org.apache.beam.sdk.transforms.Count$CountFn(), ...)\n"
-            + "_.groupByKey()\n"
+            + "_.repartitionAndSortWithinPartitions(..., "
+            + "new org.apache.beam.sdk.transforms.Count$CountFn(), ...)\n"
+            + "_.repartitionAndSortWithinPartitions(...)\n"
             + "_.map(new org.apache.beam.sdk.transforms.Sum$SumLongFn())\n"
             + "_.mapPartitions(new org.apache.beam.sdk.transforms.Contextful())\n"
             + "sparkContext.union(...)\n"
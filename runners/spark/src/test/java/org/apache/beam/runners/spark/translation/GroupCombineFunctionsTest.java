@@ -0,0 +1,327 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.spark.translation;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.apache.beam.runners.core.SystemReduceFn;
+import org.apache.beam.runners.core.construction.SerializablePipelineOptions;
+import org.apache.beam.runners.spark.coders.CoderHelpers;
+import org.apache.beam.runners.spark.util.ByteArray;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.IterableCoder;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.transforms.Combine;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.transforms.windowing.FixedWindows;
+import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
+import org.apache.beam.sdk.util.CombineFnUtil;
+import org.apache.beam.sdk.util.WindowedValue;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.WindowingStrategy;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import scala.Tuple2;
+
+/**
+ * Tests for the sort-based {@link GroupCombineFunctions} and {@link
+ * SparkGroupAlsoByWindowViaOutputBufferFn#forSortedInput}, which work on the iterators of a
+ * partition and thus don't need a Spark context.
+ */
+@RunWith(JUnit4.class)
+public class GroupCombineFunctionsTest {
+  private static final IntervalWindow FIRST_WINDOW =
+      new IntervalWindow(new Instant(0), new Instant(10));
+  private static final IntervalWindow SECOND_WINDOW =
+      new IntervalWindow(new Instant(10), new Instant(20));
+
+  private static final SerializablePipelineOptions OPTIONS =
+      new SerializablePipelineOptions(PipelineOptionsFactory.create());
+
+  private static final Coder<Iterable<WindowedValue<KV<String, Integer>>>> GLOBAL_ACCUM_CODER =
+      IterableCoder.of(
+          WindowedValue.FullWindowedValueCoder.of(
+              KvCoder.of(StringUtf8Coder.of(), VarIntCoder.of()), GlobalWindow.Coder.INSTANCE));
+
+  private static final Coder<Iterable<WindowedValue<KV<String, Integer>>>> FIXED_ACCUM_CODER =
+      IterableCoder.of(
+          WindowedValue.FullWindowedValueCoder.of(
+              KvCoder.of(StringUtf8Coder.of(), VarIntCoder.of()), IntervalWindow.getCoder()));
+
+  @Test
+  public void testMergeSortedAccumulatorsAtKeyBoundaries() {
+    SparkKeyedCombineFn<String, Integer, Integer, Integer> combineFn =
+        sumFn(WindowingStrategy.globalDefault());
+    // The runs of "a" and "c" span several chunks, "b" is a single chunk in between.
+    List<Tuple2<ByteArray, byte[]>> sorted =
+        ImmutableList.of(
+            accumulator("a", 1, GlobalWindow.INSTANCE, GLOBAL_ACCUM_CODER),
+            accumulator("a", 2, GlobalWindow.INSTANCE, GLOBAL_ACCUM_CODER),
+            accumulator("b", 4, GlobalWindow.INSTANCE, GLOBAL_ACCUM_CODER),
+            accumulator("c", 8, GlobalWindow.INSTANCE, GLOBAL_ACCUM_CODER),
+            accumulator("c", 16, GlobalWindow.INSTANCE, GLOBAL_ACCUM_CODER),
+            accumulator("c", 32, GlobalWindow.INSTANCE, GLOBAL_ACCUM_CODER));
+
+    Map<KV<String, BoundedWindow>, Integer> merged =
+        merge(
+            GroupCombineFunctions.mergeSortedAccumulators(
+                sorted.iterator(), combineFn, StringUtf8Coder.of(), GLOBAL_ACCUM_CODER));
+
+    assertEquals(
+        ImmutableMap.of(
+            KV.of("a", GlobalWindow.INSTANCE), 3,
+            KV.of("b", GlobalWindow.INSTANCE), 4,
+            KV.of("c", GlobalWindow.INSTANCE), 56),
+        merged);
+  }
+
+  @Test
+  public void testMergeSortedAccumulatorsOfMultipleWindowsPerKey() {
+    SparkKeyedCombineFn<String, Integer, Integer, Integer> combineFn =
+        sumFn(WindowingStrategy.of(FixedWindows.of(Duration.millis(10))));
+    List<Tuple2<ByteArray, byte[]>> sorted =
+        ImmutableList.of(
+            accumulator("a", 1, FIRST_WINDOW, FIXED_ACCUM_CODER),
+            accumulator("a", 2, SECOND_WINDOW, FIXED_ACCUM_CODER),
+            accumulator("a", 4, FIRST_WINDOW, FIXED_ACCUM_CODER),
+            accumulator("b", 8, SECOND_WINDOW, FIXED_ACCUM_CODER),
+            accumulator("b", 16, SECOND_WINDOW, FIXED_ACCUM_CODER));
+
+    Map<KV<String, BoundedWindow>, Integer> merged =
+        merge(
+            GroupCombineFunctions.mergeSortedAccumulators(
+                sorted.iterator(), combineFn, StringUtf8Coder.of(), FIXED_ACCUM_CODER));
+
+    assertEquals(
+        ImmutableMap.of(
+            KV.of("a", FIRST_WINDOW), 5,
+            KV.of("a", SECOND_WINDOW), 2,
+            KV.of("b", SECOND_WINDOW), 24),
+        merged);
+  }
+
+  @Test
+  public void testCombineWithinPartitionPreCombinesEachKey() {
+    SparkKeyedCombineFn<String, Integer, Integer, Integer> combineFn =
+        sumFn(WindowingStrategy.globalDefault());
+    List<WindowedValue<KV<String, Integer>>> input =
+        ImmutableList.of(
+            WindowedValue.valueInGlobalWindow(KV.of("a", 1)),
+            WindowedValue.valueInGlobalWindow(KV.of("b", 2)),
+            WindowedValue.valueInGlobalWindow(KV.of("a", 4)),
+            WindowedValue.valueInGlobalWindow(KV.of("b", 8)));
+
+    List<Tuple2<ByteArray, byte[]>> partial =
+        Lists.newArrayList(
+            GroupCombineFunctions.combineWithinPartition(
+                input.iterator(), combineFn, StringUtf8Coder.of(), GLOBAL_ACCUM_CODER));
+
+    assertEquals(2, partial.size());
+    assertEquals(
+        ImmutableMap.of(
+            KV.of("a", GlobalWindow.INSTANCE), 5, KV.of("b", GlobalWindow.INSTANCE), 10),
+        mergeSorted(partial, combineFn, GLOBAL_ACCUM_CODER));
+  }
+
+  @Test
+  public void testCombineWithinPartitionFlushesAfterMaxKeys() {
+    SparkKeyedCombineFn<String, Integer, Integer, Integer> combineFn =
+        sumFn(WindowingStrategy.globalDefault());
+    // Every key appears twice, but there are more keys than are pre-combined at once, so some of
+    // them are flushed in between and emitted more than once.
+    int numKeys = GroupCombineFunctions.MAX_KEYS_PER_PARTIAL_COMBINE + 1;
+    List<WindowedValue<KV<String, Integer>>> input = new ArrayList<>();
+    for (int i = 0; i < numKeys; i++) {
+      input.add(WindowedValue.valueInGlobalWindow(KV.of("k" + i, 1)));
+    }
+    for (int i = 0; i < numKeys; i++) {
+      input.add(WindowedValue.valueInGlobalWindow(KV.of("k" + i, 2)));
+    }
+
+    List<Tuple2<ByteArray, byte[]>> partial =
+        Lists.newArrayList(
+            GroupCombineFunctions.combineWithinPartition(
+                input.iterator(), combineFn, StringUtf8Coder.of(), GLOBAL_ACCUM_CODER));
+
+    assertThat(partial.size(), greaterThan(numKeys));
+    Map<KV<String, BoundedWindow>, Integer> merged =
+        mergeSorted(partial, combineFn, GLOBAL_ACCUM_CODER);
+    assertEquals(numKeys, merged.size());
+    for (int i = 0; i < numKeys; i++) {
+      assertEquals(Integer.valueOf(3), merged.get(KV.of("k" + i, GlobalWindow.INSTANCE)));
+    }
+  }
+
+  @Test
+  public void testGroupAlsoByWindowOfSortedInput() throws Exception {
+    WindowingStrategy<Object, IntervalWindow> windowingStrategy =
+        WindowingStrategy.of(FixedWindows.of(Duration.millis(10)));
+    Coder<WindowedValue<Integer>> wvCoder =
+        WindowedValue.FullWindowedValueCoder.of(VarIntCoder.of(), IntervalWindow.getCoder());
+    // "a" has more values than are passed to the ReduceFnRunner at once, in two windows.
+    List<Tuple2<ByteArray, byte[]>> sorted = new ArrayList<>();
+    List<Integer> firstWindowOfA = new ArrayList<>();
+    List<Integer> secondWindowOfA = new ArrayList<>();
+    for (int i = 0; i < 2500; i++) {
+      if (i % 2 == 0) {
+        firstWindowOfA.add(i);
+        sorted.add(value("a", i, FIRST_WINDOW, wvCoder));
+      } else {
+        secondWindowOfA.add(i);
+        sorted.add(value("a", i, SECOND_WINDOW, wvCoder));
+      }
+    }
+    sorted.add(value("b", -1, FIRST_WINDOW, wvCoder));
+    sorted.add(value("c", -2, SECOND_WINDOW, wvCoder));
+    sorted.add(value("c", -3, SECOND_WINDOW, wvCoder));
+
+    List<WindowedValue<KV<String, Iterable<Integer>>>> output =
+        Lists.newArrayList(
+            new SparkGroupAlsoByWindowViaOutputBufferFn<String, Integer, IntervalWindow>(
+                    windowingStrategy,
+                    new TranslationUtils.InMemoryStateInternalsFactory<>(),
+                    SystemReduceFn.buffering(VarIntCoder.of()),
+                    OPTIONS,
+                    null)
+                .forSortedInput(StringUtf8Coder.of(), wvCoder)
+                .call(sorted.iterator()));
+
+    Map<KV<String, BoundedWindow>, List<Integer>> grouped = new HashMap<>();
+    for (WindowedValue<KV<String, Iterable<Integer>>> wv : output) {
+      List<Integer> previous =
+          grouped.put(
+              KV.of(wv.getValue().getKey(), Iterables.getOnlyElement(wv.getWindows())),
+              Lists.newArrayList(wv.getValue().getValue()));
+      assertNull("Each key and window is output once", previous);
+    }
+    assertEquals(4, grouped.size());
+    assertThat(grouped.get(KV.of("a", FIRST_WINDOW)), containsInAnyOrder(firstWindowOfA.toArray()));
+    assertThat(
+        grouped.get(KV.of("a", SECOND_WINDOW)), containsInAnyOrder(secondWindowOfA.toArray()));
+    assertEquals(ImmutableList.of(-1), grouped.get(KV.of("b", FIRST_WINDOW)));
+    assertThat(grouped.get(KV.of("c", SECOND_WINDOW)), containsInAnyOrder(-2, -3));
+  }
+
+  private static SparkKeyedCombineFn<String, Integer, Integer, Integer> sumFn(
+      WindowingStrategy<?, ?> windowingStrategy) {
+    return new SparkKeyedCombineFn<>(
+        CombineFnUtil.toFnWithContext(new SumFn()),
+        OPTIONS,
+        Collections.emptyMap(),
+        windowingStrategy);
+  }
+
+  private static Tuple2<ByteArray, byte[]> accumulator(
+      String key,
+      int accumulator,
+      BoundedWindow window,
+      Coder<Iterable<WindowedValue<KV<String, Integer>>>> iterAccumCoder) {
+    WindowedValue<KV<String, Integer>> wkva =
+        WindowedValue.of(
+            KV.of(key, accumulator), window.maxTimestamp(), window, PaneInfo.NO_FIRING);
+    return new Tuple2<>(
+        new ByteArray(CoderHelpers.toByteArray(key, StringUtf8Coder.of())),
+        CoderHelpers.toByteArray(ImmutableList.of(wkva), iterAccumCoder));
+  }
+
+  private static Tuple2<ByteArray, byte[]> value(
+      String key, int value, IntervalWindow window, Coder<WindowedValue<Integer>> wvCoder) {
+    return new Tuple2<>(
+        new ByteArray(CoderHelpers.toByteArray(key, StringUtf8Coder.of())),
+        CoderHelpers.toByteArray(
+            WindowedValue.of(value, window.start(), window, PaneInfo.NO_FIRING), wvCoder));
+  }
+
+  /** Sorts the partially combined accumulators by key, like the shuffle does, and merges them. */
+  private static Map<KV<String, BoundedWindow>, Integer> mergeSorted(
+      List<Tuple2<ByteArray, byte[]>> partial,
+      SparkKeyedCombineFn<String, Integer, Integer, Integer> combineFn,
+      Coder<Iterable<WindowedValue<KV<String, Integer>>>> iterAccumCoder) {
+    List<Tuple2<ByteArray, byte[]>> sorted = new ArrayList<>(partial);
+    sorted.sort((a, b) -> a._1().compareTo(b._1()));
+    return merge(
+        GroupCombineFunctions.mergeSortedAccumulators(
+            sorted.iterator(), combineFn, StringUtf8Coder.of(), iterAccumCoder));
+  }
+
+  /** Collects the merged accumulators, checking that each key and window is output once. */
+  private static Map<KV<String, BoundedWindow>, Integer> merge(
+      Iterator<Tuple2<String, Iterable<WindowedValue<KV<String, Integer>>>>> merged) {
+    Map<KV<String, BoundedWindow>, Integer> result = new HashMap<>();
+    while (merged.hasNext()) {
+      Tuple2<String, Iterable<WindowedValue<KV<String, Integer>>>> keyed = merged.next();
+      for (WindowedValue<KV<String, Integer>> wkva : keyed._2()) {
+        assertEquals(keyed._1(), wkva.getValue().getKey());
+        Integer previous =
+            result.put(
+                KV.of(keyed._1(), Iterables.getOnlyElement(wkva.getWindows())),
+                wkva.getValue().getValue());
+        assertNull("Each key and window is output once", previous);
+      }
+    }
+    return result;
+  }
+
+  private static class SumFn extends Combine.CombineFn<Integer, Integer, Integer> {
+    @Override
+    public Integer createAccumulator() {
+      return 0;
+    }
+
+    @Override
+    public Integer addInput(Integer accumulator, Integer input) {
+      return accumulator + input;
+    }
+
+    @Override
+    public Integer mergeAccumulators(Iterable<Integer> accumulators) {
+      int sum = 0;
+      for (int accumulator : accumulators) {
+        sum += accumulator;
+      }
+      return sum;
+    }
+
+    @Override
+    public Integer extractOutput(Integer accumulator) {
+      return accumulator;
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.jmh.coders;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.util.ExposedByteArrayOutputStream;
+import org.apache.beam.sdk.util.common.ElementByteSizeObserver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Base class for benchmarks of a single {@link Coder}. Subclasses supply the coder and the value to
+ * use and inherit benchmarks for {@link Coder#encode}, {@link Coder#decode} and {@link
+ * Coder#registerByteSizeObserver}.
+ *
+ * <p>The streams used by the benchmarks are allocated once per thread and reused, so that the
+ * allocation rate reported by the {@code gc} profiler is the one of the coder itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public abstract class CoderBenchmark<T> {
+  private Coder<T> coder;
+  private T value;
+  private ExposedByteArrayOutputStream encodeStream;
+  private ByteArrayInputStream decodeStream;
+  private CountingElementByteSizeObserver observer;
+
+  /** Returns the {@link Coder} under test. */
+  protected abstract Coder<T> createCoder() throws Exception;
+
+  /** Returns the value which is encoded, decoded and observed by each benchmark invocation. */
+  protected abstract T createValue() throws Exception;
+
+  @Setup
+  public void setUp() throws Exception {
+    coder = createCoder();
+    value = createValue();
+    encodeStream = new ExposedByteArrayOutputStream();
+    coder.encode(value, encodeStream);
+    decodeStream = new ByteArrayInputStream(encodeStream.toByteArray());
+    observer = new CountingElementByteSizeObserver();
+  }
+
+  @Benchmark
+  public int encode() throws IOException {
+    encodeStream.reset();
+    coder.encode(value, encodeStream);
+    return encodeStream.size();
+  }
+
+  @Benchmark
+  public T decode() throws IOException {
+    decodeStream.reset();
+    return coder.decode(decodeStream);
+  }
+
+  @Benchmark
+  public long registerByteSizeObserver() throws Exception {
+    coder.registerByteSizeObserver(value, observer);
+    observer.advance();
+    return observer.lastElementSize;
+  }
+
+  /** An {@link ElementByteSizeObserver} which remembers the last reported size. */
+  private static class CountingElementByteSizeObserver extends ElementByteSizeObserver {
+    private long lastElementSize;
+
+    @Override
+    protected void reportElementSize(long elementByteSize) {
+      lastElementSize = elementByteSize;
+    }
+  }
+}
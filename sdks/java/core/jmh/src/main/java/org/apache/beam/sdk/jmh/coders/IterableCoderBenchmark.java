@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.jmh.coders;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.IterableCoder;
+import org.apache.beam.sdk.coders.IterableLikeCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Benchmarks for {@link IterableLikeCoder}, via {@link IterableCoder}, for iterables of varying
+ * size.
+ */
+public class IterableCoderBenchmark extends CoderBenchmark<Iterable<Long>> {
+  @Param({"10", "1000"})
+  public int size;
+
+  @Override
+  protected Coder<Iterable<Long>> createCoder() {
+    return IterableCoder.of(VarLongCoder.of());
+  }
+
+  @Override
+  protected Iterable<Long> createValue() {
+    List<Long> values = new ArrayList<>(size);
+    for (long i = 0; i < size; i++) {
+      values.add(i * i);
+    }
+    return values;
+  }
+}
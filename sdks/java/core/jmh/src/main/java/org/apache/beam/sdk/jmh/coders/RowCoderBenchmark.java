@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.jmh.coders;
+
+import java.util.UUID;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.RowCoderGenerator;
+import org.apache.beam.sdk.schemas.Schema;
+import org.apache.beam.sdk.values.Row;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Benchmarks for the {@link Row} coder generated by {@link RowCoderGenerator} for a schema with a
+ * mix of primitive, string and nullable fields.
+ */
+public class RowCoderBenchmark extends CoderBenchmark<Row> {
+  private static final Schema SCHEMA =
+      Schema.builder()
+          .addInt32Field("f_int32")
+          .addInt64Field("f_int64")
+          .addDoubleField("f_double")
+          .addBooleanField("f_boolean")
+          .addStringField("f_string")
+          .addDateTimeField("f_datetime")
+          .addNullableField("f_nullable", Schema.FieldType.STRING)
+          .build();
+
+  @Override
+  protected Coder<Row> createCoder() {
+    return RowCoderGenerator.generate(SCHEMA, UUID.randomUUID());
+  }
+
+  @Override
+  protected Row createValue() {
+    return Row.withSchema(SCHEMA)
+        .addValues(
+            42,
+            1546300800000L,
+            3.14,
+            true,
+            "user-1234567890",
+            new DateTime(2019, 1, 1, 0, 0, DateTimeZone.UTC),
+            null)
+        .build();
+  }
+}
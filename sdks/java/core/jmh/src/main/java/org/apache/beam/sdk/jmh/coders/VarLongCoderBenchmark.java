@@ -0,0 +1,38 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.jmh.coders;
+
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.openjdk.jmh.annotations.Param;
+
+/** Benchmarks for {@link VarLongCoder}, for values of varying encoded length. */
+public class VarLongCoderBenchmark extends CoderBenchmark<Long> {
+  @Param({"0", "300", "1546300800000", "-1"})
+  public long value;
+
+  @Override
+  protected Coder<Long> createCoder() {
+    return VarLongCoder.of();
+  }
+
+  @Override
+  protected Long createValue() {
+    return value;
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.jmh.coders;
+
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
+import org.apache.beam.sdk.util.WindowedValue;
+import org.apache.beam.sdk.util.WindowedValue.FullWindowedValueCoder;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Benchmarks for {@link FullWindowedValueCoder}, for values in the global window and in an {@link
+ * IntervalWindow}.
+ */
+public class WindowedValueCoderBenchmark extends CoderBenchmark<WindowedValue<String>> {
+  @Param({"global", "interval"})
+  public String windowing;
+
+  @Override
+  protected Coder<WindowedValue<String>> createCoder() {
+    if ("global".equals(windowing)) {
+      return WindowedValue.getFullCoder(StringUtf8Coder.of(), GlobalWindow.Coder.INSTANCE);
+    }
+    return WindowedValue.getFullCoder(StringUtf8Coder.of(), IntervalWindow.getCoder());
+  }
+
+  @Override
+  protected WindowedValue<String> createValue() {
+    if ("global".equals(windowing)) {
+      return WindowedValue.valueInGlobalWindow("user-1234567890");
+    }
+    Instant timestamp = new Instant(1546300800000L);
+    return WindowedValue.of(
+        "user-1234567890",
+        timestamp,
+        new IntervalWindow(timestamp, Duration.standardMinutes(1)),
+        PaneInfo.NO_FIRING);
+  }
+}
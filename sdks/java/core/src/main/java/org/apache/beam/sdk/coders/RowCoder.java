@@ -35,6 +35,7 @@ import org.apache.beam.sdk.schemas.Schema.FieldType;
 import org.apache.beam.sdk.schemas.Schema.TypeName;
 import org.apache.beam.sdk.util.SerializableUtils;
 import org.apache.beam.sdk.values.Row;
+import org.apache.beam.sdk.values.RowWithEncoding;
 
 /** A {@link Coder} for {@link Row}. It wraps the {@link Coder} for each element directly. */
 @Experimental
@@ -160,6 +161,9 @@ public class RowCoder extends CustomCoder<Row> {
 
   /** Return the estimated serialized size of a give row object. */
   public static long estimatedSizeBytes(Row row) {
+    if (row instanceof RowWithEncoding) {
+      return ((RowWithEncoding) row).getEncodedSize();
+    }
     Schema schema = row.getSchema();
     int fieldCount = schema.getFieldCount();
     int bitmapSize = (((fieldCount - 1) >> 6) + 1) * 8;
@@ -53,6 +53,7 @@ import org.apache.beam.sdk.schemas.Schema;
 import org.apache.beam.sdk.schemas.Schema.Field;
 import org.apache.beam.sdk.schemas.Schema.TypeName;
 import org.apache.beam.sdk.values.Row;
+import org.apache.beam.sdk.values.RowWithEncoding;
 
 /**
  * A utility for automatically generating a {@link Coder} for {@link Row} objects corresponding to a
@@ -78,12 +79,12 @@ import org.apache.beam.sdk.values.Row;
  *
  *   {@literal @}Override public void encode(T value, OutputStream outStream) {
  *     // Delegate to a method that evaluates each coder in the static array.
- *     encodeDelegate(FIELD_CODERS, value, outStream);
+ *     encodeDelegate(getSchema(), FIELD_CODERS, value, outStream, hasNullableFields());
  *   }
  *
  *   {@literal @}Overide public abstract T decode(InputStream inStream) {
- *     // Delegate to a method that evaluates each coder in the static array.
- *     return decodeDelegate(FIELD_CODERS, inStream);
+ *     // Delegate to a method that returns a lazily-decoded RowWithEncoding.
+ *     return decodeDelegate(getSchema(), FIELD_CODERS, inStream);
  *   }
  * }
  * }</pre>
@@ -167,6 +168,13 @@ public abstract class RowCoderGenerator {
       return (methodVisitor, implementationContext, instrumentedMethod) -> {
         StackManipulation manipulation =
             new StackManipulation.Compound(
+                // Schema.
+                MethodInvocation.invoke(
+                    implementationContext
+                        .getInstrumentedType()
+                        .getDeclaredMethods()
+                        .filter(ElementMatchers.named("getSchema"))
+                        .getOnly()),
                 // Array of coders.
                 FieldAccess.forField(
                         implementationContext
@@ -208,12 +216,22 @@ public abstract class RowCoderGenerator {
     // per-field Coders.
     @SuppressWarnings("unchecked")
     static void encodeDelegate(
-        Coder[] coders, Row value, OutputStream outputStream, boolean hasNullableFields)
+        Schema schema,
+        Coder[] coders,
+        Row value,
+        OutputStream outputStream,
+        boolean hasNullableFields)
         throws IOException {
+      // A row decoded by a coder for the same field types still holds its encoding, which we can
+      // write out as is.
+      if (value instanceof RowWithEncoding && ((RowWithEncoding) value).hasEncodingOf(schema)) {
+        ((RowWithEncoding) value).writeEncoding(outputStream);
+        return;
+      }
       NULL_LIST_CODER.encode(scanNullFields(value, hasNullableFields), outputStream);
       for (int idx = 0; idx < value.getFieldCount(); ++idx) {
         Object fieldValue = value.getValue(idx);
-        if (value.getValue(idx) != null) {
+        if (fieldValue != null) {
           coders[idx].encode(fieldValue, outputStream);
         }
       }
@@ -276,25 +294,12 @@ public abstract class RowCoderGenerator {
       return instrumentedType;
     }
 
-    // The decode method of the generated Coder delegates to this method to evaluate all of the
-    // per-field Coders.
+    // The decode method of the generated Coder delegates to this method. Only primitive fields
+    // are decoded here; the per-field Coders are evaluated for the other fields when the returned
+    // Row first accesses them.
     static Row decodeDelegate(Schema schema, Coder[] coders, InputStream inputStream)
         throws IOException {
-      BitSet nullFields = NULL_LIST_CODER.decode(inputStream);
-      List<Object> fieldValues = Lists.newArrayListWithCapacity(coders.length);
-      for (int i = 0; i < coders.length; ++i) {
-        if (nullFields.get(i)) {
-          fieldValues.add(null);
-        } else {
-          fieldValues.add(coders[i].decode(inputStream));
-        }
-      }
-      // We call attachValues instead of setValues. setValues validates every element in the list
-      // is of the proper type, potentially converts to the internal type Row stores, and copies
-      // all values. Since we assume that decode is always being called on a previously-encoded
-      // Row, the values should already be validated and of the correct type. So, we can save
-      // some processing by simply transferring ownership of the list to the Row.
-      return Row.withSchema(schema).attachValues(fieldValues).build();
+      return RowFieldScanner.scan(schema, coders, inputStream);
     }
   }
 
@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.coders;
+
+import com.google.common.io.ByteStreams;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import org.apache.beam.sdk.schemas.Schema;
+import org.apache.beam.sdk.schemas.Schema.FieldType;
+import org.apache.beam.sdk.values.Row;
+import org.apache.beam.sdk.values.RowWithEncoding;
+
+/**
+ * Reads a {@link Row} encoded by a coder generated by {@link RowCoderGenerator} into a {@link
+ * RowWithEncoding}.
+ *
+ * <p>The encoding is walked just far enough to find where each field starts and ends, which for
+ * primitive fields means reading their value. Everything else is skipped over and copied into the
+ * row undecoded.
+ */
+class RowFieldScanner {
+  private final InputStream inStream;
+  private byte[] buffer = new byte[64];
+  private int length = 0;
+
+  private RowFieldScanner(InputStream inStream) {
+    this.inStream = inStream;
+  }
+
+  static Row scan(Schema schema, Coder[] coders, InputStream inStream) throws IOException {
+    RowFieldScanner scanner = new RowFieldScanner(inStream);
+    BitSet nullFields = scanner.readNullFields();
+    int fieldCount = schema.getFieldCount();
+    int[] fieldOffsets = new int[fieldCount + 1];
+    long[] primitiveValues = new long[fieldCount];
+    for (int i = 0; i < fieldCount; ++i) {
+      fieldOffsets[i] = scanner.length;
+      if (!nullFields.get(i)) {
+        primitiveValues[i] = scanner.readField(schema.getField(i).getType());
+      }
+    }
+    fieldOffsets[fieldCount] = scanner.length;
+    return new RowWithEncoding(
+        schema,
+        coders,
+        Arrays.copyOf(scanner.buffer, scanner.length),
+        fieldOffsets,
+        primitiveValues,
+        nullFields);
+  }
+
+  private BitSet readNullFields() throws IOException {
+    int size = readLength();
+    int start = length;
+    readFully(size);
+    return BitSet.valueOf(ByteBuffer.wrap(buffer, start, size));
+  }
+
+  /**
+   * Reads a field of the given type, returning the bits stored by {@link RowWithEncoding} for
+   * primitive types and 0 for the others.
+   */
+  private long readField(FieldType type) throws IOException {
+    switch (type.getTypeName()) {
+      case BYTE:
+      case BOOLEAN:
+        return (byte) readByte();
+      case INT16:
+        return (short) readBigEndian(Short.BYTES);
+      case INT32:
+        return (int) readVarLong();
+      case INT64:
+        return readVarLong();
+      case FLOAT:
+        return (int) readBigEndian(Float.BYTES);
+      case DOUBLE:
+        return readBigEndian(Double.BYTES);
+      case DATETIME:
+        // See InstantCoder.
+        return readBigEndian(Long.BYTES) + Long.MIN_VALUE;
+      case STRING:
+      case BYTES:
+        readFully(readLength());
+        return 0;
+      case DECIMAL:
+        readVarLong();
+        readFully(readLength());
+        return 0;
+      case ARRAY:
+        skipIterable(type.getCollectionElementType());
+        return 0;
+      case MAP:
+        int size = (int) readBigEndian(Integer.BYTES);
+        for (int i = 0; i < size; ++i) {
+          readField(type.getMapKeyType());
+          readField(type.getMapValueType());
+        }
+        return 0;
+      case ROW:
+        Schema schema = type.getRowSchema();
+        BitSet nullFields = readNullFields();
+        for (int i = 0; i < schema.getFieldCount(); ++i) {
+          if (!nullFields.get(i)) {
+            readField(schema.getField(i).getType());
+          }
+        }
+        return 0;
+      default:
+        throw new CoderException("Unsupported field type " + type);
+    }
+  }
+
+  // See IterableLikeCoder.
+  private void skipIterable(FieldType elementType) throws IOException {
+    int size = (int) readBigEndian(Integer.BYTES);
+    if (size >= 0) {
+      for (int i = 0; i < size; ++i) {
+        readField(elementType);
+      }
+      return;
+    }
+    for (long count = readVarLong(); count > 0; count = readVarLong()) {
+      for (long i = 0; i < count; ++i) {
+        readField(elementType);
+      }
+    }
+  }
+
+  private int readLength() throws IOException {
+    long size = readVarLong();
+    if (size < 0 || size > Integer.MAX_VALUE - length) {
+      throw new CoderException("Invalid encoded length " + size);
+    }
+    return (int) size;
+  }
+
+  private long readVarLong() throws IOException {
+    long result = 0;
+    int shift = 0;
+    int b;
+    do {
+      if (shift >= 64) {
+        throw new IOException("varint too long");
+      }
+      b = readByte();
+      result |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return result;
+  }
+
+  private long readBigEndian(int bytes) throws IOException {
+    int start = length;
+    readFully(bytes);
+    long result = 0;
+    for (int i = start; i < length; ++i) {
+      result = (result << 8) | (buffer[i] & 0xFF);
+    }
+    return result;
+  }
+
+  private int readByte() throws IOException {
+    int b = inStream.read();
+    if (b < 0) {
+      throw new EOFException();
+    }
+    ensureCapacity(1);
+    buffer[length++] = (byte) b;
+    return b;
+  }
+
+  private void readFully(int bytes) throws IOException {
+    ensureCapacity(bytes);
+    ByteStreams.readFully(inStream, buffer, length, bytes);
+    length += bytes;
+  }
+
+  private void ensureCapacity(int bytes) {
+    if (buffer.length - length < bytes) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + bytes));
+    }
+  }
+}
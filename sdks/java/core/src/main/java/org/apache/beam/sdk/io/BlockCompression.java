@@ -0,0 +1,401 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import javax.annotation.Nullable;
+
+/**
+ * Layouts of compressed files that consist of independently decompressible blocks whose boundaries
+ * can be located from an arbitrary offset. {@link CompressedSource} uses these to split a single
+ * compressed file into ranges of compressed bytes.
+ */
+enum BlockCompression {
+  /**
+   * BGZF, as produced by {@code bgzip}: a series of gzip members, each at most 64 KiB, recording
+   * its own compressed size in a {@code BC} extra field.
+   */
+  BGZF(Compression.GZIP) {
+    @Override
+    boolean matches(SeekableByteChannel channel, long size) throws IOException {
+      return bgzfBlockSize(readBgzfHeader(channel, 0, size), 0) > 0;
+    }
+
+    @Override
+    BlockIndex index(SeekableByteChannel channel, long size) {
+      return new BgzfIndex(channel, size);
+    }
+  },
+
+  /**
+   * The Zstandard seekable format: a series of independent zstd frames followed by a skippable
+   * frame holding a seek table with the compressed and decompressed size of every frame.
+   */
+  ZSTD_SEEKABLE(Compression.ZSTD) {
+    @Override
+    boolean matches(SeekableByteChannel channel, long size) throws IOException {
+      return ZstdSeekableIndex.tableSize(channel, size) > 0;
+    }
+
+    @Override
+    BlockIndex index(SeekableByteChannel channel, long size) throws IOException {
+      return new ZstdSeekableIndex(channel, size);
+    }
+  };
+
+  private static final int BGZF_MAX_BLOCK_SIZE = 1 << 16;
+  // Fixed gzip header (12 bytes) plus the largest possible extra field.
+  private static final int BGZF_MAX_HEADER_SIZE = 12 + 0xffff;
+  private static final int GZIP_FIXED_HEADER_SIZE = 12;
+
+  private static final int ZSTD_SKIPPABLE_MAGIC = 0x184D2A5E;
+  private static final int ZSTD_SEEKABLE_MAGIC = 0x8F92EAB1;
+  private static final int ZSTD_SEEKABLE_FOOTER_SIZE = 9;
+  private static final int ZSTD_SKIPPABLE_HEADER_SIZE = 8;
+
+  private final Compression compression;
+
+  BlockCompression(Compression compression) {
+    this.compression = compression;
+  }
+
+  /** The {@link Compression} that decompresses a single block, or the file as a whole. */
+  Compression getCompression() {
+    return compression;
+  }
+
+  /** Returns whether files compressed with {@code compression} may have a block layout. */
+  static boolean existsFor(Compression compression) {
+    for (BlockCompression value : values()) {
+      if (value.compression == compression) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the block layout of a file of the given size compressed with {@code compression}, or
+   * {@code null} if the file cannot be read from an arbitrary block.
+   */
+  @Nullable
+  static BlockCompression detect(Compression compression, SeekableByteChannel channel, long size)
+      throws IOException {
+    for (BlockCompression value : values()) {
+      if (value.compression == compression && value.matches(channel, size)) {
+        return value;
+      }
+    }
+    return null;
+  }
+
+  /** Returns whether the file of the given size has this layout. */
+  abstract boolean matches(SeekableByteChannel channel, long size) throws IOException;
+
+  /** Returns a {@link BlockIndex} over the blocks of the file of the given size. */
+  abstract BlockIndex index(SeekableByteChannel channel, long size) throws IOException;
+
+  /** Locates the blocks within a single compressed file, addressed by their compressed offset. */
+  abstract static class BlockIndex {
+    /** Returns the offset just past the last block. */
+    abstract long getDataEnd();
+
+    /**
+     * Returns the offset of the first block starting at or after {@code offset}, or {@link
+     * #getDataEnd} if there is none.
+     */
+    abstract long nextBlockStart(long offset) throws IOException;
+
+    /** Returns the offset of the block immediately preceding the one at {@code blockStart}. */
+    abstract long previousBlockStart(long blockStart) throws IOException;
+
+    /** Returns the offset just past the block starting at {@code blockStart}. */
+    abstract long blockEnd(long blockStart) throws IOException;
+
+    /** Returns the number of bytes the block starting at {@code blockStart} decompresses to. */
+    abstract long decompressedSize(long blockStart) throws IOException;
+  }
+
+  /** Reads and decompresses the block of {@code index} starting at {@code blockStart}. */
+  byte[] decompressBlock(SeekableByteChannel channel, BlockIndex index, long blockStart)
+      throws IOException {
+    long blockEnd = index.blockEnd(blockStart);
+    ByteBuffer compressed = read(channel, blockStart, Math.toIntExact(blockEnd - blockStart));
+    if (compressed.remaining() < blockEnd - blockStart) {
+      throw new EOFException(String.format("Truncated %s block at offset %d", this, blockStart));
+    }
+    return ByteStreams.toByteArray(
+        Channels.newInputStream(
+            compression.readDecompressed(
+                Channels.newChannel(
+                    new ByteArrayInputStream(compressed.array(), 0, compressed.remaining())))));
+  }
+
+  /**
+   * Reads up to {@code length} bytes at {@code position}, stopping early only at the end of the
+   * channel. The returned buffer is flipped, ready for reading, in little-endian order.
+   */
+  private static ByteBuffer read(SeekableByteChannel channel, long position, int length)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    channel.position(position);
+    while (buffer.hasRemaining() && channel.read(buffer) >= 0) {}
+    buffer.flip();
+    return buffer.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /** Reads the gzip header, including its extra field, starting at {@code position}. */
+  private static ByteBuffer readBgzfHeader(SeekableByteChannel channel, long position, long size)
+      throws IOException {
+    // BGZF writers use a single 6 byte extra subfield, so this is usually the whole header.
+    ByteBuffer header =
+        read(channel, position, (int) Math.min(size - position, GZIP_FIXED_HEADER_SIZE + 6));
+    if (header.limit() < GZIP_FIXED_HEADER_SIZE) {
+      return header;
+    }
+    int headerSize = GZIP_FIXED_HEADER_SIZE + (header.getShort(10) & 0xffff);
+    return headerSize <= header.limit()
+        ? header
+        : read(channel, position, (int) Math.min(size - position, headerSize));
+  }
+
+  /**
+   * Returns the total size of the BGZF block whose header starts at {@code pos} in {@code buffer},
+   * or -1 if there is no complete BGZF header there.
+   */
+  private static int bgzfBlockSize(ByteBuffer buffer, int pos) {
+    int limit = buffer.limit();
+    if (pos + GZIP_FIXED_HEADER_SIZE > limit
+        || buffer.get(pos) != (byte) 0x1f
+        || buffer.get(pos + 1) != (byte) 0x8b
+        || buffer.get(pos + 2) != 8
+        // FEXTRA must be set; BGZF writers set no other flag.
+        || buffer.get(pos + 3) != 4) {
+      return -1;
+    }
+    int extraLength = buffer.getShort(pos + 10) & 0xffff;
+    int extraEnd = pos + GZIP_FIXED_HEADER_SIZE + extraLength;
+    if (extraEnd > limit) {
+      return -1;
+    }
+    // Walk the extra subfields looking for the "BC" subfield holding the block size minus one.
+    for (int field = pos + GZIP_FIXED_HEADER_SIZE; field + 4 <= extraEnd; ) {
+      int fieldLength = buffer.getShort(field + 2) & 0xffff;
+      if (buffer.get(field) == 'B' && buffer.get(field + 1) == 'C' && fieldLength == 2) {
+        if (field + 6 > extraEnd) {
+          return -1;
+        }
+        int blockSize = (buffer.getShort(field + 4) & 0xffff) + 1;
+        return blockSize > extraEnd - pos ? blockSize : -1;
+      }
+      field += 4 + fieldLength;
+    }
+    return -1;
+  }
+
+  private static class BgzfIndex extends BlockIndex {
+    private final SeekableByteChannel channel;
+    private final long size;
+
+    BgzfIndex(SeekableByteChannel channel, long size) {
+      this.channel = channel;
+      this.size = size;
+    }
+
+    @Override
+    long getDataEnd() {
+      return size;
+    }
+
+    @Override
+    long nextBlockStart(long offset) throws IOException {
+      if (offset <= 0) {
+        return 0;
+      }
+      if (offset >= size) {
+        return size;
+      }
+      // Blocks are contiguous and at most BGZF_MAX_BLOCK_SIZE long, so a block starts within that
+      // distance of any offset. A candidate is only accepted if another block, or the end of the
+      // file, follows it, which rules out gzip magic bytes occurring in compressed data.
+      long windowEnd = Math.min(size, offset + 2 * BGZF_MAX_BLOCK_SIZE + BGZF_MAX_HEADER_SIZE);
+      ByteBuffer window = read(channel, offset, (int) (windowEnd - offset));
+      int candidates = (int) Math.min(window.limit(), BGZF_MAX_BLOCK_SIZE);
+      for (int pos = 0; pos < candidates; ++pos) {
+        int blockSize = bgzfBlockSize(window, pos);
+        if (blockSize < 0) {
+          continue;
+        }
+        long next = offset + pos + blockSize;
+        if (next == size || (next < windowEnd && bgzfBlockSize(window, pos + blockSize) > 0)) {
+          return offset + pos;
+        }
+      }
+      if (offset + BGZF_MAX_BLOCK_SIZE >= size) {
+        return size;
+      }
+      throw new IOException(
+          String.format("No BGZF block found within %d bytes of offset %d", candidates, offset));
+    }
+
+    @Override
+    long previousBlockStart(long blockStart) throws IOException {
+      checkArgument(blockStart > 0, "The first block has no predecessor");
+      long start = nextBlockStart(Math.max(0, blockStart - BGZF_MAX_BLOCK_SIZE));
+      while (start < blockStart) {
+        long end = blockEnd(start);
+        if (end == blockStart) {
+          return start;
+        }
+        start = end;
+      }
+      throw new IOException(
+          String.format("Offset %d is not the start of a BGZF block", blockStart));
+    }
+
+    @Override
+    long blockEnd(long blockStart) throws IOException {
+      int blockSize = bgzfBlockSize(readBgzfHeader(channel, blockStart, size), 0);
+      if (blockSize < 0 || blockStart + blockSize > size) {
+        throw new IOException(String.format("Invalid BGZF block at offset %d", blockStart));
+      }
+      return blockStart + blockSize;
+    }
+
+    @Override
+    long decompressedSize(long blockStart) throws IOException {
+      // The gzip trailer ends with the decompressed size, modulo 2^32; BGZF blocks are < 64 KiB.
+      return read(channel, blockEnd(blockStart) - 4, 4).getInt() & 0xffffffffL;
+    }
+  }
+
+  private static class ZstdSeekableIndex extends BlockIndex {
+    // Compressed offsets of every frame, followed by the end of the last frame.
+    private final long[] frameStarts;
+    private final long[] decompressedSizes;
+
+    ZstdSeekableIndex(SeekableByteChannel channel, long size) throws IOException {
+      int tableSize = tableSize(channel, size);
+      if (tableSize <= 0) {
+        throw new IOException("File does not end with a Zstandard seek table");
+      }
+      ByteBuffer table = read(channel, size - tableSize, tableSize - ZSTD_SEEKABLE_FOOTER_SIZE);
+      table.position(ZSTD_SKIPPABLE_HEADER_SIZE);
+      ByteBuffer footer = read(channel, size - ZSTD_SEEKABLE_FOOTER_SIZE, 5);
+      int numFrames = footer.getInt();
+      boolean hasChecksums = (footer.get() & 0x80) != 0;
+      frameStarts = new long[numFrames + 1];
+      decompressedSizes = new long[numFrames];
+      for (int i = 0; i < numFrames; ++i) {
+        frameStarts[i + 1] = frameStarts[i] + (table.getInt() & 0xffffffffL);
+        decompressedSizes[i] = table.getInt() & 0xffffffffL;
+        if (hasChecksums) {
+          table.getInt();
+        }
+      }
+      if (frameStarts[numFrames] != size - tableSize) {
+        throw new IOException(
+            String.format(
+                "Zstandard seek table covers %d bytes, but the frames occupy %d bytes",
+                frameStarts[numFrames], size - tableSize));
+      }
+    }
+
+    /**
+     * Returns the size of the skippable frame holding the seek table at the end of the file, or -1
+     * if the file does not end with one.
+     */
+    static int tableSize(SeekableByteChannel channel, long size) throws IOException {
+      if (size < ZSTD_SKIPPABLE_HEADER_SIZE + ZSTD_SEEKABLE_FOOTER_SIZE) {
+        return -1;
+      }
+      ByteBuffer footer =
+          read(channel, size - ZSTD_SEEKABLE_FOOTER_SIZE, ZSTD_SEEKABLE_FOOTER_SIZE);
+      long numFrames = footer.getInt() & 0xffffffffL;
+      byte descriptor = footer.get();
+      // Bits 2 to 6 of the descriptor are reserved and must be zero.
+      if (footer.getInt() != ZSTD_SEEKABLE_MAGIC || (descriptor & 0x7c) != 0) {
+        return -1;
+      }
+      long entriesSize = numFrames * ((descriptor & 0x80) != 0 ? 12 : 8);
+      long frameSize = entriesSize + ZSTD_SEEKABLE_FOOTER_SIZE;
+      long tableSize = ZSTD_SKIPPABLE_HEADER_SIZE + frameSize;
+      if (tableSize > size || tableSize > Integer.MAX_VALUE) {
+        return -1;
+      }
+      ByteBuffer header = read(channel, size - tableSize, ZSTD_SKIPPABLE_HEADER_SIZE);
+      if (header.getInt() != ZSTD_SKIPPABLE_MAGIC || (header.getInt() & 0xffffffffL) != frameSize) {
+        return -1;
+      }
+      return (int) tableSize;
+    }
+
+    @Override
+    long getDataEnd() {
+      return frameStarts[frameStarts.length - 1];
+    }
+
+    @Override
+    long nextBlockStart(long offset) {
+      int index = Arrays.binarySearch(frameStarts, Math.max(0, offset));
+      if (index < 0) {
+        index = Math.min(-index - 1, frameStarts.length - 1);
+      }
+      return frameStarts[index];
+    }
+
+    @Override
+    long previousBlockStart(long blockStart) throws IOException {
+      int index = Arrays.binarySearch(frameStarts, blockStart);
+      if (index <= 0) {
+        throw new IOException(
+            String.format("Offset %d is not the start of a Zstandard frame", blockStart));
+      }
+      return frameStarts[index - 1];
+    }
+
+    @Override
+    long blockEnd(long blockStart) throws IOException {
+      return frameStarts[frameIndex(blockStart) + 1];
+    }
+
+    @Override
+    long decompressedSize(long blockStart) throws IOException {
+      return decompressedSizes[frameIndex(blockStart)];
+    }
+
+    private int frameIndex(long blockStart) throws IOException {
+      int index = Arrays.binarySearch(frameStarts, blockStart);
+      if (index < 0 || index >= decompressedSizes.length) {
+        throw new IOException(
+            String.format("Offset %d is not the start of a Zstandard frame", blockStart));
+      }
+      return index;
+    }
+  }
+}
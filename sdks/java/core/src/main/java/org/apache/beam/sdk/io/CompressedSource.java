@@ -20,15 +20,21 @@ package org.apache.beam.sdk.io;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.NoSuchElementException;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import org.apache.beam.sdk.annotations.Experimental;
 import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.io.BlockCompression.BlockIndex;
 import org.apache.beam.sdk.io.fs.MatchResult.Metadata;
 import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.transforms.display.DisplayData;
@@ -48,14 +54,24 @@ import org.joda.time.Instant;
  * }</pre>
  *
  * <p>Supported compression algorithms are {@link Compression#GZIP}, {@link Compression#BZIP2},
- * {@link Compression#ZIP} and {@link Compression#DEFLATE}. User-defined compression types are
- * supported by implementing a {@link DecompressingChannelFactory}.
+ * {@link Compression#ZIP}, {@link Compression#DEFLATE}, {@link Compression#ZSTD}, {@link
+ * Compression#LZ4} and {@link Compression#SNAPPY}. User-defined compression types are supported by
+ * implementing a {@link DecompressingChannelFactory}.
  *
  * <p>By default, the compression algorithm is selected from those supported in {@link Compression}
  * based on the file name provided to the source, namely {@code ".bz2"} indicates {@link
  * Compression#BZIP2}, {@code ".gz"} indicates {@link Compression#GZIP}, {@code ".zip"} indicates
- * {@link Compression#ZIP} and {@code ".deflate"} indicates {@link Compression#DEFLATE}. If the file
- * name does not match any of the supported algorithms, it is assumed to be uncompressed data.
+ * {@link Compression#ZIP}, {@code ".deflate"} indicates {@link Compression#DEFLATE}, {@code ".zst"}
+ * indicates {@link Compression#ZSTD}, {@code ".lz4"} indicates {@link Compression#LZ4} and {@code
+ * ".sz"} indicates {@link Compression#SNAPPY}. If the file name does not match any of the supported
+ * algorithms, it is assumed to be uncompressed data.
+ *
+ * <p>Compressed files can generally only be read sequentially, by a single reader. The exceptions
+ * are files made of independently compressed blocks whose boundaries can be found from any offset:
+ * gzip files in the BGZF layout written by {@code bgzip}, and Zstandard files in the seekable
+ * format that ends with a seek table. If the delegate source is splittable, such files are split
+ * into ranges of compressed bytes, and each record is read by the range containing the start of the
+ * block in which the record begins.
  *
  * @param <T> The type to read from the compressed file.
  */
@@ -88,7 +104,16 @@ public class CompressedSource<T> extends FileBasedSource<T> {
     ZIP(Compression.ZIP),
 
     /** @see Compression#DEFLATE */
-    DEFLATE(Compression.DEFLATE);
+    DEFLATE(Compression.DEFLATE),
+
+    /** @see Compression#ZSTD */
+    ZSTD(Compression.ZSTD),
+
+    /** @see Compression#LZ4 */
+    LZ4(Compression.LZ4),
+
+    /** @see Compression#SNAPPY */
+    SNAPPY(Compression.SNAPPY);
 
     private final Compression canonical;
 
@@ -135,6 +160,15 @@ public class CompressedSource<T> extends FileBasedSource<T> {
         case DEFLATE:
           return DEFLATE;
 
+        case ZSTD:
+          return ZSTD;
+
+        case LZ4:
+          return LZ4;
+
+        case SNAPPY:
+          return SNAPPY;
+
         default:
           throw new IllegalArgumentException("Unsupported compression type: " + compression);
       }
@@ -144,6 +178,10 @@ public class CompressedSource<T> extends FileBasedSource<T> {
   private final FileBasedSource<T> sourceDelegate;
   private final DecompressingChannelFactory channelFactory;
 
+  // The block-compressed layout of the single file read by this source, detected when the file
+  // pattern is expanded and carried over to sources for subranges of the file.
+  @Nullable private final BlockCompression blockCompression;
+
   /**
    * Creates a {@code CompressedSource} from an underlying {@code FileBasedSource}. The type of
    * compression used will be based on the file name extension unless explicitly configured via
@@ -178,6 +216,7 @@ public class CompressedSource<T> extends FileBasedSource<T> {
         Long.MAX_VALUE);
     this.sourceDelegate = sourceDelegate;
     this.channelFactory = channelFactory;
+    this.blockCompression = null;
   }
 
   /**
@@ -190,20 +229,19 @@ public class CompressedSource<T> extends FileBasedSource<T> {
       Metadata metadata,
       long minBundleSize,
       long startOffset,
-      long endOffset) {
+      long endOffset,
+      @Nullable BlockCompression blockCompression) {
     super(metadata, minBundleSize, startOffset, endOffset);
     this.sourceDelegate = sourceDelegate;
     this.channelFactory = channelFactory;
-    boolean splittable;
-    try {
-      splittable = isSplittable();
-    } catch (Exception e) {
-      throw new RuntimeException("Failed to determine if the source is splittable", e);
+    this.blockCompression = blockCompression;
+    if (startOffset != 0) {
+      checkArgument(
+          isSplittable(),
+          "CompressedSources must start reading at offset 0 unless the file is block-compressed."
+              + " Requested offset: %s",
+          startOffset);
     }
-    checkArgument(
-        splittable || startOffset == 0,
-        "CompressedSources must start reading at offset 0. Requested offset: %s",
-        startOffset);
   }
 
   /**
@@ -220,6 +258,9 @@ public class CompressedSource<T> extends FileBasedSource<T> {
   /**
    * Creates a {@code CompressedSource} for a subrange of a file. Called by superclass to create a
    * source for a single file.
+   *
+   * <p>When a file pattern is expanded, a file whose compression has a block-compressed layout is
+   * checked for that layout, which requires reading it.
    */
   @Override
   protected FileBasedSource<T> createForSubrangeOfFile(Metadata metadata, long start, long end) {
@@ -229,13 +270,14 @@ public class CompressedSource<T> extends FileBasedSource<T> {
         metadata,
         sourceDelegate.getMinBundleSize(),
         start,
-        end);
+        end,
+        getMode() == Mode.FILEPATTERN ? detectBlockCompression(metadata) : blockCompression);
   }
 
   /**
-   * Determines whether a single file represented by this source is splittable. Returns true if we
-   * are using the default decompression factory and and it determines from the requested file name
-   * that the file is not compressed.
+   * Determines whether a single file represented by this source is splittable. Returns true if the
+   * delegate source is splittable and either the file is not compressed, or it is a single file
+   * which was found to be block-compressed when the file pattern was expanded.
    */
   @Override
   protected final boolean isSplittable() {
@@ -246,13 +288,41 @@ public class CompressedSource<T> extends FileBasedSource<T> {
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
-    if (channelFactory == CompressionMode.UNCOMPRESSED) {
-      return true;
-    }
+    return getCanonicalCompression(getFileOrPatternSpec()) == Compression.UNCOMPRESSED
+        || blockCompression != null;
+  }
+
+  /**
+   * Returns the {@link Compression} the channel factory applies to the given file, or {@code null}
+   * for a user-defined factory.
+   */
+  @Nullable
+  private Compression getCanonicalCompression(String filename) {
     if (channelFactory == CompressionMode.AUTO) {
-      return !Compression.AUTO.isCompressed(getFileOrPatternSpec());
+      return Compression.detect(filename);
+    }
+    if (channelFactory instanceof CompressionMode) {
+      return ((CompressionMode) channelFactory).canonical;
+    }
+    return null;
+  }
+
+  /** Returns the block-compressed layout of the given file, or {@code null} if it has none. */
+  @Nullable
+  private BlockCompression detectBlockCompression(Metadata metadata) {
+    Compression compression = getCanonicalCompression(metadata.resourceId().toString());
+    if (compression == null || !BlockCompression.existsFor(compression)) {
+      return null;
+    }
+    try (ReadableByteChannel channel = FileSystems.open(metadata.resourceId())) {
+      return channel instanceof SeekableByteChannel
+          ? BlockCompression.detect(
+              compression, (SeekableByteChannel) channel, metadata.sizeBytes())
+          : null;
+    } catch (IOException e) {
+      throw new RuntimeException(
+          String.format("Failed to inspect the compressed file %s", metadata.resourceId()), e);
     }
-    return false;
   }
 
   /**
@@ -260,11 +330,16 @@ public class CompressedSource<T> extends FileBasedSource<T> {
    *
    * <p>Uses the delegate source to create a single file reader for the delegate source. Utilizes
    * the default decompression channel factory to not wrap the source reader if the file name does
-   * not represent a compressed file allowing for splitting of the source.
+   * not represent a compressed file allowing for splitting of the source. Block-compressed files
+   * are read block by block if they were recognized as such while splitting the source.
    */
   @Override
   protected final FileBasedReader<T> createSingleFileReader(PipelineOptions options) {
-    if (isSplittable()) {
+    if (blockCompression != null) {
+      return new CompressedReader<>(this, options);
+    }
+    if (getCanonicalCompression(getFileOrPatternSpec()) == Compression.UNCOMPRESSED
+        && isSplittable()) {
       return sourceDelegate.createSingleFileReader(options);
     }
     return new CompressedReader<>(this, sourceDelegate.createSingleFileReader(options));
@@ -278,7 +353,7 @@ public class CompressedSource<T> extends FileBasedSource<T> {
         .add(DisplayData.item("source", sourceDelegate.getClass()).withLabel("Read Source"));
 
     if (channelFactory instanceof Enum) {
-      // GZIP, BZIP, ZIP and DEFLATE are implemented as enums; Enum classes are anonymous, so use
+      // The built-in compression modes are implemented as enums; Enum classes are anonymous, so use
       // the .name() value instead
       builder.add(
           DisplayData.item("compressionMode", ((Enum) channelFactory).name())
@@ -308,7 +383,12 @@ public class CompressedSource<T> extends FileBasedSource<T> {
    */
   public static class CompressedReader<T> extends FileBasedReader<T> {
 
-    private final FileBasedReader<T> readerDelegate;
+    // How much decompressed data preceding its first block a reader of a block-compressed range
+    // gives its delegate, so that the delegate can find the first record boundary in the range.
+    private static final long MIN_LOOKBACK_BYTES = 1024;
+
+    // Created in startReading when reading a block-compressed range.
+    private FileBasedReader<T> readerDelegate;
     private final Object progressLock = new Object();
 
     @GuardedBy("progressLock")
@@ -320,11 +400,40 @@ public class CompressedSource<T> extends FileBasedSource<T> {
 
     private DecompressingChannelFactory channelFactory;
 
+    // Only set when reading a range of a block-compressed file.
+    @Nullable private final BlockCompression blockCompression;
+    @Nullable private final PipelineOptions options;
+
+    @Nullable // Initialized in startReading, if there are blocks in the range
+    @GuardedBy("progressLock")
+    private BlockDecompressingChannel blockChannel;
+
+    // The offset of the compressed block in which the current record starts, and whether the
+    // record is the first one in that block at which the delegate could have started reading.
+    @GuardedBy("progressLock")
+    private long currentBlockStart;
+
+    @GuardedBy("progressLock")
+    private boolean currentIsBlockSplitPoint;
+
+    @GuardedBy("progressLock")
+    private long lastSplitPointBlockStart = -1;
+
     /** Create a {@code CompressedReader} from a {@code CompressedSource} and delegate reader. */
     public CompressedReader(CompressedSource<T> source, FileBasedReader<T> readerDelegate) {
       super(source);
       this.channelFactory = source.getChannelFactory();
       this.readerDelegate = readerDelegate;
+      this.blockCompression = null;
+      this.options = null;
+    }
+
+    /** Creates a reader for a range of a block-compressed file. */
+    private CompressedReader(CompressedSource<T> source, PipelineOptions options) {
+      super(source);
+      this.channelFactory = source.getChannelFactory();
+      this.blockCompression = checkNotNull(source.blockCompression);
+      this.options = options;
     }
 
     /** Gets the current record from the delegate reader. */
@@ -335,11 +444,14 @@ public class CompressedSource<T> extends FileBasedSource<T> {
 
     @Override
     public boolean allowsDynamicSplitting() {
-      return false;
+      return blockCompression != null;
     }
 
     @Override
     public final long getSplitPointsConsumed() {
+      if (blockCompression != null) {
+        return super.getSplitPointsConsumed();
+      }
       synchronized (progressLock) {
         return (isDone() && numRecordsRead > 0) ? 1 : 0;
       }
@@ -347,12 +459,23 @@ public class CompressedSource<T> extends FileBasedSource<T> {
 
     @Override
     public final long getSplitPointsRemaining() {
+      if (blockCompression != null) {
+        return super.getSplitPointsRemaining();
+      }
       return isDone() ? 0 : 1;
     }
 
-    /** Returns true only for the first record; compressed sources cannot be split. */
+    /**
+     * Returns true only for the first record, unless reading a block-compressed file; other
+     * compressed sources cannot be split.
+     */
     @Override
     protected final boolean isAtSplitPoint() {
+      if (blockCompression != null) {
+        synchronized (progressLock) {
+          return currentIsBlockSplitPoint;
+        }
+      }
       // We have to return true for the first record, but not for the state before reading it,
       // and not for the state after reading any other record. Hence == rather than >= or <=.
       // This is required because FileBasedReader is intended for readers that can read a range
@@ -398,12 +521,156 @@ public class CompressedSource<T> extends FileBasedSource<T> {
       }
     }
 
+    /**
+     * A channel over the decompressed contents of consecutive blocks of a block-compressed file.
+     * Position 0 is the start of the first block read. The channel is initially positioned at the
+     * start of a later block, and can only seek backwards within the data it already holds. It
+     * remembers at which position each block's contents begin, so that a record can be attributed
+     * to the compressed block containing its start.
+     */
+    private static class BlockDecompressingChannel implements SeekableByteChannel {
+      private final SeekableByteChannel inner;
+      private final BlockCompression compression;
+      private final BlockIndex index;
+      // Pairs of the position at which each block's contents begin and the block's compressed
+      // offset, for the blocks that may still contain the start of a record.
+      private final Deque<long[]> blockPositions = new ArrayDeque<>();
+      private long nextBlock;
+      private ByteBuffer current;
+      private long position;
+      private boolean open = true;
+
+      /**
+       * Creates a channel positioned at the start of {@code startBlock}, holding the contents of
+       * the blocks from {@code firstBlock} up to it.
+       */
+      BlockDecompressingChannel(
+          SeekableByteChannel inner,
+          BlockCompression compression,
+          BlockIndex index,
+          long firstBlock,
+          long startBlock)
+          throws IOException {
+        this.inner = inner;
+        this.compression = compression;
+        this.index = index;
+        ByteArrayOutputStream preceding = new ByteArrayOutputStream();
+        for (long block = firstBlock; block < startBlock; block = index.blockEnd(block)) {
+          blockPositions.addLast(new long[] {preceding.size(), block});
+          preceding.write(compression.decompressBlock(inner, index, block));
+        }
+        this.current = ByteBuffer.wrap(preceding.toByteArray());
+        this.current.position(current.limit());
+        this.position = current.limit();
+        this.nextBlock = startBlock;
+      }
+
+      /**
+       * Returns the compressed offset of the block containing the given position. Positions must be
+       * queried in non-decreasing order.
+       */
+      long blockContaining(long decompressedPosition) {
+        if (decompressedPosition >= position + current.remaining()) {
+          return nextBlock;
+        }
+        long[] block = blockPositions.removeFirst();
+        while (!blockPositions.isEmpty() && blockPositions.peekFirst()[0] <= decompressedPosition) {
+          block = blockPositions.removeFirst();
+        }
+        blockPositions.addFirst(block);
+        return block[1];
+      }
+
+      /** Decompresses blocks until there is data to read, returning false at the last block. */
+      private boolean ensureData() throws IOException {
+        while (!current.hasRemaining()) {
+          if (nextBlock >= index.getDataEnd()) {
+            return false;
+          }
+          current = ByteBuffer.wrap(compression.decompressBlock(inner, index, nextBlock));
+          blockPositions.addLast(new long[] {position, nextBlock});
+          nextBlock = index.blockEnd(nextBlock);
+        }
+        return true;
+      }
+
+      @Override
+      public int read(ByteBuffer dst) throws IOException {
+        if (!ensureData()) {
+          return -1;
+        }
+        int bytes = Math.min(dst.remaining(), current.remaining());
+        ByteBuffer slice = current.duplicate();
+        slice.limit(slice.position() + bytes);
+        dst.put(slice);
+        current.position(current.position() + bytes);
+        position += bytes;
+        return bytes;
+      }
+
+      @Override
+      public long position() {
+        return position;
+      }
+
+      @Override
+      public SeekableByteChannel position(long newPosition) throws IOException {
+        long bufferStart = position - current.position();
+        checkArgument(
+            newPosition >= bufferStart,
+            "Cannot seek to %s in a decompressed channel holding data from %s",
+            newPosition,
+            bufferStart);
+        if (newPosition < position) {
+          current.position((int) (newPosition - bufferStart));
+          position = newPosition;
+          return this;
+        }
+        while (position < newPosition && ensureData()) {
+          int bytes = (int) Math.min(current.remaining(), newPosition - position);
+          current.position(current.position() + bytes);
+          position += bytes;
+        }
+        return this;
+      }
+
+      @Override
+      public long size() {
+        throw new UnsupportedOperationException("The decompressed size is not known");
+      }
+
+      @Override
+      public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+      }
+
+      @Override
+      public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+      }
+
+      @Override
+      public boolean isOpen() {
+        return open;
+      }
+
+      @Override
+      public void close() {
+        // The underlying channel is closed by the reader that opened it.
+        open = false;
+      }
+    }
+
     /**
      * Creates a decompressing channel from the input channel and passes it to its delegate reader's
      * {@link FileBasedReader#startReading(ReadableByteChannel)}.
      */
     @Override
     protected final void startReading(ReadableByteChannel channel) throws IOException {
+      if (blockCompression != null) {
+        startReadingBlocks((SeekableByteChannel) channel);
+        return;
+      }
       synchronized (progressLock) {
         this.channel = new CountingChannel(channel, getCurrentSource().getStartOffset());
         channel = this.channel;
@@ -418,14 +685,67 @@ public class CompressedSource<T> extends FileBasedSource<T> {
       }
     }
 
+    /**
+     * Starts reading the blocks of a block-compressed file from the first block at or after the
+     * start of the range. The delegate reader is given a channel over the decompressed blocks, as
+     * if that were the file, and a start offset into it at that first block, so that it finds the
+     * first record boundary exactly as it would in an uncompressed file.
+     */
+    private void startReadingBlocks(SeekableByteChannel channel) throws IOException {
+      CompressedSource<T> source = (CompressedSource<T>) getCurrentSource();
+      Metadata metadata = source.getSingleFileMetadata();
+      BlockIndex index = blockCompression.index(channel, metadata.sizeBytes());
+      long firstBlock = index.nextBlockStart(source.getStartOffset());
+      if (firstBlock >= source.getEndOffset()) {
+        // No block starts in the range, so no record does either.
+        return;
+      }
+      // The delegate needs to see the data just before the first block to tell whether it starts
+      // with a new record, so the preceding blocks are decompressed too.
+      long lookbackBlock = firstBlock;
+      long lookbackBytes = 0;
+      while (lookbackBlock > 0 && lookbackBytes < MIN_LOOKBACK_BYTES) {
+        lookbackBlock = index.previousBlockStart(lookbackBlock);
+        lookbackBytes += index.decompressedSize(lookbackBlock);
+      }
+      BlockDecompressingChannel blocks =
+          new BlockDecompressingChannel(
+              channel, blockCompression, index, lookbackBlock, firstBlock);
+      readerDelegate =
+          source
+              .sourceDelegate
+              .createForSubrangeOfFile(metadata, blocks.position(), Long.MAX_VALUE)
+              .createSingleFileReader(options);
+      synchronized (progressLock) {
+        blockChannel = blocks;
+      }
+      readerDelegate.startReading(blocks);
+    }
+
     /** Reads the next record via the delegate reader. */
     @Override
     protected final boolean readNextRecord() throws IOException {
+      if (readerDelegate == null) {
+        // A block-compressed range in which no block starts.
+        return false;
+      }
       if (!readerDelegate.readNextRecord()) {
         return false;
       }
       synchronized (progressLock) {
         ++numRecordsRead;
+        if (blockChannel != null) {
+          // Records are reported at the offset of the block they start in, and a range owns the
+          // records starting in its blocks; see startReadingBlocks. Only the first record of a
+          // block at which the delegate could start reading is a split point.
+          long blockStart = blockChannel.blockContaining(readerDelegate.getCurrentOffset());
+          currentBlockStart = blockStart;
+          currentIsBlockSplitPoint =
+              readerDelegate.isAtSplitPoint() && blockStart != lastSplitPointBlockStart;
+          if (currentIsBlockSplitPoint) {
+            lastSplitPointBlockStart = blockStart;
+          }
+        }
       }
       return true;
     }
@@ -437,6 +757,9 @@ public class CompressedSource<T> extends FileBasedSource<T> {
     @Override
     protected final long getCurrentOffset() throws NoSuchElementException {
       synchronized (progressLock) {
+        if (blockChannel != null) {
+          return currentBlockStart;
+        }
         if (numRecordsRead <= 1) {
           // Since the first record is at a split point, it should start at the beginning of the
           // file. This avoids the bad case where the decompressor read the entire file, which
@@ -35,6 +35,12 @@ import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream
 import org.apache.commons.compress.compressors.deflate.DeflateCompressorInputStream;
 import org.apache.commons.compress.compressors.deflate.DeflateCompressorOutputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+import org.apache.commons.compress.compressors.snappy.FramedSnappyCompressorInputStream;
+import org.apache.commons.compress.compressors.snappy.FramedSnappyCompressorOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
 
 /** Various compression types for reading/writing files. */
 public enum Compression {
@@ -139,6 +145,55 @@ public enum Compression {
       return Channels.newChannel(
           new DeflateCompressorOutputStream(Channels.newOutputStream(channel)));
     }
+  },
+
+  /**
+   * Zstandard compression.
+   *
+   * <p>The Zstandard codec is implemented natively by {@code com.github.luben:zstd-jni}, which is
+   * not a dependency of the SDK; it must be added to the pipeline's classpath to read or write
+   * files with this compression.
+   */
+  ZSTD(".zst", ".zst", ".zstd") {
+    @Override
+    public ReadableByteChannel readDecompressed(ReadableByteChannel channel) throws IOException {
+      return Channels.newChannel(new ZstdCompressorInputStream(Channels.newInputStream(channel)));
+    }
+
+    @Override
+    public WritableByteChannel writeCompressed(WritableByteChannel channel) throws IOException {
+      return Channels.newChannel(new ZstdCompressorOutputStream(Channels.newOutputStream(channel)));
+    }
+  },
+
+  /** LZ4 compression, using the LZ4 frame format. */
+  LZ4(".lz4", ".lz4") {
+    @Override
+    public ReadableByteChannel readDecompressed(ReadableByteChannel channel) throws IOException {
+      return Channels.newChannel(
+          new FramedLZ4CompressorInputStream(Channels.newInputStream(channel), true));
+    }
+
+    @Override
+    public WritableByteChannel writeCompressed(WritableByteChannel channel) throws IOException {
+      return Channels.newChannel(
+          new FramedLZ4CompressorOutputStream(Channels.newOutputStream(channel)));
+    }
+  },
+
+  /** Snappy compression, using the Snappy framing format. */
+  SNAPPY(".sz", ".sz") {
+    @Override
+    public ReadableByteChannel readDecompressed(ReadableByteChannel channel) throws IOException {
+      return Channels.newChannel(
+          new FramedSnappyCompressorInputStream(Channels.newInputStream(channel)));
+    }
+
+    @Override
+    public WritableByteChannel writeCompressed(WritableByteChannel channel) throws IOException {
+      return Channels.newChannel(
+          new FramedSnappyCompressorOutputStream(Channels.newOutputStream(channel)));
+    }
   };
 
   private final String suggestedSuffix;
@@ -142,7 +142,16 @@ public abstract class FileBasedSink<UserT, DestinationT, OutputT>
     BZIP2(Compression.BZIP2),
 
     /** @see Compression#DEFLATE */
-    DEFLATE(Compression.DEFLATE);
+    DEFLATE(Compression.DEFLATE),
+
+    /** @see Compression#ZSTD */
+    ZSTD(Compression.ZSTD),
+
+    /** @see Compression#LZ4 */
+    LZ4(Compression.LZ4),
+
+    /** @see Compression#SNAPPY */
+    SNAPPY(Compression.SNAPPY);
 
     private final Compression canonical;
 
@@ -186,6 +195,15 @@ public abstract class FileBasedSink<UserT, DestinationT, OutputT>
         case DEFLATE:
           return DEFLATE;
 
+        case ZSTD:
+          return ZSTD;
+
+        case LZ4:
+          return LZ4;
+
+        case SNAPPY:
+          return SNAPPY;
+
         default:
           throw new UnsupportedOperationException("Unsupported compression type: " + canonical);
       }
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.io;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.Arrays;
+import org.apache.beam.sdk.coders.ByteArrayCoder;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.io.fs.EmptyMatchTreatment;
+import org.apache.beam.sdk.io.fs.MatchResult;
+import org.apache.beam.sdk.options.PipelineOptions;
+import org.apache.beam.sdk.options.ValueProvider;
+
+/**
+ * Implementation detail of {@link TextIO.ReadBytes}.
+ *
+ * <p>A {@link FileBasedSource} which splits its input into records exactly like {@link TextSource},
+ * but returns the bytes of each record as they are rather than decoding them as {@code UTF-8}.
+ */
+@VisibleForTesting
+class TextBytesSource extends FileBasedSource<byte[]> {
+  byte[] delimiter;
+
+  TextBytesSource(
+      ValueProvider<String> fileSpec, EmptyMatchTreatment emptyMatchTreatment, byte[] delimiter) {
+    super(fileSpec, emptyMatchTreatment, 1L);
+    this.delimiter = delimiter;
+  }
+
+  private TextBytesSource(MatchResult.Metadata metadata, long start, long end, byte[] delimiter) {
+    super(metadata, 1L, start, end);
+    this.delimiter = delimiter;
+  }
+
+  @Override
+  protected FileBasedSource<byte[]> createForSubrangeOfFile(
+      MatchResult.Metadata metadata, long start, long end) {
+    return new TextBytesSource(metadata, start, end, delimiter);
+  }
+
+  @Override
+  protected FileBasedReader<byte[]> createSingleFileReader(PipelineOptions options) {
+    // The reader reuses its buffer, so each record is copied out of it.
+    return new TextSource.TextBasedReader<>(
+        this,
+        delimiter,
+        (buffer, offset, length) -> Arrays.copyOfRange(buffer, offset, offset + length));
+  }
+
+  @Override
+  public Coder<byte[]> getOutputCoder() {
+    return ByteArrayCoder.of();
+  }
+}
@@ -75,7 +75,9 @@ import org.joda.time.Duration;
  *
  * <p>{@link #read} returns a {@link PCollection} of {@link String Strings}, each corresponding to
  * one line of an input UTF-8 text file (split into lines delimited by '\n', '\r', or '\r\n', or
- * specified delimiter see {@link TextIO.Read#withDelimiter}).
+ * specified delimiter see {@link TextIO.Read#withDelimiter}). {@link #readBytes} splits the input
+ * into the same lines, but returns the bytes of each line without decoding them, for consumers that
+ * parse the raw bytes themselves or whose input is not UTF-8.
  *
  * <h3>Filepattern expansion and watching</h3>
  *
@@ -216,6 +218,17 @@ public class TextIO {
         .build();
   }
 
+  /**
+   * Like {@link #read}, but returns the bytes of each line rather than decoding them as UTF-8. The
+   * bytes do not include the line delimiter.
+   */
+  public static ReadBytes readBytes() {
+    return new AutoValue_TextIO_ReadBytes.Builder()
+        .setCompression(Compression.AUTO)
+        .setEmptyMatchTreatment(EmptyMatchTreatment.DISALLOW)
+        .build();
+  }
+
   /**
    * A {@link PTransform} that writes a {@link PCollection} to a text file (or multiple text files
    * matching a sharding pattern), with each element of the input collection encoded into its own
@@ -568,6 +581,96 @@ public class TextIO {
     }
   }
 
+  /////////////////////////////////////////////////////////////////////////////
+
+  /** Implementation of {@link #readBytes}. */
+  @AutoValue
+  public abstract static class ReadBytes extends PTransform<PBegin, PCollection<byte[]>> {
+    @Nullable
+    abstract ValueProvider<String> getFilepattern();
+
+    abstract EmptyMatchTreatment getEmptyMatchTreatment();
+
+    abstract Compression getCompression();
+
+    @SuppressWarnings("mutable") // this returns an array that can be mutated by the caller
+    @Nullable
+    abstract byte[] getDelimiter();
+
+    abstract Builder toBuilder();
+
+    @AutoValue.Builder
+    abstract static class Builder {
+      abstract Builder setFilepattern(ValueProvider<String> filepattern);
+
+      abstract Builder setEmptyMatchTreatment(EmptyMatchTreatment treatment);
+
+      abstract Builder setCompression(Compression compression);
+
+      abstract Builder setDelimiter(byte[] delimiter);
+
+      abstract ReadBytes build();
+    }
+
+    /** Like {@link Read#from(String)}. */
+    public ReadBytes from(String filepattern) {
+      checkArgument(filepattern != null, "filepattern can not be null");
+      return from(StaticValueProvider.of(filepattern));
+    }
+
+    /** Like {@link Read#from(ValueProvider)}. */
+    public ReadBytes from(ValueProvider<String> filepattern) {
+      checkArgument(filepattern != null, "filepattern can not be null");
+      return toBuilder().setFilepattern(filepattern).build();
+    }
+
+    /** Like {@link Read#withCompression}. */
+    public ReadBytes withCompression(Compression compression) {
+      return toBuilder().setCompression(compression).build();
+    }
+
+    /** Like {@link Read#withEmptyMatchTreatment}. */
+    public ReadBytes withEmptyMatchTreatment(EmptyMatchTreatment treatment) {
+      return toBuilder().setEmptyMatchTreatment(treatment).build();
+    }
+
+    /** Like {@link Read#withDelimiter}. */
+    public ReadBytes withDelimiter(byte[] delimiter) {
+      checkArgument(delimiter != null, "delimiter can not be null");
+      checkArgument(!Read.isSelfOverlapping(delimiter), "delimiter must not self-overlap");
+      return toBuilder().setDelimiter(delimiter).build();
+    }
+
+    @Override
+    public PCollection<byte[]> expand(PBegin input) {
+      checkNotNull(getFilepattern(), "need to set the filepattern of a TextIO.ReadBytes transform");
+      return input.apply("Read", org.apache.beam.sdk.io.Read.from(getSource()));
+    }
+
+    // Helper to create a source specific to the requested compression type.
+    protected FileBasedSource<byte[]> getSource() {
+      return CompressedSource.from(
+              new TextBytesSource(getFilepattern(), getEmptyMatchTreatment(), getDelimiter()))
+          .withCompression(getCompression());
+    }
+
+    @Override
+    public void populateDisplayData(DisplayData.Builder builder) {
+      super.populateDisplayData(builder);
+      builder
+          .add(
+              DisplayData.item("compressionType", getCompression().toString())
+                  .withLabel("Compression Type"))
+          .addIfNotNull(DisplayData.item("filePattern", getFilepattern()).withLabel("File Pattern"))
+          .add(
+              DisplayData.item("emptyMatchTreatment", getEmptyMatchTreatment().toString())
+                  .withLabel("Treatment of filepatterns that match no files"))
+          .addIfNotNull(
+              DisplayData.item("delimiter", Arrays.toString(getDelimiter()))
+                  .withLabel("Custom delimiter to split records"));
+    }
+  }
+
   // ///////////////////////////////////////////////////////////////////////////
 
   /** Implementation of {@link #write}. */
@@ -1193,7 +1296,16 @@ public class TextIO {
     ZIP(Compression.ZIP),
 
     /** @see Compression#ZIP */
-    DEFLATE(Compression.DEFLATE);
+    DEFLATE(Compression.DEFLATE),
+
+    /** @see Compression#ZSTD */
+    ZSTD(Compression.ZSTD),
+
+    /** @see Compression#LZ4 */
+    LZ4(Compression.LZ4),
+
+    /** @see Compression#SNAPPY */
+    SNAPPY(Compression.SNAPPY);
 
     private final Compression canonical;
 
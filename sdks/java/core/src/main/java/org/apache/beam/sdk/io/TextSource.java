@@ -18,11 +18,12 @@
 package org.apache.beam.sdk.io;
 
 import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.protobuf.ByteString;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.util.NoSuchElementException;
@@ -70,7 +71,8 @@ class TextSource extends FileBasedSource<String> {
 
   @Override
   protected FileBasedReader<String> createSingleFileReader(PipelineOptions options) {
-    return new TextBasedReader(this, delimiter);
+    return new TextBasedReader<>(
+        this, delimiter, (buffer, offset, length) -> new String(buffer, offset, length, UTF_8));
   }
 
   @Override
@@ -78,6 +80,12 @@ class TextSource extends FileBasedSource<String> {
     return StringUtf8Coder.of();
   }
 
+  /** Decodes a record from the {@code length} bytes of {@code buffer} at {@code offset}. */
+  @FunctionalInterface
+  interface RecordDecoder<T> {
+    T decode(byte[] buffer, int offset, int length);
+  }
+
   /**
    * A {@link FileBasedReader FileBasedReader} which can decode records delimited by delimiter
    * characters.
@@ -85,24 +93,36 @@ class TextSource extends FileBasedSource<String> {
    * <p>See {@link TextSource} for further details.
    */
   @VisibleForTesting
-  static class TextBasedReader extends FileBasedReader<String> {
-    private static final int READ_BUFFER_SIZE = 8192;
-    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
-    private ByteString buffer;
+  static class TextBasedReader<T> extends FileBasedReader<T> {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long LINE_FEEDS = ONES * '\n';
+    private static final long CARRIAGE_RETURNS = ONES * '\r';
+
+    // The unconsumed bytes read from the channel are buffer[bufferStart, bufferEnd). Positions
+    // "in buffer" below are relative to bufferStart.
+    private byte[] buffer;
+    // A little-endian view of buffer, for scanning it a word at a time.
+    private ByteBuffer bufferWords;
+    private int bufferStart;
+    private int bufferEnd;
     private int startOfDelimiterInBuffer;
     private int endOfDelimiterInBuffer;
     private long startOfRecord;
     private volatile long startOfNextRecord;
     private volatile boolean eof;
     private volatile boolean elementIsPresent;
-    private @Nullable String currentValue;
+    private @Nullable T currentValue;
     private @Nullable ReadableByteChannel inChannel;
     private @Nullable byte[] delimiter;
+    private final RecordDecoder<T> decoder;
 
-    private TextBasedReader(TextSource source, byte[] delimiter) {
+    TextBasedReader(FileBasedSource<T> source, byte[] delimiter, RecordDecoder<T> decoder) {
       super(source);
-      buffer = ByteString.EMPTY;
+      setBuffer(new byte[READ_BUFFER_SIZE]);
       this.delimiter = delimiter;
+      this.decoder = decoder;
     }
 
     @Override
@@ -122,7 +142,7 @@ class TextSource extends FileBasedSource<String> {
     }
 
     @Override
-    public String getCurrent() throws NoSuchElementException {
+    public T getCurrent() throws NoSuchElementException {
       if (!elementIsPresent) {
         throw new NoSuchElementException();
       }
@@ -140,7 +160,7 @@ class TextSource extends FileBasedSource<String> {
             channel instanceof SeekableByteChannel,
             "%s only supports reading from a SeekableByteChannel when given a start offset"
                 + " greater than 0.",
-            TextSource.class.getSimpleName());
+            getCurrentSource().getClass().getSimpleName());
         long requiredPosition = startOffset - 1;
         if (delimiter != null && startOffset >= delimiter.length) {
           // we need to move back the offset of at worse delimiter.size to be sure to see
@@ -149,7 +169,7 @@ class TextSource extends FileBasedSource<String> {
         }
         ((SeekableByteChannel) channel).position(requiredPosition);
         findDelimiterBounds();
-        buffer = buffer.substring(endOfDelimiterInBuffer);
+        bufferStart += endOfDelimiterInBuffer;
         startOfNextRecord = requiredPosition + endOfDelimiterInBuffer;
         endOfDelimiterInBuffer = 0;
         startOfDelimiterInBuffer = 0;
@@ -179,37 +199,33 @@ class TextSource extends FileBasedSource<String> {
           break;
         }
 
-        byte currentByte = buffer.byteAt(bytePositionInBuffer);
-
         if (delimiter == null) {
           // default delimiter
-          if (currentByte == '\n') {
-            startOfDelimiterInBuffer = bytePositionInBuffer;
-            endOfDelimiterInBuffer = startOfDelimiterInBuffer + 1;
-            break;
-          } else if (currentByte == '\r') {
-            startOfDelimiterInBuffer = bytePositionInBuffer;
-            endOfDelimiterInBuffer = startOfDelimiterInBuffer + 1;
-
-            if (tryToEnsureNumberOfBytesInBuffer(bytePositionInBuffer + 2)) {
-              currentByte = buffer.byteAt(bytePositionInBuffer + 1);
-              if (currentByte == '\n') {
-                endOfDelimiterInBuffer += 1;
-              }
-            }
-            break;
+          int found = indexOfLineTerminator(bufferStart + bytePositionInBuffer, bufferEnd);
+          if (found < 0) {
+            // Everything buffered has been scanned; read more.
+            bytePositionInBuffer = bufferEnd - bufferStart;
+            continue;
+          }
+          bytePositionInBuffer = found - bufferStart;
+          startOfDelimiterInBuffer = bytePositionInBuffer;
+          endOfDelimiterInBuffer = startOfDelimiterInBuffer + 1;
+          if (buffer[found] == '\r'
+              && tryToEnsureNumberOfBytesInBuffer(bytePositionInBuffer + 2)
+              && buffer[bufferStart + bytePositionInBuffer + 1] == '\n') {
+            endOfDelimiterInBuffer += 1;
           }
+          break;
         } else {
           // user defined delimiter
           int i = 0;
           // initialize delimiter not found
           startOfDelimiterInBuffer = endOfDelimiterInBuffer = bytePositionInBuffer;
-          while ((i <= delimiter.length - 1) && (currentByte == delimiter[i])) {
+          while (i <= delimiter.length - 1
+              && buffer[bufferStart + bytePositionInBuffer + i] == delimiter[i]) {
             // read next byte
             i++;
-            if (tryToEnsureNumberOfBytesInBuffer(bytePositionInBuffer + i + 1)) {
-              currentByte = buffer.byteAt(bytePositionInBuffer + i);
-            } else {
+            if (!tryToEnsureNumberOfBytesInBuffer(bytePositionInBuffer + i + 1)) {
               // corner case: delimiter truncated at the end of the file
               startOfDelimiterInBuffer = endOfDelimiterInBuffer = bytePositionInBuffer;
               break;
@@ -226,6 +242,35 @@ class TextSource extends FileBasedSource<String> {
       }
     }
 
+    /**
+     * Returns the index of the first {@code '\n'} or {@code '\r'} in {@code buffer[from, to)}, or
+     * -1 if there is none.
+     *
+     * <p>Whole words are tested at once, using the bit trick that {@code (x - 0x01..01) & ~x &
+     * 0x80..80} is non-zero exactly when some byte of {@code x} is zero, and that its lowest set
+     * bit belongs to the first such byte.
+     */
+    private int indexOfLineTerminator(int from, int to) {
+      int i = from;
+      for (; i <= to - Long.BYTES; i += Long.BYTES) {
+        long word = bufferWords.getLong(i);
+        long lineFeeds = word ^ LINE_FEEDS;
+        long carriageReturns = word ^ CARRIAGE_RETURNS;
+        long found =
+            ((lineFeeds - ONES) & ~lineFeeds | (carriageReturns - ONES) & ~carriageReturns)
+                & HIGH_BITS;
+        if (found != 0) {
+          return i + (Long.numberOfTrailingZeros(found) >>> 3);
+        }
+      }
+      for (; i < to; ++i) {
+        if (buffer[i] == '\n' || buffer[i] == '\r') {
+          return i;
+        }
+      }
+      return -1;
+    }
+
     @Override
     protected boolean readNextRecord() throws IOException {
       startOfRecord = startOfNextRecord;
@@ -233,7 +278,7 @@ class TextSource extends FileBasedSource<String> {
 
       // If we have reached EOF file and consumed all of the buffer then we know
       // that there are no more records.
-      if (eof && buffer.isEmpty()) {
+      if (eof && bufferStart == bufferEnd) {
         elementIsPresent = false;
         return false;
       }
@@ -250,24 +295,47 @@ class TextSource extends FileBasedSource<String> {
      * endOfDelimiterInBuffer}.
      */
     private void decodeCurrentElement() throws IOException {
-      ByteString dataToDecode = buffer.substring(0, startOfDelimiterInBuffer);
-      currentValue = dataToDecode.toStringUtf8();
+      currentValue = decoder.decode(buffer, bufferStart, startOfDelimiterInBuffer);
       elementIsPresent = true;
-      buffer = buffer.substring(endOfDelimiterInBuffer);
+      bufferStart += endOfDelimiterInBuffer;
     }
 
     /** Returns false if we were unable to ensure the minimum capacity by consuming the channel. */
     private boolean tryToEnsureNumberOfBytesInBuffer(int minCapacity) throws IOException {
       // While we aren't at EOF or haven't fulfilled the minimum buffer capacity,
       // attempt to read more bytes.
-      while (buffer.size() <= minCapacity && !eof) {
-        eof = inChannel.read(readBuffer) == -1;
-        readBuffer.flip();
-        buffer = buffer.concat(ByteString.copyFrom(readBuffer));
-        readBuffer.clear();
+      while (bufferEnd - bufferStart <= minCapacity && !eof) {
+        if (bufferEnd == buffer.length) {
+          makeRoomInBuffer();
+        }
+        int bytesRead =
+            inChannel.read(ByteBuffer.wrap(buffer, bufferEnd, buffer.length - bufferEnd));
+        if (bytesRead == -1) {
+          eof = true;
+        } else {
+          bufferEnd += bytesRead;
+        }
       }
       // Return true if we were able to honor the minimum buffer capacity request
-      return buffer.size() >= minCapacity;
+      return bufferEnd - bufferStart >= minCapacity;
+    }
+
+    /**
+     * Moves the unconsumed bytes to the start of the buffer, first doubling its size if they fill
+     * more than half of it.
+     */
+    private void makeRoomInBuffer() {
+      int unconsumed = bufferEnd - bufferStart;
+      byte[] target = unconsumed > buffer.length / 2 ? new byte[buffer.length * 2] : buffer;
+      System.arraycopy(buffer, bufferStart, target, 0, unconsumed);
+      setBuffer(target);
+      bufferStart = 0;
+      bufferEnd = unconsumed;
+    }
+
+    private void setBuffer(byte[] buffer) {
+      this.buffer = buffer;
+      this.bufferWords = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
     }
   }
 }
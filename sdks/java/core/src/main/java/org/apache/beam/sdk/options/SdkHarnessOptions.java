@@ -81,6 +81,76 @@ public interface SdkHarnessOptions extends PipelineOptions {
 
   void setSdkHarnessLogLevelOverrides(SdkHarnessLogLevelOverrides value);
 
+  /**
+   * The size of the cache of user state and side input data which the SDK harness fetched over the
+   * Beam Fn State API. The cache is shared by all bundles processed by the SDK harness and is only
+   * used for data which the runner permits to be cached with a cache token.
+   */
+  @Description(
+      "The size in megabytes of the cache of user state and side input data fetched over the "
+          + "Beam Fn State API which is shared across bundles. Setting it to 0 disables the cache.")
+  @Default.Integer(100)
+  int getStateCacheSizeMb();
+
+  void setStateCacheSizeMb(int value);
+
+  /**
+   * The number of chunks of a user state or side input stream which the SDK harness requests from
+   * the Beam Fn State API ahead of the chunk which is being read.
+   */
+  @Description(
+      "The maximum number of chunks of a user state or side input which are requested over the "
+          + "Beam Fn State API before they are read. Setting it to 0 only requests a chunk once it "
+          + "is read.")
+  @Default.Integer(0)
+  int getStatePrefetchChunks();
+
+  void setStatePrefetchChunks(int value);
+
+  /** The grouping tables which can be used by the SDK harness to precombine values. */
+  enum PrecombineGroupingTableType {
+    /**
+     * Keeps the keys and accumulators as objects in a hash map, and flushes arbitrary entries when
+     * the estimated size of the table is too large.
+     */
+    HASH_MAP,
+
+    /**
+     * Keeps the encoded keys and accumulators in large byte arrays, and flushes the least recently
+     * used entries when the table is too large.
+     */
+    ENCODED_LRU,
+
+    /**
+     * Keeps the encoded keys and accumulators in large byte arrays, and flushes the least
+     * frequently used entries when the table is too large.
+     */
+    ENCODED_LFU
+  }
+
+  /** The grouping table used by the SDK harness to precombine values before a GroupByKey. */
+  @Description(
+      "The grouping table used to precombine values before a GroupByKey. HASH_MAP keeps the keys "
+          + "and accumulators as objects, ENCODED_LRU and ENCODED_LFU keep them encoded in large "
+          + "byte arrays and flush the least recently or frequently used keys when full.")
+  @Default.Enum("HASH_MAP")
+  PrecombineGroupingTableType getPrecombineGroupingTable();
+
+  void setPrecombineGroupingTable(PrecombineGroupingTableType value);
+
+  /**
+   * The maximum size of each {@link PrecombineGroupingTableType#ENCODED_LRU ENCODED_LRU} or {@link
+   * PrecombineGroupingTableType#ENCODED_LFU ENCODED_LFU} grouping table, including the memory held
+   * for entries which were flushed.
+   */
+  @Description(
+      "The maximum size in megabytes of each ENCODED_LRU or ENCODED_LFU grouping table used to "
+          + "precombine values before a GroupByKey.")
+  @Default.Integer(100)
+  int getPrecombineGroupingTableSizeMb();
+
+  void setPrecombineGroupingTableSizeMb(int value);
+
   /**
    * Defines a log level override for a specific class, package, or name.
    *
@@ -21,6 +21,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Iterables;
+import javax.annotation.Nullable;
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.KvCoder;
 import org.apache.beam.sdk.state.BagState;
@@ -47,6 +48,12 @@ import org.slf4j.LoggerFactory;
  * <p>Elements are buffered until there are {@code batchSize} elements buffered, at which point they
  * are output to the output {@link PCollection}.
  *
+ * <p>Batches can additionally be bounded in bytes with {@link #withByteSizeLimit}, in which case a
+ * batch is also output once the weight of its elements reaches the limit, and in latency with
+ * {@link #withMaxBufferingDuration}, in which case a batch is also output once its first element
+ * has been buffered for the given processing-time duration. Otherwise, an incomplete batch is only
+ * output when its window expires.
+ *
  * <p>Windows are preserved (batches contain elements from the same window). Batches may contain
  * elements from more than one bundle
  *
@@ -72,13 +79,49 @@ public class GroupIntoBatches<K, InputT>
     extends PTransform<PCollection<KV<K, InputT>>, PCollection<KV<K, Iterable<InputT>>>> {
 
   private final long batchSize;
+  private final long batchSizeBytes;
+  @Nullable private final SerializableFunction<InputT, Long> weigher;
+  @Nullable private final Duration maxBufferingDuration;
 
-  private GroupIntoBatches(long batchSize) {
+  private GroupIntoBatches(
+      long batchSize,
+      long batchSizeBytes,
+      @Nullable SerializableFunction<InputT, Long> weigher,
+      @Nullable Duration maxBufferingDuration) {
     this.batchSize = batchSize;
+    this.batchSizeBytes = batchSizeBytes;
+    this.weigher = weigher;
+    this.maxBufferingDuration = maxBufferingDuration;
   }
 
   public static <K, InputT> GroupIntoBatches<K, InputT> ofSize(long batchSize) {
-    return new GroupIntoBatches<>(batchSize);
+    return new GroupIntoBatches<>(batchSize, Long.MAX_VALUE, null, null);
+  }
+
+  /**
+   * Returns a {@link GroupIntoBatches} that also outputs a batch once the total weight of its
+   * elements, as computed by {@code weigher}, reaches {@code batchSizeBytes}. An element that would
+   * take a non-empty batch over the limit is put into the next batch instead.
+   */
+  public GroupIntoBatches<K, InputT> withByteSizeLimit(
+      long batchSizeBytes, SerializableFunction<InputT, Long> weigher) {
+    checkArgument(
+        batchSizeBytes > 0, "batchSizeBytes must be positive, but was %s", batchSizeBytes);
+    checkArgument(weigher != null, "weigher can not be null");
+    return new GroupIntoBatches<>(batchSize, batchSizeBytes, weigher, maxBufferingDuration);
+  }
+
+  /**
+   * Returns a {@link GroupIntoBatches} that also outputs a batch once its first element has been
+   * buffered for {@code maxBufferingDuration} of processing time, so that elements of keys with
+   * little traffic are not held until the end of the window.
+   */
+  public GroupIntoBatches<K, InputT> withMaxBufferingDuration(Duration maxBufferingDuration) {
+    checkArgument(
+        maxBufferingDuration != null && maxBufferingDuration.isLongerThan(Duration.ZERO),
+        "maxBufferingDuration must be positive, but was %s",
+        maxBufferingDuration);
+    return new GroupIntoBatches<>(batchSize, batchSizeBytes, weigher, maxBufferingDuration);
   }
 
   @Override
@@ -93,7 +136,15 @@ public class GroupIntoBatches<K, InputT>
     Coder<InputT> valueCoder = (Coder<InputT>) inputCoder.getCoderArguments().get(1);
 
     return input.apply(
-        ParDo.of(new GroupIntoBatchesDoFn<>(batchSize, allowedLateness, keyCoder, valueCoder)));
+        ParDo.of(
+            new GroupIntoBatchesDoFn<>(
+                batchSize,
+                batchSizeBytes,
+                weigher,
+                maxBufferingDuration,
+                allowedLateness,
+                keyCoder,
+                valueCoder)));
   }
 
   @VisibleForTesting
@@ -102,21 +153,32 @@ public class GroupIntoBatches<K, InputT>
 
     private static final Logger LOG = LoggerFactory.getLogger(GroupIntoBatchesDoFn.class);
     private static final String END_OF_WINDOW_ID = "endOFWindow";
+    private static final String END_OF_BUFFERING_ID = "endOfBuffering";
     private static final String BATCH_ID = "batch";
     private static final String NUM_ELEMENTS_IN_BATCH_ID = "numElementsInBatch";
+    private static final String NUM_BYTES_IN_BATCH_ID = "numBytesInBatch";
     private static final String KEY_ID = "key";
     private final long batchSize;
+    private final long batchSizeBytes;
+    @Nullable private final SerializableFunction<InputT, Long> weigher;
+    @Nullable private final Duration maxBufferingDuration;
     private final Duration allowedLateness;
 
     @TimerId(END_OF_WINDOW_ID)
     private final TimerSpec timer = TimerSpecs.timer(TimeDomain.EVENT_TIME);
 
+    @TimerId(END_OF_BUFFERING_ID)
+    private final TimerSpec bufferingTimer = TimerSpecs.timer(TimeDomain.PROCESSING_TIME);
+
     @StateId(BATCH_ID)
     private final StateSpec<BagState<InputT>> batchSpec;
 
     @StateId(NUM_ELEMENTS_IN_BATCH_ID)
     private final StateSpec<CombiningState<Long, long[], Long>> numElementsInBatchSpec;
 
+    @StateId(NUM_BYTES_IN_BATCH_ID)
+    private final StateSpec<CombiningState<Long, long[], Long>> numBytesInBatchSpec;
+
     @StateId(KEY_ID)
     private final StateSpec<ValueState<K>> keySpec;
 
@@ -124,10 +186,16 @@ public class GroupIntoBatches<K, InputT>
 
     GroupIntoBatchesDoFn(
         long batchSize,
+        long batchSizeBytes,
+        @Nullable SerializableFunction<InputT, Long> weigher,
+        @Nullable Duration maxBufferingDuration,
         Duration allowedLateness,
         Coder<K> inputKeyCoder,
         Coder<InputT> inputValueCoder) {
       this.batchSize = batchSize;
+      this.batchSizeBytes = batchSizeBytes;
+      this.weigher = weigher;
+      this.maxBufferingDuration = maxBufferingDuration;
       this.allowedLateness = allowedLateness;
       this.batchSpec = StateSpecs.bag(inputValueCoder);
       this.numElementsInBatchSpec =
@@ -144,6 +212,7 @@ public class GroupIntoBatches<K, InputT>
                   return left + right;
                 }
               });
+      this.numBytesInBatchSpec = StateSpecs.combining(Sum.ofLongs());
 
       this.keySpec = StateSpecs.value(inputKeyCoder);
       // prefetch every 20% of batchSize elements. Do not prefetch if batchSize is too little
@@ -153,8 +222,10 @@ public class GroupIntoBatches<K, InputT>
     @ProcessElement
     public void processElement(
         @TimerId(END_OF_WINDOW_ID) Timer timer,
+        @TimerId(END_OF_BUFFERING_ID) Timer bufferingTimer,
         @StateId(BATCH_ID) BagState<InputT> batch,
         @StateId(NUM_ELEMENTS_IN_BATCH_ID) CombiningState<Long, long[], Long> numElementsInBatch,
+        @StateId(NUM_BYTES_IN_BATCH_ID) CombiningState<Long, long[], Long> numBytesInBatch,
         @StateId(KEY_ID) ValueState<K> key,
         @Element KV<K, InputT> element,
         BoundedWindow window,
@@ -167,21 +238,54 @@ public class GroupIntoBatches<K, InputT>
           window.toString());
       timer.set(windowExpires);
       key.write(element.getKey());
+
+      long elementBytes = 0L;
+      if (weigher != null) {
+        elementBytes = weigher.apply(element.getValue());
+        long numBytes = numBytesInBatch.read();
+        if (numBytes > 0 && numBytes + elementBytes > batchSizeBytes) {
+          LOG.debug("*** END OF BATCH *** byte size limit reached for window {}", window);
+          flushBatch(receiver, key, batch, numElementsInBatch, numBytesInBatch);
+        }
+      }
+
       batch.add(element.getValue());
       LOG.debug("*** BATCH *** Add element for window {} ", window.toString());
       // blind add is supported with combiningState
       numElementsInBatch.add(1L);
       Long num = numElementsInBatch.read();
+      if (num == 1 && maxBufferingDuration != null) {
+        // The timer is reset by the first element of every batch, so an earlier batch that was
+        // flushed for its size can at most cause an early flush of an empty batch.
+        bufferingTimer.offset(maxBufferingDuration).setRelative();
+      }
       if (num % prefetchFrequency == 0) {
-        //prefetch data and modify batch state (readLater() modifies this)
+        // prefetch data and modify batch state (readLater() modifies this)
         batch.readLater();
       }
-      if (num >= batchSize) {
+      boolean byteSizeLimitReached = false;
+      if (weigher != null) {
+        numBytesInBatch.add(elementBytes);
+        byteSizeLimitReached = numBytesInBatch.read() >= batchSizeBytes;
+      }
+      if (num >= batchSize || byteSizeLimitReached) {
         LOG.debug("*** END OF BATCH *** for window {}", window.toString());
-        flushBatch(receiver, key, batch, numElementsInBatch);
+        flushBatch(receiver, key, batch, numElementsInBatch, numBytesInBatch);
       }
     }
 
+    @OnTimer(END_OF_BUFFERING_ID)
+    public void onBufferingTimer(
+        OutputReceiver<KV<K, Iterable<InputT>>> receiver,
+        @StateId(KEY_ID) ValueState<K> key,
+        @StateId(BATCH_ID) BagState<InputT> batch,
+        @StateId(NUM_ELEMENTS_IN_BATCH_ID) CombiningState<Long, long[], Long> numElementsInBatch,
+        @StateId(NUM_BYTES_IN_BATCH_ID) CombiningState<Long, long[], Long> numBytesInBatch,
+        BoundedWindow window) {
+      LOG.debug("*** END OF BUFFERING *** in window {}", window);
+      flushBatch(receiver, key, batch, numElementsInBatch, numBytesInBatch);
+    }
+
     @OnTimer(END_OF_WINDOW_ID)
     public void onTimerCallback(
         OutputReceiver<KV<K, Iterable<InputT>>> receiver,
@@ -189,19 +293,21 @@ public class GroupIntoBatches<K, InputT>
         @StateId(KEY_ID) ValueState<K> key,
         @StateId(BATCH_ID) BagState<InputT> batch,
         @StateId(NUM_ELEMENTS_IN_BATCH_ID) CombiningState<Long, long[], Long> numElementsInBatch,
+        @StateId(NUM_BYTES_IN_BATCH_ID) CombiningState<Long, long[], Long> numBytesInBatch,
         BoundedWindow window) {
       LOG.debug(
           "*** END OF WINDOW *** for timer timestamp {} in windows {}",
           timestamp,
           window.toString());
-      flushBatch(receiver, key, batch, numElementsInBatch);
+      flushBatch(receiver, key, batch, numElementsInBatch, numBytesInBatch);
     }
 
     private void flushBatch(
         OutputReceiver<KV<K, Iterable<InputT>>> receiver,
         ValueState<K> key,
         BagState<InputT> batch,
-        CombiningState<Long, long[], Long> numElementsInBatch) {
+        CombiningState<Long, long[], Long> numElementsInBatch,
+        CombiningState<Long, long[], Long> numBytesInBatch) {
       Iterable<InputT> values = batch.read();
       // when the timer fires, batch state might be empty
       if (!Iterables.isEmpty(values)) {
@@ -210,6 +316,7 @@ public class GroupIntoBatches<K, InputT>
       batch.clear();
       LOG.debug("*** BATCH *** clear");
       numElementsInBatch.clear();
+      numBytesInBatch.clear();
     }
   }
 }
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.values;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.apache.beam.sdk.annotations.Internal;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.schemas.Schema;
+import org.apache.beam.sdk.schemas.Schema.TypeName;
+import org.joda.time.Instant;
+
+/**
+ * A concrete subclass of {@link Row} that is backed by the row's encoded bytes.
+ *
+ * <p>Fields of primitive type ({@link TypeName#BYTE}, {@link TypeName#INT16}, {@link
+ * TypeName#INT32}, {@link TypeName#INT64}, {@link TypeName#FLOAT}, {@link TypeName#DOUBLE}, {@link
+ * TypeName#BOOLEAN} and {@link TypeName#DATETIME}) are read while the row is decoded and stored
+ * unboxed. All other fields are kept as ranges of the encoded bytes and only decoded, with the
+ * {@link Coder} for that field, the first time they are accessed. Since the encoded bytes are kept
+ * around, a row that is encoded again with a coder for the same schema is written out as is.
+ *
+ * <p>Like {@link RowWithGetters}, decoded fields are cached without synchronization.
+ */
+@Internal
+public class RowWithEncoding extends Row {
+  private final transient Coder[] fieldCoders;
+  private final byte[] encoded;
+  private final int[] fieldOffsets;
+  private final long[] primitiveValues;
+  private final BitSet nullFields;
+  private final Object[] decodedValues;
+
+  /**
+   * Creates a row backed by {@code encoded}.
+   *
+   * <p>{@code fieldOffsets} holds the offset of each field's encoding followed by the end of the
+   * encoding. {@code primitiveValues} holds the bits of each primitive field that is not set in
+   * {@code nullFields}: the value itself for integral types and booleans, the raw bits for {@link
+   * TypeName#FLOAT} and {@link TypeName#DOUBLE}, and the millis for {@link TypeName#DATETIME}.
+   */
+  public RowWithEncoding(
+      Schema schema,
+      Coder[] fieldCoders,
+      byte[] encoded,
+      int[] fieldOffsets,
+      long[] primitiveValues,
+      BitSet nullFields) {
+    super(schema);
+    this.fieldCoders = fieldCoders;
+    this.encoded = encoded;
+    this.fieldOffsets = fieldOffsets;
+    this.primitiveValues = primitiveValues;
+    this.nullFields = nullFields;
+    this.decodedValues = new Object[fieldCoders.length];
+  }
+
+  @Nullable
+  @Override
+  @SuppressWarnings({"TypeParameterUnusedInFormals", "unchecked"})
+  public <T> T getValue(int fieldIdx) {
+    if (fieldIdx >= fieldCoders.length) {
+      throw new IllegalArgumentException("No field at index " + fieldIdx);
+    }
+    if (nullFields.get(fieldIdx)) {
+      return null;
+    }
+    long bits = primitiveValues[fieldIdx];
+    switch (getSchema().getField(fieldIdx).getType().getTypeName()) {
+      case BYTE:
+        return (T) Byte.valueOf((byte) bits);
+      case INT16:
+        return (T) Short.valueOf((short) bits);
+      case INT32:
+        return (T) Integer.valueOf((int) bits);
+      case INT64:
+        return (T) Long.valueOf(bits);
+      case FLOAT:
+        return (T) Float.valueOf(Float.intBitsToFloat((int) bits));
+      case DOUBLE:
+        return (T) Double.valueOf(Double.longBitsToDouble(bits));
+      case BOOLEAN:
+        return (T) Boolean.valueOf(bits == 1);
+      case DATETIME:
+        return (T) new Instant(bits);
+      default:
+        Object value = decodedValues[fieldIdx];
+        if (value == null) {
+          value = decodeField(fieldIdx);
+          decodedValues[fieldIdx] = value;
+        }
+        return (T) value;
+    }
+  }
+
+  private Object decodeField(int fieldIdx) {
+    int offset = fieldOffsets[fieldIdx];
+    try {
+      return fieldCoders[fieldIdx].decode(
+          new ByteArrayInputStream(encoded, offset, fieldOffsets[fieldIdx + 1] - offset));
+    } catch (IOException e) {
+      throw new IllegalStateException(
+          "Unable to decode field " + getSchema().getField(fieldIdx).getName(), e);
+    }
+  }
+
+  @Override
+  public int getFieldCount() {
+    return fieldCoders.length;
+  }
+
+  @Override
+  public List<Object> getValues() {
+    List<Object> values = new ArrayList<>(fieldCoders.length);
+    for (int i = 0; i < fieldCoders.length; ++i) {
+      values.add(getValue(i));
+    }
+    return values;
+  }
+
+  /**
+   * Returns whether the encoding backing this row is also the encoding of a row of {@code schema},
+   * which is the case when both schemas have the same field types in the same order.
+   */
+  public boolean hasEncodingOf(Schema schema) {
+    if (schema == getSchema()) {
+      return true;
+    }
+    if (schema.getFieldCount() != getFieldCount()) {
+      return false;
+    }
+    for (int i = 0; i < getFieldCount(); ++i) {
+      if (!schema.getField(i).getType().equals(getSchema().getField(i).getType())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the size in bytes of the encoding backing this row. */
+  public int getEncodedSize() {
+    return encoded.length;
+  }
+
+  /** Writes the encoding backing this row to {@code outStream}. */
+  public void writeEncoding(OutputStream outStream) throws IOException {
+    outStream.write(encoded);
+  }
+
+  // The field coders are generated classes, so serialize the decoded values instead.
+  private Object writeReplace() throws ObjectStreamException {
+    return new RowWithStorage(getSchema(), getValues());
+  }
+}
@@ -17,17 +17,24 @@
  */
 package org.apache.beam.sdk.coders.org.apache.beam.sdk.coders;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import org.apache.beam.sdk.coders.Coder.NonDeterministicException;
 import org.apache.beam.sdk.coders.RowCoder;
 import org.apache.beam.sdk.schemas.Schema;
 import org.apache.beam.sdk.schemas.Schema.FieldType;
+import org.apache.beam.sdk.util.SerializableUtils;
 import org.apache.beam.sdk.values.Row;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -116,6 +123,112 @@ public class RowCoderTest {
     checkEncodeDecode(row);
   }
 
+  @Test
+  public void testNullableFields() throws Exception {
+    Schema nestedSchema =
+        Schema.builder()
+            .addNullableField("f1_str", FieldType.STRING)
+            .addInt64Field("f1_long")
+            .build();
+    Schema schema =
+        Schema.builder()
+            .addNullableField("f_int32", FieldType.INT32)
+            .addNullableField("f_string", FieldType.STRING)
+            .addNullableField("f_double", FieldType.DOUBLE)
+            .addNullableField("f_datetime", FieldType.DATETIME)
+            .addNullableField("f_map", FieldType.map(FieldType.STRING, FieldType.INT64))
+            .addNullableField("f_row", FieldType.row(nestedSchema))
+            .addNullableField("f_bytes", FieldType.BYTES)
+            .build();
+    DateTime dateTime = new DateTime().withDate(1979, 03, 14).withZone(DateTimeZone.UTC);
+    Map<String, Long> map = ImmutableMap.of("one", 1L, "two", -2L);
+    checkEncodeDecode(
+        Row.withSchema(schema)
+            .addValues(
+                -1,
+                "str",
+                -0.5d,
+                dateTime,
+                map,
+                Row.withSchema(nestedSchema).addValues(null, Long.MIN_VALUE).build(),
+                new byte[] {1, 2, 3})
+            .build());
+    checkEncodeDecode(
+        Row.withSchema(schema).addValues(null, null, null, null, null, null, null).build());
+    checkEncodeDecode(
+        Row.withSchema(schema)
+            .addValues(Integer.MIN_VALUE, null, Double.NaN, null, map, null, new byte[0])
+            .build());
+  }
+
+  @Test
+  public void testDecodedFieldValues() throws Exception {
+    Schema schema =
+        Schema.builder()
+            .addInt32Field("f_int32")
+            .addStringField("f_string")
+            .addArrayField("f_array", FieldType.INT32)
+            .addBooleanField("f_boolean")
+            .build();
+    Row row = Row.withSchema(schema).addValues(7, "str", Lists.newArrayList(1, 2, 3), true).build();
+    Row decoded = roundTrip(RowCoder.of(schema), row);
+
+    assertEquals(Integer.valueOf(7), decoded.getInt32("f_int32"));
+    assertEquals(Boolean.TRUE, decoded.getBoolean("f_boolean"));
+    assertEquals(Lists.newArrayList(1, 2, 3), decoded.getArray("f_array"));
+    assertSame(decoded.getString("f_string"), decoded.getString("f_string"));
+    assertEquals(row.getValues(), decoded.getValues());
+    assertEquals(row.hashCode(), decoded.hashCode());
+  }
+
+  @Test
+  public void testReencodeDecodedRow() throws Exception {
+    Schema nestedSchema = Schema.builder().addInt32Field("f1_int").addStringField("f1_str").build();
+    Schema schema =
+        Schema.builder()
+            .addStringField("f_string")
+            .addField("f_map", FieldType.map(FieldType.INT32, FieldType.STRING))
+            .addRowField("f_row", nestedSchema)
+            .build();
+    Map<Integer, String> map = new HashMap<>();
+    for (int i = 0; i < 100; ++i) {
+      map.put(i, Integer.toString(i));
+    }
+    Row row =
+        Row.withSchema(schema)
+            .addValues("str", map, Row.withSchema(nestedSchema).addValues(18, "foobar").build())
+            .build();
+
+    RowCoder coder = RowCoder.of(schema);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    coder.encode(row, out);
+    byte[] encoded = out.toByteArray();
+    Row decoded = coder.decode(new ByteArrayInputStream(encoded));
+    assertEquals(encoded.length, RowCoder.estimatedSizeBytes(decoded));
+
+    // Coders for schemas with the same field types reuse the encoding of a decoded row.
+    for (RowCoder reencodingCoder : Arrays.asList(coder, RowCoder.of(schema))) {
+      out.reset();
+      reencodingCoder.encode(decoded, out);
+      assertArrayEquals(encoded, out.toByteArray());
+    }
+    assertEquals(row, roundTrip(RowCoder.of(schema), decoded));
+  }
+
+  @Test
+  public void testSerializeDecodedRow() throws Exception {
+    Schema schema = Schema.builder().addInt64Field("f_int64").addStringField("f_string").build();
+    Row decoded =
+        roundTrip(RowCoder.of(schema), Row.withSchema(schema).addValues(1L, "str").build());
+    assertEquals(decoded, SerializableUtils.clone(decoded));
+  }
+
+  private static Row roundTrip(RowCoder coder, Row row) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    coder.encode(row, out);
+    return coder.decode(new ByteArrayInputStream(out.toByteArray()));
+  }
+
   @Test(expected = NonDeterministicException.class)
   public void testVerifyDeterministic() throws NonDeterministicException {
     Schema schema =
@@ -19,6 +19,8 @@ package org.apache.beam.sdk.io;
 
 import static org.apache.beam.sdk.transforms.display.DisplayDataMatchers.hasDisplayItem;
 import static org.apache.beam.sdk.transforms.display.DisplayDataMatchers.includesDisplayDataFor;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertEquals;
@@ -28,6 +30,7 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -39,12 +42,17 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -56,6 +64,7 @@ import org.apache.beam.sdk.io.CompressedSource.CompressedReader;
 import org.apache.beam.sdk.io.CompressedSource.CompressionMode;
 import org.apache.beam.sdk.io.CompressedSource.DecompressingChannelFactory;
 import org.apache.beam.sdk.io.FileBasedSource.FileBasedReader;
+import org.apache.beam.sdk.io.fs.EmptyMatchTreatment;
 import org.apache.beam.sdk.io.fs.MatchResult.Metadata;
 import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
@@ -67,6 +76,7 @@ import org.apache.beam.sdk.values.KV;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
 import org.apache.commons.compress.compressors.deflate.DeflateCompressorOutputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
 import org.joda.time.Instant;
 import org.junit.Rule;
 import org.junit.Test;
@@ -359,6 +369,105 @@ public class CompressedSourceTest {
     assertFalse(source.isSplittable());
   }
 
+  @Test
+  public void testBgzfFileIsSplittable() throws Exception {
+    File compressedFile = tmpFolder.newFile("test-input.gz");
+    writeBgzf(compressedFile, generateLines(1000), 100);
+
+    CompressedSource<String> source = CompressedSource.from(textSource(compressedFile));
+    // The file is only inspected once the file pattern is expanded.
+    assertFalse(source.isSplittable());
+    assertTrue(
+        ((CompressedSource<String>)
+                source.split(Long.MAX_VALUE, PipelineOptionsFactory.create()).get(0))
+            .isSplittable());
+  }
+
+  @Test
+  public void testReadSplitsOfBgzfFile() throws Exception {
+    File compressedFile = tmpFolder.newFile("test-input.gz");
+    byte[] input = generateLines(1000);
+    writeBgzf(compressedFile, input, 100);
+
+    PipelineOptions options = PipelineOptionsFactory.create();
+    CompressedSource<String> source = CompressedSource.from(textSource(compressedFile));
+    List<String> expected = Arrays.asList(new String(input, StandardCharsets.UTF_8).split("\n"));
+    for (long bundleSize : new long[] {1, 57, 500, Long.MAX_VALUE}) {
+      assertThat(
+          SourceTestUtils.readFromSplitsOfSource(source, bundleSize, options),
+          containsInAnyOrder(expected.toArray()));
+    }
+    assertThat(source.split(57, options).size(), greaterThan(1));
+  }
+
+  @Test
+  public void testReadSplitsOfBgzfFileWithDelimiterAcrossBlocks() throws Exception {
+    File compressedFile = tmpFolder.newFile("test-input.gz");
+    byte[] input =
+        new String(generateLines(300), StandardCharsets.UTF_8)
+            .replace("\n", "\r\n")
+            .getBytes(StandardCharsets.UTF_8);
+    // Odd-sized blocks, so that many "\r\n" delimiters are split between two blocks.
+    writeBgzf(compressedFile, input, 37);
+
+    PipelineOptions options = PipelineOptionsFactory.create();
+    CompressedSource<String> source = CompressedSource.from(textSource(compressedFile));
+    List<String> expected = Arrays.asList(new String(input, StandardCharsets.UTF_8).split("\r\n"));
+    for (long bundleSize : new long[] {1, 57, 500}) {
+      assertThat(
+          SourceTestUtils.readFromSplitsOfSource(source, bundleSize, options),
+          containsInAnyOrder(expected.toArray()));
+    }
+  }
+
+  @Test
+  public void testSplitAtFractionBgzf() throws Exception {
+    File compressedFile = tmpFolder.newFile("test-input.gz");
+    writeBgzf(compressedFile, generateLines(30), 20);
+
+    PipelineOptions options = PipelineOptionsFactory.create();
+    List<? extends FileBasedSource<String>> splits =
+        CompressedSource.from(textSource(compressedFile)).split(Long.MAX_VALUE, options);
+    assertEquals(1, splits.size());
+    SourceTestUtils.assertSplitAtFractionExhaustive(splits.get(0), options);
+  }
+
+  @Test
+  public void testReadSplitsOfSeekableZstdFile() throws Exception {
+    File compressedFile = tmpFolder.newFile("test-input.zst");
+    byte[] input = generateLines(1000);
+    writeSeekableZstd(compressedFile, input, 100);
+
+    PipelineOptions options = PipelineOptionsFactory.create();
+    CompressedSource<String> source = CompressedSource.from(textSource(compressedFile));
+    List<String> expected = Arrays.asList(new String(input, StandardCharsets.UTF_8).split("\n"));
+    assertThat(
+        SourceTestUtils.readFromSource(source, options), containsInAnyOrder(expected.toArray()));
+    for (long bundleSize : new long[] {1, 57, 500}) {
+      assertThat(
+          SourceTestUtils.readFromSplitsOfSource(source, bundleSize, options),
+          containsInAnyOrder(expected.toArray()));
+    }
+    assertThat(source.split(57, options).size(), greaterThan(1));
+  }
+
+  @Test
+  public void testConcatenatedGzipFileIsNotSplittable() throws Exception {
+    File compressedFile = tmpFolder.newFile("test-input.gz");
+    byte[] input = generateLines(100);
+    Files.write(
+        concat(
+            compressGzip(Arrays.copyOfRange(input, 0, 50)),
+            compressGzip(Arrays.copyOfRange(input, 50, input.length))),
+        compressedFile);
+
+    CompressedSource<String> source = CompressedSource.from(textSource(compressedFile));
+    List<? extends FileBasedSource<String>> splits =
+        source.split(10, PipelineOptionsFactory.create());
+    assertEquals(1, splits.size());
+    assertFalse(((CompressedSource<String>) splits.get(0)).isSplittable());
+  }
+
   /**
    * Test reading an uncompressed file with {@link CompressionMode#GZIP}, since we must support this
    * due to properties of services that we read from.
@@ -466,7 +575,76 @@ public class CompressedSourceTest {
     return buff;
   }
 
-  /** Get a compressing stream for a given compression mode. */
+  /** Generates numbered, newline-terminated lines with prefixes of random lengths. */
+  private static byte[] generateLines(int numLines) {
+    Random random = new Random(285930);
+    StringBuilder lines = new StringBuilder();
+    for (int i = 0; i < numLines; ++i) {
+      lines.append(Strings.repeat(Character.toString((char) ('a' + i % 26)), random.nextInt(30)));
+      lines.append(i).append('\n');
+    }
+    return lines.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static TextSource textSource(File file) {
+    return new TextSource(
+        StaticValueProvider.of(file.getPath()), EmptyMatchTreatment.DISALLOW, null);
+  }
+
+  /** Writes the input as BGZF, with every {@code blockSize} bytes of it in a separate block. */
+  private static void writeBgzf(File file, byte[] input, int blockSize) throws IOException {
+    try (OutputStream out = new FileOutputStream(file)) {
+      for (int start = 0; start < input.length; start += blockSize) {
+        out.write(
+            bgzfBlock(Arrays.copyOfRange(input, start, Math.min(input.length, start + blockSize))));
+      }
+      // bgzip terminates files with an empty block.
+      out.write(bgzfBlock(new byte[0]));
+    }
+  }
+
+  private static byte[] bgzfBlock(byte[] data) throws IOException {
+    ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try (OutputStream out = new DeflaterOutputStream(deflated, deflater)) {
+      out.write(data);
+    }
+    deflater.end();
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    int blockSize = 18 + deflated.size() + 8;
+    ByteBuffer block = ByteBuffer.allocate(blockSize).order(ByteOrder.LITTLE_ENDIAN);
+    block.put(new byte[] {0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff});
+    block.putShort((short) 6).put((byte) 'B').put((byte) 'C').putShort((short) 2);
+    block.putShort((short) (blockSize - 1));
+    block.put(deflated.toByteArray()).putInt((int) crc.getValue()).putInt(data.length);
+    return block.array();
+  }
+
+  /**
+   * Writes the input in the Zstandard seekable format, with every {@code frameSize} bytes of it in
+   * a separate frame.
+   */
+  private static void writeSeekableZstd(File file, byte[] input, int frameSize) throws IOException {
+    int numFrames = (input.length + frameSize - 1) / frameSize;
+    ByteBuffer seekTable =
+        ByteBuffer.allocate(8 + numFrames * 8 + 9).order(ByteOrder.LITTLE_ENDIAN);
+    seekTable.putInt(0x184D2A5E).putInt(numFrames * 8 + 9);
+    try (OutputStream out = new FileOutputStream(file)) {
+      for (int start = 0; start < input.length; start += frameSize) {
+        int length = Math.min(input.length - start, frameSize);
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        try (OutputStream zstd = new ZstdCompressorOutputStream(frame)) {
+          zstd.write(input, start, length);
+        }
+        out.write(frame.toByteArray());
+        seekTable.putInt(frame.size()).putInt(length);
+      }
+      seekTable.putInt(numFrames).put((byte) 0).putInt(0x8F92EAB1);
+      out.write(seekTable.array());
+    }
+  }
+
   private OutputStream getOutputStreamForMode(CompressionMode mode, OutputStream stream)
       throws IOException {
     switch (mode) {
@@ -61,6 +61,9 @@ import org.apache.beam.sdk.transforms.windowing.PaneInfo;
 import org.apache.beam.sdk.values.KV;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 import org.apache.commons.compress.compressors.deflate.DeflateCompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+import org.apache.commons.compress.compressors.snappy.FramedSnappyCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -455,6 +458,44 @@ public class FileBasedSinkTest {
         "123");
   }
 
+  /** {@link Compression#ZSTD} correctly writes Zstandard data. */
+  @Test
+  public void testCompressionZSTD() throws FileNotFoundException, IOException {
+    final File file = writeValuesWithCompression(Compression.ZSTD, "abc", "123");
+    assertReadValues(
+        new BufferedReader(
+            new InputStreamReader(
+                new ZstdCompressorInputStream(new FileInputStream(file)), StandardCharsets.UTF_8)),
+        "abc",
+        "123");
+  }
+
+  /** {@link Compression#LZ4} correctly writes LZ4 frame data. */
+  @Test
+  public void testCompressionLZ4() throws FileNotFoundException, IOException {
+    final File file = writeValuesWithCompression(Compression.LZ4, "abc", "123");
+    assertReadValues(
+        new BufferedReader(
+            new InputStreamReader(
+                new FramedLZ4CompressorInputStream(new FileInputStream(file)),
+                StandardCharsets.UTF_8)),
+        "abc",
+        "123");
+  }
+
+  /** {@link Compression#SNAPPY} correctly writes framed Snappy data. */
+  @Test
+  public void testCompressionSNAPPY() throws FileNotFoundException, IOException {
+    final File file = writeValuesWithCompression(Compression.SNAPPY, "abc", "123");
+    assertReadValues(
+        new BufferedReader(
+            new InputStreamReader(
+                new FramedSnappyCompressorInputStream(new FileInputStream(file)),
+                StandardCharsets.UTF_8)),
+        "abc",
+        "123");
+  }
+
   /** {@link Compression#UNCOMPRESSED} correctly writes uncompressed data. */
   @Test
   public void testCompressionUNCOMPRESSED() throws FileNotFoundException, IOException {
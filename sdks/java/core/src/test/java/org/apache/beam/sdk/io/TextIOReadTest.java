@@ -24,10 +24,14 @@ import static org.apache.beam.sdk.io.Compression.AUTO;
 import static org.apache.beam.sdk.io.Compression.BZIP2;
 import static org.apache.beam.sdk.io.Compression.DEFLATE;
 import static org.apache.beam.sdk.io.Compression.GZIP;
+import static org.apache.beam.sdk.io.Compression.LZ4;
+import static org.apache.beam.sdk.io.Compression.SNAPPY;
 import static org.apache.beam.sdk.io.Compression.UNCOMPRESSED;
 import static org.apache.beam.sdk.io.Compression.ZIP;
+import static org.apache.beam.sdk.io.Compression.ZSTD;
 import static org.apache.beam.sdk.transforms.display.DisplayDataMatchers.hasDisplayItem;
 import static org.apache.beam.sdk.transforms.display.DisplayDataMatchers.hasValue;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.greaterThan;
@@ -42,9 +46,11 @@ import static org.junit.Assert.assertTrue;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -85,6 +91,9 @@ import org.apache.beam.sdk.util.CoderUtils;
 import org.apache.beam.sdk.values.PCollection;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
 import org.apache.commons.compress.compressors.deflate.DeflateCompressorOutputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+import org.apache.commons.compress.compressors.snappy.FramedSnappyCompressorOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
 import org.joda.time.Duration;
 import org.junit.Rule;
 import org.junit.Test;
@@ -125,6 +134,15 @@ public class TextIOReadTest {
       case DEFLATE:
         output = new DeflateCompressorOutputStream(output);
         break;
+      case ZSTD:
+        output = new ZstdCompressorOutputStream(output);
+        break;
+      case LZ4:
+        output = new FramedLZ4CompressorOutputStream(output);
+        break;
+      case SNAPPY:
+        output = new FramedSnappyCompressorOutputStream(output);
+        break;
       default:
         throw new UnsupportedOperationException(compression.toString());
     }
@@ -243,6 +261,12 @@ public class TextIOReadTest {
         return ".zip";
       case DEFLATE:
         return ".deflate";
+      case ZSTD:
+        return ".zst";
+      case LZ4:
+        return ".lz4";
+      case SNAPPY:
+        return ".sz";
       default:
         return "";
     }
@@ -262,16 +286,25 @@ public class TextIOReadTest {
           .add(new Object[] {EMPTY, BZIP2})
           .add(new Object[] {EMPTY, ZIP})
           .add(new Object[] {EMPTY, DEFLATE})
+          .add(new Object[] {EMPTY, ZSTD})
+          .add(new Object[] {EMPTY, LZ4})
+          .add(new Object[] {EMPTY, SNAPPY})
           .add(new Object[] {TINY, UNCOMPRESSED})
           .add(new Object[] {TINY, GZIP})
           .add(new Object[] {TINY, BZIP2})
           .add(new Object[] {TINY, ZIP})
           .add(new Object[] {TINY, DEFLATE})
+          .add(new Object[] {TINY, ZSTD})
+          .add(new Object[] {TINY, LZ4})
+          .add(new Object[] {TINY, SNAPPY})
           .add(new Object[] {LARGE, UNCOMPRESSED})
           .add(new Object[] {LARGE, GZIP})
           .add(new Object[] {LARGE, BZIP2})
           .add(new Object[] {LARGE, ZIP})
           .add(new Object[] {LARGE, DEFLATE})
+          .add(new Object[] {LARGE, ZSTD})
+          .add(new Object[] {LARGE, LZ4})
+          .add(new Object[] {LARGE, SNAPPY})
           .build();
     }
 
@@ -370,6 +403,132 @@ public class TextIOReadTest {
     }
   }
 
+  /** Tests for reading lines at every alignment and of every length relative to the buffer. */
+  @RunWith(JUnit4.class)
+  public static class ReadLineBoundariesTest {
+    @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testReadLinesOfAllLengths() throws Exception {
+      List<String> expected = new ArrayList<>();
+      StringBuilder data = new StringBuilder();
+      String[] delimiters = {"\n", "\r", "\r\n"};
+      for (int length = 0; length < 40; ++length) {
+        String line = Strings.repeat("x", length);
+        expected.add(line);
+        data.append(line).append(delimiters[length % delimiters.length]);
+      }
+      // Lines longer than the reader's buffer.
+      for (int length : new int[] {64 * 1024 - 1, 64 * 1024, 200 * 1024 + 3}) {
+        String line = Strings.repeat("y", length);
+        expected.add(line);
+        data.append(line).append('\n');
+      }
+      TextSource source = prepareSource(tempFolder, data.toString().getBytes(UTF_8), null);
+
+      PipelineOptions options = PipelineOptionsFactory.create();
+      assertThat(
+          SourceTestUtils.readFromSource(source, options), containsInAnyOrder(expected.toArray()));
+      assertThat(
+          SourceTestUtils.readFromSplitsOfSource(source, 1000, options),
+          containsInAnyOrder(expected.toArray()));
+    }
+  }
+
+  /** Tests for reading undecoded records with {@link TextIO.ReadBytes}. */
+  @RunWith(JUnit4.class)
+  public static class ReadBytesTest {
+    @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+    @Rule public TestPipeline p = TestPipeline.create();
+
+    // Not valid UTF-8, so decoding these bytes as a String would not round trip.
+    private static final byte[] INVALID_UTF8 = {(byte) 0xff, (byte) 0xfe, 'x'};
+
+    private TextBytesSource prepareSource(byte[] data, byte[] delimiter) throws IOException {
+      Path path = tempFolder.newFile().toPath();
+      Files.write(path, data);
+      return new TextBytesSource(
+          ValueProvider.StaticValueProvider.of(path.toString()),
+          EmptyMatchTreatment.DISALLOW,
+          delimiter);
+    }
+
+    private static byte[] concat(byte[]... parts) throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      for (byte[] part : parts) {
+        out.write(part);
+      }
+      return out.toByteArray();
+    }
+
+    @Test
+    public void testReadRecordsAreNotDecoded() throws Exception {
+      byte[] data =
+          concat(
+              "ab\n".getBytes(UTF_8),
+              INVALID_UTF8,
+              "\r\n\n".getBytes(UTF_8),
+              "c\rd".getBytes(UTF_8));
+      TextBytesSource source = prepareSource(data, null);
+
+      List<byte[]> actual = SourceTestUtils.readFromSource(source, PipelineOptionsFactory.create());
+      assertThat(
+          actual,
+          contains(
+              "ab".getBytes(UTF_8),
+              INVALID_UTF8,
+              new byte[0],
+              "c".getBytes(UTF_8),
+              "d".getBytes(UTF_8)));
+    }
+
+    @Test
+    public void testReadRecordsWithCustomDelimiter() throws Exception {
+      byte[] delimiter = "|*".getBytes(UTF_8);
+      byte[] data = concat("a\n|*".getBytes(UTF_8), INVALID_UTF8, "|*|*bc".getBytes(UTF_8));
+      TextBytesSource source = prepareSource(data, delimiter);
+
+      assertThat(
+          SourceTestUtils.readFromSource(source, PipelineOptionsFactory.create()),
+          contains("a\n".getBytes(UTF_8), INVALID_UTF8, new byte[0], "bc".getBytes(UTF_8)));
+      SourceTestUtils.assertSplitAtFractionExhaustive(source, PipelineOptionsFactory.create());
+    }
+
+    @Test
+    public void testSplittingSource() throws Exception {
+      byte[] data = concat("asdf\r\n".getBytes(UTF_8), INVALID_UTF8, "\rhjkl\nxyz".getBytes(UTF_8));
+      SourceTestUtils.assertSplitAtFractionExhaustive(
+          prepareSource(data, null), PipelineOptionsFactory.create());
+    }
+
+    @Test
+    @Category(NeedsRunner.class)
+    public void testReadBytes() throws Exception {
+      Path path = tempFolder.newFile("bytes.txt").toPath();
+      Files.write(path, concat("a\n".getBytes(UTF_8), INVALID_UTF8, "\n".getBytes(UTF_8)));
+
+      PCollection<byte[]> output = p.apply(TextIO.readBytes().from(path.toString()));
+
+      PAssert.that(output).containsInAnyOrder("a".getBytes(UTF_8), INVALID_UTF8);
+      p.run();
+    }
+
+    @Test
+    public void testReadBytesDisplayData() {
+      TextIO.ReadBytes read =
+          TextIO.readBytes()
+              .from("foo.*")
+              .withCompression(BZIP2)
+              .withDelimiter(new byte[] {'|', '*'});
+
+      DisplayData displayData = DisplayData.from(read);
+
+      assertThat(displayData, hasDisplayItem("filePattern", "foo.*"));
+      assertThat(displayData, hasDisplayItem("compressionType", BZIP2.toString()));
+      assertThat(displayData, hasDisplayItem("delimiter", "[124, 42]"));
+    }
+  }
+
   /** Tests for some basic operations in {@link TextIO.Read}. */
   @RunWith(JUnit4.class)
   public static class BasicIOTest {
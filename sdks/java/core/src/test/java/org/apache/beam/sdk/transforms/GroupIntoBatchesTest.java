@@ -23,7 +23,10 @@ import static org.junit.Assert.assertTrue;
 import com.google.common.collect.Iterables;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import org.apache.beam.sdk.coders.IterableCoder;
 import org.apache.beam.sdk.coders.KvCoder;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
@@ -218,4 +221,74 @@ public class GroupIntoBatchesTest implements Serializable {
             });
     pipeline.run().waitUntilFinish();
   }
+
+  @Test
+  @Category({NeedsRunner.class, UsesTimersInParDo.class, UsesStatefulParDo.class})
+  public void testWithByteSizeLimit() {
+    // The scientists' names add up to 67 characters.
+    final long batchSizeBytes = 20;
+    PCollection<KV<String, Iterable<String>>> collection =
+        pipeline
+            .apply("Input data", Create.of(data))
+            .apply(
+                GroupIntoBatches.<String, String>ofSize(NUM_ELEMENTS)
+                    .withByteSizeLimit(batchSizeBytes, s -> (long) s.length()))
+            .setCoder(KvCoder.of(StringUtf8Coder.of(), IterableCoder.of(StringUtf8Coder.of())));
+    PAssert.that("Incorrect batch weight in one or more elements", collection)
+        .satisfies(
+            input -> {
+              long totalBytes = 0;
+              for (KV<String, Iterable<String>> element : input) {
+                long batchBytes = 0;
+                for (String value : element.getValue()) {
+                  batchBytes += value.length();
+                }
+                assertTrue("Batch over the byte size limit", batchBytes <= batchSizeBytes);
+                totalBytes += batchBytes;
+              }
+              assertEquals(67, totalBytes);
+              return null;
+            });
+    pipeline.run();
+  }
+
+  @Test
+  @Category({
+    NeedsRunner.class,
+    UsesTimersInParDo.class,
+    UsesTestStream.class,
+    UsesStatefulParDo.class
+  })
+  public void testWithMaxBufferingDuration() {
+    Duration maxBufferingDuration = Duration.standardSeconds(10);
+    TestStream<KV<String, String>> stream =
+        TestStream.create(KvCoder.of(StringUtf8Coder.of(), StringUtf8Coder.of()))
+            .addElements(data.get(0), data.get(1), data.get(2))
+            .advanceProcessingTime(maxBufferingDuration.plus(1))
+            .addElements(data.get(3), data.get(4))
+            .advanceWatermarkToInfinity();
+
+    PCollection<KV<String, Iterable<String>>> collection =
+        pipeline
+            .apply(stream)
+            .apply(
+                GroupIntoBatches.<String, String>ofSize(BATCH_SIZE)
+                    .withMaxBufferingDuration(maxBufferingDuration))
+            .setCoder(KvCoder.of(StringUtf8Coder.of(), IterableCoder.of(StringUtf8Coder.of())));
+
+    // The first three elements are output once they were buffered for maxBufferingDuration, the
+    // last two at the end of the window, although neither batch reaches BATCH_SIZE.
+    PAssert.that("Incorrect batches after GroupIntoBatches", collection)
+        .satisfies(
+            input -> {
+              List<Integer> sizes = new ArrayList<>();
+              for (KV<String, Iterable<String>> element : input) {
+                sizes.add(Iterables.size(element.getValue()));
+              }
+              Collections.sort(sizes);
+              assertEquals(Arrays.asList(2, 3), sizes);
+              return null;
+            });
+    pipeline.run().waitUntilFinish();
+  }
 }
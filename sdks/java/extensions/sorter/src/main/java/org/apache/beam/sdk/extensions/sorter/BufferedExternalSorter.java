@@ -29,17 +29,40 @@ import org.apache.beam.sdk.values.KV;
  */
 public class BufferedExternalSorter implements Sorter {
   public static Options options() {
-    return new Options("/tmp", 100);
+    return new Options("/tmp", 100, Options.SorterType.HADOOP, 64, false);
   }
 
   /** Contains configuration for the sorter. */
   public static class Options implements Serializable {
+    /** Implementations of the external sorter used once the values don't fit into memory. */
+    public enum SorterType {
+      /** Sorts using Hadoop's {@code SequenceFile}. Requires Hadoop on the classpath. */
+      HADOOP,
+
+      /**
+       * Sorts using a pure Java multi-pass merge sort. Sorted runs are spilled to local files and
+       * merged with a loser tree.
+       */
+      NATIVE
+    }
+
     private final String tempLocation;
     private final int memoryMB;
-
-    private Options(String tempLocation, int memoryMB) {
+    private final SorterType sorterType;
+    private final int mergeFanIn;
+    private final boolean compressRuns;
+
+    private Options(
+        String tempLocation,
+        int memoryMB,
+        SorterType sorterType,
+        int mergeFanIn,
+        boolean compressRuns) {
       this.tempLocation = tempLocation;
       this.memoryMB = memoryMB;
+      this.sorterType = sorterType;
+      this.mergeFanIn = mergeFanIn;
+      this.compressRuns = compressRuns;
     }
 
     /** Sets the path to a temporary location where the sorter writes intermediate files. */
@@ -48,7 +71,7 @@ public class BufferedExternalSorter implements Sorter {
           !tempLocation.startsWith("gs://"),
           "BufferedExternalSorter does not support GCS temporary location");
 
-      return new Options(tempLocation, memoryMB);
+      return new Options(tempLocation, memoryMB, sorterType, mergeFanIn, compressRuns);
     }
 
     /** Returns the configured temporary location. */
@@ -66,13 +89,53 @@ public class BufferedExternalSorter implements Sorter {
       // Hadoop's external sort stores the number of available memory bytes in an int, this prevents
       // overflow
       checkArgument(memoryMB < 2048, "memoryMB must be less than 2048");
-      return new Options(tempLocation, memoryMB);
+      return new Options(tempLocation, memoryMB, sorterType, mergeFanIn, compressRuns);
     }
 
     /** Returns the configured size of the memory buffer. */
     public int getMemoryMB() {
       return memoryMB;
     }
+
+    /**
+     * Sets the implementation of the external sorter used once the values don't fit into memory.
+     * Defaults to {@link SorterType#HADOOP}.
+     */
+    public Options withExternalSorterType(SorterType sorterType) {
+      return new Options(tempLocation, memoryMB, sorterType, mergeFanIn, compressRuns);
+    }
+
+    /** Returns the configured external sorter implementation. */
+    public SorterType getExternalSorterType() {
+      return sorterType;
+    }
+
+    /**
+     * Sets the maximum number of sorted runs merged at once by the {@link SorterType#NATIVE}
+     * external sorter. Must be at least 2.
+     */
+    public Options withMergeFanIn(int mergeFanIn) {
+      checkArgument(mergeFanIn >= 2, "mergeFanIn must be at least 2");
+      return new Options(tempLocation, memoryMB, sorterType, mergeFanIn, compressRuns);
+    }
+
+    /** Returns the configured merge fan-in. */
+    public int getMergeFanIn() {
+      return mergeFanIn;
+    }
+
+    /**
+     * Sets whether the {@link SorterType#NATIVE} external sorter compresses the sorted runs it
+     * spills to disk.
+     */
+    public Options withCompressedRuns(boolean compressRuns) {
+      return new Options(tempLocation, memoryMB, sorterType, mergeFanIn, compressRuns);
+    }
+
+    /** Returns whether the sorted runs are compressed. */
+    public boolean getCompressedRuns() {
+      return compressRuns;
+    }
   }
 
   private final ExternalSorter externalSorter;
@@ -89,6 +152,9 @@ public class BufferedExternalSorter implements Sorter {
     ExternalSorter.Options externalSorterOptions = new ExternalSorter.Options();
     externalSorterOptions.setMemoryMB(options.getMemoryMB());
     externalSorterOptions.setTempLocation(options.getTempLocation());
+    externalSorterOptions.setSorterType(options.getExternalSorterType());
+    externalSorterOptions.setMergeFanIn(options.getMergeFanIn());
+    externalSorterOptions.setCompressRuns(options.getCompressedRuns());
 
     InMemorySorter.Options inMemorySorterOptions = new InMemorySorter.Options();
     inMemorySorterOptions.setMemoryMB(options.getMemoryMB());
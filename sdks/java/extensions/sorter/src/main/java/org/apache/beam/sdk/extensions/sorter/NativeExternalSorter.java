@@ -0,0 +1,480 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.extensions.sorter;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.FinalizablePhantomReference;
+import com.google.common.base.FinalizableReferenceQueue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.UnsignedBytes;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import javax.annotation.Nullable;
+import org.apache.beam.sdk.values.KV;
+import org.xerial.snappy.SnappyInputStream;
+import org.xerial.snappy.SnappyOutputStream;
+
+/**
+ * Does an external sort of the provided values using a multi-pass merge sort, without depending on
+ * Hadoop.
+ *
+ * <p>Records are buffered in an {@link InMemorySorter}. Whenever the buffer is full, its records
+ * are sorted and spilled to a local file as a sorted run. When sorting, the runs are merged with a
+ * loser tree, at most {@link Options#getMergeFanIn()} runs at a time, until the remaining runs can
+ * be merged while iterating over the sorted records.
+ *
+ * <p>The sorted runs are deleted, and any of their files left open by iterators which were not
+ * exhausted are closed, once the {@link Iterable} returned by {@link #sort()} is garbage collected.
+ */
+class NativeExternalSorter extends ExternalSorter {
+  /** The comparator to use to sort the records by key. */
+  private static final Comparator<byte[]> COMPARATOR = UnsignedBytes.lexicographicalComparator();
+
+  /** Bounds of the size of the buffer used to read or write a single run. */
+  private static final int MIN_BUFFER_SIZE = 8 * 1024;
+
+  private static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+  /** Marks the end of a run, in place of the length of the key of a record. */
+  private static final int END_OF_RUN = -1;
+
+  /** Enqueues the {@link RunsCleanup}s of the sorted iterables which were garbage collected. */
+  private static final FinalizableReferenceQueue CLEANUP_QUEUE = new FinalizableReferenceQueue();
+
+  /** Keeps the pending {@link RunsCleanup}s reachable until they are run. */
+  private static final Set<RunsCleanup> PENDING_CLEANUPS = Sets.newConcurrentHashSet();
+
+  /** Whether {@link #sort()} was already called. */
+  private boolean sortCalled = false;
+
+  /** Buffers the records which were not spilled yet. */
+  private InMemorySorter inMemorySorter;
+
+  /** Sorted runs spilled to disk. */
+  private final List<Path> runs = new ArrayList<>();
+
+  /** Temporary directory for the runs, created when spilling the first run. */
+  @Nullable private Path tempDir;
+
+  private int numCreatedRuns = 0;
+
+  /** Size of the buffer used to read or write a single run. */
+  private final int bufferSize;
+
+  /** Returns a {@link Sorter} configured with the given {@link Options}. */
+  public static NativeExternalSorter create(Options options) {
+    return new NativeExternalSorter(options);
+  }
+
+  private NativeExternalSorter(Options options) {
+    super(options);
+    this.inMemorySorter = newInMemorySorter();
+    long memoryBytes = options.getMemoryMB() * 1024L * 1024L;
+    // All the runs of a merge and its output are buffered at the same time.
+    this.bufferSize =
+        (int)
+            Math.max(
+                MIN_BUFFER_SIZE,
+                Math.min(MAX_BUFFER_SIZE, memoryBytes / (options.getMergeFanIn() + 1)));
+  }
+
+  @Override
+  public void add(KV<byte[], byte[]> record) throws IOException {
+    checkState(!sortCalled, "Records can only be added before sort()");
+
+    if (!inMemorySorter.addIfRoom(record)) {
+      spill();
+      if (!inMemorySorter.addIfRoom(record)) {
+        // The record is too large to be buffered on its own.
+        runs.add(writeRun(Collections.singletonList(record).iterator()));
+      }
+    }
+  }
+
+  @Override
+  public Iterable<KV<byte[], byte[]>> sort() throws IOException {
+    checkState(!sortCalled, "sort() can only be called once.");
+    sortCalled = true;
+
+    if (runs.isEmpty()) {
+      return inMemorySorter.sort();
+    }
+
+    spill();
+    // Allow the in memory sorter and its buffer to be garbage collected.
+    inMemorySorter = null;
+    while (runs.size() > options.getMergeFanIn()) {
+      mergePass();
+    }
+
+    SortedRuns sortedRuns = new SortedRuns(ImmutableList.copyOf(runs), tempDir);
+    SortedRunsIterable sorted = new SortedRunsIterable(sortedRuns);
+    PENDING_CLEANUPS.add(new RunsCleanup(sorted, sortedRuns));
+    return sorted;
+  }
+
+  private InMemorySorter newInMemorySorter() {
+    InMemorySorter.Options inMemorySorterOptions = new InMemorySorter.Options();
+    inMemorySorterOptions.setMemoryMB(options.getMemoryMB());
+    return InMemorySorter.create(inMemorySorterOptions);
+  }
+
+  /** Sorts the buffered records and spills them to disk as a new run. */
+  private void spill() throws IOException {
+    Iterable<KV<byte[], byte[]>> sorted = inMemorySorter.sort();
+    inMemorySorter = newInMemorySorter();
+    if (sorted.iterator().hasNext()) {
+      runs.add(writeRun(sorted.iterator()));
+    }
+  }
+
+  /**
+   * Merges the runs in groups of at most {@link Options#getMergeFanIn()} runs, dividing the number
+   * of runs by the fan-in.
+   */
+  private void mergePass() throws IOException {
+    List<Path> merged = new ArrayList<>();
+    for (int i = 0; i < runs.size(); i += options.getMergeFanIn()) {
+      List<Path> group = runs.subList(i, Math.min(runs.size(), i + options.getMergeFanIn()));
+      if (group.size() == 1) {
+        merged.add(group.get(0));
+        continue;
+      }
+      List<RunReader> readers = openRuns(group);
+      try {
+        merged.add(writeRun(new MergingIterator(readers)));
+      } finally {
+        for (RunReader reader : readers) {
+          reader.close();
+        }
+      }
+      for (Path run : group) {
+        Files.delete(run);
+      }
+    }
+    runs.clear();
+    runs.addAll(merged);
+  }
+
+  /** Writes the given sorted records to a new run and returns its path. */
+  private Path writeRun(Iterator<KV<byte[], byte[]>> records) throws IOException {
+    if (tempDir == null) {
+      tempDir =
+          Files.createDirectories(
+              Paths.get(options.getTempLocation(), "tmp" + UUID.randomUUID().toString()));
+      // Registered before the runs so that it is deleted after them.
+      tempDir.toFile().deleteOnExit();
+    }
+    Path run = tempDir.resolve("run-" + numCreatedRuns++);
+    run.toFile().deleteOnExit();
+
+    OutputStream out =
+        Channels.newOutputStream(
+            FileChannel.open(run, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+    if (options.getCompressRuns()) {
+      out = new SnappyOutputStream(out);
+    }
+    try (DataOutputStream dataOut =
+        new DataOutputStream(new BufferedOutputStream(out, bufferSize))) {
+      while (records.hasNext()) {
+        KV<byte[], byte[]> record = records.next();
+        dataOut.writeInt(record.getKey().length);
+        dataOut.write(record.getKey());
+        dataOut.writeInt(record.getValue().length);
+        dataOut.write(record.getValue());
+      }
+      dataOut.writeInt(END_OF_RUN);
+    }
+    return run;
+  }
+
+  private List<RunReader> openRuns(List<Path> paths) throws IOException {
+    List<RunReader> readers = new ArrayList<>(paths.size());
+    try {
+      for (Path path : paths) {
+        readers.add(new RunReader(path));
+      }
+    } catch (IOException e) {
+      for (RunReader reader : readers) {
+        reader.close();
+      }
+      throw e;
+    }
+    return readers;
+  }
+
+  /** The runs of the sorted records, along with the readers currently open on them. */
+  @VisibleForTesting
+  class SortedRuns implements Closeable {
+    private final List<Path> paths;
+    private final Path dir;
+    private final Set<RunReader> openReaders = Sets.newConcurrentHashSet();
+
+    SortedRuns(List<Path> paths, Path dir) {
+      this.paths = paths;
+      this.dir = dir;
+    }
+
+    /** Opens the runs, keeping track of the readers until they are exhausted. */
+    List<RunReader> open() throws IOException {
+      List<RunReader> readers = openRuns(paths);
+      for (RunReader reader : readers) {
+        if (reader.current != null) {
+          openReaders.add(reader);
+          reader.openReaders = openReaders;
+        }
+      }
+      return readers;
+    }
+
+    @VisibleForTesting
+    Path getDir() {
+      return dir;
+    }
+
+    @VisibleForTesting
+    int numOpenReaders() {
+      return openReaders.size();
+    }
+
+    /** Closes the readers left open and deletes the runs. */
+    @Override
+    public void close() throws IOException {
+      for (RunReader reader : openReaders) {
+        reader.close();
+      }
+      for (Path path : paths) {
+        Files.deleteIfExists(path);
+      }
+      Files.deleteIfExists(dir);
+    }
+  }
+
+  /**
+   * The sorted records. Each of its iterators references it, so that it is only garbage collected
+   * once none of them can be used anymore.
+   */
+  @VisibleForTesting
+  static class SortedRunsIterable implements Iterable<KV<byte[], byte[]>> {
+    private final SortedRuns runs;
+
+    SortedRunsIterable(SortedRuns runs) {
+      this.runs = runs;
+    }
+
+    @VisibleForTesting
+    SortedRuns getRuns() {
+      return runs;
+    }
+
+    @Override
+    public Iterator<KV<byte[], byte[]>> iterator() {
+      try {
+        return new MergingIterator(runs.open(), this);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /** Cleans up the {@link SortedRuns} of a {@link SortedRunsIterable} once it is discarded. */
+  private static class RunsCleanup extends FinalizablePhantomReference<SortedRunsIterable> {
+    private final SortedRuns runs;
+
+    RunsCleanup(SortedRunsIterable sorted, SortedRuns runs) {
+      super(sorted, CLEANUP_QUEUE);
+      this.runs = runs;
+    }
+
+    @Override
+    public void finalizeReferent() {
+      PENDING_CLEANUPS.remove(this);
+      try {
+        runs.close();
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to delete the sorted runs in " + runs.dir, e);
+      }
+    }
+  }
+
+  /** Reads the records of a sorted run. */
+  private class RunReader implements Closeable {
+    private final DataInputStream in;
+
+    /** The current record of the run, {@code null} once the run is exhausted. */
+    @Nullable private KV<byte[], byte[]> current;
+
+    /** The readers of the {@link SortedRuns} this reader was opened for, if any. */
+    @Nullable private Set<RunReader> openReaders;
+
+    RunReader(Path path) throws IOException {
+      InputStream raw = Channels.newInputStream(FileChannel.open(path, StandardOpenOption.READ));
+      if (options.getCompressRuns()) {
+        raw = new SnappyInputStream(raw);
+      }
+      this.in = new DataInputStream(new BufferedInputStream(raw, bufferSize));
+      advance();
+    }
+
+    /** Moves to the next record of the run, closing the run once it is exhausted. */
+    void advance() throws IOException {
+      int keyLength = in.readInt();
+      if (keyLength == END_OF_RUN) {
+        current = null;
+        close();
+        return;
+      }
+      byte[] key = new byte[keyLength];
+      in.readFully(key);
+      byte[] value = new byte[in.readInt()];
+      in.readFully(value);
+      current = KV.of(key, value);
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+      if (openReaders != null) {
+        openReaders.remove(this);
+      }
+    }
+  }
+
+  /**
+   * Merges sorted runs using a loser tree, which finds the next record with a single comparison per
+   * level of the tree. Records with equal keys are returned in the order of their runs.
+   */
+  private static class MergingIterator implements Iterator<KV<byte[], byte[]>> {
+    private final RunReader[] readers;
+
+    /** Keeps the {@link SortedRunsIterable} being iterated over, if any, from being collected. */
+    @SuppressWarnings("unused")
+    @Nullable
+    private final SortedRunsIterable owner;
+
+    /**
+     * The inner nodes {@code 1..k-1} of the tree hold the index of the reader which lost the match
+     * played at that node, the leaf of reader {@code i} being the node {@code k + i}. {@code
+     * tree[0]} holds the index of the overall winner.
+     */
+    private final int[] tree;
+
+    MergingIterator(List<RunReader> readers) {
+      this(readers, null);
+    }
+
+    MergingIterator(List<RunReader> readers, @Nullable SortedRunsIterable owner) {
+      this.readers = readers.toArray(new RunReader[0]);
+      this.owner = owner;
+      this.tree = new int[this.readers.length];
+      tree[0] = build(1);
+    }
+
+    /** Plays the matches of the subtree rooted at the given node and returns its winner. */
+    private int build(int node) {
+      if (node >= readers.length) {
+        return node - readers.length;
+      }
+      int left = build(2 * node);
+      int right = build(2 * node + 1);
+      if (beats(left, right)) {
+        tree[node] = right;
+        return left;
+      } else {
+        tree[node] = left;
+        return right;
+      }
+    }
+
+    /** Replays the matches on the path from the leaf of the given reader to the root. */
+    private void replay(int reader) {
+      int winner = reader;
+      for (int node = (reader + readers.length) / 2; node > 0; node /= 2) {
+        if (beats(tree[node], winner)) {
+          int loser = winner;
+          winner = tree[node];
+          tree[node] = loser;
+        }
+      }
+      tree[0] = winner;
+    }
+
+    /** Returns whether the current record of reader {@code a} comes before the one of {@code b}. */
+    private boolean beats(int a, int b) {
+      KV<byte[], byte[]> recordA = readers[a].current;
+      KV<byte[], byte[]> recordB = readers[b].current;
+      if (recordA == null) {
+        return false;
+      }
+      if (recordB == null) {
+        return true;
+      }
+      int cmp = COMPARATOR.compare(recordA.getKey(), recordB.getKey());
+      return cmp < 0 || (cmp == 0 && a < b);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return readers.length > 0 && readers[tree[0]].current != null;
+    }
+
+    @Override
+    public KV<byte[], byte[]> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      int winner = tree[0];
+      KV<byte[], byte[]> record = readers[winner].current;
+      try {
+        readers[winner].advance();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      replay(winner);
+      return record;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("Iterator does not support remove");
+    }
+  }
+}
@@ -33,6 +33,7 @@ import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
+import org.apache.beam.sdk.extensions.sorter.BufferedExternalSorter.Options.SorterType;
 import org.apache.beam.sdk.values.KV;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -184,6 +185,21 @@ public class BufferedExternalSorterTest {
         1000000);
   }
 
+  @Test
+  public void testOneSorterManyRecordsWithNativeExternalSorter() throws Exception {
+    SorterTestUtils.testRandom(
+        () ->
+            BufferedExternalSorter.create(
+                BufferedExternalSorter.options()
+                    .withTempLocation(tmpLocation.toString())
+                    .withMemoryMB(10)
+                    .withExternalSorterType(SorterType.NATIVE)
+                    .withMergeFanIn(4)
+                    .withCompressedRuns(true)),
+        1,
+        1000000);
+  }
+
   @Test
   public void testAddAfterSort() throws Exception {
     SorterTestUtils.testAddAfterSort(
@@ -25,20 +25,38 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collection;
+import org.apache.beam.sdk.extensions.sorter.BufferedExternalSorter.Options.SorterType;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
-import org.junit.runners.JUnit4;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
 
-/** Tests for Sorter. */
-@RunWith(JUnit4.class)
+/** Tests for {@link ExternalSorter}. */
+@RunWith(Parameterized.class)
 public class ExternalSorterTest {
   @Rule public ExpectedException thrown = ExpectedException.none();
   private static Path tmpLocation;
 
+  @Parameters(name = "{0}")
+  public static Collection<Object[]> data() {
+    return Arrays.asList(new Object[] {SorterType.HADOOP}, new Object[] {SorterType.NATIVE});
+  }
+
+  @Parameter public SorterType sorterType;
+
+  private ExternalSorter.Options options() {
+    return new ExternalSorter.Options()
+        .setTempLocation(tmpLocation.toString())
+        .setSorterType(sorterType);
+  }
+
   @BeforeClass
   public static void setupTempDir() throws IOException {
     tmpLocation = Files.createTempDirectory("tmp");
@@ -66,55 +84,38 @@ public class ExternalSorterTest {
 
   @Test
   public void testEmpty() throws Exception {
-    SorterTestUtils.testEmpty(
-        ExternalSorter.create(
-            new ExternalSorter.Options().setTempLocation(tmpLocation.toString())));
+    SorterTestUtils.testEmpty(ExternalSorter.create(options()));
   }
 
   @Test
   public void testSingleElement() throws Exception {
-    SorterTestUtils.testSingleElement(
-        ExternalSorter.create(
-            new ExternalSorter.Options().setTempLocation(tmpLocation.toString())));
+    SorterTestUtils.testSingleElement(ExternalSorter.create(options()));
   }
 
   @Test
   public void testEmptyKeyValueElement() throws Exception {
-    SorterTestUtils.testEmptyKeyValueElement(
-        ExternalSorter.create(
-            new ExternalSorter.Options().setTempLocation(tmpLocation.toString())));
+    SorterTestUtils.testEmptyKeyValueElement(ExternalSorter.create(options()));
   }
 
   @Test
   public void testMultipleIterations() throws Exception {
-    SorterTestUtils.testMultipleIterations(
-        ExternalSorter.create(
-            new ExternalSorter.Options().setTempLocation(tmpLocation.toString())));
+    SorterTestUtils.testMultipleIterations(ExternalSorter.create(options()));
   }
 
   @Test
   public void testRandom() throws Exception {
-    SorterTestUtils.testRandom(
-        () ->
-            ExternalSorter.create(
-                new ExternalSorter.Options().setTempLocation(tmpLocation.toString())),
-        1,
-        1000000);
+    SorterTestUtils.testRandom(() -> ExternalSorter.create(options()), 1, 1000000);
   }
 
   @Test
   public void testAddAfterSort() throws Exception {
-    SorterTestUtils.testAddAfterSort(
-        ExternalSorter.create(new ExternalSorter.Options().setTempLocation(tmpLocation.toString())),
-        thrown);
+    SorterTestUtils.testAddAfterSort(ExternalSorter.create(options()), thrown);
     fail();
   }
 
   @Test
   public void testSortTwice() throws Exception {
-    SorterTestUtils.testSortTwice(
-        ExternalSorter.create(new ExternalSorter.Options().setTempLocation(tmpLocation.toString())),
-        thrown);
+    SorterTestUtils.testSortTwice(ExternalSorter.create(options()), thrown);
     fail();
   }
 
@@ -141,4 +142,12 @@ public class ExternalSorterTest {
     ExternalSorter.Options options = new ExternalSorter.Options();
     options.setMemoryMB(2048);
   }
+
+  @Test
+  public void testMergeFanInTooSmall() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("mergeFanIn must be at least 2");
+    ExternalSorter.Options options = new ExternalSorter.Options();
+    options.setMergeFanIn(1);
+  }
 }
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.extensions.sorter;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.common.primitives.Ints;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import org.apache.beam.sdk.extensions.sorter.BufferedExternalSorter.Options.SorterType;
+import org.apache.beam.sdk.extensions.sorter.NativeExternalSorter.SortedRuns;
+import org.apache.beam.sdk.extensions.sorter.NativeExternalSorter.SortedRunsIterable;
+import org.apache.beam.sdk.values.KV;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link NativeExternalSorter} specific to spilling and merging runs. */
+@RunWith(JUnit4.class)
+public class NativeExternalSorterTest {
+  private static Path tmpLocation;
+
+  @BeforeClass
+  public static void setupTempDir() throws IOException {
+    tmpLocation = Files.createTempDirectory("tmp");
+  }
+
+  @AfterClass
+  public static void cleanupTempDir() throws IOException {
+    Files.walkFileTree(
+        tmpLocation,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            Files.delete(file);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+            Files.delete(dir);
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  private static ExternalSorter.Options options() {
+    return new ExternalSorter.Options()
+        .setTempLocation(tmpLocation.toString())
+        .setSorterType(SorterType.NATIVE)
+        .setMemoryMB(1);
+  }
+
+  @Test
+  public void testMultipleMergePasses() throws Exception {
+    SorterTestUtils.testRandom(() -> ExternalSorter.create(options().setMergeFanIn(2)), 1, 200000);
+  }
+
+  @Test
+  public void testCompressedRuns() throws Exception {
+    SorterTestUtils.testRandom(
+        () -> ExternalSorter.create(options().setMergeFanIn(3).setCompressRuns(true)), 1, 200000);
+  }
+
+  @Test
+  public void testEqualKeysKeepInsertionOrder() throws Exception {
+    Sorter sorter = ExternalSorter.create(options().setMergeFanIn(2));
+    int numRecords = 100000;
+    for (int i = 0; i < numRecords; ++i) {
+      sorter.add(KV.of(Ints.toByteArray(i % 10), Ints.toByteArray(i)));
+    }
+
+    int count = 0;
+    KV<byte[], byte[]> previous = null;
+    for (KV<byte[], byte[]> record : sorter.sort()) {
+      if (previous != null
+          && Ints.fromByteArray(previous.getKey()) == Ints.fromByteArray(record.getKey())) {
+        assertEquals(
+            Ints.fromByteArray(previous.getValue()) + 10, Ints.fromByteArray(record.getValue()));
+      }
+      previous = record;
+      count++;
+    }
+    assertEquals(numRecords, count);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testRecordLargerThanMemory() throws Exception {
+    Sorter sorter = ExternalSorter.create(options());
+    KV<byte[], byte[]> small = KV.of(new byte[] {1}, new byte[] {2});
+    KV<byte[], byte[]> large = KV.of(new byte[] {0}, new byte[2 * 1024 * 1024]);
+    sorter.add(small);
+    sorter.add(large);
+
+    assertThat(sorter.sort(), contains(large, small));
+  }
+
+  @Test
+  public void testRunsAreCleanedUpOnceDiscarded() throws Exception {
+    Sorter sorter = ExternalSorter.create(options());
+    for (int i = 0; i < 30000; ++i) {
+      sorter.add(KV.of(Ints.toByteArray(i), new byte[100]));
+    }
+    SortedRunsIterable sorted = (SortedRunsIterable) sorter.sort();
+    SortedRuns runs = sorted.getRuns();
+    Path dir = runs.getDir();
+
+    // Abandon an iterator before it is exhausted.
+    Iterator<KV<byte[], byte[]>> iterator = sorted.iterator();
+    iterator.next();
+    assertThat(runs.numOpenReaders(), greaterThan(1));
+
+    sorter = null;
+    sorted = null;
+    iterator = null;
+    for (int i = 0; i < 100 && Files.exists(dir); ++i) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    assertFalse(Files.exists(dir));
+    assertEquals(0, runs.numOpenReaders());
+  }
+}
@@ -17,6 +17,7 @@
  */
 package org.apache.beam.sdk.extensions.sql;
 
+import javax.annotation.Nullable;
 import org.apache.beam.sdk.schemas.Schema;
 import org.apache.beam.sdk.values.PBegin;
 import org.apache.beam.sdk.values.PCollection;
@@ -33,4 +34,13 @@ public interface BeamSqlTable {
 
   /** Get the schema info of the table. */
   Schema getSchema();
+
+  /**
+   * Estimate the number of rows of the table, or {@code null} if it is unknown. The planner uses it
+   * to choose how to execute the query, e.g. to broadcast the small side of a join.
+   */
+  @Nullable
+  default Long getRowCountEstimate() {
+    return null;
+  }
 }
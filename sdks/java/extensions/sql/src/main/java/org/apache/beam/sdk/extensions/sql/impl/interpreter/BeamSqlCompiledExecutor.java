@@ -0,0 +1,415 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.extensions.sql.impl.interpreter;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Primitives;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import org.apache.beam.sdk.extensions.sql.impl.utils.CalciteUtils;
+import org.apache.beam.sdk.schemas.Schema;
+import org.apache.beam.sdk.schemas.Schema.TypeName;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.values.Row;
+import org.apache.calcite.adapter.enumerable.RexImpTable;
+import org.apache.calcite.adapter.enumerable.RexToLixTranslator;
+import org.apache.calcite.adapter.java.JavaTypeFactory;
+import org.apache.calcite.jdbc.JavaTypeFactoryImpl;
+import org.apache.calcite.linq4j.tree.BlockBuilder;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.linq4j.tree.ParameterExpression;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexLocalRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexProgram;
+import org.apache.calcite.sql.SqlOperator;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.codehaus.commons.compiler.CompilerFactoryFactory;
+import org.codehaus.commons.compiler.IClassBodyEvaluator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executor which compiles a {@link RexProgram} to Java code, evaluating its condition and
+ * projections against a {@link Row} in a single method without boxing intermediate values.
+ *
+ * <p>The code is generated with Calcite's {@link RexToLixTranslator} when the program is planned,
+ * and compiled with Janino when the executor is prepared. Only programs whose expressions are made
+ * of the operators and types listed in this class can be compiled, {@link #tryCreate} returns
+ * {@code null} for the others, which should be executed by the {@link BeamSqlFnExecutor} instead.
+ * Fields of any type can be projected as they are.
+ */
+public class BeamSqlCompiledExecutor implements BeamSqlExpressionExecutor {
+  private static final Logger LOG = LoggerFactory.getLogger(BeamSqlCompiledExecutor.class);
+
+  /** The types of the values which can be computed by the generated code. */
+  private static final Set<SqlTypeName> SUPPORTED_TYPES =
+      ImmutableSet.of(
+          SqlTypeName.BOOLEAN,
+          SqlTypeName.TINYINT,
+          SqlTypeName.SMALLINT,
+          SqlTypeName.INTEGER,
+          SqlTypeName.BIGINT,
+          SqlTypeName.FLOAT,
+          SqlTypeName.DOUBLE,
+          SqlTypeName.VARCHAR);
+
+  /** The operators which are not supported on {@code BOOLEAN} operands. */
+  private static final Set<SqlOperator> ORDERING_OPERATORS =
+      ImmutableSet.of(
+          SqlStdOperatorTable.GREATER_THAN,
+          SqlStdOperatorTable.GREATER_THAN_OR_EQUAL,
+          SqlStdOperatorTable.LESS_THAN,
+          SqlStdOperatorTable.LESS_THAN_OR_EQUAL);
+
+  /**
+   * The operators which are not supported on {@code FLOAT} or {@code DOUBLE} operands, since the
+   * interpreter computes them on {@link BigDecimal BigDecimals}.
+   *
+   * <p>{@code DIVIDE} and {@code MOD} are not supported at all: the interpreter rounds quotients to
+   * 10 digits before converting them to the result type, and computes remainders on doubles, which
+   * loses the precision of large {@code BIGINT} values.
+   */
+  private static final Set<SqlOperator> ARITHMETIC_OPERATORS =
+      ImmutableSet.of(
+          SqlStdOperatorTable.PLUS, SqlStdOperatorTable.MINUS, SqlStdOperatorTable.MULTIPLY);
+
+  /** The operators which can be used by the generated code. */
+  private static final Set<SqlOperator> SUPPORTED_OPERATORS =
+      ImmutableSet.of(
+          SqlStdOperatorTable.AND,
+          SqlStdOperatorTable.OR,
+          SqlStdOperatorTable.NOT,
+          SqlStdOperatorTable.EQUALS,
+          SqlStdOperatorTable.NOT_EQUALS,
+          SqlStdOperatorTable.GREATER_THAN,
+          SqlStdOperatorTable.GREATER_THAN_OR_EQUAL,
+          SqlStdOperatorTable.LESS_THAN,
+          SqlStdOperatorTable.LESS_THAN_OR_EQUAL,
+          SqlStdOperatorTable.IS_NULL,
+          SqlStdOperatorTable.IS_NOT_NULL,
+          SqlStdOperatorTable.IS_TRUE,
+          SqlStdOperatorTable.IS_NOT_TRUE,
+          SqlStdOperatorTable.IS_FALSE,
+          SqlStdOperatorTable.IS_NOT_FALSE,
+          SqlStdOperatorTable.PLUS,
+          SqlStdOperatorTable.MINUS,
+          SqlStdOperatorTable.MULTIPLY,
+          SqlStdOperatorTable.UNARY_MINUS,
+          SqlStdOperatorTable.UNARY_PLUS,
+          SqlStdOperatorTable.CASE,
+          SqlStdOperatorTable.CAST,
+          SqlStdOperatorTable.LIKE,
+          SqlStdOperatorTable.NOT_LIKE,
+          SqlStdOperatorTable.CONCAT,
+          SqlStdOperatorTable.UPPER,
+          SqlStdOperatorTable.LOWER,
+          SqlStdOperatorTable.CHAR_LENGTH,
+          SqlStdOperatorTable.CHARACTER_LENGTH,
+          SqlStdOperatorTable.ABS);
+
+  /** The class of the values of each type in a {@link Row}. */
+  private static final Map<TypeName, Class<?>> ROW_VALUE_CLASSES =
+      ImmutableMap.<TypeName, Class<?>>builder()
+          .put(TypeName.BYTE, Byte.class)
+          .put(TypeName.INT16, Short.class)
+          .put(TypeName.INT32, Integer.class)
+          .put(TypeName.INT64, Long.class)
+          .put(TypeName.FLOAT, Float.class)
+          .put(TypeName.DOUBLE, Double.class)
+          .put(TypeName.DECIMAL, BigDecimal.class)
+          .put(TypeName.BOOLEAN, Boolean.class)
+          .put(TypeName.STRING, String.class)
+          .build();
+
+  /** The generated code, a class body implementing {@link CompiledProgram}. */
+  private final String classBody;
+
+  @Nullable private transient CompiledProgram compiledProgram;
+
+  /**
+   * The interface implemented by the generated code. Public since it is implemented by a class
+   * loaded by another class loader.
+   */
+  public interface CompiledProgram {
+    /**
+     * Returns the values of the projections of the given row, or {@code null} if it does not
+     * satisfy the condition of the program.
+     */
+    @Nullable
+    Object[] execute(Row row);
+  }
+
+  private BeamSqlCompiledExecutor(String classBody) {
+    this.classBody = classBody;
+  }
+
+  /**
+   * Returns an executor running compiled code for the given program, or {@code null} if some of its
+   * expressions are not supported.
+   */
+  @Nullable
+  public static BeamSqlCompiledExecutor tryCreate(
+      RexProgram program, RelDataTypeFactory typeFactory) {
+    List<RexNode> projects = new ArrayList<>();
+    for (RexLocalRef project : program.getProjectList()) {
+      projects.add(program.expandLocalRef(project));
+    }
+    RexNode condition =
+        program.getCondition() == null ? null : program.expandLocalRef(program.getCondition());
+
+    for (RexNode project : projects) {
+      if (!(project instanceof RexInputRef) && !isSupported(project)) {
+        LOG.debug("Interpreting {} since {} can not be compiled", program, project);
+        return null;
+      }
+    }
+    if (condition != null && !isSupported(condition)) {
+      LOG.debug("Interpreting {} since {} can not be compiled", program, condition);
+      return null;
+    }
+
+    String classBody;
+    try {
+      classBody =
+          generate(
+              program,
+              condition,
+              projects,
+              typeFactory instanceof JavaTypeFactory
+                  ? (JavaTypeFactory) typeFactory
+                  : new JavaTypeFactoryImpl(typeFactory.getTypeSystem()));
+      compile(classBody);
+    } catch (Exception e) {
+      LOG.debug("Interpreting {} since it can not be compiled", program, e);
+      return null;
+    }
+    return new BeamSqlCompiledExecutor(classBody);
+  }
+
+  /** Returns whether all the operators and types of the given expression are supported. */
+  private static boolean isSupported(RexNode node) {
+    SqlTypeName type = node.getType().getSqlTypeName();
+    if (node instanceof RexLiteral) {
+      // The interpreter does not propagate null literals like SQL does, e.g. in (3 = NULL). Unlike
+      // computed CHAR values, which the interpreter trims, CHAR literals are not padded.
+      return !((RexLiteral) node).isNull()
+          && (type == SqlTypeName.CHAR || SUPPORTED_TYPES.contains(type));
+    }
+    if (!SUPPORTED_TYPES.contains(type)) {
+      return false;
+    }
+    if (node instanceof RexInputRef) {
+      return true;
+    }
+    if (!(node instanceof RexCall)) {
+      return false;
+    }
+    SqlOperator operator = ((RexCall) node).getOperator();
+    if (!SUPPORTED_OPERATORS.contains(operator)) {
+      return false;
+    }
+    for (RexNode operand : ((RexCall) node).getOperands()) {
+      if (!isSupported(operand)) {
+        return false;
+      }
+      // The interpreter rejects ordering comparisons of booleans.
+      if (ORDERING_OPERATORS.contains(operator)
+          && operand.getType().getSqlTypeName() == SqlTypeName.BOOLEAN) {
+        return false;
+      }
+      // The interpreter computes on BigDecimals, which floating point arithmetic does not round
+      // the same way.
+      if (ARITHMETIC_OPERATORS.contains(operator)
+          && SqlTypeName.APPROX_TYPES.contains(operand.getType().getSqlTypeName())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Generates the body of a class implementing {@link CompiledProgram} for the given program. */
+  private static String generate(
+      RexProgram program,
+      @Nullable RexNode condition,
+      List<RexNode> projects,
+      JavaTypeFactory typeFactory) {
+    ParameterExpression row = Expressions.parameter(Row.class, "row");
+    List<RelDataType> inputTypes = RelOptUtil.getFieldTypeList(program.getInputRowType());
+    BlockBuilder body = new BlockBuilder();
+    RexToLixTranslator translator =
+        RexToLixTranslator.forAggregation(
+            typeFactory,
+            body,
+            (list, index, storageType) ->
+                readField(list, row, index, inputTypes.get(index), storageType, typeFactory));
+
+    if (condition != null) {
+      Expression satisfied =
+          translator.translateList(ImmutableList.of(condition), RexImpTable.NullAs.FALSE).get(0);
+      body.add(
+          Expressions.ifThen(
+              Expressions.not(satisfied), Expressions.return_(null, Expressions.constant(null))));
+    }
+
+    Schema outputSchema = CalciteUtils.toSchema(program.getOutputRowType());
+    List<Expression> values = new ArrayList<>();
+    for (int i = 0; i < projects.size(); ++i) {
+      RexNode project = projects.get(i);
+      if (project instanceof RexInputRef) {
+        // Fields are projected as they are, whatever their type.
+        values.add(
+            Expressions.call(
+                row, "getValue", Expressions.constant(((RexInputRef) project).getIndex())));
+      } else {
+        Class<?> valueClass =
+            ROW_VALUE_CLASSES.get(outputSchema.getField(i).getType().getTypeName());
+        Expression value =
+            translator
+                .translateList(
+                    ImmutableList.of(project),
+                    ImmutableList.of(Primitives.wrap(storageClass(project.getType(), typeFactory))))
+                .get(0);
+        values.add(toRowValue(body, value, valueClass));
+      }
+    }
+    body.add(Expressions.return_(null, Expressions.newArrayInit(Object.class, values)));
+
+    return Expressions.toString(
+        Expressions.methodDecl(
+            Modifier.PUBLIC, Object[].class, "execute", ImmutableList.of(row), body.toBlock()));
+  }
+
+  /** Returns the class of the values of the given type in the generated code. */
+  private static Class<?> storageClass(RelDataType type, JavaTypeFactory typeFactory) {
+    Type javaType = typeFactory.getJavaClass(type);
+    return javaType instanceof Class ? (Class<?>) javaType : Object.class;
+  }
+
+  /**
+   * Returns an expression reading a field of the row, converted from its class in a {@link Row} to
+   * its class in the generated code.
+   */
+  private static Expression readField(
+      BlockBuilder list,
+      ParameterExpression row,
+      int index,
+      RelDataType fieldType,
+      @Nullable Type storageType,
+      JavaTypeFactory typeFactory) {
+    Class<?> storageClass = Primitives.wrap(storageClass(fieldType, typeFactory));
+    Class<?> valueClass = ROW_VALUE_CLASSES.get(CalciteUtils.toFieldType(fieldType).getTypeName());
+    Expression value =
+        list.append(
+            "field" + index,
+            Expressions.convert_(
+                Expressions.call(row, "getValue", Expressions.constant(index)), valueClass));
+    Expression converted = convertNumber(value, valueClass, storageClass);
+    return storageType == null ? converted : RexToLixTranslator.convert(converted, storageType);
+  }
+
+  /**
+   * Returns an expression converting a value of the generated code to its class in a {@link Row}.
+   */
+  private static Expression toRowValue(BlockBuilder list, Expression value, Class<?> valueClass) {
+    Class<?> storageClass = Primitives.wrap((Class<?>) value.getType());
+    return convertNumber(
+        list.append("value", RexToLixTranslator.convert(value, storageClass)),
+        storageClass,
+        valueClass);
+  }
+
+  /**
+   * Returns an expression converting a nullable value between two boxed numeric classes, or the
+   * value itself if the classes are the same.
+   */
+  private static Expression convertNumber(Expression value, Class<?> fromClass, Class<?> toClass) {
+    if (fromClass.equals(toClass)) {
+      return value;
+    }
+    if (!Number.class.isAssignableFrom(fromClass) || !Number.class.isAssignableFrom(toClass)) {
+      throw new UnsupportedOperationException(
+          String.format("Can not convert %s to %s", fromClass, toClass));
+    }
+    Expression converted;
+    if (toClass.equals(BigDecimal.class)) {
+      converted =
+          Expressions.new_(
+              BigDecimal.class,
+              Expressions.call(Expressions.convert_(value, Object.class), "toString"));
+    } else {
+      String unboxMethod = Primitives.unwrap(toClass).getName() + "Value";
+      converted =
+          Expressions.box(Expressions.call(Expressions.convert_(value, Number.class), unboxMethod));
+    }
+    return Expressions.condition(
+        Expressions.equal(value, Expressions.constant(null)),
+        Expressions.constant(null, toClass),
+        converted);
+  }
+
+  private static CompiledProgram compile(String classBody) throws Exception {
+    IClassBodyEvaluator evaluator =
+        CompilerFactoryFactory.getDefaultCompilerFactory().newClassBodyEvaluator();
+    evaluator.setParentClassLoader(BeamSqlCompiledExecutor.class.getClassLoader());
+    evaluator.setImplementedInterfaces(new Class<?>[] {CompiledProgram.class});
+    evaluator.cook(classBody);
+    return (CompiledProgram) evaluator.getClazz().newInstance();
+  }
+
+  @Override
+  public void prepare() {
+    try {
+      compiledProgram = compile(classBody);
+    } catch (Exception e) {
+      throw new IllegalStateException("Failed to compile the generated code:\n" + classBody, e);
+    }
+  }
+
+  @Override
+  @Nullable
+  public List<Object> execute(
+      Row inputRow, BoundedWindow window, BeamSqlExpressionEnvironment env) {
+    Object[] values = compiledProgram.execute(inputRow);
+    return values == null ? null : Arrays.asList(values);
+  }
+
+  @Override
+  public void close() {}
+
+  @Override
+  public String toString() {
+    return classBody;
+  }
+}
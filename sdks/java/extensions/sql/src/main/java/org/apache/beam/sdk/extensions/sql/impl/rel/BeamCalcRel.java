@@ -23,6 +23,7 @@ import static java.util.stream.Collectors.toList;
 import java.util.List;
 import java.util.stream.IntStream;
 import javax.annotation.Nullable;
+import org.apache.beam.sdk.extensions.sql.impl.interpreter.BeamSqlCompiledExecutor;
 import org.apache.beam.sdk.extensions.sql.impl.interpreter.BeamSqlExpressionEnvironments;
 import org.apache.beam.sdk.extensions.sql.impl.interpreter.BeamSqlExpressionExecutor;
 import org.apache.beam.sdk.extensions.sql.impl.interpreter.BeamSqlFnExecutor;
@@ -41,7 +42,13 @@ import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rel.core.Calc;
 import org.apache.calcite.rex.RexProgram;
 
-/** BeamRelNode to replace a {@code Project} node. */
+/**
+ * BeamRelNode to replace a {@code Project} node.
+ *
+ * <p>The program is compiled to Java code by a {@link BeamSqlCompiledExecutor} when all its
+ * expressions are supported by the code generation, and interpreted by a {@link BeamSqlFnExecutor}
+ * otherwise.
+ */
 public class BeamCalcRel extends Calc implements BeamRelNode {
 
   public BeamCalcRel(RelOptCluster cluster, RelTraitSet traits, RelNode input, RexProgram program) {
@@ -69,7 +76,12 @@ public class BeamCalcRel extends Calc implements BeamRelNode {
           pinput);
       PCollection<Row> upstream = pinput.get(0);
 
-      BeamSqlExpressionExecutor executor = new BeamSqlFnExecutor(BeamCalcRel.this.getProgram());
+      BeamSqlExpressionExecutor executor =
+          BeamSqlCompiledExecutor.tryCreate(getProgram(), getCluster().getTypeFactory());
+      if (executor == null) {
+        // Some expressions are not supported by the code generation, interpret them instead.
+        executor = new BeamSqlFnExecutor(getProgram());
+      }
 
       Schema schema = CalciteUtils.toSchema(rowType);
       PCollection<Row> projectStream =
@@ -75,7 +75,9 @@ import org.apache.calcite.util.Pair;
  * </ul>
  *
  * <p>For the first two cases, a standard join is utilized as long as the windowFn of the both sides
- * match.
+ * match. When joining two bounded tables, a side which is estimated to have at most {@link
+ * #BROADCAST_JOIN_MAX_ROWS} rows, and which does not have to be preserved by an outer join, is
+ * broadcast to the other side as a {@code sideInput} instead of shuffling both sides.
  *
  * <p>For the third case, {@code sideInput} is utilized to implement the join, so there are some
  * constraints:
@@ -94,6 +96,11 @@ import org.apache.calcite.util.Pair;
  * </ul>
  */
 public class BeamJoinRel extends Join implements BeamRelNode {
+  /**
+   * The maximum estimated number of rows of a bounded input for it to be broadcast as a {@code
+   * sideInput}, according to the row count estimates of the tables it reads.
+   */
+  public static final long BROADCAST_JOIN_MAX_ROWS = 100_000L;
 
   public BeamJoinRel(
       RelOptCluster cluster,
@@ -205,6 +212,27 @@ public class BeamJoinRel extends Join implements BeamRelNode {
               "WindowFns must match for a bounded-vs-bounded/unbounded-vs-unbounded join.", e);
         }
 
+        if (leftRows.isBounded() == PCollection.IsBounded.BOUNDED) {
+          // broadcast a small side, unless all its rows have to be output by an outer join
+          boolean broadcastLeft =
+              joinType != JoinRelType.LEFT
+                  && joinType != JoinRelType.FULL
+                  && canBroadcast(left, leftRows);
+          boolean broadcastRight =
+              joinType != JoinRelType.RIGHT
+                  && joinType != JoinRelType.FULL
+                  && canBroadcast(right, rightRows);
+          if (broadcastLeft && broadcastRight) {
+            broadcastLeft =
+                BeamSqlRelUtils.getRowCountEstimate(left)
+                    < BeamSqlRelUtils.getRowCountEstimate(right);
+          }
+          if (broadcastLeft || broadcastRight) {
+            return sideInputJoin(
+                extractedLeftRows, extractedRightRows, leftSchema, rightSchema, broadcastLeft);
+          }
+        }
+
         return standardJoin(extractedLeftRows, extractedRightRows, leftSchema, rightSchema);
       } else if ((leftRows.isBounded() == PCollection.IsBounded.BOUNDED
               && rightRows.isBounded() == UNBOUNDED)
@@ -236,7 +264,22 @@ public class BeamJoinRel extends Join implements BeamRelNode {
     }
   }
 
-  private void verifySupportedTrigger(PCollection<Row> pCollection) {
+  /**
+   * Returns whether the rows of the given input can be broadcast as a {@code sideInput}, i.e. they
+   * are bounded, estimated to be small and each window of the other side maps to a single window.
+   */
+  static boolean canBroadcast(RelNode input, PCollection<Row> rows) {
+    WindowFn<?, ?> windowFn = rows.getWindowingStrategy().getWindowFn();
+    if (rows.isBounded() != PCollection.IsBounded.BOUNDED
+        || !windowFn.isNonMerging()
+        || !windowFn.assignsToOneWindow()) {
+      return false;
+    }
+    Double rowCount = BeamSqlRelUtils.getRowCountEstimate(input);
+    return rowCount != null && rowCount <= BROADCAST_JOIN_MAX_ROWS;
+  }
+
+  static void verifySupportedTrigger(PCollection<Row> pCollection) {
     WindowingStrategy windowingStrategy = pCollection.getWindowingStrategy();
 
     if (UNBOUNDED.equals(pCollection.isBounded()) && !triggersOncePerWindow(windowingStrategy)) {
@@ -250,7 +293,7 @@ public class BeamJoinRel extends Join implements BeamRelNode {
     }
   }
 
-  private boolean triggersOncePerWindow(WindowingStrategy windowingStrategy) {
+  private static boolean triggersOncePerWindow(WindowingStrategy windowingStrategy) {
     Trigger trigger = windowingStrategy.getTrigger();
 
     return !(windowingStrategy.getWindowFn() instanceof GlobalWindows)
@@ -333,6 +376,16 @@ public class BeamJoinRel extends Join implements BeamRelNode {
     // we always make the Unbounded table on the left to do the sideInput join
     // (will convert the result accordingly before return)
     boolean swapped = (extractedLeftRows.isBounded() == PCollection.IsBounded.BOUNDED);
+    return sideInputJoin(extractedLeftRows, extractedRightRows, leftSchema, rightSchema, swapped);
+  }
+
+  /** Joins the rows by using the right side, or the left side if swapped, as a sideInput. */
+  private PCollection<Row> sideInputJoin(
+      PCollection<KV<Row, Row>> extractedLeftRows,
+      PCollection<KV<Row, Row>> extractedRightRows,
+      Schema leftSchema,
+      Schema rightSchema,
+      boolean swapped) {
     JoinRelType realJoinType =
         (swapped && joinType != JoinRelType.INNER) ? JoinRelType.LEFT : joinType;
 
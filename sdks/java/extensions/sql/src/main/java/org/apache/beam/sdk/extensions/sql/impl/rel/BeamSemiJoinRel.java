@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.extensions.sql.impl.rel;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.List;
+import java.util.Map;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.extensions.sql.impl.transform.BeamJoinTransforms;
+import org.apache.beam.sdk.extensions.sql.impl.utils.CalciteUtils;
+import org.apache.beam.sdk.schemas.Schema;
+import org.apache.beam.sdk.schemas.SchemaCoder;
+import org.apache.beam.sdk.transforms.MapElements;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.View;
+import org.apache.beam.sdk.transforms.join.CoGroupByKey;
+import org.apache.beam.sdk.transforms.join.KeyedPCollectionTuple;
+import org.apache.beam.sdk.transforms.windowing.IncompatibleWindowException;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PCollectionList;
+import org.apache.beam.sdk.values.PCollectionView;
+import org.apache.beam.sdk.values.Row;
+import org.apache.beam.sdk.values.TupleTag;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.JoinInfo;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.core.SemiJoin;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.util.ImmutableIntList;
+import org.apache.calcite.util.Pair;
+
+/**
+ * {@code BeamRelNode} to replace a {@code SemiJoin} node, which outputs the left rows having at
+ * least one matching right row, e.g. for {@code WHERE key IN (SELECT ...)}.
+ *
+ * <p>If the right side is bounded and either the left side is unbounded, or the right side is
+ * estimated to have at most {@link BeamJoinRel#BROADCAST_JOIN_MAX_ROWS} rows, the right side is
+ * broadcast as a {@code sideInput}. Otherwise both sides are grouped by key, which requires their
+ * windowFns to match.
+ */
+public class BeamSemiJoinRel extends SemiJoin implements BeamRelNode {
+
+  public BeamSemiJoinRel(
+      RelOptCluster cluster,
+      RelTraitSet traitSet,
+      RelNode left,
+      RelNode right,
+      RexNode condition,
+      ImmutableIntList leftKeys,
+      ImmutableIntList rightKeys) {
+    super(cluster, traitSet, left, right, condition, leftKeys, rightKeys);
+  }
+
+  @Override
+  public SemiJoin copy(
+      RelTraitSet traitSet,
+      RexNode condition,
+      RelNode left,
+      RelNode right,
+      JoinRelType joinType,
+      boolean semiJoinDone) {
+    final JoinInfo joinInfo = JoinInfo.of(left, right, condition);
+    return new BeamSemiJoinRel(
+        getCluster(), traitSet, left, right, condition, joinInfo.leftKeys, joinInfo.rightKeys);
+  }
+
+  @Override
+  public PTransform<PCollectionList<Row>, PCollection<Row>> buildPTransform() {
+    return new Transform();
+  }
+
+  private class Transform extends PTransform<PCollectionList<Row>, PCollection<Row>> {
+
+    @Override
+    public PCollection<Row> expand(PCollectionList<Row> pinput) {
+      checkArgument(pinput.size() == 2, "Expected two inputs for a semi-join: %s", pinput);
+      PCollection<Row> leftRows = pinput.get(0);
+      PCollection<Row> rightRows = pinput.get(1);
+
+      BeamJoinRel.verifySupportedTrigger(leftRows);
+      BeamJoinRel.verifySupportedTrigger(rightRows);
+
+      Schema leftSchema = CalciteUtils.toSchema(left.getRowType());
+      Schema rightSchema = CalciteUtils.toSchema(right.getRowType());
+      List<Pair<Integer, Integer>> pairs = Pair.zip(leftKeys, rightKeys);
+
+      // the name of the join field is not important
+      Schema extractKeySchemaLeft =
+          pairs.stream().map(pair -> leftSchema.getField(pair.getKey())).collect(Schema.toSchema());
+      Schema extractKeySchemaRight =
+          pairs
+              .stream()
+              .map(pair -> rightSchema.getField(pair.getValue()))
+              .collect(Schema.toSchema());
+      SchemaCoder<Row> extractKeyRowCoder = SchemaCoder.of(extractKeySchemaLeft);
+
+      PCollection<KV<Row, Row>> extractedLeftRows =
+          leftRows
+              .apply(
+                  "left_ExtractJoinFields",
+                  MapElements.via(
+                      new BeamJoinTransforms.ExtractJoinFields(true, pairs, extractKeySchemaLeft)))
+              .setCoder(KvCoder.of(extractKeyRowCoder, leftRows.getCoder()));
+      PCollection<KV<Row, Row>> extractedRightRows =
+          rightRows
+              .apply(
+                  "right_ExtractJoinFields",
+                  MapElements.via(
+                      new BeamJoinTransforms.ExtractJoinFields(
+                          false, pairs, extractKeySchemaRight)))
+              .setCoder(KvCoder.of(extractKeyRowCoder, rightRows.getCoder()));
+
+      PCollection<Row> joinedRows;
+      if (rightRows.isBounded() == PCollection.IsBounded.BOUNDED
+          && (leftRows.isBounded() == PCollection.IsBounded.UNBOUNDED
+              || BeamJoinRel.canBroadcast(right, rightRows))) {
+        joinedRows = sideInputSemiJoin(extractedLeftRows, extractedRightRows);
+      } else if (leftRows.isBounded() == rightRows.isBounded()) {
+        try {
+          leftRows
+              .getWindowingStrategy()
+              .getWindowFn()
+              .verifyCompatibility(rightRows.getWindowingStrategy().getWindowFn());
+        } catch (IncompatibleWindowException e) {
+          throw new IllegalArgumentException(
+              "WindowFns must match for a bounded-vs-bounded/unbounded-vs-unbounded join.", e);
+        }
+        joinedRows = standardSemiJoin(extractedLeftRows, extractedRightRows);
+      } else {
+        throw new UnsupportedOperationException(
+            "The right side of a SEMI JOIN of a bounded table with an unbounded table "
+                + "must be the bounded table.");
+      }
+      return joinedRows.setRowSchema(leftSchema);
+    }
+  }
+
+  private PCollection<Row> standardSemiJoin(
+      PCollection<KV<Row, Row>> extractedLeftRows, PCollection<KV<Row, Row>> extractedRightRows) {
+    TupleTag<Row> leftTag = new TupleTag<>();
+    TupleTag<Row> rightTag = new TupleTag<>();
+    return KeyedPCollectionTuple.of(leftTag, extractedLeftRows)
+        .and(rightTag, extractedRightRows)
+        .apply("CoGroupByKey", CoGroupByKey.create())
+        .apply("SemiJoin", ParDo.of(new BeamJoinTransforms.SemiJoinDoFn(leftTag, rightTag)));
+  }
+
+  private PCollection<Row> sideInputSemiJoin(
+      PCollection<KV<Row, Row>> extractedLeftRows, PCollection<KV<Row, Row>> extractedRightRows) {
+    final PCollectionView<Map<Row, Iterable<Row>>> rowsView =
+        extractedRightRows.apply(View.asMultimap());
+    return extractedLeftRows.apply(
+        "SideInputSemiJoin",
+        ParDo.of(new BeamJoinTransforms.SideInputSemiJoinDoFn(rowsView)).withSideInputs(rowsView));
+  }
+}
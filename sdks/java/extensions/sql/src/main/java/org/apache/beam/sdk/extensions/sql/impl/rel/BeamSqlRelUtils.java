@@ -21,6 +21,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.transforms.PTransform;
 import org.apache.beam.sdk.values.PCollection;
@@ -70,6 +71,29 @@ public class BeamSqlRelUtils {
     return output;
   }
 
+  /**
+   * Returns the estimated number of rows produced by the given node, or {@code null} if some of the
+   * tables it reads do not provide a row count estimate.
+   */
+  @Nullable
+  static Double getRowCountEstimate(RelNode node) {
+    return hasRowCountEstimate(node)
+        ? node.getCluster().getMetadataQuery().getRowCount(node)
+        : null;
+  }
+
+  private static boolean hasRowCountEstimate(RelNode node) {
+    BeamRelNode beamNode = getBeamRelInput(node);
+    if (beamNode instanceof BeamIOSourceRel) {
+      return ((BeamIOSourceRel) beamNode).getBeamSqlTable().getRowCountEstimate() != null;
+    }
+    if (beamNode instanceof BeamValuesRel) {
+      return true;
+    }
+    List<RelNode> inputs = beamNode.getInputs();
+    return !inputs.isEmpty() && inputs.stream().allMatch(BeamSqlRelUtils::hasRowCountEstimate);
+  }
+
   public static BeamRelNode getBeamRelInput(RelNode input) {
     if (input instanceof RelSubset) {
       // go with known best input
@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.extensions.sql.impl.rule;
+
+import org.apache.beam.sdk.extensions.sql.impl.rel.BeamLogicalConvention;
+import org.apache.beam.sdk.extensions.sql.impl.rel.BeamSemiJoinRel;
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.convert.ConverterRule;
+import org.apache.calcite.rel.core.SemiJoin;
+
+/** {@code ConverterRule} to replace {@code SemiJoin} with {@code BeamSemiJoinRel}. */
+public class BeamSemiJoinRule extends ConverterRule {
+  public static final BeamSemiJoinRule INSTANCE = new BeamSemiJoinRule();
+
+  private BeamSemiJoinRule() {
+    super(SemiJoin.class, Convention.NONE, BeamLogicalConvention.INSTANCE, "BeamSemiJoinRule");
+  }
+
+  @Override
+  public RelNode convert(RelNode rel) {
+    SemiJoin semiJoin = (SemiJoin) rel;
+
+    return new BeamSemiJoinRel(
+        semiJoin.getCluster(),
+        semiJoin.getTraitSet().replace(BeamLogicalConvention.INSTANCE),
+        convert(
+            semiJoin.getLeft(),
+            semiJoin.getLeft().getTraitSet().replace(BeamLogicalConvention.INSTANCE)),
+        convert(
+            semiJoin.getRight(),
+            semiJoin.getRight().getTraitSet().replace(BeamLogicalConvention.INSTANCE)),
+        semiJoin.getCondition(),
+        semiJoin.getLeftKeys(),
+        semiJoin.getRightKeys());
+  }
+}
@@ -29,10 +29,12 @@ import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.PTransform;
 import org.apache.beam.sdk.transforms.ParDo;
 import org.apache.beam.sdk.transforms.SimpleFunction;
+import org.apache.beam.sdk.transforms.join.CoGbkResult;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
 import org.apache.beam.sdk.values.PCollectionView;
 import org.apache.beam.sdk.values.Row;
+import org.apache.beam.sdk.values.TupleTag;
 import org.apache.calcite.rel.core.JoinRelType;
 import org.apache.calcite.rex.RexCall;
 import org.apache.calcite.rex.RexInputRef;
@@ -106,6 +108,46 @@ public class BeamJoinTransforms {
     }
   }
 
+  /**
+   * A {@code DoFn} which implements the SEMI-JOIN on the grouped rows of both sides, outputting the
+   * left rows whose key has matching right rows.
+   */
+  public static class SemiJoinDoFn extends DoFn<KV<Row, CoGbkResult>, Row> {
+    private final TupleTag<Row> leftTag;
+    private final TupleTag<Row> rightTag;
+
+    public SemiJoinDoFn(TupleTag<Row> leftTag, TupleTag<Row> rightTag) {
+      this.leftTag = leftTag;
+      this.rightTag = rightTag;
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext context) {
+      CoGbkResult result = context.element().getValue();
+      if (result.getAll(rightTag).iterator().hasNext()) {
+        for (Row leftRow : result.getAll(leftTag)) {
+          context.output(leftRow);
+        }
+      }
+    }
+  }
+
+  /** A {@code DoFn} which implements the sideInput-SEMI-JOIN. */
+  public static class SideInputSemiJoinDoFn extends DoFn<KV<Row, Row>, Row> {
+    private final PCollectionView<Map<Row, Iterable<Row>>> sideInputView;
+
+    public SideInputSemiJoinDoFn(PCollectionView<Map<Row, Iterable<Row>>> sideInputView) {
+      this.sideInputView = sideInputView;
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext context) {
+      if (context.sideInput(sideInputView).containsKey(context.element().getKey())) {
+        context.output(context.element().getValue());
+      }
+    }
+  }
+
   /** A {@code SimpleFunction} to combine two rows into one. */
   public static class JoinParts2WholeRow extends SimpleFunction<KV<Row, KV<Row, Row>>, Row> {
     private final Schema schema;
@@ -85,6 +85,11 @@ public class TestBoundedTable extends TestTable {
     return this;
   }
 
+  @Override
+  public Long getRowCountEstimate() {
+    return (long) rows.size();
+  }
+
   @Override
   public PCollection<Row> buildIOReader(PBegin begin) {
     return begin
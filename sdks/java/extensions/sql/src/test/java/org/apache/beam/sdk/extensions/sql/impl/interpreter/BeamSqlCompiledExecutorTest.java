@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.extensions.sql.impl.interpreter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import org.apache.beam.sdk.extensions.sql.impl.utils.CalciteUtils;
+import org.apache.beam.sdk.util.SerializableUtils;
+import org.apache.beam.sdk.values.Row;
+import org.apache.calcite.adapter.java.JavaTypeFactory;
+import org.apache.calcite.jdbc.JavaTypeFactoryImpl;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeSystem;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexProgram;
+import org.apache.calcite.rex.RexProgramBuilder;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.junit.Test;
+
+/** Unit tests for {@link BeamSqlCompiledExecutor}. */
+public class BeamSqlCompiledExecutorTest {
+  private static final JavaTypeFactory TYPE_FACTORY =
+      new JavaTypeFactoryImpl(RelDataTypeSystem.DEFAULT);
+  private static final RexBuilder rexBuilder = new RexBuilder(TYPE_FACTORY);
+  private static final RelDataType relDataType =
+      TYPE_FACTORY
+          .builder()
+          .add("order_id", SqlTypeName.BIGINT)
+          .add("site_id", SqlTypeName.INTEGER)
+          .add("price", SqlTypeName.DOUBLE)
+          .add("order_time", SqlTypeName.BIGINT)
+          .add("order_info", SqlTypeName.VARCHAR)
+          .build();
+  private static final Row row =
+      Row.withSchema(CalciteUtils.toSchema(relDataType))
+          .addValues(1234567L, 0, 8.9, 1234567L, "This is an order.")
+          .build();
+
+  private static RexNode field(int index) {
+    return field(relDataType, index);
+  }
+
+  private static RexNode field(RelDataType rowType, int index) {
+    return rexBuilder.makeInputRef(rowType.getFieldList().get(index).getType(), index);
+  }
+
+  private static RexNode literal(int value, SqlTypeName type) {
+    return rexBuilder.makeLiteral(value, TYPE_FACTORY.createSqlType(type), false);
+  }
+
+  private static BeamSqlCompiledExecutor compile(RexProgram program) {
+    BeamSqlCompiledExecutor executor = BeamSqlCompiledExecutor.tryCreate(program, TYPE_FACTORY);
+    assertNotNull("The program should be supported: " + program, executor);
+    executor = SerializableUtils.clone(executor);
+    executor.prepare();
+    return executor;
+  }
+
+  @Test
+  public void testProjectAndFilter() {
+    RexProgramBuilder builder = new RexProgramBuilder(relDataType, rexBuilder);
+    builder.addProject(field(0), "order_id");
+    builder.addProject(rexBuilder.makeCall(SqlStdOperatorTable.ABS, field(2)), "price");
+    builder.addProject(
+        rexBuilder.makeCall(SqlStdOperatorTable.PLUS, field(1), literal(1, SqlTypeName.INTEGER)),
+        "site_id");
+    builder.addProject(rexBuilder.makeCall(SqlStdOperatorTable.UPPER, field(4)), "order_info");
+    builder.addCondition(
+        rexBuilder.makeCall(
+            SqlStdOperatorTable.GREATER_THAN,
+            field(0),
+            rexBuilder.makeExactLiteral(BigDecimal.ONE)));
+    RexProgram program = builder.getProgram();
+
+    BeamSqlCompiledExecutor executor = compile(program);
+    assertEquals(
+        Arrays.asList(1234567L, 8.9, 1, "THIS IS AN ORDER."), executor.execute(row, null, null));
+
+    BeamSqlFnExecutor interpreter = new BeamSqlFnExecutor(program);
+    interpreter.prepare();
+    assertEquals(
+        interpreter.execute(row, null, BeamSqlExpressionEnvironments.forRow(row, null)),
+        executor.execute(row, null, null));
+  }
+
+  @Test
+  public void testFilterRejectsRow() {
+    RexProgramBuilder builder = new RexProgramBuilder(relDataType, rexBuilder);
+    builder.addProject(field(0), "order_id");
+    builder.addCondition(
+        rexBuilder.makeCall(
+            SqlStdOperatorTable.EQUALS, field(4), rexBuilder.makeLiteral("another order")));
+
+    assertNull(compile(builder.getProgram()).execute(row, null, null));
+  }
+
+  @Test
+  public void testNullableFieldsAndConversions() {
+    RelDataType inputType =
+        TYPE_FACTORY
+            .builder()
+            .add("f_float", SqlTypeName.FLOAT)
+            .nullable(true)
+            .add("f_smallint", SqlTypeName.SMALLINT)
+            .nullable(true)
+            .build();
+    RexProgramBuilder builder = new RexProgramBuilder(inputType, rexBuilder);
+    RexNode floatField = field(inputType, 0);
+    RexNode smallIntField = field(inputType, 1);
+    builder.addProject(rexBuilder.makeCall(SqlStdOperatorTable.UNARY_MINUS, floatField), "f_float");
+    builder.addProject(
+        rexBuilder.makeCall(
+            SqlStdOperatorTable.PLUS, smallIntField, literal(1, SqlTypeName.SMALLINT)),
+        "f_smallint");
+    builder.addProject(rexBuilder.makeCall(SqlStdOperatorTable.IS_NULL, floatField), "f_null");
+    BeamSqlCompiledExecutor executor = compile(builder.getProgram());
+
+    Row values =
+        Row.withSchema(CalciteUtils.toSchema(inputType)).addValues(1.5f, (short) 2).build();
+    assertEquals(Arrays.asList(-1.5f, (short) 3, false), executor.execute(values, null, null));
+
+    Row nulls = Row.withSchema(CalciteUtils.toSchema(inputType)).addValues(null, null).build();
+    assertEquals(Arrays.asList(null, null, true), executor.execute(nulls, null, null));
+  }
+
+  @Test
+  public void testExactArithmeticMatchesInterpreter() {
+    RexProgramBuilder builder = new RexProgramBuilder(relDataType, rexBuilder);
+    RexNode three = literal(3, SqlTypeName.INTEGER);
+    builder.addProject(
+        rexBuilder.makeCall(SqlStdOperatorTable.PLUS, field(1), field(1)), "site_id_plus");
+    builder.addProject(
+        rexBuilder.makeCall(SqlStdOperatorTable.MINUS, field(0), field(3)), "order_id_minus");
+    builder.addProject(
+        rexBuilder.makeCall(SqlStdOperatorTable.PLUS, field(0), field(3)), "order_id_plus");
+    builder.addProject(
+        rexBuilder.makeCall(SqlStdOperatorTable.MULTIPLY, field(1), three), "site_id_multiply");
+    builder.addProject(
+        rexBuilder.makeCall(SqlStdOperatorTable.MULTIPLY, field(0), field(3)), "order_id_multiply");
+    RexProgram program = builder.getProgram();
+
+    BeamSqlCompiledExecutor executor = compile(program);
+    BeamSqlFnExecutor interpreter = new BeamSqlFnExecutor(program);
+    interpreter.prepare();
+    for (Row input :
+        Arrays.asList(
+            row,
+            arithmeticRow(-1234567L, -7, 1234567L),
+            arithmeticRow(Long.MAX_VALUE - 1, Integer.MAX_VALUE, 3L),
+            arithmeticRow(Long.MIN_VALUE + 1, Integer.MIN_VALUE, -(1L << 53) - 1),
+            arithmeticRow((1L << 53) + 1, -1, Long.MAX_VALUE))) {
+      assertEquals(
+          "For " + input,
+          interpreter.execute(input, null, BeamSqlExpressionEnvironments.forRow(input, null)),
+          executor.execute(input, null, null));
+    }
+  }
+
+  @Test
+  public void testDivideAndModAreInterpreted() {
+    RexNode three = literal(3, SqlTypeName.INTEGER);
+    // The interpreter rounds quotients to 10 digits and computes remainders on doubles, so e.g.
+    // (2^53 + 1) MOD 2 would be 0 instead of 1.
+    for (RexNode expression :
+        Arrays.asList(
+            rexBuilder.makeCall(SqlStdOperatorTable.DIVIDE, field(1), three),
+            rexBuilder.makeCall(SqlStdOperatorTable.DIVIDE, field(0), field(3)),
+            rexBuilder.makeCall(SqlStdOperatorTable.MOD, field(1), three),
+            rexBuilder.makeCall(SqlStdOperatorTable.MOD, field(0), field(3)))) {
+      RexProgramBuilder builder = new RexProgramBuilder(relDataType, rexBuilder);
+      builder.addProject(expression, "quotient");
+      assertNull(
+          "Should not be compiled: " + expression,
+          BeamSqlCompiledExecutor.tryCreate(builder.getProgram(), TYPE_FACTORY));
+    }
+
+    RexProgramBuilder builder = new RexProgramBuilder(relDataType, rexBuilder);
+    builder.addProject(rexBuilder.makeCall(SqlStdOperatorTable.MOD, field(0), field(3)), "mod");
+    BeamSqlFnExecutor interpreter = new BeamSqlFnExecutor(builder.getProgram());
+    interpreter.prepare();
+    Row input = arithmeticRow((1L << 53) + 1, 0, 2L);
+    assertEquals(
+        Arrays.asList(0L),
+        interpreter.execute(input, null, BeamSqlExpressionEnvironments.forRow(input, null)));
+  }
+
+  private static Row arithmeticRow(long orderId, int siteId, long orderTime) {
+    return Row.withSchema(CalciteUtils.toSchema(relDataType))
+        .addValues(orderId, siteId, 8.9, orderTime, "This is an order.")
+        .build();
+  }
+
+  @Test
+  public void testApproximateArithmeticIsInterpreted() {
+    RexNode three = rexBuilder.makeApproxLiteral(new BigDecimal(3));
+    RexNode zero = rexBuilder.makeApproxLiteral(BigDecimal.ZERO);
+    // The interpreter computes these on BigDecimals, rounding 8.9 / 3 to 10 digits and failing on
+    // 8.9 / 0.0, which floating point arithmetic would not.
+    for (RexNode expression :
+        Arrays.asList(
+            rexBuilder.makeCall(SqlStdOperatorTable.PLUS, field(2), three),
+            rexBuilder.makeCall(SqlStdOperatorTable.MINUS, field(2), three),
+            rexBuilder.makeCall(SqlStdOperatorTable.MULTIPLY, field(2), three),
+            rexBuilder.makeCall(SqlStdOperatorTable.DIVIDE, field(2), three),
+            rexBuilder.makeCall(SqlStdOperatorTable.DIVIDE, field(2), zero),
+            rexBuilder.makeCall(SqlStdOperatorTable.MOD, field(2), three))) {
+      RexProgramBuilder builder = new RexProgramBuilder(relDataType, rexBuilder);
+      builder.addProject(expression, "price");
+      assertNull(
+          "Should not be compiled: " + expression,
+          BeamSqlCompiledExecutor.tryCreate(builder.getProgram(), TYPE_FACTORY));
+    }
+
+    RexProgramBuilder builder = new RexProgramBuilder(relDataType, rexBuilder);
+    builder.addProject(rexBuilder.makeCall(SqlStdOperatorTable.DIVIDE, field(2), three), "price");
+    BeamSqlFnExecutor interpreter = new BeamSqlFnExecutor(builder.getProgram());
+    interpreter.prepare();
+    assertEquals(
+        Arrays.asList(2.9666666667),
+        interpreter.execute(row, null, BeamSqlExpressionEnvironments.forRow(row, null)));
+  }
+
+  @Test
+  public void testUnsupportedExpressionsAreNotCompiled() {
+    RelDataType inputType =
+        TYPE_FACTORY.builder().add("f_timestamp", SqlTypeName.TIMESTAMP).nullable(true).build();
+
+    // Fields of any type can be projected as they are.
+    RexProgramBuilder builder = new RexProgramBuilder(inputType, rexBuilder);
+    builder.addProject(field(inputType, 0), "f_timestamp");
+    assertNotNull(BeamSqlCompiledExecutor.tryCreate(builder.getProgram(), TYPE_FACTORY));
+
+    builder = new RexProgramBuilder(inputType, rexBuilder);
+    builder.addProject(
+        rexBuilder.makeCall(SqlStdOperatorTable.CURRENT_TIMESTAMP), "current_timestamp");
+    assertNull(BeamSqlCompiledExecutor.tryCreate(builder.getProgram(), TYPE_FACTORY));
+
+    builder = new RexProgramBuilder(inputType, rexBuilder);
+    builder.addProject(
+        rexBuilder.makeCall(SqlStdOperatorTable.IS_NULL, field(inputType, 0)), "f_null");
+    assertNull(BeamSqlCompiledExecutor.tryCreate(builder.getProgram(), TYPE_FACTORY));
+  }
+}
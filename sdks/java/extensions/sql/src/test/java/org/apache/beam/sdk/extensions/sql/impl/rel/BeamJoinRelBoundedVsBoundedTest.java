@@ -17,8 +17,13 @@
  */
 package org.apache.beam.sdk.extensions.sql.impl.rel;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.extensions.sql.TestUtils;
 import org.apache.beam.sdk.extensions.sql.meta.provider.test.TestBoundedTable;
+import org.apache.beam.sdk.runners.TransformHierarchy;
 import org.apache.beam.sdk.schemas.Schema;
 import org.apache.beam.sdk.testing.PAssert;
 import org.apache.beam.sdk.testing.TestPipeline;
@@ -46,10 +51,32 @@ public class BeamJoinRelBoundedVsBoundedTest extends BaseRelTest {
               Schema.FieldType.INT32, "price")
           .addRows(1, 2, 3, 2, 3, 3, 3, 4, 5);
 
+  /** The rows of {@link #ORDER_DETAILS2}, without a row count estimate. */
+  public static final TestBoundedTable ORDER_DETAILS3 =
+      new TestBoundedTable(ORDER_DETAILS2.getSchema()) {
+        @Override
+        public Long getRowCountEstimate() {
+          return null;
+        }
+      }.addRows(1, 2, 3, 2, 3, 3, 3, 4, 5);
+
   @BeforeClass
   public static void prepare() {
     registerTable("ORDER_DETAILS1", ORDER_DETAILS1);
     registerTable("ORDER_DETAILS2", ORDER_DETAILS2);
+    registerTable("ORDER_DETAILS3", ORDER_DETAILS3);
+  }
+
+  private static boolean containsTransform(Pipeline pipeline, String name) {
+    boolean[] found = {false};
+    pipeline.traverseTopologically(
+        new Pipeline.PipelineVisitor.Defaults() {
+          @Override
+          public void visitPrimitiveTransform(TransformHierarchy.Node node) {
+            found[0] |= node.getFullName().contains(name);
+          }
+        });
+    return found[0];
   }
 
   @Test
@@ -75,6 +102,79 @@ public class BeamJoinRelBoundedVsBoundedTest extends BaseRelTest {
                         .build())
                 .addRows(2, 3, 3, 1, 2, 3)
                 .getRows());
+    assertTrue(containsTransform(pipeline, "SideInputJoin"));
+    pipeline.run();
+  }
+
+  @Test
+  public void testInnerJoinWithoutRowCountEstimate() throws Exception {
+    String sql =
+        "SELECT *  "
+            + "FROM ORDER_DETAILS3 o1"
+            + " JOIN ORDER_DETAILS3 o2"
+            + " on "
+            + " o1.order_id=o2.site_id AND o2.price=o1.site_id";
+
+    PCollection<Row> rows = compilePipeline(sql, pipeline);
+    PAssert.that(rows)
+        .containsInAnyOrder(
+            TestUtils.RowsBuilder.of(
+                    Schema.builder()
+                        .addField("order_id", Schema.FieldType.INT32)
+                        .addField("site_id", Schema.FieldType.INT32)
+                        .addField("price", Schema.FieldType.INT32)
+                        .addField("order_id0", Schema.FieldType.INT32)
+                        .addField("site_id0", Schema.FieldType.INT32)
+                        .addField("price0", Schema.FieldType.INT32)
+                        .build())
+                .addRows(2, 3, 3, 1, 2, 3)
+                .getRows());
+    assertFalse(containsTransform(pipeline, "SideInputJoin"));
+    pipeline.run();
+  }
+
+  @Test
+  public void testSemiJoin() throws Exception {
+    String sql =
+        "SELECT *  "
+            + "FROM ORDER_DETAILS1 o1"
+            + " WHERE o1.order_id IN (SELECT site_id FROM ORDER_DETAILS2)";
+
+    PCollection<Row> rows = compilePipeline(sql, pipeline);
+    PAssert.that(rows)
+        .containsInAnyOrder(
+            TestUtils.RowsBuilder.of(
+                    Schema.builder()
+                        .addField("order_id", Schema.FieldType.INT32)
+                        .addField("site_id", Schema.FieldType.INT32)
+                        .addField("price", Schema.FieldType.INT32)
+                        .build())
+                .addRows(2, 3, 3, 3, 4, 5)
+                .getRows());
+    assertTrue(containsTransform(pipeline, "SideInputSemiJoin"));
+    pipeline.run();
+  }
+
+  @Test
+  public void testSemiJoinWithoutRowCountEstimate() throws Exception {
+    String sql =
+        "SELECT *  "
+            + "FROM ORDER_DETAILS1 o1"
+            + " WHERE o1.order_id IN (SELECT site_id FROM ORDER_DETAILS3)";
+
+    PCollection<Row> rows = compilePipeline(sql, pipeline);
+    PAssert.that(rows)
+        .containsInAnyOrder(
+            TestUtils.RowsBuilder.of(
+                    Schema.builder()
+                        .addField("order_id", Schema.FieldType.INT32)
+                        .addField("site_id", Schema.FieldType.INT32)
+                        .addField("price", Schema.FieldType.INT32)
+                        .build())
+                .addRows(2, 3, 3, 3, 4, 5)
+                .getRows());
+    assertTrue(containsTransform(pipeline, "SemiJoin"));
+    assertFalse(containsTransform(pipeline, "SideInputSemiJoin"));
     pipeline.run();
   }
 
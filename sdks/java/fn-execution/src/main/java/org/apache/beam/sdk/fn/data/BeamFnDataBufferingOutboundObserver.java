@@ -18,12 +18,33 @@
 package org.apache.beam.sdk.fn.data;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
 import org.apache.beam.model.fnexecution.v1.BeamFnApi;
 import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Distribution;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.metrics.MetricsContainer;
+import org.apache.beam.sdk.metrics.MetricsEnvironment;
+import org.apache.beam.sdk.options.ExperimentalOptions;
+import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.util.WindowedValue;
 import org.apache.beam.vendor.grpc.v1.io.grpc.stub.StreamObserver;
 import org.apache.beam.vendor.protobuf.v3.com.google.protobuf.ByteString;
+import org.apache.beam.vendor.protobuf.v3.com.google.protobuf.UnsafeByteOperations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,10 +52,24 @@ import org.slf4j.LoggerFactory;
  * A buffering outbound {@link FnDataReceiver} for the Beam Fn Data API.
  *
  * <p>Encodes individually consumed elements with the provided {@link Coder} producing a single
- * {@link BeamFnApi.Elements} message when the buffer threshold is surpassed.
+ * {@link BeamFnApi.Elements} message when the buffer threshold is surpassed, or when the oldest
+ * buffered element has waited for the buffer time limit if one is configured.
+ *
+ * <p>Elements are encoded directly into large chunks which are handed to the outbound observer
+ * without copying. Successive messages are carved out of the same chunk until it is full, a chunk
+ * is never written to again once its bytes have been sent since the outbound observer may still
+ * hold on to them.
  *
  * <p>The default buffer threshold can be overridden by specifying the experiment {@code
- * beam_fn_api_data_buffer_limit=<bytes>}
+ * beam_fn_api_data_buffer_limit=<bytes>}. A time limit can be set by specifying the experiment
+ * {@code beam_fn_api_data_buffer_time_limit=<milliseconds>}. The time limits of all the observers
+ * are checked by a single thread, which hands the flushes off to other threads so that an observer
+ * whose outbound observer blocks does not delay the others. The flushes on the time limit stop once
+ * the observer is closed, fails to send elements, or is {@link #cancel() cancelled}. Only observers
+ * with a time limit synchronize their methods, since they are otherwise used by a single thread.
+ *
+ * <p>The number of flushes by reason, the number of bytes per flush and the time elements waited in
+ * the buffer are reported as metrics in the namespace of this class.
  *
  * <p>TODO: Handle outputting large elements (&gt; 2GiBs). Note that this also applies to the input
  * side as well.
@@ -46,10 +81,51 @@ public class BeamFnDataBufferingOutboundObserver<T>
     implements CloseableFnDataReceiver<WindowedValue<T>> {
   // TODO: Consider moving this constant out of this class
   public static final String BEAM_FN_API_DATA_BUFFER_LIMIT = "beam_fn_api_data_buffer_limit=";
+  public static final String BEAM_FN_API_DATA_BUFFER_TIME_LIMIT =
+      "beam_fn_api_data_buffer_time_limit=";
   @VisibleForTesting static final int DEFAULT_BUFFER_LIMIT_BYTES = 1_000_000;
+  /** By default, elements are only flushed once the buffer limit is reached. */
+  @VisibleForTesting static final long DEFAULT_BUFFER_TIME_LIMIT_MS = -1L;
+  /** The size of the chunks the elements are encoded into. */
+  @VisibleForTesting static final int CHUNK_SIZE_BYTES = 64 * 1024;
+
   private static final Logger LOG =
       LoggerFactory.getLogger(BeamFnDataBufferingOutboundObserver.class);
 
+  private static final Counter SIZE_FLUSHES =
+      Metrics.counter(BeamFnDataBufferingOutboundObserver.class, "size_flushes");
+  private static final Counter TIME_FLUSHES =
+      Metrics.counter(BeamFnDataBufferingOutboundObserver.class, "time_flushes");
+  private static final Counter EXPLICIT_FLUSHES =
+      Metrics.counter(BeamFnDataBufferingOutboundObserver.class, "explicit_flushes");
+  private static final Distribution BYTES_PER_FLUSH =
+      Metrics.distribution(BeamFnDataBufferingOutboundObserver.class, "bytes_per_flush");
+  private static final Distribution BUFFER_WAIT_TIME_MS =
+      Metrics.distribution(BeamFnDataBufferingOutboundObserver.class, "buffer_wait_time_ms");
+
+  /** Checks the buffers of all the observers with a time limit, without blocking. */
+  private static final ScheduledExecutorService TIME_LIMIT_FLUSHER =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder()
+              .setDaemon(true)
+              .setNameFormat("BeamFnDataBufferingOutboundObserver-flusher-%d")
+              .build());
+
+  /** Flushes the buffers which waited for their time limit. */
+  private static final ExecutorService TIME_LIMIT_FLUSH_EXECUTOR =
+      Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder()
+              .setDaemon(true)
+              .setNameFormat("BeamFnDataBufferingOutboundObserver-flush-%d")
+              .build());
+
+  /** The reason a buffer was flushed, for the metrics. */
+  private enum FlushReason {
+    SIZE,
+    TIME,
+    EXPLICIT
+  }
+
   public static <T> BeamFnDataBufferingOutboundObserver<T> forLocation(
       LogicalEndpoint endpoint,
       Coder<WindowedValue<T>> coder,
@@ -58,34 +134,149 @@ public class BeamFnDataBufferingOutboundObserver<T>
         DEFAULT_BUFFER_LIMIT_BYTES, endpoint, coder, outboundObserver);
   }
 
+  /**
+   * Returns an observer using the buffer limits configured by the {@code
+   * beam_fn_api_data_buffer_limit} and {@code beam_fn_api_data_buffer_time_limit} experiments, or
+   * the defaults.
+   */
+  public static <T> BeamFnDataBufferingOutboundObserver<T> forLocation(
+      PipelineOptions options,
+      LogicalEndpoint endpoint,
+      Coder<WindowedValue<T>> coder,
+      StreamObserver<BeamFnApi.Elements> outboundObserver) {
+    return forLocationWithBufferLimits(
+        (int)
+            getExperimentValue(options, BEAM_FN_API_DATA_BUFFER_LIMIT, DEFAULT_BUFFER_LIMIT_BYTES),
+        getExperimentValue(
+            options, BEAM_FN_API_DATA_BUFFER_TIME_LIMIT, DEFAULT_BUFFER_TIME_LIMIT_MS),
+        endpoint,
+        coder,
+        outboundObserver);
+  }
+
   public static <T> BeamFnDataBufferingOutboundObserver<T> forLocationWithBufferLimit(
       int bufferLimit,
       LogicalEndpoint endpoint,
       Coder<WindowedValue<T>> coder,
       StreamObserver<BeamFnApi.Elements> outboundObserver) {
-    return new BeamFnDataBufferingOutboundObserver<>(
-        bufferLimit, endpoint, coder, outboundObserver);
+    return forLocationWithBufferLimits(
+        bufferLimit, DEFAULT_BUFFER_TIME_LIMIT_MS, endpoint, coder, outboundObserver);
+  }
+
+  /**
+   * Returns an observer which flushes once {@code bufferLimit} bytes are buffered, or once the
+   * oldest buffered element has waited for {@code bufferTimeLimitMs} if it is positive.
+   */
+  public static <T> BeamFnDataBufferingOutboundObserver<T> forLocationWithBufferLimits(
+      int bufferLimit,
+      long bufferTimeLimitMs,
+      LogicalEndpoint endpoint,
+      Coder<WindowedValue<T>> coder,
+      StreamObserver<BeamFnApi.Elements> outboundObserver) {
+    if (bufferTimeLimitMs <= 0) {
+      return new BeamFnDataBufferingOutboundObserver<>(
+          bufferLimit, bufferTimeLimitMs, endpoint, coder, outboundObserver);
+    }
+    BeamFnDataBufferingOutboundObserver<T> observer =
+        new TimeLimitedOutboundObserver<>(
+            bufferLimit, bufferTimeLimitMs, endpoint, coder, outboundObserver);
+    observer.flushTask =
+        TIME_LIMIT_FLUSHER.scheduleAtFixedRate(
+            observer::scheduleFlushIfExpired,
+            bufferTimeLimitMs,
+            Math.max(1, bufferTimeLimitMs / 2),
+            TimeUnit.MILLISECONDS);
+    return observer;
+  }
+
+  /** Returns the value of the given {@code <prefix><long>} experiment, or the default value. */
+  private static long getExperimentValue(
+      PipelineOptions options, String prefix, long defaultValue) {
+    List<String> experiments = options.as(ExperimentalOptions.class).getExperiments();
+    for (String experiment : experiments == null ? Collections.<String>emptyList() : experiments) {
+      if (experiment.startsWith(prefix)) {
+        return Long.parseLong(experiment.substring(prefix.length()));
+      }
+    }
+    return defaultValue;
   }
 
   private long byteCounter;
   private long counter;
   private boolean closed;
   private final int bufferLimit;
+  private final long bufferTimeLimitMs;
   private final Coder<WindowedValue<T>> coder;
   private final LogicalEndpoint outputLocation;
   private final StreamObserver<BeamFnApi.Elements> outboundObserver;
-  private final ByteString.Output bufferedElements;
+  private final ChunkedOutput bufferedElements;
+
+  /** The container to report metrics to when flushing from the time limit flusher thread. */
+  @Nullable private final MetricsContainer metricsContainer;
+
+  /**
+   * When the oldest buffered element was buffered, or -1 if the buffer is empty. Only written by
+   * the thread using the observer, or while holding its lock if it has a time limit.
+   */
+  private volatile long oldestElementMillis = -1;
+
+  @Nullable private volatile ScheduledFuture<?> flushTask;
+
+  /** Whether a flush on the time limit was handed off to the flush executor and has not run yet. */
+  private final AtomicBoolean timeFlushPending = new AtomicBoolean();
+
+  /** The first failure of a flush triggered by the time limit, to be rethrown to the caller. */
+  @Nullable private Exception flushFailure;
+
+  /**
+   * An observer with a time limit, whose buffer is also flushed from the flush executor, so that
+   * all of its methods hold its lock.
+   */
+  private static class TimeLimitedOutboundObserver<T>
+      extends BeamFnDataBufferingOutboundObserver<T> {
+    private TimeLimitedOutboundObserver(
+        int bufferLimit,
+        long bufferTimeLimitMs,
+        LogicalEndpoint outputLocation,
+        Coder<WindowedValue<T>> coder,
+        StreamObserver<BeamFnApi.Elements> outboundObserver) {
+      super(bufferLimit, bufferTimeLimitMs, outputLocation, coder, outboundObserver);
+    }
+
+    @Override
+    public synchronized void close() throws Exception {
+      super.close();
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+      super.flush();
+    }
+
+    @Override
+    public synchronized void accept(WindowedValue<T> t) throws IOException {
+      super.accept(t);
+    }
+
+    @Override
+    public synchronized void cancel() {
+      super.cancel();
+    }
+  }
 
   private BeamFnDataBufferingOutboundObserver(
       int bufferLimit,
+      long bufferTimeLimitMs,
       LogicalEndpoint outputLocation,
       Coder<WindowedValue<T>> coder,
       StreamObserver<BeamFnApi.Elements> outboundObserver) {
     this.bufferLimit = bufferLimit;
+    this.bufferTimeLimitMs = bufferTimeLimitMs;
     this.outputLocation = outputLocation;
     this.coder = coder;
     this.outboundObserver = outboundObserver;
-    this.bufferedElements = ByteString.newOutput();
+    this.bufferedElements = new ChunkedOutput();
+    this.metricsContainer = MetricsEnvironment.getCurrentContainer();
     this.closed = false;
   }
 
@@ -95,7 +286,9 @@ public class BeamFnDataBufferingOutboundObserver<T>
       throw new IllegalStateException("Already closed.");
     }
     closed = true;
-    BeamFnApi.Elements.Builder elements = convertBufferForTransmission();
+    cancelFlushTask();
+    checkFlushFailure();
+    BeamFnApi.Elements.Builder elements = convertBufferForTransmission(FlushReason.EXPLICIT);
     // This will add an empty data block representing the end of stream.
     elements
         .addDataBuilder()
@@ -114,9 +307,8 @@ public class BeamFnDataBufferingOutboundObserver<T>
 
   @Override
   public void flush() throws IOException {
-    if (bufferedElements.size() > 0) {
-      outboundObserver.onNext(convertBufferForTransmission().build());
-    }
+    checkFlushFailure();
+    flush(FlushReason.EXPLICIT);
   }
 
   @Override
@@ -124,27 +316,191 @@ public class BeamFnDataBufferingOutboundObserver<T>
     if (closed) {
       throw new IllegalStateException("Already closed.");
     }
+    checkFlushFailure();
+    if (oldestElementMillis < 0) {
+      oldestElementMillis = System.currentTimeMillis();
+    }
     coder.encode(t, bufferedElements);
     counter += 1;
     if (bufferedElements.size() >= bufferLimit) {
-      flush();
+      flush(FlushReason.SIZE);
+    }
+  }
+
+  /**
+   * Stops flushing the buffer once its oldest element waited for the time limit, without sending
+   * the buffered elements. This is meant for observers which will never be closed, since the
+   * instruction producing their elements failed.
+   */
+  public void cancel() {
+    cancelFlushTask();
+  }
+
+  private void flush(FlushReason reason) {
+    if (bufferedElements.size() > 0) {
+      try {
+        outboundObserver.onNext(convertBufferForTransmission(reason).build());
+      } catch (RuntimeException e) {
+        cancelFlushTask();
+        throw e;
+      }
+    }
+  }
+
+  private void cancelFlushTask() {
+    if (flushTask != null) {
+      flushTask.cancel(false);
+    }
+  }
+
+  /**
+   * Hands a flush off to the flush executor if the oldest buffered element waited for the time
+   * limit. This runs on the thread shared by all observers, so it must never block.
+   */
+  private void scheduleFlushIfExpired() {
+    long oldestElementMillis = this.oldestElementMillis;
+    if (oldestElementMillis < 0
+        || System.currentTimeMillis() - oldestElementMillis < bufferTimeLimitMs
+        || !timeFlushPending.compareAndSet(false, true)) {
+      return;
+    }
+    TIME_LIMIT_FLUSH_EXECUTOR.execute(
+        () -> {
+          try {
+            synchronized (this) {
+              flushIfExpired();
+            }
+          } finally {
+            timeFlushPending.set(false);
+          }
+        });
+  }
+
+  /**
+   * Flushes the buffer if its oldest element waited for the time limit. Only called for a {@link
+   * TimeLimitedOutboundObserver}, holding its lock.
+   */
+  private void flushIfExpired() {
+    if (closed
+        || (flushTask != null && flushTask.isCancelled())
+        || flushFailure != null
+        || oldestElementMillis < 0
+        || System.currentTimeMillis() - oldestElementMillis < bufferTimeLimitMs) {
+      return;
+    }
+    try (Closeable scope = MetricsEnvironment.scopedMetricsContainer(metricsContainer)) {
+      flush(FlushReason.TIME);
+    } catch (Exception e) {
+      flushFailure = e;
+      cancelFlushTask();
+    }
+  }
+
+  private void checkFlushFailure() throws IOException {
+    if (flushFailure != null) {
+      throw new IOException(
+          String.format(
+              "Failed to flush elements of instruction %s and target %s on time.",
+              outputLocation.getInstructionId(), outputLocation.getTarget()),
+          flushFailure);
     }
   }
 
-  private BeamFnApi.Elements.Builder convertBufferForTransmission() {
+  private BeamFnApi.Elements.Builder convertBufferForTransmission(FlushReason reason) {
     BeamFnApi.Elements.Builder elements = BeamFnApi.Elements.newBuilder();
     if (bufferedElements.size() == 0) {
       return elements;
     }
 
+    switch (reason) {
+      case SIZE:
+        SIZE_FLUSHES.inc();
+        break;
+      case TIME:
+        TIME_FLUSHES.inc();
+        break;
+      default:
+        EXPLICIT_FLUSHES.inc();
+    }
+    BYTES_PER_FLUSH.update(bufferedElements.size());
+    BUFFER_WAIT_TIME_MS.update(System.currentTimeMillis() - oldestElementMillis);
+    oldestElementMillis = -1;
+
+    byteCounter += bufferedElements.size();
     elements
         .addDataBuilder()
         .setInstructionReference(outputLocation.getInstructionId())
         .setTarget(outputLocation.getTarget())
-        .setData(bufferedElements.toByteString());
-
-    byteCounter += bufferedElements.size();
-    bufferedElements.reset();
+        .setData(bufferedElements.toByteStringAndReset());
     return elements;
   }
+
+  /**
+   * An {@link OutputStream} writing into fixed size chunks, whose contents are wrapped into a
+   * {@link ByteString} without copying.
+   *
+   * <p>Only the bytes written since the previous call to {@link #toByteStringAndReset()} are
+   * returned, and the rest of the current chunk is used for the following writes. Bytes which were
+   * returned are never overwritten.
+   */
+  private static class ChunkedOutput extends OutputStream {
+    private final List<ByteString> fullChunks = new ArrayList<>();
+    private byte[] chunk = new byte[CHUNK_SIZE_BYTES];
+    /** The start of the bytes of the current chunk which were not returned yet. */
+    private int chunkStart;
+
+    private int chunkPosition;
+    private int size;
+
+    @Override
+    public void write(int b) {
+      if (chunkPosition == chunk.length) {
+        nextChunk();
+      }
+      chunk[chunkPosition++] = (byte) b;
+      size += 1;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      while (len > 0) {
+        if (chunkPosition == chunk.length) {
+          nextChunk();
+        }
+        int toCopy = Math.min(len, chunk.length - chunkPosition);
+        System.arraycopy(b, off, chunk, chunkPosition, toCopy);
+        chunkPosition += toCopy;
+        size += toCopy;
+        off += toCopy;
+        len -= toCopy;
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    ByteString toByteStringAndReset() {
+      fullChunks.add(wrapCurrentChunk());
+      ByteString result = ByteString.copyFrom(fullChunks);
+      fullChunks.clear();
+      size = 0;
+      return result;
+    }
+
+    private void nextChunk() {
+      fullChunks.add(wrapCurrentChunk());
+      chunk = new byte[CHUNK_SIZE_BYTES];
+      chunkStart = 0;
+      chunkPosition = 0;
+    }
+
+    /** Wraps the bytes of the current chunk which were not returned yet. */
+    private ByteString wrapCurrentChunk() {
+      ByteString result =
+          UnsafeByteOperations.unsafeWrap(chunk, chunkStart, chunkPosition - chunkStart);
+      chunkStart = chunkPosition;
+      return result;
+    }
+  }
 }
@@ -19,7 +19,9 @@ package org.apache.beam.sdk.fn.data;
 
 import static org.apache.beam.sdk.util.WindowedValue.valueInGlobalWindow;
 import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
@@ -27,7 +29,16 @@ import com.google.common.collect.Iterables;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import org.apache.beam.model.fnexecution.v1.BeamFnApi;
 import org.apache.beam.model.fnexecution.v1.BeamFnApi.Elements;
@@ -36,6 +47,7 @@ import org.apache.beam.sdk.coders.ByteArrayCoder;
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.LengthPrefixCoder;
 import org.apache.beam.sdk.fn.test.TestStreams;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.util.WindowedValue;
 import org.apache.beam.vendor.protobuf.v3.com.google.protobuf.ByteString;
 import org.junit.Test;
@@ -150,6 +162,228 @@ public class BeamFnDataBufferingOutboundObserverTest {
         Iterables.get(values, 1));
   }
 
+  @Test
+  public void testBufferLimitsFromExperiments() throws Exception {
+    Collection<BeamFnApi.Elements> values = new ArrayList<>();
+    CloseableFnDataReceiver<WindowedValue<byte[]>> consumer =
+        BeamFnDataBufferingOutboundObserver.forLocation(
+            PipelineOptionsFactory.fromArgs(
+                    "--experiments=beam_fn_api_data_buffer_limit=100,"
+                        + "beam_fn_api_data_buffer_time_limit=60000")
+                .create(),
+            OUTPUT_LOCATION,
+            CODER,
+            TestStreams.withOnNext(addToValuesConsumer(values)).build());
+
+    consumer.accept(valueInGlobalWindow(new byte[51]));
+    assertThat(values, empty());
+    consumer.accept(valueInGlobalWindow(new byte[49]));
+    assertEquals(messageWithData(new byte[51], new byte[49]), Iterables.get(values, 0));
+    consumer.close();
+  }
+
+  @Test
+  public void testConfiguredBufferTimeLimit() throws Exception {
+    BlockingQueue<BeamFnApi.Elements> values = new LinkedBlockingQueue<>();
+    CloseableFnDataReceiver<WindowedValue<byte[]>> consumer =
+        BeamFnDataBufferingOutboundObserver.forLocationWithBufferLimits(
+            BeamFnDataBufferingOutboundObserver.DEFAULT_BUFFER_LIMIT_BYTES,
+            10L,
+            OUTPUT_LOCATION,
+            CODER,
+            TestStreams.withOnNext(addToValuesConsumer(values)).build());
+
+    // Test that elements are emitted once they waited for the time limit, although the buffer
+    // limit was not reached.
+    consumer.accept(valueInGlobalWindow(new byte[1]));
+    consumer.accept(valueInGlobalWindow(new byte[2]));
+    assertEquals(messageWithData(new byte[1], new byte[2]), values.poll(1, TimeUnit.MINUTES));
+
+    consumer.accept(valueInGlobalWindow(new byte[3]));
+    assertEquals(messageWithData(new byte[3]), values.poll(1, TimeUnit.MINUTES));
+
+    consumer.close();
+    assertEquals(messageWithData(), values.poll(1, TimeUnit.MINUTES));
+    assertThat(values, empty());
+  }
+
+  @Test
+  public void testCancelledObserverDoesNotFlushOnTime() throws Exception {
+    BlockingQueue<BeamFnApi.Elements> values = new LinkedBlockingQueue<>();
+    BeamFnDataBufferingOutboundObserver<byte[]> consumer =
+        BeamFnDataBufferingOutboundObserver.forLocationWithBufferLimits(
+            BeamFnDataBufferingOutboundObserver.DEFAULT_BUFFER_LIMIT_BYTES,
+            10L,
+            OUTPUT_LOCATION,
+            CODER,
+            TestStreams.withOnNext(addToValuesConsumer(values)).build());
+
+    consumer.accept(valueInGlobalWindow(new byte[1]));
+    consumer.cancel();
+    assertNull(values.poll(100, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testBlockedTimeLimitFlushDoesNotDelayOtherObservers() throws Exception {
+    CountDownLatch unblock = new CountDownLatch(1);
+    BlockingQueue<BeamFnApi.Elements> blockedValues = new LinkedBlockingQueue<>();
+    CloseableFnDataReceiver<WindowedValue<byte[]>> blocked =
+        BeamFnDataBufferingOutboundObserver.forLocationWithBufferLimits(
+            BeamFnDataBufferingOutboundObserver.DEFAULT_BUFFER_LIMIT_BYTES,
+            10L,
+            OUTPUT_LOCATION,
+            CODER,
+            TestStreams.<Elements>withOnNext(
+                    elements -> {
+                      try {
+                        unblock.await();
+                      } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                      }
+                      blockedValues.add(elements);
+                    })
+                .build());
+    BlockingQueue<BeamFnApi.Elements> values = new LinkedBlockingQueue<>();
+    CloseableFnDataReceiver<WindowedValue<byte[]>> consumer =
+        BeamFnDataBufferingOutboundObserver.forLocationWithBufferLimits(
+            BeamFnDataBufferingOutboundObserver.DEFAULT_BUFFER_LIMIT_BYTES,
+            10L,
+            OUTPUT_LOCATION,
+            CODER,
+            TestStreams.withOnNext(addToValuesConsumer(values)).build());
+
+    blocked.accept(valueInGlobalWindow(new byte[1]));
+    // Give the blocked observer the time to start its flush.
+    Thread.sleep(50);
+    consumer.accept(valueInGlobalWindow(new byte[2]));
+    assertEquals(messageWithData(new byte[2]), values.poll(1, TimeUnit.MINUTES));
+
+    unblock.countDown();
+    assertEquals(messageWithData(new byte[1]), blockedValues.poll(1, TimeUnit.MINUTES));
+    blocked.close();
+    consumer.close();
+  }
+
+  @Test
+  public void testFailedTimeLimitFlushIsRethrown() throws Exception {
+    AtomicInteger onNextCalls = new AtomicInteger();
+    CloseableFnDataReceiver<WindowedValue<byte[]>> consumer =
+        BeamFnDataBufferingOutboundObserver.forLocationWithBufferLimits(
+            BeamFnDataBufferingOutboundObserver.DEFAULT_BUFFER_LIMIT_BYTES,
+            10L,
+            OUTPUT_LOCATION,
+            CODER,
+            TestStreams.<Elements>withOnNext(
+                    elements -> {
+                      onNextCalls.incrementAndGet();
+                      throw new IllegalStateException("Stream failed");
+                    })
+                .build());
+
+    consumer.accept(valueInGlobalWindow(new byte[1]));
+    long deadline = System.currentTimeMillis() + 60_000;
+    while (onNextCalls.get() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    try {
+      consumer.accept(valueInGlobalWindow(new byte[2]));
+      fail("Expected the failure of the flush to be rethrown");
+    } catch (IOException e) {
+      assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+    }
+    // The flushes on the time limit stopped after the failure.
+    Thread.sleep(50);
+    assertEquals(1, onNextCalls.get());
+  }
+
+  @Test
+  public void testOnlyObserversWithTimeLimitLock() throws Exception {
+    BlockingQueue<BeamFnApi.Elements> values = new LinkedBlockingQueue<>();
+    BeamFnDataBufferingOutboundObserver<byte[]> consumer =
+        BeamFnDataBufferingOutboundObserver.forLocationWithBufferLimit(
+            1, OUTPUT_LOCATION, CODER, TestStreams.withOnNext(addToValuesConsumer(values)).build());
+    BeamFnDataBufferingOutboundObserver<byte[]> timeLimitedConsumer =
+        BeamFnDataBufferingOutboundObserver.forLocationWithBufferLimits(
+            1,
+            60_000L,
+            OUTPUT_LOCATION,
+            CODER,
+            TestStreams.withOnNext(addToValuesConsumer(values)).build());
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      synchronized (consumer) {
+        executor
+            .submit(
+                () -> {
+                  consumer.accept(valueInGlobalWindow(new byte[1]));
+                  return null;
+                })
+            .get(1, TimeUnit.MINUTES);
+      }
+      assertEquals(messageWithData(new byte[1]), values.poll());
+
+      Future<?> timeLimitedAccept;
+      synchronized (timeLimitedConsumer) {
+        timeLimitedAccept =
+            executor.submit(
+                () -> {
+                  timeLimitedConsumer.accept(valueInGlobalWindow(new byte[2]));
+                  return null;
+                });
+        try {
+          timeLimitedAccept.get(100, TimeUnit.MILLISECONDS);
+          fail("Expected the observer with a time limit to wait for its lock");
+        } catch (TimeoutException expected) {
+        }
+      }
+      timeLimitedAccept.get(1, TimeUnit.MINUTES);
+      assertEquals(messageWithData(new byte[2]), values.poll());
+      timeLimitedConsumer.close();
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testElementsSpanningChunks() throws Exception {
+    Collection<BeamFnApi.Elements> values = new ArrayList<>();
+    int chunkSize = BeamFnDataBufferingOutboundObserver.CHUNK_SIZE_BYTES;
+    CloseableFnDataReceiver<WindowedValue<byte[]>> consumer =
+        BeamFnDataBufferingOutboundObserver.forLocationWithBufferLimit(
+            3 * chunkSize,
+            OUTPUT_LOCATION,
+            CODER,
+            TestStreams.withOnNext(addToValuesConsumer(values)).build());
+
+    byte[] small = new byte[100];
+    byte[] large = new byte[2 * chunkSize];
+    for (int i = 0; i < large.length; ++i) {
+      large[i] = (byte) i;
+    }
+
+    // The first message ends in the middle of a chunk, the following ones continue in it.
+    consumer.accept(valueInGlobalWindow(small));
+    consumer.accept(valueInGlobalWindow(large));
+    consumer.accept(valueInGlobalWindow(large));
+    consumer.accept(valueInGlobalWindow(small));
+    consumer.flush();
+    consumer.accept(valueInGlobalWindow(large));
+    consumer.close();
+
+    assertEquals(3, values.size());
+    assertEquals(messageWithData(small, large, large), Iterables.get(values, 0));
+    assertEquals(messageWithData(small), Iterables.get(values, 1));
+    assertEquals(
+        BeamFnApi.Elements.newBuilder(messageWithData(large))
+            .addData(
+                BeamFnApi.Elements.Data.newBuilder()
+                    .setInstructionReference(OUTPUT_LOCATION.getInstructionId())
+                    .setTarget(OUTPUT_LOCATION.getTarget()))
+            .build(),
+        Iterables.get(values, 2));
+  }
+
   private static BeamFnApi.Elements messageWithData(byte[]... datum) throws IOException {
     ByteString.Output output = ByteString.newOutput();
     for (byte[] data : datum) {
@@ -44,7 +44,9 @@ import org.apache.beam.sdk.fn.data.FnDataReceiver;
 import org.apache.beam.sdk.fn.function.ThrowingFunction;
 import org.apache.beam.sdk.fn.function.ThrowingRunnable;
 import org.apache.beam.sdk.options.PipelineOptions;
+import org.apache.beam.sdk.options.SdkHarnessOptions;
 import org.apache.beam.sdk.transforms.Combine.CombineFn;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
 import org.apache.beam.sdk.util.SerializableUtils;
 import org.apache.beam.sdk.util.WindowedValue;
 import org.apache.beam.sdk.util.WindowedValue.WindowedValueCoder;
@@ -78,24 +80,50 @@ public class CombineRunners {
     private Coder<KeyT> keyCoder;
     private GroupingTable<WindowedValue<KeyT>, InputT, AccumT> groupingTable;
     private Coder<AccumT> accumCoder;
+    private Coder<? extends BoundedWindow> windowCoder;
 
     PrecombineRunner(
         PipelineOptions options,
         CombineFn<InputT, AccumT, ?> combineFn,
         FnDataReceiver<WindowedValue<KV<KeyT, AccumT>>> output,
         Coder<KeyT> keyCoder,
-        Coder<AccumT> accumCoder) {
+        Coder<AccumT> accumCoder,
+        Coder<? extends BoundedWindow> windowCoder) {
       this.options = options;
       this.combineFn = combineFn;
       this.output = output;
       this.keyCoder = keyCoder;
       this.accumCoder = accumCoder;
+      this.windowCoder = windowCoder;
     }
 
     void startBundle() {
-      groupingTable =
-          PrecombineGroupingTable.combiningAndSampling(
-              options, combineFn, keyCoder, accumCoder, 0.001 /*sizeEstimatorSampleRate*/);
+      switch (options.as(SdkHarnessOptions.class).getPrecombineGroupingTable()) {
+        case ENCODED_LRU:
+          groupingTable =
+              EncodedPrecombineGroupingTable.combining(
+                  options,
+                  combineFn,
+                  keyCoder,
+                  accumCoder,
+                  windowCoder,
+                  EncodedPrecombineGroupingTable.EvictionPolicy.LEAST_RECENTLY_USED);
+          break;
+        case ENCODED_LFU:
+          groupingTable =
+              EncodedPrecombineGroupingTable.combining(
+                  options,
+                  combineFn,
+                  keyCoder,
+                  accumCoder,
+                  windowCoder,
+                  EncodedPrecombineGroupingTable.EvictionPolicy.LEAST_FREQUENTLY_USED);
+          break;
+        default:
+          groupingTable =
+              PrecombineGroupingTable.combiningAndSampling(
+                  options, combineFn, keyCoder, accumCoder, 0.001 /*sizeEstimatorSampleRate*/);
+      }
     }
 
     void processElement(WindowedValue<KV<KeyT, InputT>> elem) throws Exception {
@@ -160,6 +188,11 @@ public class CombineRunners {
                   combinePayload.getCombineFn().getSpec().getPayload().toByteArray(), "CombineFn");
       Coder<AccumT> accumCoder =
           (Coder<AccumT>) rehydratedComponents.getCoder(combinePayload.getAccumulatorCoderId());
+      Coder<? extends BoundedWindow> windowCoder =
+          rehydratedComponents
+              .getWindowingStrategy(mainInput.getWindowingStrategyId())
+              .getWindowFn()
+              .windowCoder();
 
       Collection<FnDataReceiver<WindowedValue<KV<KeyT, AccumT>>>> consumers =
           (Collection)
@@ -173,7 +206,8 @@ public class CombineRunners {
               combineFn,
               MultiplexingFnDataReceiver.forConsumers(consumers),
               keyCoder,
-              accumCoder);
+              accumCoder,
+              windowCoder);
 
       // Register the appropriate handlers.
       addStartFunction.accept(runner::startBundle);
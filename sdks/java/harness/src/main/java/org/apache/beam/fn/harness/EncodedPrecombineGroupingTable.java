@@ -0,0 +1,752 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.fn.harness;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import org.apache.beam.runners.core.GlobalCombineFnRunner;
+import org.apache.beam.runners.core.GlobalCombineFnRunners;
+import org.apache.beam.runners.core.NullSideInputReader;
+import org.apache.beam.runners.core.SideInputReader;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CollectionCoder;
+import org.apache.beam.sdk.options.PipelineOptions;
+import org.apache.beam.sdk.options.SdkHarnessOptions;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo.PaneInfoCoder;
+import org.apache.beam.sdk.util.WindowedValue;
+import org.apache.beam.sdk.values.KV;
+import org.joda.time.Instant;
+
+/**
+ * A {@link GroupingTable} which combines inputs into accumulators, keeping the encoded keys and
+ * accumulators in large byte arrays instead of as objects on the heap.
+ *
+ * <p>Entries are found through an open addressing hash table over the encoded key, window and pane
+ * of the inputs. When the blocks of the entries and the index reach the maximum size of the table,
+ * entries are flushed in least recently used or least frequently used order until they are below
+ * 90% of it. The blocks of flushed entries are reused for new entries of the same size class. When
+ * a new chunk is needed while the freed blocks would make the chunks and the index exceed the
+ * maximum size, the chunks are compacted instead, so that the memory held by the table only exceeds
+ * its maximum size by less than a chunk (and while the chunks are compacted).
+ *
+ * <p>Inputs whose keys are equal but whose encodings differ, which only happens for keys with a
+ * non-deterministic coder, are combined separately. This is correct as the accumulators are merged
+ * again after the GroupByKey.
+ */
+public class EncodedPrecombineGroupingTable<K, InputT, AccumT>
+    implements GroupingTable<WindowedValue<K>, InputT, AccumT> {
+
+  /** The order in which entries are flushed when the table is full. */
+  public enum EvictionPolicy {
+    LEAST_RECENTLY_USED,
+    LEAST_FREQUENTLY_USED
+  }
+
+  /**
+   * Returns a {@link GroupingTable} that combines inputs into encoded accumulators, whose maximum
+   * size is given by {@link SdkHarnessOptions#getPrecombineGroupingTableSizeMb()}.
+   */
+  public static <K, InputT, AccumT> EncodedPrecombineGroupingTable<K, InputT, AccumT> combining(
+      PipelineOptions options,
+      CombineFn<InputT, AccumT, ?> combineFn,
+      Coder<K> keyCoder,
+      Coder<AccumT> accumulatorCoder,
+      Coder<? extends BoundedWindow> windowCoder,
+      EvictionPolicy evictionPolicy) {
+    return new EncodedPrecombineGroupingTable<>(
+        options.as(SdkHarnessOptions.class).getPrecombineGroupingTableSizeMb() * BYTES_PER_MB,
+        evictionPolicy,
+        options,
+        GlobalCombineFnRunners.create(combineFn),
+        keyCoder,
+        accumulatorCoder,
+        windowCoder);
+  }
+
+  private static final long BYTES_PER_MB = 1024 * 1024;
+
+  // Flush the table down to this fraction of its maximum size once it is full.
+  private static final double TARGET_LOAD = 0.9;
+
+  /** The maximum size of the chunks from which the blocks holding the entries are allocated. */
+  private static final int MAX_CHUNK_SIZE = 1 << 20;
+
+  /** The smallest block allocated for an entry is {@code 1 << MIN_BLOCK_SIZE_CLASS} bytes. */
+  private static final int MIN_BLOCK_SIZE_CLASS = 6;
+
+  private static final int INITIAL_ENTRY_CAPACITY = 256;
+
+  /** Maximum fraction of the slots of the index which are in use. */
+  private static final double MAX_INDEX_LOAD = 0.5;
+
+  /**
+   * Each entry is stored in a block of a power of two size, starting with a header made of:
+   *
+   * <ul>
+   *   <li>the size class of the block (int),
+   *   <li>the length of the encoded grouping key (int),
+   *   <li>the length of the encoded accumulator (int),
+   *   <li>the timestamp of the first input of the entry (long),
+   * </ul>
+   *
+   * <p>followed by the encoded grouping key and the encoded accumulator.
+   */
+  private static final int SIZE_CLASS_OFFSET = 0;
+
+  private static final int KEY_LENGTH_OFFSET = 4;
+  private static final int ACCUMULATOR_LENGTH_OFFSET = 8;
+  private static final int TIMESTAMP_OFFSET = 12;
+  private static final int HEADER_SIZE = 20;
+
+  /** Bytes of the per entry arrays: address, hash, use count, previous, next and free id. */
+  private static final int BYTES_PER_ENTRY = 8 + 4 + 8 + 4 + 4 + 4;
+
+  private static final int NO_ENTRY = -1;
+
+  private final EvictionPolicy evictionPolicy;
+  private final PipelineOptions options;
+  private final SideInputReader sideInputReader = NullSideInputReader.empty();
+  private final GlobalCombineFnRunner<InputT, AccumT, ?> combineFn;
+  private final Coder<K> keyCoder;
+  private final Coder<AccumT> accumulatorCoder;
+  private final Coder<Collection<? extends BoundedWindow>> windowsCoder;
+  private final int chunkSize;
+  private long maxSize;
+
+  /** Reused buffers for encoding grouping keys and accumulators. */
+  private final ReusableByteArrayOutputStream keyBuffer = new ReusableByteArrayOutputStream();
+
+  private final ReusableByteArrayOutputStream accumulatorBuffer =
+      new ReusableByteArrayOutputStream();
+  private final ArenaInputStream arenaInputStream = new ArenaInputStream();
+
+  /** The chunks from which blocks are allocated, addressed by their index in this list. */
+  private final List<byte[]> chunks = new ArrayList<>();
+
+  private int chunkOffset;
+
+  /** Addresses of the freed blocks, for each size class. */
+  private final LongStack[] freeBlocks = new LongStack[32];
+
+  /** The number of bytes of the freed blocks. */
+  private long freeBytes;
+
+  /** The number of bytes of the blocks of all the entries in the table. */
+  private long blockBytes;
+
+  /** The number of bytes of all the chunks, including the freed blocks. */
+  private long chunkBytes;
+
+  /**
+   * The index of the table: each slot holds the id of an entry plus one, or zero if the slot is
+   * empty. Collisions are resolved by linear probing.
+   */
+  private int[] slots;
+
+  /** Per entry arrays, indexed by entry id. */
+  private long[] addresses;
+
+  private int[] hashes;
+  private long[] useCounts;
+
+  /** The entries ordered from least to most recently used, as a doubly linked list. */
+  private int[] previous;
+
+  private int[] next;
+  private int leastRecentlyUsed;
+  private int mostRecentlyUsed;
+
+  private int numEntries;
+
+  /** Ids of entries which were removed, to be reused before never used ids. */
+  private int[] freeEntryIds;
+
+  private int numFreeEntryIds;
+  private int numUsedEntryIds;
+
+  @VisibleForTesting
+  EncodedPrecombineGroupingTable(
+      long maxSize,
+      EvictionPolicy evictionPolicy,
+      PipelineOptions options,
+      GlobalCombineFnRunner<InputT, AccumT, ?> combineFn,
+      Coder<K> keyCoder,
+      Coder<AccumT> accumulatorCoder,
+      Coder<? extends BoundedWindow> windowCoder) {
+    this.maxSize = maxSize;
+    this.evictionPolicy = evictionPolicy;
+    this.options = options;
+    this.combineFn = combineFn;
+    this.keyCoder = keyCoder;
+    this.accumulatorCoder = accumulatorCoder;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    Coder<Collection<? extends BoundedWindow>> windowsCoder =
+        (Coder) CollectionCoder.of(windowCoder);
+    this.windowsCoder = windowsCoder;
+    this.chunkSize = (int) Math.max(1024, Math.min(MAX_CHUNK_SIZE, maxSize / 16));
+    for (int i = 0; i < freeBlocks.length; ++i) {
+      freeBlocks[i] = new LongStack();
+    }
+    reset();
+  }
+
+  /** Adds a pair to this table, possibly flushing some entries to output if the table is full. */
+  @Override
+  @SuppressWarnings("unchecked")
+  public void put(Object pair, Receiver receiver) throws Exception {
+    WindowedValue<KV<K, InputT>> windowedKv = (WindowedValue<KV<K, InputT>>) pair;
+    Collection<? extends BoundedWindow> windows = windowedKv.getWindows();
+
+    keyBuffer.reset();
+    keyCoder.encode(windowedKv.getValue().getKey(), keyBuffer);
+    windowsCoder.encode(windows, keyBuffer);
+    PaneInfoCoder.INSTANCE.encode(windowedKv.getPane(), keyBuffer);
+    byte[] key = keyBuffer.buffer();
+    int keyLength = keyBuffer.size();
+    int hash = hash(key, keyLength);
+
+    int slot = findSlot(key, keyLength, hash);
+    AccumT accumulator;
+    if (slots[slot] == 0) {
+      accumulator = combineFn.createAccumulator(options, sideInputReader, windows);
+    } else {
+      accumulator = decodeAccumulator(addresses[slots[slot] - 1]);
+    }
+    accumulator =
+        combineFn.addInput(
+            accumulator, windowedKv.getValue().getValue(), options, sideInputReader, windows);
+    accumulatorBuffer.reset();
+    accumulatorCoder.encode(accumulator, accumulatorBuffer);
+
+    if (slots[slot] == 0) {
+      insert(slot, hash, key, keyLength, windowedKv.getTimestamp());
+    } else {
+      update(slots[slot] - 1);
+    }
+
+    if (size() >= maxSize) {
+      evict((long) (TARGET_LOAD * maxSize), receiver);
+    }
+  }
+
+  /** Flushes all entries in this table to output. */
+  @Override
+  public void flush(Receiver output) throws Exception {
+    for (int entry = leastRecentlyUsed; entry != NO_ENTRY; entry = next[entry]) {
+      output(entry, output);
+    }
+    reset();
+  }
+
+  @VisibleForTesting
+  void setMaxSize(long maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /** Returns the number of bytes used by the entries and the index of this table. */
+  @VisibleForTesting
+  long size() {
+    return blockBytes + indexSize();
+  }
+
+  /** Returns the number of bytes held by the chunks and the index of this table. */
+  @VisibleForTesting
+  long reservedSize() {
+    return chunkBytes + indexSize();
+  }
+
+  private long indexSize() {
+    return 4L * slots.length + (long) BYTES_PER_ENTRY * addresses.length;
+  }
+
+  @VisibleForTesting
+  int numEntries() {
+    return numEntries;
+  }
+
+  /** Drops all the entries of the table and releases its memory. */
+  private void reset() {
+    chunks.clear();
+    chunkOffset = chunkSize;
+    for (LongStack stack : freeBlocks) {
+      stack.clear();
+    }
+    freeBytes = 0;
+    blockBytes = 0;
+    chunkBytes = 0;
+    slots = new int[(int) (INITIAL_ENTRY_CAPACITY / MAX_INDEX_LOAD)];
+    addresses = new long[INITIAL_ENTRY_CAPACITY];
+    hashes = new int[INITIAL_ENTRY_CAPACITY];
+    useCounts = new long[INITIAL_ENTRY_CAPACITY];
+    previous = new int[INITIAL_ENTRY_CAPACITY];
+    next = new int[INITIAL_ENTRY_CAPACITY];
+    freeEntryIds = new int[INITIAL_ENTRY_CAPACITY];
+    numFreeEntryIds = 0;
+    numUsedEntryIds = 0;
+    numEntries = 0;
+    leastRecentlyUsed = NO_ENTRY;
+    mostRecentlyUsed = NO_ENTRY;
+  }
+
+  /**
+   * Returns the slot holding the entry with the given encoded key, or the empty slot where it
+   * should be inserted.
+   */
+  private int findSlot(byte[] key, int keyLength, int hash) {
+    int mask = slots.length - 1;
+    for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+      int entry = slots[slot] - 1;
+      if (entry < 0 || (hashes[entry] == hash && keyEquals(addresses[entry], key, keyLength))) {
+        return slot;
+      }
+    }
+  }
+
+  private boolean keyEquals(long address, byte[] key, int keyLength) {
+    byte[] chunk = chunk(address);
+    int offset = offset(address);
+    if (readInt(chunk, offset + KEY_LENGTH_OFFSET) != keyLength) {
+      return false;
+    }
+    int keyOffset = offset + HEADER_SIZE;
+    for (int i = 0; i < keyLength; ++i) {
+      if (chunk[keyOffset + i] != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Inserts a new entry with the encoded accumulator held by {@link #accumulatorBuffer}. */
+  private void insert(int slot, int hash, byte[] key, int keyLength, Instant timestamp) {
+    int entry = newEntryId();
+    long address = allocateBlock(HEADER_SIZE + keyLength + accumulatorBuffer.size());
+    byte[] chunk = chunk(address);
+    int offset = offset(address);
+    writeInt(chunk, offset + KEY_LENGTH_OFFSET, keyLength);
+    writeLong(chunk, offset + TIMESTAMP_OFFSET, timestamp.getMillis());
+    System.arraycopy(key, 0, chunk, offset + HEADER_SIZE, keyLength);
+    writeAccumulator(chunk, offset);
+
+    addresses[entry] = address;
+    hashes[entry] = hash;
+    useCounts[entry] = 1;
+    linkAsMostRecentlyUsed(entry);
+    slots[slot] = entry + 1;
+    numEntries++;
+    if (numEntries > MAX_INDEX_LOAD * slots.length) {
+      growIndex();
+    }
+  }
+
+  /** Replaces the accumulator of the entry with the one held by {@link #accumulatorBuffer}. */
+  private void update(int entry) {
+    long address = addresses[entry];
+    byte[] chunk = chunk(address);
+    int offset = offset(address);
+    int keyLength = readInt(chunk, offset + KEY_LENGTH_OFFSET);
+    int requiredSize = HEADER_SIZE + keyLength + accumulatorBuffer.size();
+    if (requiredSize > blockSize(readInt(chunk, offset + SIZE_CLASS_OFFSET))) {
+      // Move the entry to a larger block. Allocating it may compact the chunks.
+      long newAddress = allocateBlock(requiredSize);
+      address = addresses[entry];
+      chunk = chunk(address);
+      offset = offset(address);
+      byte[] newChunk = chunk(newAddress);
+      int newOffset = offset(newAddress);
+      System.arraycopy(
+          chunk, offset + KEY_LENGTH_OFFSET, newChunk, newOffset + KEY_LENGTH_OFFSET, 4);
+      System.arraycopy(chunk, offset + TIMESTAMP_OFFSET, newChunk, newOffset + TIMESTAMP_OFFSET, 8);
+      System.arraycopy(chunk, offset + HEADER_SIZE, newChunk, newOffset + HEADER_SIZE, keyLength);
+      freeBlock(address);
+      addresses[entry] = newAddress;
+      chunk = newChunk;
+      offset = newOffset;
+    }
+    writeAccumulator(chunk, offset);
+
+    useCounts[entry]++;
+    unlink(entry);
+    linkAsMostRecentlyUsed(entry);
+  }
+
+  private void writeAccumulator(byte[] chunk, int offset) {
+    int keyLength = readInt(chunk, offset + KEY_LENGTH_OFFSET);
+    writeInt(chunk, offset + ACCUMULATOR_LENGTH_OFFSET, accumulatorBuffer.size());
+    System.arraycopy(
+        accumulatorBuffer.buffer(),
+        0,
+        chunk,
+        offset + HEADER_SIZE + keyLength,
+        accumulatorBuffer.size());
+  }
+
+  private AccumT decodeAccumulator(long address) throws IOException {
+    byte[] chunk = chunk(address);
+    int offset = offset(address);
+    int keyLength = readInt(chunk, offset + KEY_LENGTH_OFFSET);
+    arenaInputStream.reset(
+        chunk,
+        offset + HEADER_SIZE + keyLength,
+        readInt(chunk, offset + ACCUMULATOR_LENGTH_OFFSET));
+    return accumulatorCoder.decode(arenaInputStream);
+  }
+
+  /** Flushes entries in the order of the eviction policy until the table is below the target. */
+  private void evict(long targetSize, Receiver receiver) throws Exception {
+    if (evictionPolicy == EvictionPolicy.LEAST_RECENTLY_USED) {
+      while (size() > targetSize && leastRecentlyUsed != NO_ENTRY) {
+        int entry = leastRecentlyUsed;
+        output(entry, receiver);
+        remove(entry);
+      }
+    } else {
+      // Sort the entries by use count, breaking ties by recency. Use counts are capped so that
+      // they can be packed with the recency rank of the entry.
+      int[] entriesByRecency = new int[numEntries];
+      long[] order = new long[numEntries];
+      int rank = 0;
+      for (int entry = leastRecentlyUsed; entry != NO_ENTRY; entry = next[entry]) {
+        entriesByRecency[rank] = entry;
+        order[rank] = (Math.min(useCounts[entry], Integer.MAX_VALUE) << 32) | rank;
+        rank++;
+      }
+      Arrays.sort(order);
+      for (int i = 0; i < order.length && size() > targetSize; ++i) {
+        int entry = entriesByRecency[(int) order[i]];
+        output(entry, receiver);
+        remove(entry);
+      }
+    }
+  }
+
+  /** Outputs the entry without removing it from the table. */
+  private void output(int entry, Receiver receiver) throws Exception {
+    long address = addresses[entry];
+    byte[] chunk = chunk(address);
+    int offset = offset(address);
+    int keyLength = readInt(chunk, offset + KEY_LENGTH_OFFSET);
+    arenaInputStream.reset(chunk, offset + HEADER_SIZE, keyLength);
+    K key = keyCoder.decode(arenaInputStream);
+    Collection<? extends BoundedWindow> windows = windowsCoder.decode(arenaInputStream);
+    PaneInfo pane = PaneInfoCoder.INSTANCE.decode(arenaInputStream);
+    Instant timestamp = new Instant(readLong(chunk, offset + TIMESTAMP_OFFSET));
+    AccumT accumulator =
+        combineFn.compact(decodeAccumulator(address), options, sideInputReader, windows);
+    receiver.process(WindowedValue.of(KV.of(key, accumulator), timestamp, windows, pane));
+  }
+
+  private void remove(int entry) {
+    // Find the slot of the entry and remove it using backward shift deletion.
+    int mask = slots.length - 1;
+    int slot = hashes[entry] & mask;
+    while (slots[slot] != entry + 1) {
+      slot = (slot + 1) & mask;
+    }
+    int empty = slot;
+    for (slot = (slot + 1) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+      int home = hashes[slots[slot] - 1] & mask;
+      // Move the entry to the empty slot unless its home slot is cyclically in (empty, slot].
+      boolean homeBetween =
+          empty <= slot ? (empty < home && home <= slot) : (empty < home || home <= slot);
+      if (!homeBetween) {
+        slots[empty] = slots[slot];
+        empty = slot;
+      }
+    }
+    slots[empty] = 0;
+
+    freeBlock(addresses[entry]);
+    unlink(entry);
+    freeEntryIds[numFreeEntryIds++] = entry;
+    numEntries--;
+  }
+
+  private int newEntryId() {
+    if (numFreeEntryIds > 0) {
+      return freeEntryIds[--numFreeEntryIds];
+    }
+    if (numUsedEntryIds == addresses.length) {
+      int capacity = 2 * addresses.length;
+      addresses = Arrays.copyOf(addresses, capacity);
+      hashes = Arrays.copyOf(hashes, capacity);
+      useCounts = Arrays.copyOf(useCounts, capacity);
+      previous = Arrays.copyOf(previous, capacity);
+      next = Arrays.copyOf(next, capacity);
+      freeEntryIds = Arrays.copyOf(freeEntryIds, capacity);
+    }
+    return numUsedEntryIds++;
+  }
+
+  private void growIndex() {
+    int[] oldSlots = slots;
+    slots = new int[2 * oldSlots.length];
+    int mask = slots.length - 1;
+    for (int value : oldSlots) {
+      if (value != 0) {
+        int slot = hashes[value - 1] & mask;
+        while (slots[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        slots[slot] = value;
+      }
+    }
+  }
+
+  private void linkAsMostRecentlyUsed(int entry) {
+    previous[entry] = mostRecentlyUsed;
+    next[entry] = NO_ENTRY;
+    if (mostRecentlyUsed == NO_ENTRY) {
+      leastRecentlyUsed = entry;
+    } else {
+      next[mostRecentlyUsed] = entry;
+    }
+    mostRecentlyUsed = entry;
+  }
+
+  private void unlink(int entry) {
+    if (previous[entry] == NO_ENTRY) {
+      leastRecentlyUsed = next[entry];
+    } else {
+      next[previous[entry]] = next[entry];
+    }
+    if (next[entry] == NO_ENTRY) {
+      mostRecentlyUsed = previous[entry];
+    } else {
+      previous[next[entry]] = previous[entry];
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  // Block allocation.
+
+  /** Returns the address of a block of at least the given size. */
+  private long allocateBlock(int size) {
+    int sizeClass = Math.max(MIN_BLOCK_SIZE_CLASS, 32 - Integer.numberOfLeadingZeros(size - 1));
+    checkArgument(sizeClass < 31, "Entry of %s bytes is too large", size);
+    int blockSize = blockSize(sizeClass);
+    long address;
+    if (!freeBlocks[sizeClass].isEmpty()) {
+      address = freeBlocks[sizeClass].pop();
+      freeBytes -= blockSize;
+    } else {
+      long newChunkSize = newChunkSize(blockSize);
+      if (newChunkSize > 0
+          && reservedSize() + newChunkSize > maxSize
+          && freeBytes >= newChunkSize) {
+        compact();
+      }
+      address = carveBlock(blockSize);
+    }
+    writeInt(chunk(address), offset(address) + SIZE_CLASS_OFFSET, sizeClass);
+    blockBytes += blockSize;
+    return address;
+  }
+
+  /** Returns the size of the chunk to add to carve a block of the given size, or 0 if none. */
+  private long newChunkSize(int blockSize) {
+    if (blockSize > chunkSize) {
+      return blockSize;
+    }
+    return chunkOffset + blockSize > chunkSize ? chunkSize : 0;
+  }
+
+  /** Returns the address of a block carved from the last chunk, or from a new chunk. */
+  private long carveBlock(int blockSize) {
+    if (blockSize > chunkSize) {
+      chunks.add(new byte[blockSize]);
+      chunkBytes += blockSize;
+      return address(chunks.size() - 1, 0);
+    }
+    if (chunkOffset + blockSize > chunkSize) {
+      chunks.add(new byte[chunkSize]);
+      chunkBytes += chunkSize;
+      chunkOffset = 0;
+    }
+    long address = address(chunks.size() - 1, chunkOffset);
+    chunkOffset += blockSize;
+    return address;
+  }
+
+  /**
+   * Copies the blocks of all the entries into new chunks, releasing the freed blocks and the unused
+   * ends of the chunks.
+   */
+  private void compact() {
+    List<byte[]> oldChunks = new ArrayList<>(chunks);
+    chunks.clear();
+    chunkOffset = chunkSize;
+    chunkBytes = 0;
+    for (LongStack stack : freeBlocks) {
+      stack.clear();
+    }
+    freeBytes = 0;
+    for (int entry = leastRecentlyUsed; entry != NO_ENTRY; entry = next[entry]) {
+      long address = addresses[entry];
+      byte[] oldChunk = oldChunks.get((int) (address >>> 32));
+      int oldOffset = offset(address);
+      int blockSize = blockSize(readInt(oldChunk, oldOffset + SIZE_CLASS_OFFSET));
+      long newAddress = carveBlock(blockSize);
+      System.arraycopy(oldChunk, oldOffset, chunk(newAddress), offset(newAddress), blockSize);
+      addresses[entry] = newAddress;
+    }
+  }
+
+  private void freeBlock(long address) {
+    int sizeClass = readInt(chunk(address), offset(address) + SIZE_CLASS_OFFSET);
+    freeBlocks[sizeClass].push(address);
+    freeBytes += blockSize(sizeClass);
+    blockBytes -= blockSize(sizeClass);
+  }
+
+  private static int blockSize(int sizeClass) {
+    return 1 << sizeClass;
+  }
+
+  private static long address(int chunk, int offset) {
+    return ((long) chunk << 32) | offset;
+  }
+
+  private byte[] chunk(long address) {
+    return chunks.get((int) (address >>> 32));
+  }
+
+  private static int offset(long address) {
+    return (int) address;
+  }
+
+  private static int hash(byte[] bytes, int length) {
+    int hash = 1;
+    for (int i = 0; i < length; ++i) {
+      hash = 31 * hash + bytes[i];
+    }
+    // Spread the bits as the index uses the lowest bits of the hash.
+    hash *= 0x9E3779B9;
+    return hash ^ (hash >>> 16);
+  }
+
+  private static int readInt(byte[] bytes, int offset) {
+    return ((bytes[offset] & 0xFF) << 24)
+        | ((bytes[offset + 1] & 0xFF) << 16)
+        | ((bytes[offset + 2] & 0xFF) << 8)
+        | (bytes[offset + 3] & 0xFF);
+  }
+
+  private static void writeInt(byte[] bytes, int offset, int value) {
+    bytes[offset] = (byte) (value >>> 24);
+    bytes[offset + 1] = (byte) (value >>> 16);
+    bytes[offset + 2] = (byte) (value >>> 8);
+    bytes[offset + 3] = (byte) value;
+  }
+
+  private static long readLong(byte[] bytes, int offset) {
+    return ((long) readInt(bytes, offset) << 32) | (readInt(bytes, offset + 4) & 0xFFFFFFFFL);
+  }
+
+  private static void writeLong(byte[] bytes, int offset, long value) {
+    writeInt(bytes, offset, (int) (value >>> 32));
+    writeInt(bytes, offset + 4, (int) value);
+  }
+
+  /** A growable stack of longs. */
+  private static class LongStack {
+    private long[] values = new long[16];
+    private int size;
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    void push(long value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, 2 * size);
+      }
+      values[size++] = value;
+    }
+
+    long pop() {
+      return values[--size];
+    }
+
+    void clear() {
+      size = 0;
+    }
+  }
+
+  /** A {@link ByteArrayOutputStream} exposing its buffer, which is reused for encoding. */
+  private static class ReusableByteArrayOutputStream extends ByteArrayOutputStream {
+    byte[] buffer() {
+      return buf;
+    }
+  }
+
+  /** An {@link InputStream} over a range of a chunk, which is reused for decoding. */
+  private static class ArenaInputStream extends InputStream {
+    private byte[] bytes;
+    private int position;
+    private int limit;
+
+    void reset(byte[] bytes, int offset, int length) {
+      this.bytes = bytes;
+      this.position = offset;
+      this.limit = offset + length;
+    }
+
+    @Override
+    public int read() {
+      return position < limit ? bytes[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (position >= limit) {
+        return -1;
+      }
+      int n = Math.min(len, limit - position);
+      System.arraycopy(bytes, position, b, off, n);
+      position += n;
+      return n;
+    }
+
+    @Override
+    public long skip(long n) {
+      long skipped = Math.max(0, Math.min(n, limit - position));
+      position += (int) skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return limit - position;
+    }
+  }
+}
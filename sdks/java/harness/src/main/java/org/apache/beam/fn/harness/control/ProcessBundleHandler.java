@@ -43,6 +43,7 @@ import org.apache.beam.fn.harness.PTransformRunnerFactory.Registrar;
 import org.apache.beam.fn.harness.data.BeamFnDataClient;
 import org.apache.beam.fn.harness.state.BeamFnStateClient;
 import org.apache.beam.fn.harness.state.BeamFnStateGrpcClientCache;
+import org.apache.beam.fn.harness.state.StateCache;
 import org.apache.beam.model.fnexecution.v1.BeamFnApi;
 import org.apache.beam.model.fnexecution.v1.BeamFnApi.BundleApplication;
 import org.apache.beam.model.fnexecution.v1.BeamFnApi.DelayedBundleApplication;
@@ -59,7 +60,11 @@ import org.apache.beam.model.pipeline.v1.RunnerApi.PCollection;
 import org.apache.beam.model.pipeline.v1.RunnerApi.PTransform;
 import org.apache.beam.model.pipeline.v1.RunnerApi.WindowingStrategy;
 import org.apache.beam.runners.core.construction.PTransformTranslation;
+import org.apache.beam.sdk.fn.data.BeamFnDataBufferingOutboundObserver;
+import org.apache.beam.sdk.fn.data.CloseableFnDataReceiver;
 import org.apache.beam.sdk.fn.data.FnDataReceiver;
+import org.apache.beam.sdk.fn.data.InboundDataClient;
+import org.apache.beam.sdk.fn.data.LogicalEndpoint;
 import org.apache.beam.sdk.fn.function.ThrowingRunnable;
 import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.util.WindowedValue;
@@ -104,6 +109,7 @@ public class ProcessBundleHandler {
   private final Function<String, Message> fnApiRegistry;
   private final BeamFnDataClient beamFnDataClient;
   private final BeamFnStateGrpcClientCache beamFnStateGrpcClientCache;
+  private final StateCache stateCache;
   private final Map<String, PTransformRunnerFactory> urnToPTransformRunnerFactoryMap;
   private final PTransformRunnerFactory defaultPTransformRunnerFactory;
 
@@ -131,12 +137,14 @@ public class ProcessBundleHandler {
     this.fnApiRegistry = fnApiRegistry;
     this.beamFnDataClient = beamFnDataClient;
     this.beamFnStateGrpcClientCache = beamFnStateGrpcClientCache;
+    this.stateCache = StateCache.fromOptions(options);
     this.urnToPTransformRunnerFactoryMap = urnToPTransformRunnerFactoryMap;
     this.defaultPTransformRunnerFactory =
         new UnknownPTransformRunnerFactory(urnToPTransformRunnerFactoryMap.keySet());
   }
 
   private void createRunnerAndConsumersForPTransformRecursively(
+      BeamFnDataClient beamFnDataClient,
       BeamFnStateClient beamFnStateClient,
       String pTransformId,
       PTransform pTransform,
@@ -157,6 +165,7 @@ public class ProcessBundleHandler {
 
       for (String consumingPTransformId : pCollectionIdsToConsumingPTransforms.get(pCollectionId)) {
         createRunnerAndConsumersForPTransformRecursively(
+            beamFnDataClient,
             beamFnStateClient,
             consumingPTransformId,
             processBundleDescriptor.getTransformsMap().get(consumingPTransformId),
@@ -230,11 +239,15 @@ public class ProcessBundleHandler {
     // Instantiate a State API call handler depending on whether a State Api service descriptor
     // was specified.
     try (HandleStateCallsForBundle beamFnStateClient =
-        bundleDescriptor.hasStateApiServiceDescriptor()
-            ? new BlockTillStateCallsFinish(
-                beamFnStateGrpcClientCache.forApiServiceDescriptor(
-                    bundleDescriptor.getStateApiServiceDescriptor()))
-            : new FailAllStateCallsForBundle(request.getProcessBundle())) {
+            bundleDescriptor.hasStateApiServiceDescriptor()
+                ? new BlockTillStateCallsFinish(
+                    stateCache.forBundle(
+                        beamFnStateGrpcClientCache.forApiServiceDescriptor(
+                            bundleDescriptor.getStateApiServiceDescriptor()),
+                        request.getProcessBundle().getCacheTokensList()))
+                : new FailAllStateCallsForBundle(request.getProcessBundle());
+        CancelOutboundDataForBundle beamFnDataClientForBundle =
+            new CancelOutboundDataForBundle(beamFnDataClient)) {
       Multimap<String, BundleApplication> allPrimaries = ArrayListMultimap.create();
       Multimap<String, DelayedBundleApplication> allResiduals = ArrayListMultimap.create();
       BundleSplitListener splitListener =
@@ -265,6 +278,7 @@ public class ProcessBundleHandler {
         }
 
         createRunnerAndConsumersForPTransformRecursively(
+            beamFnDataClientForBundle,
             beamFnStateClient,
             entry.getKey(),
             entry.getValue(),
@@ -293,6 +307,10 @@ public class ProcessBundleHandler {
         response.addAllResidualRoots(allResiduals.values());
       }
     }
+    LOG.debug(
+        "State cache statistics after bundle {}: {}",
+        request.getInstructionId(),
+        stateCache.getStats());
 
     return BeamFnApi.InstructionResponse.newBuilder().setProcessBundle(response);
   }
@@ -305,15 +323,29 @@ public class ProcessBundleHandler {
     private final BeamFnStateClient beamFnStateClient;
     private final Phaser phaser;
     private int currentPhase;
+    // Prefetch requests which have not completed yet. Guarded by this.
+    private final Set<CompletableFuture<StateResponse>> pendingPrefetches;
+    private boolean closed;
 
     private BlockTillStateCallsFinish(BeamFnStateClient beamFnStateClient) {
       this.beamFnStateClient = beamFnStateClient;
       this.phaser = new Phaser(1 /* initial party is the process bundle handler */);
       this.currentPhase = phaser.getPhase();
+      this.pendingPrefetches = new HashSet<>();
     }
 
     @Override
     public void close() throws Exception {
+      // Nothing will read the responses to outstanding prefetches anymore, so cancel them instead
+      // of waiting for them, and refuse prefetches which are chained off of completed requests.
+      List<CompletableFuture<StateResponse>> prefetchesToCancel;
+      synchronized (this) {
+        closed = true;
+        prefetchesToCancel = new ArrayList<>(pendingPrefetches);
+      }
+      for (CompletableFuture<StateResponse> prefetch : prefetchesToCancel) {
+        prefetch.cancel(false);
+      }
       int unarrivedParties = phaser.getUnarrivedParties();
       if (unarrivedParties > 0) {
         LOG.debug(
@@ -335,6 +367,29 @@ public class ProcessBundleHandler {
       response.whenComplete((stateResponse, throwable) -> phaser.arriveAndDeregister());
       beamFnStateClient.handle(requestBuilder, response);
     }
+
+    @Override
+    @SuppressWarnings("FutureReturnValueIgnored") // async removal task doesn't need monitoring.
+    public void prefetch(
+        StateRequest.Builder requestBuilder, CompletableFuture<StateResponse> response) {
+      synchronized (this) {
+        if (closed) {
+          response.cancel(false);
+          return;
+        }
+        pendingPrefetches.add(response);
+      }
+      response.whenComplete(
+          (stateResponse, throwable) -> {
+            synchronized (this) {
+              pendingPrefetches.remove(response);
+            }
+          });
+      // The prefetch may have been cancelled by a concurrent close.
+      if (!response.isDone()) {
+        handle(requestBuilder, response);
+      }
+    }
   }
 
   /**
@@ -366,6 +421,56 @@ public class ProcessBundleHandler {
   private abstract static class HandleStateCallsForBundle
       implements AutoCloseable, BeamFnStateClient {}
 
+  /**
+   * A {@link BeamFnDataClient} which cancels the outbound receivers of a bundle when the bundle
+   * finishes, so that the receivers of a failed bundle, which are never closed, stop flushing their
+   * buffered elements on their own.
+   */
+  private static class CancelOutboundDataForBundle implements AutoCloseable, BeamFnDataClient {
+    private final BeamFnDataClient beamFnDataClient;
+    private final List<CloseableFnDataReceiver<?>> outboundReceivers;
+
+    private CancelOutboundDataForBundle(BeamFnDataClient beamFnDataClient) {
+      this.beamFnDataClient = beamFnDataClient;
+      this.outboundReceivers = new ArrayList<>();
+    }
+
+    @Override
+    public <T> InboundDataClient receive(
+        ApiServiceDescriptor apiServiceDescriptor,
+        LogicalEndpoint inputLocation,
+        org.apache.beam.sdk.coders.Coder<WindowedValue<T>> coder,
+        FnDataReceiver<WindowedValue<T>> receiver) {
+      return beamFnDataClient.receive(apiServiceDescriptor, inputLocation, coder, receiver);
+    }
+
+    @Override
+    public <T> CloseableFnDataReceiver<WindowedValue<T>> send(
+        ApiServiceDescriptor apiServiceDescriptor,
+        LogicalEndpoint outputLocation,
+        org.apache.beam.sdk.coders.Coder<WindowedValue<T>> coder) {
+      CloseableFnDataReceiver<WindowedValue<T>> receiver =
+          beamFnDataClient.send(apiServiceDescriptor, outputLocation, coder);
+      synchronized (outboundReceivers) {
+        outboundReceivers.add(receiver);
+      }
+      return receiver;
+    }
+
+    @Override
+    public void close() {
+      synchronized (outboundReceivers) {
+        for (CloseableFnDataReceiver<?> receiver : outboundReceivers) {
+          // Cancelling a receiver which was closed has no effect.
+          if (receiver instanceof BeamFnDataBufferingOutboundObserver) {
+            ((BeamFnDataBufferingOutboundObserver<?>) receiver).cancel();
+          }
+        }
+        outboundReceivers.clear();
+      }
+    }
+  }
+
   private static class UnknownPTransformRunnerFactory implements PTransformRunnerFactory<Object> {
     private final Set<String> knownUrns;
 
@@ -40,7 +40,7 @@ import org.apache.beam.vendor.protobuf.v3.com.google.protobuf.ByteString;
  * <p>TODO: Move to an async persist model where persistence is signalled based upon cache memory
  * pressure and its need to flush.
  *
- * <p>TODO: Support block level caching and prefetch.
+ * <p>TODO: Support block level caching.
  */
 public class BagUserState<T> {
   private final BeamFnStateClient beamFnStateClient;
@@ -58,6 +58,31 @@ public class BagUserState<T> {
       ByteString encodedWindow,
       ByteString encodedKey,
       Coder<T> valueCoder) {
+    this(
+        beamFnStateClient,
+        instructionId,
+        ptransformId,
+        stateId,
+        encodedWindow,
+        encodedKey,
+        valueCoder,
+        0);
+  }
+
+  /**
+   * Creates a bag user state which requests up to {@code maxPrefetchedChunks} chunks of the
+   * persisted values ahead of the chunk which is being read, see {@link
+   * StateFetchingIterators#forFirstChunk(BeamFnStateClient, StateRequest, int)}.
+   */
+  public BagUserState(
+      BeamFnStateClient beamFnStateClient,
+      String instructionId,
+      String ptransformId,
+      String stateId,
+      ByteString encodedWindow,
+      ByteString encodedKey,
+      Coder<T> valueCoder,
+      int maxPrefetchedChunks) {
     this.beamFnStateClient = beamFnStateClient;
     this.valueCoder = valueCoder;
 
@@ -77,7 +102,8 @@ public class BagUserState<T> {
             new DataStreams.DataStreamDecoder(
                 valueCoder,
                 DataStreams.inbound(
-                    StateFetchingIterators.forFirstChunk(beamFnStateClient, request))));
+                    StateFetchingIterators.forFirstChunk(
+                        beamFnStateClient, request, maxPrefetchedChunks))));
     this.newValues = new ArrayList<>();
   }
 
@@ -36,4 +36,18 @@ public interface BeamFnStateClient {
    */
   void handle(
       BeamFnApi.StateRequest.Builder requestBuilder, CompletableFuture<StateResponse> response);
+
+  /**
+   * Consumes a state request which is issued ahead of time to prefetch data that may never be read.
+   * Unlike a request passed to {@link #handle}, the response may be cancelled once the state calls
+   * of the bundle have finished, and the request may not be sent at all afterwards.
+   *
+   * @param requestBuilder A partially completed state request. The id will be populated the client.
+   * @param response A future containing a corresponding {@link StateResponse} for the supplied
+   *     request.
+   */
+  default void prefetch(
+      BeamFnApi.StateRequest.Builder requestBuilder, CompletableFuture<StateResponse> response) {
+    handle(requestBuilder, response);
+  }
 }
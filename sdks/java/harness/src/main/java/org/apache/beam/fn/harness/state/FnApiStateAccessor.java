@@ -36,6 +36,7 @@ import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.KvCoder;
 import org.apache.beam.sdk.fn.function.ThrowingRunnable;
 import org.apache.beam.sdk.options.PipelineOptions;
+import org.apache.beam.sdk.options.SdkHarnessOptions;
 import org.apache.beam.sdk.state.BagState;
 import org.apache.beam.sdk.state.CombiningState;
 import org.apache.beam.sdk.state.MapState;
@@ -67,6 +68,7 @@ public class FnApiStateAccessor implements SideInputReader, StateBinder {
   private final String ptransformId;
   private final Supplier<String> processBundleInstructionId;
   private final Collection<ThrowingRunnable> stateFinalizers;
+  private final int maxPrefetchedChunks;
 
   private final Supplier<BoundedWindow> currentWindowSupplier;
 
@@ -90,6 +92,7 @@ public class FnApiStateAccessor implements SideInputReader, StateBinder {
     this.ptransformId = ptransformId;
     this.processBundleInstructionId = processBundleInstructionId;
     this.stateFinalizers = new ArrayList<>();
+    this.maxPrefetchedChunks = pipelineOptions.as(SdkHarnessOptions.class).getStatePrefetchChunks();
     this.currentWindowSupplier = currentWindowSupplier;
     this.encodedCurrentKeySupplier =
         memoizeFunction(
@@ -181,7 +184,8 @@ public class FnApiStateAccessor implements SideInputReader, StateBinder {
                             tag.getId(),
                             encodedWindow,
                             kvCoder.getKeyCoder(),
-                            kvCoder.getValueCoder())));
+                            kvCoder.getValueCoder(),
+                            maxPrefetchedChunks)));
   }
 
   @Override
@@ -437,7 +441,8 @@ public class FnApiStateAccessor implements SideInputReader, StateBinder {
             stateId,
             encodedCurrentWindowSupplier.get(),
             encodedCurrentKeySupplier.get(),
-            valueCoder);
+            valueCoder,
+            maxPrefetchedChunks);
     stateFinalizers.add(rval::asyncClose);
     return rval;
   }
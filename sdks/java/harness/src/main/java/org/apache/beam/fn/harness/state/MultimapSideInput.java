@@ -27,7 +27,7 @@ import org.apache.beam.vendor.protobuf.v3.com.google.protobuf.ByteString;
 /**
  * An implementation of a multimap side input that utilizes the Beam Fn State API to fetch values.
  *
- * <p>TODO: Support block level caching and prefetch.
+ * <p>TODO: Support block level caching.
  */
 public class MultimapSideInput<K, V> implements MultimapView<K, V> {
 
@@ -38,6 +38,7 @@ public class MultimapSideInput<K, V> implements MultimapView<K, V> {
   private final ByteString encodedWindow;
   private final Coder<K> keyCoder;
   private final Coder<V> valueCoder;
+  private final int maxPrefetchedChunks;
 
   public MultimapSideInput(
       BeamFnStateClient beamFnStateClient,
@@ -47,6 +48,31 @@ public class MultimapSideInput<K, V> implements MultimapView<K, V> {
       ByteString encodedWindow,
       Coder<K> keyCoder,
       Coder<V> valueCoder) {
+    this(
+        beamFnStateClient,
+        instructionId,
+        ptransformId,
+        sideInputId,
+        encodedWindow,
+        keyCoder,
+        valueCoder,
+        0);
+  }
+
+  /**
+   * Creates a multimap side input which requests up to {@code maxPrefetchedChunks} chunks of the
+   * values of a key ahead of the chunk which is being read, see {@link
+   * StateFetchingIterators#forFirstChunk(BeamFnStateClient, StateRequest, int)}.
+   */
+  public MultimapSideInput(
+      BeamFnStateClient beamFnStateClient,
+      String instructionId,
+      String ptransformId,
+      String sideInputId,
+      ByteString encodedWindow,
+      Coder<K> keyCoder,
+      Coder<V> valueCoder,
+      int maxPrefetchedChunks) {
     this.beamFnStateClient = beamFnStateClient;
     this.instructionId = instructionId;
     this.ptransformId = ptransformId;
@@ -54,6 +80,7 @@ public class MultimapSideInput<K, V> implements MultimapView<K, V> {
     this.encodedWindow = encodedWindow;
     this.keyCoder = keyCoder;
     this.valueCoder = valueCoder;
+    this.maxPrefetchedChunks = maxPrefetchedChunks;
   }
 
   @Override
@@ -79,6 +106,7 @@ public class MultimapSideInput<K, V> implements MultimapView<K, V> {
         new DataStreams.DataStreamDecoder(
             valueCoder,
             DataStreams.inbound(
-                StateFetchingIterators.forFirstChunk(beamFnStateClient, requestBuilder.build()))));
+                StateFetchingIterators.forFirstChunk(
+                    beamFnStateClient, requestBuilder.build(), maxPrefetchedChunks))));
   }
 }
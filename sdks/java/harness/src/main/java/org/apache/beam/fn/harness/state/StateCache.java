@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.fn.harness.state;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.beam.model.fnexecution.v1.BeamFnApi.StateGetResponse;
+import org.apache.beam.model.fnexecution.v1.BeamFnApi.StateKey;
+import org.apache.beam.model.fnexecution.v1.BeamFnApi.StateRequest;
+import org.apache.beam.model.fnexecution.v1.BeamFnApi.StateResponse;
+import org.apache.beam.sdk.options.PipelineOptions;
+import org.apache.beam.sdk.options.SdkHarnessOptions;
+import org.apache.beam.vendor.protobuf.v3.com.google.protobuf.ByteString;
+
+/**
+ * A cache of the chunks returned by the Beam Fn State API which is shared by all bundles that are
+ * processed by this SDK harness.
+ *
+ * <p>A {@link StateResponse} is only cached if the runner supplied a {@link
+ * StateResponse#getCacheToken() cache token} with it, and a cached response is only returned to a
+ * bundle whose {@link org.apache.beam.model.fnexecution.v1.BeamFnApi.ProcessBundleRequest} lists
+ * the same cache token. Entries are keyed by the cache token and the {@link StateKey}, hold all the
+ * chunks of the state stream which have been fetched so far and are evicted once the total number
+ * of cached bytes exceeds the configured {@link SdkHarnessOptions#getStateCacheSizeMb() size}.
+ *
+ * <p>Appending to or clearing a {@link StateKey} through a {@link BeamFnStateClient} returned by
+ * {@link #forBundle} invalidates the cached entries of that key for all of the bundle's cache
+ * tokens. A response to a get request which was sent before such a mutation is not cached, even if
+ * it arrives after it.
+ */
+public class StateCache {
+  private static final long BYTES_PER_MB = 1024 * 1024;
+
+  /** Returns a {@link StateCache} sized according to the {@link SdkHarnessOptions}. */
+  public static StateCache fromOptions(PipelineOptions options) {
+    return new StateCache(options.as(SdkHarnessOptions.class).getStateCacheSizeMb() * BYTES_PER_MB);
+  }
+
+  private final long maximumWeightBytes;
+  private final Cache<CacheKey, CachedChunks> cache;
+  private final AtomicLong hitCount;
+  private final AtomicLong missCount;
+
+  @VisibleForTesting
+  StateCache(long maximumWeightBytes) {
+    this.maximumWeightBytes = maximumWeightBytes;
+    this.cache =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maximumWeightBytes)
+            .weigher((CacheKey key, CachedChunks value) -> key.getWeight() + value.getWeight())
+            .recordStats()
+            .build();
+    this.hitCount = new AtomicLong();
+    this.missCount = new AtomicLong();
+  }
+
+  /**
+   * Returns a {@link BeamFnStateClient} which serves requests from this cache when possible and
+   * otherwise forwards them to the supplied client.
+   *
+   * @param beamFnStateClient The client used to handle requests which miss the cache.
+   * @param cacheTokens The cache tokens which are valid for the bundle.
+   */
+  public BeamFnStateClient forBundle(
+      BeamFnStateClient beamFnStateClient, List<ByteString> cacheTokens) {
+    if (maximumWeightBytes <= 0 || cacheTokens.isEmpty()) {
+      return beamFnStateClient;
+    }
+    return new CachingStateClient(beamFnStateClient, cacheTokens);
+  }
+
+  /**
+   * Returns the hit, miss and eviction statistics of this cache. Hits and misses are counted per
+   * requested chunk.
+   */
+  public CacheStats getStats() {
+    return new CacheStats(
+        hitCount.get(), missCount.get(), 0L, 0L, 0L, cache.stats().evictionCount());
+  }
+
+  /** A {@link BeamFnStateClient} which is scoped to the cache tokens of a single bundle. */
+  private class CachingStateClient implements BeamFnStateClient {
+    private final BeamFnStateClient beamFnStateClient;
+    private final List<ByteString> cacheTokens;
+    // The number of appends and clears this bundle has sent for each StateKey. A get response is
+    // only cached if no mutation of its key was sent while the request was outstanding.
+    private final Map<StateKey, Long> generations = new ConcurrentHashMap<>();
+
+    private CachingStateClient(BeamFnStateClient beamFnStateClient, List<ByteString> cacheTokens) {
+      this.beamFnStateClient = beamFnStateClient;
+      this.cacheTokens = cacheTokens;
+    }
+
+    @Override
+    public void handle(
+        StateRequest.Builder requestBuilder, CompletableFuture<StateResponse> response) {
+      StateKey stateKey = requestBuilder.getStateKey();
+      switch (requestBuilder.getRequestCase()) {
+        case GET:
+          ByteString continuationToken = requestBuilder.getGet().getContinuationToken();
+          for (ByteString cacheToken : cacheTokens) {
+            CachedChunks cachedChunks = cache.asMap().get(CacheKey.of(cacheToken, stateKey));
+            StateGetResponse chunk =
+                cachedChunks == null ? null : cachedChunks.getChunk(continuationToken);
+            if (chunk != null) {
+              hitCount.incrementAndGet();
+              response.complete(
+                  StateResponse.newBuilder().setCacheToken(cacheToken).setGet(chunk).build());
+              return;
+            }
+          }
+          missCount.incrementAndGet();
+          long generation = generations.getOrDefault(stateKey, 0L);
+          CompletableFuture<StateResponse> delegateResponse = new CompletableFuture<>();
+          delegateResponse.whenComplete(
+              (stateResponse, throwable) -> {
+                if (throwable != null) {
+                  response.completeExceptionally(throwable);
+                  return;
+                }
+                if (stateResponse.getError().isEmpty()
+                    && !stateResponse.getCacheToken().isEmpty()
+                    && generations.getOrDefault(stateKey, 0L) == generation) {
+                  addChunk(
+                      CacheKey.of(stateResponse.getCacheToken(), stateKey),
+                      continuationToken,
+                      stateResponse.getGet());
+                }
+                response.complete(stateResponse);
+              });
+          beamFnStateClient.handle(requestBuilder, delegateResponse);
+          return;
+
+        case APPEND:
+        case CLEAR:
+          generations.merge(stateKey, 1L, Long::sum);
+          for (ByteString cacheToken : cacheTokens) {
+            cache.invalidate(CacheKey.of(cacheToken, stateKey));
+          }
+          beamFnStateClient.handle(requestBuilder, response);
+          return;
+
+        default:
+          beamFnStateClient.handle(requestBuilder, response);
+      }
+    }
+
+    private void addChunk(CacheKey cacheKey, ByteString continuationToken, StateGetResponse chunk) {
+      CachedChunks cachedChunks = cache.asMap().get(cacheKey);
+      if (cachedChunks == null) {
+        // Only start caching a stream from its first chunk. This guarantees that the cached
+        // chunks belong to a single traversal of the state stream.
+        if (continuationToken.isEmpty()) {
+          cache.put(cacheKey, CachedChunks.of(continuationToken, chunk));
+        }
+      } else if (cachedChunks.isNextChunk(continuationToken)) {
+        cache.put(cacheKey, cachedChunks.withChunk(continuationToken, chunk));
+      }
+    }
+  }
+
+  /** The key of a cache entry, a {@link StateKey} qualified by a runner supplied cache token. */
+  @AutoValue
+  abstract static class CacheKey {
+    static CacheKey of(ByteString cacheToken, StateKey stateKey) {
+      return new AutoValue_StateCache_CacheKey(cacheToken, stateKey);
+    }
+
+    abstract ByteString getCacheToken();
+
+    abstract StateKey getStateKey();
+
+    int getWeight() {
+      return getCacheToken().size() + getStateKey().getSerializedSize();
+    }
+  }
+
+  /**
+   * The chunks of a state stream which have been fetched so far, keyed by the continuation token
+   * used to request them.
+   */
+  private static class CachedChunks {
+    private final Map<ByteString, StateGetResponse> chunks;
+    private final ByteString lastContinuationToken;
+    private final int weight;
+
+    static CachedChunks of(ByteString continuationToken, StateGetResponse chunk) {
+      return new CachedChunks(ImmutableMap.of(continuationToken, chunk), chunk, 0);
+    }
+
+    private CachedChunks(
+        Map<ByteString, StateGetResponse> chunks, StateGetResponse lastChunk, int previousWeight) {
+      this.chunks = chunks;
+      this.lastContinuationToken = lastChunk.getContinuationToken();
+      this.weight = previousWeight + lastChunk.getSerializedSize();
+    }
+
+    StateGetResponse getChunk(ByteString continuationToken) {
+      return chunks.get(continuationToken);
+    }
+
+    /** Returns whether the chunk for the continuation token follows the last cached chunk. */
+    boolean isNextChunk(ByteString continuationToken) {
+      return !lastContinuationToken.isEmpty()
+          && lastContinuationToken.equals(continuationToken)
+          && !chunks.containsKey(continuationToken);
+    }
+
+    CachedChunks withChunk(ByteString continuationToken, StateGetResponse chunk) {
+      return new CachedChunks(
+          ImmutableMap.<ByteString, StateGetResponse>builder()
+              .putAll(chunks)
+              .put(continuationToken, chunk)
+              .build(),
+          chunk,
+          weight);
+    }
+
+    int getWeight() {
+      return weight;
+    }
+  }
+}
@@ -18,6 +18,8 @@
 package org.apache.beam.fn.harness.state;
 
 import com.google.common.base.Throwables;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.concurrent.CompletableFuture;
@@ -51,6 +53,45 @@ public class StateFetchingIterators {
     return new LazyBlockingStateFetchingIterator(beamFnStateClient, stateRequestForFirstChunk);
   }
 
+  /**
+   * This adapter handles using the continuation token to provide iteration over all the chunks
+   * returned by the Beam Fn State API using the supplied state client and state request for the
+   * first chunk of the state stream. While a chunk is being consumed, up to {@code
+   * maxPrefetchedChunks} of the following chunks are requested ahead of time.
+   *
+   * @param beamFnStateClient A client for handling state requests.
+   * @param stateRequestForFirstChunk A fully populated state request for the first (and possibly
+   *     only) chunk of a state stream. This state request will be populated with a continuation
+   *     token to request further chunks of the stream if required.
+   * @param maxPrefetchedChunks The maximum number of chunks which are requested before they are
+   *     consumed. If {@code 0}, chunks are only requested when they are accessed.
+   */
+  public static Iterator<ByteString> forFirstChunk(
+      BeamFnStateClient beamFnStateClient,
+      StateRequest stateRequestForFirstChunk,
+      int maxPrefetchedChunks) {
+    if (maxPrefetchedChunks <= 0) {
+      return forFirstChunk(beamFnStateClient, stateRequestForFirstChunk);
+    }
+    return new PrefetchingStateFetchingIterator(
+        beamFnStateClient, stateRequestForFirstChunk, maxPrefetchedChunks);
+  }
+
+  private static StateResponse waitForResponse(CompletableFuture<StateResponse> responseFuture) {
+    try {
+      return responseFuture.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() == null) {
+        throw new IllegalStateException(e);
+      }
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
   /**
    * An {@link Iterator} which fetches {@link ByteString} chunks using the State API.
    *
@@ -91,19 +132,7 @@ public class StateFetchingIterators {
                   .toBuilder()
                   .setGet(StateGetRequest.newBuilder().setContinuationToken(continuationToken)),
               stateResponseFuture);
-          StateResponse stateResponse;
-          try {
-            stateResponse = stateResponseFuture.get();
-          } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new IllegalStateException(e);
-          } catch (ExecutionException e) {
-            if (e.getCause() == null) {
-              throw new IllegalStateException(e);
-            }
-            Throwables.throwIfUnchecked(e.getCause());
-            throw new IllegalStateException(e.getCause());
-          }
+          StateResponse stateResponse = waitForResponse(stateResponseFuture);
           continuationToken = stateResponse.getGet().getContinuationToken();
           next = stateResponse.getGet().getData();
           currentState = State.HAS_NEXT;
@@ -124,4 +153,117 @@ public class StateFetchingIterators {
       return next;
     }
   }
+
+  /**
+   * An {@link Iterator} which fetches {@link ByteString} chunks using the State API and requests
+   * the following chunks while the current chunk is being consumed.
+   *
+   * <p>This iterator will only request the first chunk on first access. Since the continuation
+   * token of a chunk is only known once it has been received, chunks are requested one after the
+   * other as soon as the previous chunk arrived, until {@code maxPrefetchedChunks} chunks which
+   * have not been consumed yet are outstanding or buffered.
+   *
+   * <p>The chunks following the first are requested with {@link BeamFnStateClient#prefetch}, so the
+   * bundle's state client cancels them, and stops the chain of requests, once the bundle's state
+   * calls have finished even if this iterator is never exhausted.
+   */
+  static class PrefetchingStateFetchingIterator implements Iterator<ByteString> {
+    private final BeamFnStateClient beamFnStateClient;
+    private final StateRequest stateRequestForFirstChunk;
+    private final int maxPrefetchedChunks;
+
+    // Chunks which have been requested but not consumed yet, in stream order.
+    private final Deque<CompletableFuture<StateResponse>> chunks;
+    private ByteString lastConsumedContinuationToken;
+    private boolean started;
+
+    PrefetchingStateFetchingIterator(
+        BeamFnStateClient beamFnStateClient,
+        StateRequest stateRequestForFirstChunk,
+        int maxPrefetchedChunks) {
+      this.beamFnStateClient = beamFnStateClient;
+      this.stateRequestForFirstChunk = stateRequestForFirstChunk;
+      this.maxPrefetchedChunks = maxPrefetchedChunks;
+      this.chunks = new ArrayDeque<>();
+      this.lastConsumedContinuationToken = ByteString.EMPTY;
+    }
+
+    @Override
+    public boolean hasNext() {
+      CompletableFuture<StateResponse> firstChunk;
+      synchronized (this) {
+        if (started) {
+          return !chunks.isEmpty();
+        }
+        started = true;
+        firstChunk = new CompletableFuture<>();
+        chunks.addLast(firstChunk);
+      }
+      request(ByteString.EMPTY, firstChunk);
+      return true;
+    }
+
+    @Override
+    public ByteString next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      CompletableFuture<StateResponse> nextChunk;
+      synchronized (this) {
+        nextChunk = chunks.getFirst();
+      }
+      StateResponse stateResponse = waitForResponse(nextChunk);
+      synchronized (this) {
+        chunks.removeFirst();
+        lastConsumedContinuationToken = stateResponse.getGet().getContinuationToken();
+      }
+      requestNextChunkIfPossible();
+      return stateResponse.getGet().getData();
+    }
+
+    /**
+     * Requests the chunk following the last requested chunk if its continuation token is known and
+     * fewer than {@code maxPrefetchedChunks} chunks are waiting to be consumed.
+     */
+    private void requestNextChunkIfPossible() {
+      ByteString continuationToken;
+      CompletableFuture<StateResponse> chunk;
+      synchronized (this) {
+        if (chunks.size() >= maxPrefetchedChunks) {
+          return;
+        }
+        CompletableFuture<StateResponse> lastRequestedChunk = chunks.peekLast();
+        if (lastRequestedChunk == null) {
+          continuationToken = lastConsumedContinuationToken;
+        } else if (lastRequestedChunk.isDone() && !lastRequestedChunk.isCompletedExceptionally()) {
+          continuationToken = lastRequestedChunk.join().getGet().getContinuationToken();
+        } else {
+          // Either the continuation token is not known yet, or the failure will be surfaced to
+          // the consumer once it reaches the failed chunk.
+          return;
+        }
+        // If the continuation token is empty, that means we have reached EOF.
+        if (ByteString.EMPTY.equals(continuationToken)) {
+          return;
+        }
+        chunk = new CompletableFuture<>();
+        chunks.addLast(chunk);
+      }
+      request(continuationToken, chunk);
+    }
+
+    @SuppressWarnings("FutureReturnValueIgnored") // The follow up request is fire and forget.
+    private void request(ByteString continuationToken, CompletableFuture<StateResponse> chunk) {
+      StateRequest.Builder requestBuilder =
+          stateRequestForFirstChunk
+              .toBuilder()
+              .setGet(StateGetRequest.newBuilder().setContinuationToken(continuationToken));
+      if (ByteString.EMPTY.equals(continuationToken)) {
+        beamFnStateClient.handle(requestBuilder, chunk);
+      } else {
+        beamFnStateClient.prefetch(requestBuilder, chunk);
+      }
+      chunk.whenComplete((stateResponse, throwable) -> requestNextChunkIfPossible());
+    }
+  }
 }
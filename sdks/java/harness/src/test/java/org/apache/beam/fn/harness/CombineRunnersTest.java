@@ -42,7 +42,9 @@ import org.apache.beam.sdk.coders.KvCoder;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
 import org.apache.beam.sdk.fn.data.FnDataReceiver;
 import org.apache.beam.sdk.fn.function.ThrowingRunnable;
+import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.options.SdkHarnessOptions;
 import org.apache.beam.sdk.transforms.Combine;
 import org.apache.beam.sdk.transforms.Combine.CombineFn;
 import org.apache.beam.sdk.transforms.Create;
@@ -122,6 +124,18 @@ public class CombineRunnersTest {
    */
   @Test
   public void testPrecombine() throws Exception {
+    runPrecombine(PipelineOptionsFactory.create());
+  }
+
+  /** Same as {@link #testPrecombine()}, using an {@link EncodedPrecombineGroupingTable}. */
+  @Test
+  public void testPrecombineWithEncodedGroupingTable() throws Exception {
+    SdkHarnessOptions options = PipelineOptionsFactory.as(SdkHarnessOptions.class);
+    options.setPrecombineGroupingTable(SdkHarnessOptions.PrecombineGroupingTableType.ENCODED_LRU);
+    runPrecombine(options);
+  }
+
+  private void runPrecombine(PipelineOptions options) throws Exception {
     // Create a map of consumers and an output target to check output values.
     ListMultimap<String, FnDataReceiver<WindowedValue<?>>> consumers = ArrayListMultimap.create();
     Deque<WindowedValue<KV<String, Integer>>> mainOutputValues = new ArrayDeque<>();
@@ -136,7 +150,7 @@ public class CombineRunnersTest {
     // Create runner.
     new CombineRunners.PrecombineFactory<>()
         .createRunnerForPTransform(
-            PipelineOptionsFactory.create(),
+            options,
             null,
             null,
             TEST_COMBINE_ID,
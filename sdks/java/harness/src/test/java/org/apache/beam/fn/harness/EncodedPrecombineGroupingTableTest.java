@@ -0,0 +1,379 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.fn.harness;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.beam.fn.harness.EncodedPrecombineGroupingTable.EvictionPolicy;
+import org.apache.beam.fn.harness.GroupingTable.Receiver;
+import org.apache.beam.runners.core.GlobalCombineFnRunners;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
+import org.apache.beam.sdk.util.WindowedValue;
+import org.apache.beam.sdk.values.KV;
+import org.joda.time.Instant;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link EncodedPrecombineGroupingTable}. */
+@RunWith(JUnit4.class)
+public class EncodedPrecombineGroupingTableTest {
+
+  private static class TestOutputReceiver implements Receiver {
+    final List<WindowedValue<KV<String, Long>>> outputElems = new ArrayList<>();
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void process(Object elem) {
+      outputElems.add((WindowedValue<KV<String, Long>>) elem);
+    }
+  }
+
+  /** Sums its inputs, with an accumulator which is encoded in a variable number of bytes. */
+  private static class SumFn extends CombineFn<Long, Long, Long> {
+    @Override
+    public Long createAccumulator() {
+      return 0L;
+    }
+
+    @Override
+    public Long addInput(Long accumulator, Long input) {
+      return accumulator + input;
+    }
+
+    @Override
+    public Long mergeAccumulators(Iterable<Long> accumulators) {
+      long sum = 0;
+      for (Long accumulator : accumulators) {
+        sum += accumulator;
+      }
+      return sum;
+    }
+
+    @Override
+    public Long extractOutput(Long accumulator) {
+      return accumulator;
+    }
+  }
+
+  private static EncodedPrecombineGroupingTable<String, Long, Long> summingTable(
+      EvictionPolicy evictionPolicy) {
+    return new EncodedPrecombineGroupingTable<>(
+        Long.MAX_VALUE,
+        evictionPolicy,
+        PipelineOptionsFactory.create(),
+        GlobalCombineFnRunners.create(new SumFn()),
+        StringUtf8Coder.of(),
+        VarLongCoder.of(),
+        GlobalWindow.Coder.INSTANCE);
+  }
+
+  private static void put(
+      EncodedPrecombineGroupingTable<String, Long, ?> table,
+      String key,
+      long value,
+      Receiver receiver)
+      throws Exception {
+    table.put(WindowedValue.valueInGlobalWindow(KV.of(key, value)), receiver);
+  }
+
+  /** Returns the keys of the given outputs, in output order. */
+  private static List<String> keys(List<WindowedValue<KV<String, Long>>> outputs) {
+    List<String> keys = new ArrayList<>();
+    for (WindowedValue<KV<String, Long>> output : outputs) {
+      keys.add(output.getValue().getKey());
+    }
+    return keys;
+  }
+
+  /** Returns the sum of the outputs of each key. */
+  private static Map<String, Long> sums(List<WindowedValue<KV<String, Long>>> outputs) {
+    Map<String, Long> sums = new HashMap<>();
+    for (WindowedValue<KV<String, Long>> output : outputs) {
+      sums.merge(output.getValue().getKey(), output.getValue().getValue(), Long::sum);
+    }
+    return sums;
+  }
+
+  @Test
+  public void testCombiningGroupingTable() throws Exception {
+    EncodedPrecombineGroupingTable<String, Long, Long> table =
+        summingTable(EvictionPolicy.LEAST_RECENTLY_USED);
+    TestOutputReceiver receiver = new TestOutputReceiver();
+    Map<String, Long> expected = new HashMap<>();
+
+    // Enough keys to grow the index and the per entry arrays several times.
+    for (int i = 0; i < 10000; ++i) {
+      String key = "key" + (i % 2000);
+      put(table, key, i, receiver);
+      expected.merge(key, (long) i, Long::sum);
+    }
+    assertThat(receiver.outputElems, empty());
+    assertEquals(2000, table.numEntries());
+
+    table.flush(receiver);
+    assertEquals(2000, receiver.outputElems.size());
+    assertEquals(expected, sums(receiver.outputElems));
+    for (WindowedValue<KV<String, Long>> output : receiver.outputElems) {
+      assertEquals(GlobalWindow.INSTANCE, output.getWindows().iterator().next());
+      assertEquals(BoundedWindow.TIMESTAMP_MIN_VALUE, output.getTimestamp());
+    }
+
+    // The table is empty and reusable after a flush.
+    assertEquals(0, table.numEntries());
+    receiver.outputElems.clear();
+    put(table, "key0", 5, receiver);
+    table.flush(receiver);
+    assertEquals(5L, (long) sums(receiver.outputElems).get("key0"));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEviction() throws Exception {
+    EncodedPrecombineGroupingTable<String, Long, Long> table =
+        summingTable(EvictionPolicy.LEAST_RECENTLY_USED);
+    TestOutputReceiver receiver = new TestOutputReceiver();
+
+    for (int i = 0; i < 100; ++i) {
+      put(table, "key" + i, 1, receiver);
+    }
+    // Keys 50..99 are now the least recently used.
+    for (int i = 0; i < 50; ++i) {
+      put(table, "key" + i, 1, receiver);
+    }
+    table.setMaxSize(table.size());
+    put(table, "key0", 1, receiver);
+
+    int numEvicted = receiver.outputElems.size();
+    assertThat(numEvicted, greaterThan(0));
+    List<String> expectedKeys = new ArrayList<>();
+    for (int i = 50; i < 50 + numEvicted; ++i) {
+      expectedKeys.add("key" + i);
+    }
+    assertEquals(expectedKeys, keys(receiver.outputElems));
+    assertEquals(100 - numEvicted, table.numEntries());
+
+    table.flush(receiver);
+    Map<String, Long> sums = sums(receiver.outputElems);
+    assertEquals(100, sums.size());
+    assertEquals(3L, (long) sums.get("key0"));
+    assertEquals(2L, (long) sums.get("key1"));
+    assertEquals(1L, (long) sums.get("key99"));
+  }
+
+  @Test
+  public void testLeastFrequentlyUsedEviction() throws Exception {
+    EncodedPrecombineGroupingTable<String, Long, Long> table =
+        summingTable(EvictionPolicy.LEAST_FREQUENTLY_USED);
+    TestOutputReceiver receiver = new TestOutputReceiver();
+
+    for (int i = 0; i < 100; ++i) {
+      put(table, "key" + i, 1, receiver);
+    }
+    for (int round = 0; round < 5; ++round) {
+      for (int i = 0; i < 50; ++i) {
+        put(table, "key" + i, 1, receiver);
+      }
+    }
+    // Keys 50..99 are now the most recently used, but the least frequently used.
+    for (int i = 50; i < 100; ++i) {
+      put(table, "key" + i, 1, receiver);
+    }
+    table.setMaxSize(table.size());
+    put(table, "key99", 1, receiver);
+
+    int numEvicted = receiver.outputElems.size();
+    assertThat(numEvicted, greaterThan(0));
+    // Ties between equally used keys are broken by recency.
+    List<String> expectedKeys = new ArrayList<>();
+    for (int i = 50; i < 50 + numEvicted; ++i) {
+      expectedKeys.add("key" + i);
+    }
+    assertEquals(expectedKeys, keys(receiver.outputElems));
+
+    table.flush(receiver);
+    Map<String, Long> sums = sums(receiver.outputElems);
+    assertEquals(100, sums.size());
+    assertEquals(6L, (long) sums.get("key0"));
+    assertEquals(2L, (long) sums.get("key50"));
+    assertEquals(3L, (long) sums.get("key99"));
+  }
+
+  @Test
+  public void testSizeTracksEntries() throws Exception {
+    EncodedPrecombineGroupingTable<String, Long, Long> table =
+        summingTable(EvictionPolicy.LEAST_RECENTLY_USED);
+    TestOutputReceiver receiver = new TestOutputReceiver();
+    long emptySize = table.size();
+
+    put(table, "key", 1, receiver);
+    long oneEntrySize = table.size();
+    assertThat(oneEntrySize, greaterThan(emptySize));
+
+    // Updating an existing entry in place does not allocate.
+    put(table, "key", 1, receiver);
+    assertEquals(oneEntrySize, table.size());
+
+    table.flush(receiver);
+    assertEquals(emptySize, table.size());
+  }
+
+  /** Concatenates its inputs, so that its accumulators grow with every input. */
+  private static class ConcatFn extends CombineFn<String, String, String> {
+    @Override
+    public String createAccumulator() {
+      return "";
+    }
+
+    @Override
+    public String addInput(String accumulator, String input) {
+      return accumulator + input;
+    }
+
+    @Override
+    public String mergeAccumulators(Iterable<String> accumulators) {
+      StringBuilder result = new StringBuilder();
+      for (String accumulator : accumulators) {
+        result.append(accumulator);
+      }
+      return result.toString();
+    }
+
+    @Override
+    public String extractOutput(String accumulator) {
+      return accumulator;
+    }
+  }
+
+  @Test
+  public void testGrowingAccumulators() throws Exception {
+    EncodedPrecombineGroupingTable<String, String, String> table =
+        new EncodedPrecombineGroupingTable<>(
+            Long.MAX_VALUE,
+            EvictionPolicy.LEAST_RECENTLY_USED,
+            PipelineOptionsFactory.create(),
+            GlobalCombineFnRunners.create(new ConcatFn()),
+            StringUtf8Coder.of(),
+            StringUtf8Coder.of(),
+            GlobalWindow.Coder.INSTANCE);
+    List<Object> outputs = new ArrayList<>();
+
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 1000; ++i) {
+      String input = Integer.toString(i);
+      expected.append(input);
+      table.put(WindowedValue.valueInGlobalWindow(KV.of("a", input)), outputs::add);
+      table.put(WindowedValue.valueInGlobalWindow(KV.of("b", "b")), outputs::add);
+    }
+    table.flush(outputs::add);
+
+    assertThat(
+        outputs,
+        containsInAnyOrder(
+            WindowedValue.valueInGlobalWindow(KV.of("a", expected.toString())),
+            WindowedValue.valueInGlobalWindow(KV.of("b", repeat("b", 1000)))));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testFreedBlocksCountAgainstMaxSize() throws Exception {
+    long maxSize = 300_000;
+    EncodedPrecombineGroupingTable<String, String, String> table =
+        new EncodedPrecombineGroupingTable<>(
+            maxSize,
+            EvictionPolicy.LEAST_RECENTLY_USED,
+            PipelineOptionsFactory.create(),
+            GlobalCombineFnRunners.create(new ConcatFn()),
+            StringUtf8Coder.of(),
+            StringUtf8Coder.of(),
+            GlobalWindow.Coder.INSTANCE);
+    List<WindowedValue<KV<String, String>>> outputs = new ArrayList<>();
+    long chunkSize = maxSize / 16;
+
+    // Every growing accumulator moves to larger blocks, freeing the smaller ones.
+    for (int i = 0; i < 20000; ++i) {
+      table.put(
+          WindowedValue.valueInGlobalWindow(KV.of("key" + (i % 500), "0123456789")),
+          elem -> outputs.add((WindowedValue<KV<String, String>>) elem));
+      assertThat(table.reservedSize(), lessThanOrEqualTo(maxSize + chunkSize));
+    }
+    table.flush(elem -> outputs.add((WindowedValue<KV<String, String>>) elem));
+
+    long length = 0;
+    for (WindowedValue<KV<String, String>> output : outputs) {
+      length += output.getValue().getValue().length();
+    }
+    assertEquals(200000, length);
+  }
+
+  private static String repeat(String s, int times) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < times; ++i) {
+      result.append(s);
+    }
+    return result.toString();
+  }
+
+  @Test
+  public void testGroupsByWindowAndPane() throws Exception {
+    EncodedPrecombineGroupingTable<String, Long, Long> table =
+        new EncodedPrecombineGroupingTable<>(
+            Long.MAX_VALUE,
+            EvictionPolicy.LEAST_RECENTLY_USED,
+            PipelineOptionsFactory.create(),
+            GlobalCombineFnRunners.create(new SumFn()),
+            StringUtf8Coder.of(),
+            VarLongCoder.of(),
+            IntervalWindow.getCoder());
+    TestOutputReceiver receiver = new TestOutputReceiver();
+    IntervalWindow first = new IntervalWindow(new Instant(0), new Instant(10));
+    IntervalWindow second = new IntervalWindow(new Instant(10), new Instant(20));
+    PaneInfo late = PaneInfo.createPane(false, false, PaneInfo.Timing.LATE, 1, 1);
+
+    table.put(
+        WindowedValue.of(KV.of("key", 1L), new Instant(1), first, PaneInfo.NO_FIRING), receiver);
+    table.put(
+        WindowedValue.of(KV.of("key", 2L), new Instant(5), first, PaneInfo.NO_FIRING), receiver);
+    table.put(
+        WindowedValue.of(KV.of("key", 4L), new Instant(11), second, PaneInfo.NO_FIRING), receiver);
+    table.put(WindowedValue.of(KV.of("key", 8L), new Instant(2), first, late), receiver);
+    table.flush(receiver);
+
+    assertThat(
+        receiver.outputElems,
+        containsInAnyOrder(
+            WindowedValue.of(KV.of("key", 3L), new Instant(1), first, PaneInfo.NO_FIRING),
+            WindowedValue.of(KV.of("key", 4L), new Instant(11), second, PaneInfo.NO_FIRING),
+            WindowedValue.of(KV.of("key", 8L), new Instant(2), first, late)));
+  }
+}
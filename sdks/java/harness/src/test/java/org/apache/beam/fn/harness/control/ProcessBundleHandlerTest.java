@@ -19,10 +19,14 @@ package org.apache.beam.fn.harness.control;
 
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableMap;
@@ -30,9 +34,12 @@ import com.google.common.collect.ListMultimap;
 import com.google.common.util.concurrent.Uninterruptibles;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -40,7 +47,11 @@ import org.apache.beam.fn.harness.PTransformRunnerFactory;
 import org.apache.beam.fn.harness.data.BeamFnDataClient;
 import org.apache.beam.fn.harness.state.BeamFnStateClient;
 import org.apache.beam.fn.harness.state.BeamFnStateGrpcClientCache;
+import org.apache.beam.fn.harness.state.StateFetchingIterators;
 import org.apache.beam.model.fnexecution.v1.BeamFnApi;
+import org.apache.beam.model.fnexecution.v1.BeamFnApi.StateGetRequest;
+import org.apache.beam.model.fnexecution.v1.BeamFnApi.StateGetResponse;
+import org.apache.beam.model.fnexecution.v1.BeamFnApi.StateKey;
 import org.apache.beam.model.fnexecution.v1.BeamFnApi.StateRequest;
 import org.apache.beam.model.fnexecution.v1.BeamFnApi.StateResponse;
 import org.apache.beam.model.pipeline.v1.Endpoints.ApiServiceDescriptor;
@@ -49,12 +60,17 @@ import org.apache.beam.model.pipeline.v1.RunnerApi.Coder;
 import org.apache.beam.model.pipeline.v1.RunnerApi.PCollection;
 import org.apache.beam.model.pipeline.v1.RunnerApi.PTransform;
 import org.apache.beam.model.pipeline.v1.RunnerApi.WindowingStrategy;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.fn.data.BeamFnDataBufferingOutboundObserver;
 import org.apache.beam.sdk.fn.data.FnDataReceiver;
+import org.apache.beam.sdk.fn.data.LogicalEndpoint;
 import org.apache.beam.sdk.fn.function.ThrowingConsumer;
 import org.apache.beam.sdk.fn.function.ThrowingRunnable;
+import org.apache.beam.sdk.fn.test.TestStreams;
 import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.util.WindowedValue;
+import org.apache.beam.vendor.protobuf.v3.com.google.protobuf.ByteString;
 import org.apache.beam.vendor.protobuf.v3.com.google.protobuf.Message;
 import org.junit.Before;
 import org.junit.Rule;
@@ -177,23 +193,24 @@ public class ProcessBundleHandlerTest {
             null /* beamFnStateGrpcClientCache */,
             ImmutableMap.of(
                 DATA_INPUT_URN,
-                (pipelineOptions,
-                    beamFnDataClient,
-                    beamFnStateClient,
-                    pTransformId,
-                    pTransform,
-                    processBundleInstructionId,
-                    pCollections,
-                    coders,
-                    windowingStrategies,
-                    pCollectionIdsToConsumers,
-                    addStartFunction,
-                    addFinishFunction,
-                    splitListener) -> {
-                  thrown.expect(IllegalStateException.class);
-                  thrown.expectMessage("TestException");
-                  throw new IllegalStateException("TestException");
-                }));
+                (PTransformRunnerFactory<Object>)
+                    (pipelineOptions,
+                        beamFnDataClient,
+                        beamFnStateClient,
+                        pTransformId,
+                        pTransform,
+                        processBundleInstructionId,
+                        pCollections,
+                        coders,
+                        windowingStrategies,
+                        pCollectionIdsToConsumers,
+                        addStartFunction,
+                        addFinishFunction,
+                        splitListener) -> {
+                      thrown.expect(IllegalStateException.class);
+                      thrown.expectMessage("TestException");
+                      throw new IllegalStateException("TestException");
+                    }));
     handler.processBundle(
         BeamFnApi.InstructionRequest.newBuilder()
             .setProcessBundle(
@@ -296,6 +313,80 @@ public class ProcessBundleHandlerTest {
             .build());
   }
 
+  @Test
+  public void testOutboundReceiversOfFailedBundleStopFlushingOnTime() throws Exception {
+    BeamFnApi.ProcessBundleDescriptor processBundleDescriptor =
+        BeamFnApi.ProcessBundleDescriptor.newBuilder()
+            .putTransforms(
+                "2L",
+                RunnerApi.PTransform.newBuilder()
+                    .setSpec(RunnerApi.FunctionSpec.newBuilder().setUrn(DATA_INPUT_URN).build())
+                    .build())
+            .build();
+    Map<String, Message> fnApiRegistry = ImmutableMap.of("1L", processBundleDescriptor);
+
+    BlockingQueue<BeamFnApi.Elements> sent = new LinkedBlockingQueue<>();
+    LogicalEndpoint outputLocation =
+        LogicalEndpoint.of("999L", BeamFnApi.Target.getDefaultInstance());
+    doReturn(
+            BeamFnDataBufferingOutboundObserver.forLocationWithBufferLimits(
+                1_000_000,
+                10L,
+                outputLocation,
+                WindowedValue.getValueOnlyCoder(StringUtf8Coder.of()),
+                TestStreams.withOnNext(sent::add).build()))
+        .when(beamFnDataClient)
+        .send(any(), any(), any());
+
+    ProcessBundleHandler handler =
+        new ProcessBundleHandler(
+            PipelineOptionsFactory.create(),
+            fnApiRegistry::get,
+            beamFnDataClient,
+            null /* beamFnStateGrpcClientCache */,
+            ImmutableMap.of(
+                DATA_INPUT_URN,
+                (PTransformRunnerFactory<Object>)
+                    (pipelineOptions,
+                        beamFnDataClient,
+                        beamFnStateClient,
+                        pTransformId,
+                        pTransform,
+                        processBundleInstructionId,
+                        pCollections,
+                        coders,
+                        windowingStrategies,
+                        pCollectionIdsToConsumers,
+                        addStartFunction,
+                        addFinishFunction,
+                        splitListener) -> {
+                      addStartFunction.accept(
+                          () ->
+                              beamFnDataClient
+                                  .<String>send(
+                                      ApiServiceDescriptor.getDefaultInstance(),
+                                      outputLocation,
+                                      WindowedValue.getValueOnlyCoder(StringUtf8Coder.of()))
+                                  .accept(WindowedValue.valueInGlobalWindow("A")));
+                      addFinishFunction.accept(ProcessBundleHandlerTest::throwException);
+                      return null;
+                    }));
+    try {
+      handler.processBundle(
+          BeamFnApi.InstructionRequest.newBuilder()
+              .setProcessBundle(
+                  BeamFnApi.ProcessBundleRequest.newBuilder()
+                      .setProcessBundleDescriptorReference("1L"))
+              .build());
+      fail("Expected the bundle to fail");
+    } catch (IllegalStateException e) {
+      assertEquals("TestException", e.getMessage());
+    }
+
+    // The element buffered by the failed bundle is never sent.
+    assertNull(sent.poll(100, TimeUnit.MILLISECONDS));
+  }
+
   @Test
   public void testPendingStateCallsBlockTillCompletion() throws Exception {
     BeamFnApi.ProcessBundleDescriptor processBundleDescriptor =
@@ -394,6 +485,113 @@ public class ProcessBundleHandlerTest {
     assertTrue(unsuccessfulResponse.isDone());
   }
 
+  @Test
+  public void testPendingPrefetchesAreCancelledWhenBundleFinishes() throws Exception {
+    BeamFnApi.ProcessBundleDescriptor processBundleDescriptor =
+        BeamFnApi.ProcessBundleDescriptor.newBuilder()
+            .putTransforms(
+                "2L",
+                RunnerApi.PTransform.newBuilder()
+                    .setSpec(RunnerApi.FunctionSpec.newBuilder().setUrn(DATA_INPUT_URN).build())
+                    .build())
+            .setStateApiServiceDescriptor(ApiServiceDescriptor.getDefaultInstance())
+            .build();
+    Map<String, Message> fnApiRegistry = ImmutableMap.of("1L", processBundleDescriptor);
+
+    BeamFnStateGrpcClientCache mockBeamFnStateGrpcClient =
+        Mockito.mock(BeamFnStateGrpcClientCache.class);
+    BeamFnStateClient mockBeamFnStateClient = Mockito.mock(BeamFnStateClient.class);
+    when(mockBeamFnStateGrpcClient.forApiServiceDescriptor(any()))
+        .thenReturn(mockBeamFnStateClient);
+
+    // The first chunk is returned immediately, the chunks after it never arrive.
+    List<CompletableFuture<StateResponse>> prefetches = new ArrayList<>();
+    doAnswer(
+            invocation -> {
+              StateRequest.Builder stateRequestBuilder =
+                  (StateRequest.Builder) invocation.getArguments()[0];
+              CompletableFuture<StateResponse> completableFuture =
+                  (CompletableFuture<StateResponse>) invocation.getArguments()[1];
+              if (stateRequestBuilder.getGet().getContinuationToken().isEmpty()) {
+                completableFuture.complete(
+                    StateResponse.newBuilder()
+                        .setGet(
+                            StateGetResponse.newBuilder()
+                                .setContinuationToken(ByteString.copyFromUtf8("1"))
+                                .setData(ByteString.copyFromUtf8("A")))
+                        .build());
+              } else {
+                prefetches.add(completableFuture);
+              }
+              return null;
+            })
+        .when(mockBeamFnStateClient)
+        .handle(any(), any());
+
+    List<BeamFnStateClient> bundleStateClients = new ArrayList<>();
+    ProcessBundleHandler handler =
+        new ProcessBundleHandler(
+            PipelineOptionsFactory.create(),
+            fnApiRegistry::get,
+            beamFnDataClient,
+            mockBeamFnStateGrpcClient,
+            ImmutableMap.of(
+                DATA_INPUT_URN,
+                (PTransformRunnerFactory<Object>)
+                    (pipelineOptions,
+                        beamFnDataClient,
+                        beamFnStateClient,
+                        pTransformId,
+                        pTransform,
+                        processBundleInstructionId,
+                        pCollections,
+                        coders,
+                        windowingStrategies,
+                        pCollectionIdsToConsumers,
+                        addStartFunction,
+                        addFinishFunction,
+                        splitListener) -> {
+                      bundleStateClients.add(beamFnStateClient);
+                      addStartFunction.accept(
+                          () -> {
+                            // Only read the first chunk, leaving the prefetch of the second in
+                            // flight.
+                            Iterator<ByteString> chunks =
+                                StateFetchingIterators.forFirstChunk(
+                                    beamFnStateClient,
+                                    StateRequest.newBuilder()
+                                        .setInstructionReference("999L")
+                                        .setStateKey(StateKey.getDefaultInstance())
+                                        .build(),
+                                    3);
+                            assertEquals(ByteString.copyFromUtf8("A"), chunks.next());
+                          });
+                      return null;
+                    }));
+    handler.processBundle(
+        BeamFnApi.InstructionRequest.newBuilder()
+            .setProcessBundle(
+                BeamFnApi.ProcessBundleRequest.newBuilder()
+                    .setProcessBundleDescriptorReference("1L"))
+            .build());
+
+    assertEquals(1, prefetches.size());
+    assertTrue(prefetches.get(0).isCancelled());
+
+    // Prefetches issued after the bundle finished are not sent.
+    CompletableFuture<StateResponse> latePrefetch = new CompletableFuture<>();
+    bundleStateClients
+        .get(0)
+        .prefetch(
+            StateRequest.newBuilder()
+                .setGet(
+                    StateGetRequest.newBuilder()
+                        .setContinuationToken(ByteString.copyFromUtf8("2"))),
+            latePrefetch);
+    assertTrue(latePrefetch.isCancelled());
+    assertEquals(1, prefetches.size());
+  }
+
   @Test
   public void testStateCallsFailIfNoStateApiServiceDescriptorSpecified() throws Exception {
     BeamFnApi.ProcessBundleDescriptor processBundleDescriptor =
@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.fn.harness.state;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.apache.beam.model.fnexecution.v1.BeamFnApi.StateAppendRequest;
+import org.apache.beam.model.fnexecution.v1.BeamFnApi.StateGetRequest;
+import org.apache.beam.model.fnexecution.v1.BeamFnApi.StateGetResponse;
+import org.apache.beam.model.fnexecution.v1.BeamFnApi.StateKey;
+import org.apache.beam.model.fnexecution.v1.BeamFnApi.StateRequest;
+import org.apache.beam.model.fnexecution.v1.BeamFnApi.StateResponse;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.fn.stream.DataStreams;
+import org.apache.beam.vendor.protobuf.v3.com.google.protobuf.ByteString;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link StateCache}. */
+@RunWith(JUnit4.class)
+public class StateCacheTest {
+  private static final ByteString TOKEN = ByteString.copyFromUtf8("token");
+  private static final ByteString OTHER_TOKEN = ByteString.copyFromUtf8("otherToken");
+
+  @Test
+  public void testChunksAreCachedAcrossBundles() throws Exception {
+    CountingStateClient client =
+        new CountingStateClient(
+            new FakeBeamFnStateClient(ImmutableMap.of(key("A"), encode("A1", "A2", "A3"))));
+    StateCache stateCache = new StateCache(1024 * 1024);
+
+    BeamFnStateClient firstBundle = stateCache.forBundle(client, ImmutableList.of(TOKEN));
+    assertArrayEquals(new String[] {"A1", "A2", "A3"}, read(firstBundle, key("A")));
+    // The fake state client returns 5 byte chunks, so the bag is fetched in 2 requests.
+    assertEquals(2, client.requests);
+
+    BeamFnStateClient secondBundle = stateCache.forBundle(client, ImmutableList.of(TOKEN));
+    assertArrayEquals(new String[] {"A1", "A2", "A3"}, read(secondBundle, key("A")));
+    assertEquals(2, client.requests);
+    assertEquals(2, stateCache.getStats().hitCount());
+    assertEquals(2, stateCache.getStats().missCount());
+  }
+
+  @Test
+  public void testCacheIsScopedToCacheTokens() throws Exception {
+    CountingStateClient client =
+        new CountingStateClient(new FakeBeamFnStateClient(ImmutableMap.of(key("A"), encode("A1"))));
+    StateCache stateCache = new StateCache(1024 * 1024);
+
+    read(stateCache.forBundle(client, ImmutableList.of(TOKEN)), key("A"));
+    read(stateCache.forBundle(client, ImmutableList.of(OTHER_TOKEN)), key("A"));
+    assertEquals(2, client.requests);
+
+    BeamFnStateClient withoutTokens = stateCache.forBundle(client, Collections.emptyList());
+    assertSame(client, withoutTokens);
+  }
+
+  @Test
+  public void testAppendAndClearInvalidate() throws Exception {
+    CountingStateClient client =
+        new CountingStateClient(new FakeBeamFnStateClient(ImmutableMap.of(key("A"), encode("A1"))));
+    StateCache stateCache = new StateCache(1024 * 1024);
+
+    BeamFnStateClient bundle = stateCache.forBundle(client, ImmutableList.of(TOKEN));
+    assertArrayEquals(new String[] {"A1"}, read(bundle, key("A")));
+
+    BagUserState<String> userState = bagUserState(bundle, "A");
+    userState.append("A2");
+    userState.asyncClose();
+    assertArrayEquals(new String[] {"A1", "A2"}, read(bundle, key("A")));
+
+    userState = bagUserState(bundle, "A");
+    userState.clear();
+    userState.asyncClose();
+    assertArrayEquals(new String[0], read(bundle, key("A")));
+  }
+
+  @Test
+  public void testGetResponseAfterAppendIsNotCached() throws Exception {
+    DeferringStateClient client = new DeferringStateClient();
+    StateCache stateCache = new StateCache(1024 * 1024);
+    BeamFnStateClient bundle = stateCache.forBundle(client, ImmutableList.of(TOKEN));
+
+    // A get which is sent before the append, but whose response only arrives after it.
+    CompletableFuture<StateResponse> staleResponse = new CompletableFuture<>();
+    bundle.handle(
+        StateRequest.newBuilder()
+            .setStateKey(key("A"))
+            .setGet(StateGetRequest.getDefaultInstance()),
+        staleResponse);
+    bundle.handle(
+        StateRequest.newBuilder()
+            .setStateKey(key("A"))
+            .setAppend(StateAppendRequest.newBuilder().setData(encode("A2"))),
+        new CompletableFuture<>());
+    client.completeGets(encode("A1"));
+    assertEquals(encode("A1"), staleResponse.get().getGet().getData());
+
+    // The next get must reach the runner instead of reading the stale response from the cache.
+    CompletableFuture<StateResponse> response = new CompletableFuture<>();
+    bundle.handle(
+        StateRequest.newBuilder()
+            .setStateKey(key("A"))
+            .setGet(StateGetRequest.getDefaultInstance()),
+        response);
+    assertEquals(2, client.gets);
+    client.completeGets(encode("A1", "A2"));
+    assertEquals(encode("A1", "A2"), response.get().getGet().getData());
+  }
+
+  @Test
+  public void testEvictsWhenFull() throws Exception {
+    CountingStateClient client =
+        new CountingStateClient(
+            new FakeBeamFnStateClient(
+                ImmutableMap.of(key("A"), encode("A1"), key("B"), encode("B1"))));
+    // Smaller than a single entry, so nothing is retained.
+    StateCache stateCache = new StateCache(1);
+
+    BeamFnStateClient bundle = stateCache.forBundle(client, ImmutableList.of(TOKEN));
+    read(bundle, key("A"));
+    read(bundle, key("A"));
+    assertEquals(2, client.requests);
+    assertEquals(2, stateCache.getStats().evictionCount());
+  }
+
+  private String[] read(BeamFnStateClient client, StateKey key) {
+    StateRequest request = StateRequest.newBuilder().setStateKey(key).build();
+    return Iterables.toArray(
+        () ->
+            new DataStreams.DataStreamDecoder<>(
+                StringUtf8Coder.of(),
+                DataStreams.inbound(StateFetchingIterators.forFirstChunk(client, request))),
+        String.class);
+  }
+
+  private BagUserState<String> bagUserState(BeamFnStateClient client, String key)
+      throws IOException {
+    return new BagUserState<>(
+        client,
+        "instructionId",
+        "ptransformId",
+        "stateId",
+        ByteString.copyFromUtf8("encodedWindow"),
+        encode(key),
+        StringUtf8Coder.of());
+  }
+
+  private StateKey key(String id) throws IOException {
+    return StateKey.newBuilder()
+        .setBagUserState(
+            StateKey.BagUserState.newBuilder()
+                .setPtransformId("ptransformId")
+                .setUserStateId("stateId")
+                .setWindow(ByteString.copyFromUtf8("encodedWindow"))
+                .setKey(encode(id)))
+        .build();
+  }
+
+  private ByteString encode(String... values) throws IOException {
+    ByteString.Output out = ByteString.newOutput();
+    for (String value : values) {
+      StringUtf8Coder.of().encode(value, out);
+    }
+    return out.toByteString();
+  }
+
+  /**
+   * Holds get requests until {@link #completeGets} is called, and completes all other requests
+   * immediately.
+   */
+  private static class DeferringStateClient implements BeamFnStateClient {
+    private final List<CompletableFuture<StateResponse>> pendingGets = new ArrayList<>();
+    private int gets;
+
+    @Override
+    public void handle(
+        StateRequest.Builder requestBuilder, CompletableFuture<StateResponse> response) {
+      if (requestBuilder.hasGet()) {
+        gets += 1;
+        pendingGets.add(response);
+      } else {
+        response.complete(StateResponse.getDefaultInstance());
+      }
+    }
+
+    /** Completes the pending get requests with a single cacheable chunk. */
+    void completeGets(ByteString data) {
+      for (CompletableFuture<StateResponse> response : pendingGets) {
+        response.complete(
+            StateResponse.newBuilder()
+                .setCacheToken(TOKEN)
+                .setGet(StateGetResponse.newBuilder().setData(data))
+                .build());
+      }
+      pendingGets.clear();
+    }
+  }
+
+  /**
+   * Counts the get requests which reach the runner, and marks all responses as cacheable using
+   * {@link #TOKEN}.
+   */
+  private static class CountingStateClient implements BeamFnStateClient {
+    private final BeamFnStateClient delegate;
+    private int requests;
+
+    private CountingStateClient(BeamFnStateClient delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void handle(
+        StateRequest.Builder requestBuilder, CompletableFuture<StateResponse> response) {
+      if (requestBuilder.hasGet()) {
+        requests += 1;
+      }
+      CompletableFuture<StateResponse> delegateResponse = new CompletableFuture<>();
+      delegate.handle(requestBuilder, delegateResponse);
+      response.complete(delegateResponse.join().toBuilder().setCacheToken(TOKEN).build());
+    }
+  }
+}
@@ -18,10 +18,16 @@
 package org.apache.beam.fn.harness.state;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import com.google.common.collect.Iterators;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import org.apache.beam.fn.harness.state.StateFetchingIterators.LazyBlockingStateFetchingIterator;
+import org.apache.beam.fn.harness.state.StateFetchingIterators.PrefetchingStateFetchingIterator;
 import org.apache.beam.model.fnexecution.v1.BeamFnApi.StateGetResponse;
 import org.apache.beam.model.fnexecution.v1.BeamFnApi.StateRequest;
 import org.apache.beam.model.fnexecution.v1.BeamFnApi.StateResponse;
@@ -68,33 +74,112 @@ public class StateFetchingIteratorsTest {
     }
 
     private void testFetch(ByteString... expected) {
-      BeamFnStateClient fakeStateClient =
-          (requestBuilder, response) -> {
-            ByteString continuationToken = requestBuilder.getGet().getContinuationToken();
-
-            int requestedPosition = 0; // Default position is 0
-            if (!ByteString.EMPTY.equals(continuationToken)) {
-              requestedPosition = Integer.parseInt(continuationToken.toStringUtf8());
-            }
-
-            // Compute the new continuation token
-            ByteString newContinuationToken = ByteString.EMPTY;
-            if (requestedPosition != expected.length - 1) {
-              newContinuationToken =
-                  ByteString.copyFromUtf8(Integer.toString(requestedPosition + 1));
-            }
-            response.complete(
-                StateResponse.newBuilder()
-                    .setId(requestBuilder.getId())
-                    .setGet(
-                        StateGetResponse.newBuilder()
-                            .setData(expected[requestedPosition])
-                            .setContinuationToken(newContinuationToken))
-                    .build());
-          };
       Iterator<ByteString> byteStrings =
-          new LazyBlockingStateFetchingIterator(fakeStateClient, StateRequest.getDefaultInstance());
+          new LazyBlockingStateFetchingIterator(
+              fakeStateClient(expected), StateRequest.getDefaultInstance());
       assertArrayEquals(expected, Iterators.toArray(byteStrings, Object.class));
     }
   }
+
+  /** Tests for {@link StateFetchingIterators.PrefetchingStateFetchingIterator}. */
+  @RunWith(JUnit4.class)
+  public static class PrefetchingStateFetchingIteratorTest {
+
+    @Test
+    public void testEmpty() throws Exception {
+      testFetch(ByteString.EMPTY);
+    }
+
+    @Test
+    public void testNonEmpty() throws Exception {
+      testFetch(ByteString.copyFromUtf8("A"));
+    }
+
+    @Test
+    public void testMultiWithEmptyByteStrings() throws Exception {
+      testFetch(
+          ByteString.EMPTY,
+          ByteString.copyFromUtf8("BC"),
+          ByteString.EMPTY,
+          ByteString.EMPTY,
+          ByteString.copyFromUtf8("DEF"),
+          ByteString.EMPTY);
+    }
+
+    @Test
+    public void testPrefetchesUpToTheMaximumNumberOfChunks() throws Exception {
+      ByteString[] expected = new ByteString[6];
+      for (int i = 0; i < expected.length; ++i) {
+        expected[i] = ByteString.copyFromUtf8(Integer.toString(i));
+      }
+      BeamFnStateClient fakeStateClient = fakeStateClient(expected);
+      // Requests are only answered once they are released by the test.
+      List<Runnable> requests = new ArrayList<>();
+      BeamFnStateClient delayingStateClient =
+          (requestBuilder, response) ->
+              requests.add(() -> fakeStateClient.handle(requestBuilder, response));
+
+      Iterator<ByteString> byteStrings =
+          new PrefetchingStateFetchingIterator(
+              delayingStateClient, StateRequest.getDefaultInstance(), 2);
+      assertEquals(0, requests.size());
+      assertTrue(byteStrings.hasNext());
+      assertEquals(1, requests.size());
+
+      // Receiving a chunk allows requesting the next one.
+      requests.get(0).run();
+      assertEquals(2, requests.size());
+      requests.get(1).run();
+      // Two chunks are waiting to be consumed, so no further chunks are requested.
+      assertEquals(2, requests.size());
+
+      assertEquals(expected[0], byteStrings.next());
+      assertEquals(3, requests.size());
+      int released = 2;
+      for (int i = 1; i < expected.length; ++i) {
+        if (released < requests.size()) {
+          requests.get(released++).run();
+        }
+        assertEquals(expected[i], byteStrings.next());
+      }
+      assertEquals(expected.length, requests.size());
+      assertFalse(byteStrings.hasNext());
+    }
+
+    private void testFetch(ByteString... expected) {
+      Iterator<ByteString> byteStrings =
+          new PrefetchingStateFetchingIterator(
+              fakeStateClient(expected), StateRequest.getDefaultInstance(), 2);
+      assertArrayEquals(expected, Iterators.toArray(byteStrings, Object.class));
+    }
+  }
+
+  /**
+   * Returns a client which returns the supplied chunks, using the index of the chunk as its
+   * continuation token.
+   */
+  private static BeamFnStateClient fakeStateClient(ByteString... expected) {
+    return (requestBuilder, response) -> {
+      ByteString continuationToken = requestBuilder.getGet().getContinuationToken();
+
+      int requestedPosition = 0; // Default position is 0
+      if (!ByteString.EMPTY.equals(continuationToken)) {
+        requestedPosition = Integer.parseInt(continuationToken.toStringUtf8());
+      }
+
+      // Compute the new continuation token
+      ByteString newContinuationToken = ByteString.EMPTY;
+      if (requestedPosition != expected.length - 1) {
+        newContinuationToken = ByteString.copyFromUtf8(Integer.toString(requestedPosition + 1));
+      }
+      response.complete(
+          StateResponse.newBuilder()
+              .setId(requestBuilder.getId())
+              .setGet(
+                  StateGetResponse.newBuilder()
+                      .setData(expected[requestedPosition])
+                      .setContinuationToken(newContinuationToken))
+              .build());
+    };
+  }
 }
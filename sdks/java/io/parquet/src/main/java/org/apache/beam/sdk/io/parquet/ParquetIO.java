@@ -26,6 +26,11 @@ import java.io.OutputStream;
 import java.nio.channels.Channels;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import javax.annotation.Nullable;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
@@ -34,23 +39,41 @@ import org.apache.beam.sdk.coders.AvroCoder;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
 import org.apache.beam.sdk.io.FileIO;
 import org.apache.beam.sdk.io.fs.ResourceId;
+import org.apache.beam.sdk.io.range.OffsetRange;
 import org.apache.beam.sdk.options.ValueProvider;
 import org.apache.beam.sdk.transforms.Create;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.PTransform;
 import org.apache.beam.sdk.transforms.ParDo;
 import org.apache.beam.sdk.transforms.display.DisplayData;
+import org.apache.beam.sdk.transforms.splittabledofn.OffsetRangeTracker;
 import org.apache.beam.sdk.values.PBegin;
 import org.apache.beam.sdk.values.PCollection;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.parquet.avro.AvroParquetReader;
 import org.apache.parquet.avro.AvroParquetWriter;
+import org.apache.parquet.avro.AvroReadSupport;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.filter2.compat.FilterCompat;
+import org.apache.parquet.filter2.compat.RowGroupFilter;
+import org.apache.parquet.filter2.predicate.FilterPredicate;
+import org.apache.parquet.hadoop.ParquetFileReader;
 import org.apache.parquet.hadoop.ParquetReader;
 import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.InitContext;
+import org.apache.parquet.hadoop.api.ReadSupport;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.FileMetaData;
+import org.apache.parquet.io.ColumnIOFactory;
 import org.apache.parquet.io.DelegatingSeekableInputStream;
 import org.apache.parquet.io.InputFile;
+import org.apache.parquet.io.MessageColumnIO;
 import org.apache.parquet.io.OutputFile;
 import org.apache.parquet.io.PositionOutputStream;
+import org.apache.parquet.io.RecordReader;
 import org.apache.parquet.io.SeekableInputStream;
+import org.apache.parquet.io.api.RecordMaterializer;
+import org.apache.parquet.schema.MessageType;
 
 /**
  * IO to read and write Parquet files.
@@ -85,6 +108,27 @@ import org.apache.parquet.io.SeekableInputStream;
  * PCollection<GenericRecord> output = files.apply(ParquetIO.readFiles(SCHEMA));
  * }</pre>
  *
+ * <p>By default each file is read as a single unit. Use {@link Read#withSplit()} to read the row
+ * groups of a file as independent splits of a splittable {@link DoFn}, which lets the runner
+ * rebalance the work of large files.
+ *
+ * <p>To avoid reading and decoding columns that are not needed, a projection of the schema can be
+ * set using {@link Read#withProjection(Schema)}; the elements in the resulting {@link PCollection}
+ * then have the projected schema. A {@link FilterPredicate} set using {@link
+ * Read#withFilter(FilterPredicate)} is pushed down to the Parquet reader, which uses it to skip
+ * whole row groups based on their statistics and dictionaries, and to drop non-matching records.
+ *
+ * <p>For example:
+ *
+ * <pre>{@code
+ * PCollection<GenericRecord> records = pipeline.apply(
+ *     ParquetIO.read(SCHEMA)
+ *         .from("/foo/bar")
+ *         .withProjection(PROJECTION_SCHEMA)
+ *         .withFilter(FilterApi.gt(FilterApi.intColumn("id"), 100))
+ *         .withSplit());
+ * }</pre>
+ *
  * <h3>Writing Parquet files</h3>
  *
  * <p>{@link ParquetIO.Sink} allows you to write a {@link PCollection} of {@link GenericRecord} into
@@ -113,7 +157,7 @@ public class ParquetIO {
    * pattern).
    */
   public static Read read(Schema schema) {
-    return new AutoValue_ParquetIO_Read.Builder().setSchema(schema).build();
+    return new AutoValue_ParquetIO_Read.Builder().setSchema(schema).setSplittable(false).build();
   }
 
   /**
@@ -121,7 +165,10 @@ public class ParquetIO {
    * org.apache.beam.sdk.io.FileIO.ReadableFile}, which allows more flexible usage.
    */
   public static ReadFiles readFiles(Schema schema) {
-    return new AutoValue_ParquetIO_ReadFiles.Builder().setSchema(schema).build();
+    return new AutoValue_ParquetIO_ReadFiles.Builder()
+        .setSchema(schema)
+        .setSplittable(false)
+        .build();
   }
 
   /** Implementation of {@link #read(Schema)}. */
@@ -134,6 +181,14 @@ public class ParquetIO {
     @Nullable
     abstract Schema getSchema();
 
+    @Nullable
+    abstract Schema getProjectionSchema();
+
+    @Nullable
+    abstract FilterPredicate getFilter();
+
+    abstract boolean isSplittable();
+
     abstract Builder builder();
 
     @AutoValue.Builder
@@ -142,6 +197,12 @@ public class ParquetIO {
 
       abstract Builder setSchema(Schema schema);
 
+      abstract Builder setProjectionSchema(Schema projectionSchema);
+
+      abstract Builder setFilter(FilterPredicate filter);
+
+      abstract Builder setSplittable(boolean splittable);
+
       abstract Read build();
     }
 
@@ -155,6 +216,30 @@ public class ParquetIO {
       return from(ValueProvider.StaticValueProvider.of(filepattern));
     }
 
+    /**
+     * Reads only the columns of the given projection of the schema. The returned records have the
+     * projected schema.
+     */
+    public Read withProjection(Schema projectionSchema) {
+      return builder().setProjectionSchema(projectionSchema).build();
+    }
+
+    /**
+     * Only returns the records matching the given predicate. The predicate is also used to skip row
+     * groups which can not contain any matching record according to their statistics.
+     */
+    public Read withFilter(FilterPredicate filter) {
+      return builder().setFilter(filter).build();
+    }
+
+    /**
+     * Reads the row groups of each file as independent splits, so that the runner can distribute
+     * the work of large files. Requires a runner supporting splittable {@link DoFn}.
+     */
+    public Read withSplit() {
+      return builder().setSplittable(true).build();
+    }
+
     @Override
     public PCollection<GenericRecord> expand(PBegin input) {
       checkNotNull(getFilepattern(), "Filepattern cannot be null.");
@@ -163,14 +248,31 @@ public class ParquetIO {
           .apply("Create filepattern", Create.ofProvider(getFilepattern(), StringUtf8Coder.of()))
           .apply(FileIO.matchAll())
           .apply(FileIO.readMatches())
-          .apply(readFiles(getSchema()));
+          .apply(
+              readFiles(getSchema())
+                  .builder()
+                  .setProjectionSchema(getProjectionSchema())
+                  .setFilter(getFilter())
+                  .setSplittable(isSplittable())
+                  .build());
     }
 
     @Override
     public void populateDisplayData(DisplayData.Builder builder) {
       super.populateDisplayData(builder);
-      builder.add(
-          DisplayData.item("filePattern", getFilepattern()).withLabel("Input File Pattern"));
+      builder
+          .add(DisplayData.item("filePattern", getFilepattern()).withLabel("Input File Pattern"))
+          .addIfNotNull(
+              DisplayData.item(
+                      "projection",
+                      getProjectionSchema() == null ? null : getProjectionSchema().toString())
+                  .withLabel("Projection Schema"))
+          .addIfNotNull(
+              DisplayData.item("filter", getFilter() == null ? null : getFilter().toString())
+                  .withLabel("Filter Predicate"))
+          .add(
+              DisplayData.item("splittable", isSplittable())
+                  .withLabel("Read Row Groups as Splits"));
     }
   }
 
@@ -182,41 +284,229 @@ public class ParquetIO {
     @Nullable
     abstract Schema getSchema();
 
+    @Nullable
+    abstract Schema getProjectionSchema();
+
+    @Nullable
+    abstract FilterPredicate getFilter();
+
+    abstract boolean isSplittable();
+
+    abstract Builder builder();
+
     @AutoValue.Builder
     abstract static class Builder {
       abstract Builder setSchema(Schema schema);
 
+      abstract Builder setProjectionSchema(Schema projectionSchema);
+
+      abstract Builder setFilter(FilterPredicate filter);
+
+      abstract Builder setSplittable(boolean splittable);
+
       abstract ReadFiles build();
     }
 
+    /** Like {@link Read#withProjection(Schema)}. */
+    public ReadFiles withProjection(Schema projectionSchema) {
+      return builder().setProjectionSchema(projectionSchema).build();
+    }
+
+    /** Like {@link Read#withFilter(FilterPredicate)}. */
+    public ReadFiles withFilter(FilterPredicate filter) {
+      return builder().setFilter(filter).build();
+    }
+
+    /** Like {@link Read#withSplit()}. */
+    public ReadFiles withSplit() {
+      return builder().setSplittable(true).build();
+    }
+
     @Override
     public PCollection<GenericRecord> expand(PCollection<FileIO.ReadableFile> input) {
       checkNotNull(getSchema(), "Schema can not be null");
-      return input.apply(ParDo.of(new ReadFn())).setCoder(AvroCoder.of(getSchema()));
+      String projectionSchema =
+          getProjectionSchema() == null ? null : getProjectionSchema().toString();
+      DoFn<FileIO.ReadableFile, GenericRecord> readFn =
+          isSplittable()
+              ? new SplitReadFn(projectionSchema, getFilter())
+              : new ReadFn(projectionSchema, getFilter());
+      Schema outputSchema = getProjectionSchema() == null ? getSchema() : getProjectionSchema();
+      return input.apply(ParDo.of(readFn)).setCoder(AvroCoder.of(outputSchema));
+    }
+
+    /** Common configuration of the {@link ParquetReader readers} used by the read {@link DoFn}s. */
+    private abstract static class AbstractReadFn extends DoFn<FileIO.ReadableFile, GenericRecord> {
+
+      @Nullable private final String projectionSchema;
+      @Nullable private final FilterPredicate filter;
+
+      AbstractReadFn(@Nullable String projectionSchema, @Nullable FilterPredicate filter) {
+        this.projectionSchema = projectionSchema;
+        this.filter = filter;
+      }
+
+      ParquetReader.Builder<GenericRecord> readerBuilder(FileIO.ReadableFile file)
+          throws IOException {
+        ParquetReader.Builder<GenericRecord> builder =
+            AvroParquetReader.<GenericRecord>builder(newInputFile(file)).withConf(newConf());
+        if (filter != null) {
+          builder = builder.withFilter(FilterCompat.get(filter));
+        }
+        return builder;
+      }
+
+      Configuration newConf() {
+        Configuration conf = new Configuration();
+        if (projectionSchema != null) {
+          Schema schema = new Schema.Parser().parse(projectionSchema);
+          AvroReadSupport.setRequestedProjection(conf, schema);
+          AvroReadSupport.setAvroReadSchema(conf, schema);
+        }
+        return conf;
+      }
+
+      FilterCompat.Filter recordFilter() {
+        return filter == null ? FilterCompat.NOOP : FilterCompat.get(filter);
+      }
+
+      void readAll(ParquetReader<GenericRecord> reader, ProcessContext processContext)
+          throws IOException {
+        GenericRecord read;
+        while ((read = reader.read()) != null) {
+          processContext.output(read);
+        }
+      }
     }
 
-    static class ReadFn extends DoFn<FileIO.ReadableFile, GenericRecord> {
+    static class ReadFn extends AbstractReadFn {
+
+      ReadFn(@Nullable String projectionSchema, @Nullable FilterPredicate filter) {
+        super(projectionSchema, filter);
+      }
 
       @ProcessElement
       public void processElement(ProcessContext processContext) throws Exception {
-        FileIO.ReadableFile file = processContext.element();
+        try (ParquetReader<GenericRecord> reader =
+            readerBuilder(processContext.element()).build()) {
+          readAll(reader, processContext);
+        }
+      }
+    }
 
-        if (!file.getMetadata().isReadSeekEfficient()) {
-          ResourceId filename = file.getMetadata().resourceId();
-          throw new RuntimeException(String.format("File has to be seekable: %s", filename));
+    /**
+     * A splittable {@link DoFn} reading a file row group by row group. The restriction is the range
+     * of the indices of the row groups of the file.
+     */
+    @DoFn.BoundedPerElement
+    static class SplitReadFn extends AbstractReadFn {
+
+      /** The minimum compressed size of the row groups of an initial split. */
+      private static final long DESIRED_SPLIT_SIZE_BYTES = 64 * 1024 * 1024L;
+
+      SplitReadFn(@Nullable String projectionSchema, @Nullable FilterPredicate filter) {
+        super(projectionSchema, filter);
+      }
+
+      @ProcessElement
+      public void processElement(ProcessContext processContext, OffsetRangeTracker tracker)
+          throws Exception {
+        // Read the footer once and then the claimed row groups one after the other, rather than
+        // building a ParquetReader, which reads the footer again, for each row group.
+        try (ParquetFileReader reader =
+            ParquetFileReader.open(newInputFile(processContext.element()))) {
+          Configuration conf = newConf();
+          FileMetaData fileMetaData = reader.getFileMetaData();
+          MessageType fileSchema = fileMetaData.getSchema();
+          Map<String, Set<String>> keyValueMetaData = new HashMap<>();
+          for (Map.Entry<String, String> entry : fileMetaData.getKeyValueMetaData().entrySet()) {
+            keyValueMetaData.put(entry.getKey(), Collections.singleton(entry.getValue()));
+          }
+          AvroReadSupport<GenericRecord> readSupport = new AvroReadSupport<>();
+          ReadSupport.ReadContext readContext =
+              readSupport.init(new InitContext(conf, keyValueMetaData, fileSchema));
+          RecordMaterializer<GenericRecord> materializer =
+              readSupport.prepareForRead(
+                  conf, fileMetaData.getKeyValueMetaData(), fileSchema, readContext);
+          MessageType requestedSchema = readContext.getRequestedSchema();
+          reader.setRequestedSchema(requestedSchema);
+          MessageColumnIO columnIO =
+              new ColumnIOFactory(fileMetaData.getCreatedBy())
+                  .getColumnIO(requestedSchema, fileSchema, true);
+          FilterCompat.Filter recordFilter = recordFilter();
+
+          List<BlockMetaData> rowGroups = reader.getRowGroups();
+          long next = 0;
+          for (long i = tracker.currentRestriction().getFrom(); tracker.tryClaim(i); ++i) {
+            for (; next < i; ++next) {
+              reader.skipNextRowGroup();
+            }
+            ++next;
+            BlockMetaData rowGroup = rowGroups.get((int) i);
+            // Skip the row groups whose statistics show that no record matches the filter.
+            if (RowGroupFilter.filterRowGroups(
+                    recordFilter, Collections.singletonList(rowGroup), fileSchema)
+                .isEmpty()) {
+              reader.skipNextRowGroup();
+              continue;
+            }
+            PageReadStore pages = reader.readNextRowGroup();
+            RecordReader<GenericRecord> recordReader =
+                columnIO.getRecordReader(pages, materializer, recordFilter);
+            for (long row = 0; row < pages.getRowCount(); ++row) {
+              GenericRecord read = recordReader.read();
+              // The record reader returns null for the records that do not match the filter.
+              if (read != null && !recordReader.shouldSkipCurrentRecord()) {
+                processContext.output(read);
+              }
+            }
+          }
         }
+      }
 
-        SeekableByteChannel seekableByteChannel = file.openSeekable();
+      @GetInitialRestriction
+      public OffsetRange getInitialRestriction(FileIO.ReadableFile file) throws IOException {
+        return new OffsetRange(0, getRowGroups(file).size());
+      }
 
-        try (ParquetReader<GenericRecord> reader =
-            AvroParquetReader.<GenericRecord>builder(new BeamParquetInputFile(seekableByteChannel))
-                .build()) {
-          GenericRecord read;
-          while ((read = reader.read()) != null) {
-            processContext.output(read);
+      @SplitRestriction
+      public void splitRestriction(
+          FileIO.ReadableFile file, OffsetRange range, OutputReceiver<OffsetRange> receiver)
+          throws IOException {
+        List<BlockMetaData> rowGroups = getRowGroups(file);
+        long start = range.getFrom();
+        long size = 0;
+        for (long i = range.getFrom(); i < range.getTo(); ++i) {
+          size += rowGroups.get((int) i).getCompressedSize();
+          if (size >= DESIRED_SPLIT_SIZE_BYTES) {
+            receiver.output(new OffsetRange(start, i + 1));
+            start = i + 1;
+            size = 0;
           }
         }
+        if (start < range.getTo()) {
+          receiver.output(new OffsetRange(start, range.getTo()));
+        }
+      }
+
+      @NewTracker
+      public OffsetRangeTracker newTracker(OffsetRange range) {
+        return new OffsetRangeTracker(range);
+      }
+
+      private static List<BlockMetaData> getRowGroups(FileIO.ReadableFile file) throws IOException {
+        try (ParquetFileReader reader = ParquetFileReader.open(newInputFile(file))) {
+          return reader.getRowGroups();
+        }
+      }
+    }
+
+    private static InputFile newInputFile(FileIO.ReadableFile file) throws IOException {
+      if (!file.getMetadata().isReadSeekEfficient()) {
+        ResourceId filename = file.getMetadata().resourceId();
+        throw new RuntimeException(String.format("File has to be seekable: %s", filename));
       }
+      return new BeamParquetInputFile(file.openSeekable());
     }
 
     private static class BeamParquetInputFile implements InputFile {
@@ -18,8 +18,13 @@
 package org.apache.beam.sdk.io.parquet;
 
 import static org.apache.beam.sdk.transforms.display.DisplayDataMatchers.hasDisplayItem;
+import static org.apache.parquet.filter2.predicate.FilterApi.binaryColumn;
+import static org.apache.parquet.filter2.predicate.FilterApi.eq;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import org.apache.avro.Schema;
@@ -33,6 +38,10 @@ import org.apache.beam.sdk.transforms.Create;
 import org.apache.beam.sdk.transforms.Values;
 import org.apache.beam.sdk.transforms.display.DisplayData;
 import org.apache.beam.sdk.values.PCollection;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.avro.AvroParquetWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.io.api.Binary;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
@@ -61,6 +70,23 @@ public class ParquetIOTest implements Serializable {
 
   private static final Schema SCHEMA = new Schema.Parser().parse(SCHEMA_STRING);
 
+  private static final String WIDE_SCHEMA_STRING =
+      "{"
+          + "\"type\":\"record\", "
+          + "\"name\":\"testrecord\","
+          + "\"fields\":["
+          + "    {\"name\":\"name\",\"type\":\"string\"},"
+          + "    {\"name\":\"id\",\"type\":\"int\"},"
+          + "    {\"name\":\"born\",\"type\":\"long\"},"
+          + "    {\"name\":\"field\",\"type\":\"string\"},"
+          + "    {\"name\":\"country\",\"type\":\"string\"},"
+          + "    {\"name\":\"score\",\"type\":\"double\"},"
+          + "    {\"name\":\"notes\",\"type\":\"bytes\"}"
+          + "  ]"
+          + "}";
+
+  private static final Schema WIDE_SCHEMA = new Schema.Parser().parse(WIDE_SCHEMA_STRING);
+
   private static final String[] SCIENTISTS =
       new String[] {
         "Einstein", "Darwin", "Copernicus", "Pasteur", "Curie",
@@ -109,6 +135,76 @@ public class ParquetIOTest implements Serializable {
     mainPipeline.run().waitUntilFinish();
   }
 
+  @Test
+  public void testReadWithSplit() throws IOException {
+    List<GenericRecord> records = generateGenericRecords(1000);
+    writeWithSmallRowGroups(SCHEMA, records);
+
+    PCollection<GenericRecord> readBack =
+        readPipeline.apply(
+            ParquetIO.read(SCHEMA)
+                .from(temporaryFolder.getRoot().getAbsolutePath() + "/*.parquet")
+                .withSplit());
+
+    PAssert.that(readBack).containsInAnyOrder(records);
+    readPipeline.run().waitUntilFinish();
+  }
+
+  @Test
+  public void testReadWithProjectionAndFilter() throws IOException {
+    List<GenericRecord> records = new ArrayList<>();
+    GenericRecordBuilder builder = new GenericRecordBuilder(WIDE_SCHEMA);
+    List<GenericRecord> expected = new ArrayList<>();
+    GenericRecordBuilder expectedBuilder = new GenericRecordBuilder(SCHEMA);
+    for (int i = 0; i < 1000; i++) {
+      String name = SCIENTISTS[i % SCIENTISTS.length];
+      records.add(
+          builder
+              .set("name", name)
+              .set("id", i)
+              .set("born", 1800L + i)
+              .set("field", "field" + i)
+              .set("country", "country" + i)
+              .set("score", i / 10.0)
+              .set("notes", ByteBuffer.wrap(new byte[] {(byte) i}))
+              .build());
+      if ("Einstein".equals(name)) {
+        expected.add(expectedBuilder.set("name", name).build());
+      }
+    }
+    writeWithSmallRowGroups(WIDE_SCHEMA, records);
+
+    PCollection<GenericRecord> readBack =
+        readPipeline.apply(
+            ParquetIO.read(WIDE_SCHEMA)
+                .from(temporaryFolder.getRoot().getAbsolutePath() + "/*.parquet")
+                .withProjection(SCHEMA)
+                .withFilter(eq(binaryColumn("name"), Binary.fromString("Einstein")))
+                .withSplit());
+
+    PAssert.that(readBack).containsInAnyOrder(expected);
+    readPipeline.run().waitUntilFinish();
+  }
+
+  /**
+   * Writes the records into a single file made of many row groups. The Hadoop file system also
+   * writes a checksum file next to it.
+   */
+  private void writeWithSmallRowGroups(Schema schema, List<GenericRecord> records)
+      throws IOException {
+    File file = new File(temporaryFolder.getRoot(), "records.parquet");
+    try (ParquetWriter<GenericRecord> writer =
+        AvroParquetWriter.<GenericRecord>builder(new Path(file.getAbsolutePath()))
+            .withSchema(schema)
+            .withRowGroupSize(1024)
+            .withPageSize(256)
+            .build()) {
+      for (GenericRecord record : records) {
+        writer.write(record);
+      }
+    }
+  }
+
   private List<GenericRecord> generateGenericRecords(long count) {
     ArrayList<GenericRecord> data = new ArrayList<>();
     GenericRecordBuilder builder = new GenericRecordBuilder(SCHEMA);
@@ -125,5 +221,6 @@ public class ParquetIOTest implements Serializable {
     DisplayData displayData = DisplayData.from(ParquetIO.read(SCHEMA).from("foo.parquet"));
 
     Assert.assertThat(displayData, hasDisplayItem("filePattern", "foo.parquet"));
+    Assert.assertThat(displayData, hasDisplayItem("splittable", false));
   }
 }